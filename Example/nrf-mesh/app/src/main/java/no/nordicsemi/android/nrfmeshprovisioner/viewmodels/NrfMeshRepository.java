@@ -26,6 +26,7 @@ import no.nordicsemi.android.meshprovisioner.MeshNetwork;
 import no.nordicsemi.android.meshprovisioner.MeshProvisioningStatusCallbacks;
 import no.nordicsemi.android.meshprovisioner.MeshStatusCallbacks;
 import no.nordicsemi.android.meshprovisioner.Provisioner;
+import no.nordicsemi.android.meshprovisioner.SequenceNumberCallbacks;
 import no.nordicsemi.android.meshprovisioner.UnprovisionedBeacon;
 import no.nordicsemi.android.meshprovisioner.models.SigModelParser;
 import no.nordicsemi.android.meshprovisioner.provisionerstates.ProvisioningState;
@@ -66,7 +67,7 @@ import no.nordicsemi.android.support.v18.scanner.ScanSettings;
 import static no.nordicsemi.android.nrfmeshprovisioner.ble.BleMeshManager.MESH_PROXY_UUID;
 
 @SuppressWarnings("unused")
-public class NrfMeshRepository implements MeshProvisioningStatusCallbacks, MeshStatusCallbacks, MeshManagerCallbacks, BleMeshManagerCallbacks {
+public class NrfMeshRepository implements MeshProvisioningStatusCallbacks, MeshStatusCallbacks, MeshManagerCallbacks, SequenceNumberCallbacks, BleMeshManagerCallbacks {
 
     private static final String TAG = NrfMeshRepository.class.getSimpleName();
     private static final int ATTENTION_TIMER = 5;
@@ -186,6 +187,7 @@ public class NrfMeshRepository implements MeshProvisioningStatusCallbacks, MeshS
         mMeshManagerApi.setMeshManagerCallbacks(this);
         mMeshManagerApi.setProvisioningStatusCallbacks(this);
         mMeshManagerApi.setMeshStatusCallbacks(this);
+        mMeshManagerApi.setSequenceNumberCallbacks(this);
         mMeshManagerApi.loadMeshNetwork();
         //Initialize the ble manager
         mBleMeshManager = bleMeshManager;
@@ -622,6 +624,11 @@ public class NrfMeshRepository implements MeshProvisioningStatusCallbacks, MeshS
         mNetworkImportState.postValue(error);
     }
 
+    @Override
+    public void onSequenceNumbersRunningLow(final Provisioner provisioner, final int sequenceNumber) {
+        Log.w(TAG, "Sequence numbers of " + provisioner.getProvisionerName() + " are running low: " + sequenceNumber);
+    }
+
     @Override
     public void sendProvisioningPdu(final UnprovisionedMeshNode meshNode, final byte[] pdu) {
         mBleMeshManager.sendPdu(pdu);
@@ -775,6 +782,14 @@ public class NrfMeshRepository implements MeshProvisioningStatusCallbacks, MeshS
         }
     }
 
+    @Override
+    public void onSegmentedMessageDelivered(final int dst, final MeshMessage meshMessage) {
+        final ProvisionedMeshNode node = mMeshNetwork.getProvisionedNode(dst);
+        if (node != null) {
+            mProvisionedMeshNode = node;
+        }
+    }
+
     @Override
     public void onMeshMessageSent(final byte[] dst, final MeshMessage meshMessage) {
     }
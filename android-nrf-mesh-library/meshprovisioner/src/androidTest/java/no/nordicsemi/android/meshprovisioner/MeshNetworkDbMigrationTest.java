@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner;
+
+import android.arch.persistence.db.SupportSQLiteDatabase;
+import android.arch.persistence.db.framework.FrameworkSQLiteOpenHelperFactory;
+import android.arch.persistence.room.testing.MigrationTestHelper;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Migrates the mesh network database from one version to the next and validates the result against the exported schemas.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MeshNetworkDbMigrationTest {
+
+    private static final String TEST_DB = "mesh-network-migration-test";
+    private static final String MESH_UUID = "9A6E3B4D2C8F4E0B9D5A7C1E3F2B6A80";
+
+    @Rule
+    public MigrationTestHelper helper = new MigrationTestHelper(InstrumentationRegistry.getInstrumentation(),
+            MeshNetworkDb.class.getCanonicalName(),
+            new FrameworkSQLiteOpenHelperFactory());
+
+    @Test
+    public void migrate2To3() throws IOException {
+        final SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, 2);
+        insertMeshNetwork(db);
+        db.close();
+
+        final SupportSQLiteDatabase migratedDb = helper.runMigrationsAndValidate(TEST_DB, 3, true, MeshNetworkDb.MIGRATION_2_3);
+        final Cursor cursor = migratedDb.query("SELECT iv_index, replay_protection_list FROM mesh_network WHERE mesh_uuid = ?", new Object[]{MESH_UUID});
+        assertTrue(cursor.moveToFirst());
+        assertEquals(0x12345678, cursor.getInt(0));
+        // Networks stored before the replay protection list was persisted start with an empty one
+        assertTrue(cursor.isNull(1));
+        cursor.close();
+    }
+
+    @Test
+    public void migrate3To4() throws IOException {
+        final SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, 3);
+        insertMeshNetwork(db);
+        final ContentValues values = new ContentValues();
+        values.put("name", "Living room");
+        values.put("group_address", 0xC000);
+        values.put("parent_address", 0xC000);
+        values.put("mesh_uuid", MESH_UUID);
+        db.insert("groups", SQLiteDatabase.CONFLICT_REPLACE, values);
+        db.close();
+
+        final SupportSQLiteDatabase migratedDb = helper.runMigrationsAndValidate(TEST_DB, 4, true, MeshNetworkDb.MIGRATION_3_4);
+        final Cursor cursor = migratedDb.query("SELECT group_address, address_label FROM groups WHERE mesh_uuid = ?", new Object[]{MESH_UUID});
+        assertTrue(cursor.moveToFirst());
+        assertEquals(0xC000, cursor.getInt(0));
+        // Existing groups are not virtual addresses
+        assertTrue(cursor.isNull(1));
+        cursor.close();
+    }
+
+    @Test
+    public void migrate4To5() throws IOException {
+        final SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, 4);
+        insertMeshNetwork(db);
+        db.close();
+
+        final SupportSQLiteDatabase migratedDb = helper.runMigrationsAndValidate(TEST_DB, 5, true, MeshNetworkDb.MIGRATION_4_5);
+        final Cursor cursor = migratedDb.query("SELECT iv_index, iv_update_timestamp, iv_recovery_timestamp FROM mesh_network WHERE mesh_uuid = ?",
+                new Object[]{MESH_UUID});
+        assertTrue(cursor.moveToFirst());
+        assertEquals(0x12345678, cursor.getInt(0));
+        // Without a known time of the last iv index change the next change is not delayed
+        assertEquals(0, cursor.getLong(1));
+        assertEquals(0, cursor.getLong(2));
+        cursor.close();
+    }
+
+    private static void insertMeshNetwork(final SupportSQLiteDatabase db) {
+        final ContentValues values = new ContentValues();
+        values.put("mesh_uuid", MESH_UUID);
+        values.put("mesh_name", "nRF Mesh Network");
+        values.put("timestamp", 1546300800000L);
+        values.put("iv_index", 0x12345678);
+        values.put("iv_update_state", 0);
+        values.put("unicast_address", 0x0001);
+        values.put("last_selected", 1);
+        db.insert("mesh_network", SQLiteDatabase.CONFLICT_REPLACE, values);
+    }
+}
@@ -3,9 +3,11 @@ package no.nordicsemi.android.meshprovisioner;
 import android.arch.persistence.room.ColumnInfo;
 import android.arch.persistence.room.Ignore;
 import android.arch.persistence.room.PrimaryKey;
+import android.arch.persistence.room.TypeConverters;
 import android.support.annotation.IntDef;
 import android.support.annotation.NonNull;
 import android.support.annotation.RestrictTo;
+import android.util.SparseArray;
 
 import com.google.gson.annotations.Expose;
 import com.google.gson.annotations.SerializedName;
@@ -20,9 +22,12 @@ import java.util.List;
 import java.util.Map;
 
 import no.nordicsemi.android.meshprovisioner.transport.ApplicationKey;
+import no.nordicsemi.android.meshprovisioner.transport.NetworkCredentials;
 import no.nordicsemi.android.meshprovisioner.transport.NetworkKey;
 import no.nordicsemi.android.meshprovisioner.transport.ProvisionedMeshNode;
 import no.nordicsemi.android.meshprovisioner.utils.MeshParserUtils;
+import no.nordicsemi.android.meshprovisioner.utils.MeshTypeConverters;
+import no.nordicsemi.android.meshprovisioner.utils.ReplayProtectionList;
 
 @SuppressWarnings({"unused", "WeakerAccess"})
 abstract class BaseMeshNetwork {
@@ -75,6 +80,18 @@ abstract class BaseMeshNetwork {
     @Expose
     int ivUpdateState = NORMAL_OPERATION;
 
+    /**
+     * Time of the last change of the iv index or the iv update state in milliseconds since the epoch
+     */
+    @ColumnInfo(name = "iv_update_timestamp")
+    long ivUpdateTimestamp;
+
+    /**
+     * Time of the last iv index recovery in milliseconds since the epoch
+     */
+    @ColumnInfo(name = "iv_recovery_timestamp")
+    long ivRecoveryTimestamp;
+
     @Ignore
     @SerializedName("netKeys")
     @Expose
@@ -114,12 +131,37 @@ abstract class BaseMeshNetwork {
     @Expose
     boolean lastSelected;
 
+    /**
+     * Replay protection list of the provisioner, persisted with the network so that replayed messages are rejected across restarts
+     */
+    @TypeConverters(MeshTypeConverters.class)
+    @ColumnInfo(name = "replay_protection_list")
+    ReplayProtectionList replayProtectionList = new ReplayProtectionList();
+
     @Ignore
     private Map<Integer, ProvisionedMeshNode> mProvisionedNodes = new LinkedHashMap<>();
 
     @Ignore
     protected MeshNetworkCallbacks mCallbacks;
 
+    /**
+     * Network key credentials indexed by their NID, rebuilt lazily whenever the network keys change
+     */
+    @Ignore
+    SparseArray<List<NetworkCredentials>> mNetworkCredentialsIndex;
+
+    /**
+     * Application keys indexed by their AID, rebuilt lazily whenever the application keys change
+     */
+    @Ignore
+    SparseArray<List<byte[]>> mApplicationKeyIndex;
+
+    /**
+     * Label UUIDs of the virtual addresses in the network indexed by their 14-bit hash, rebuilt lazily whenever the groups change
+     */
+    @Ignore
+    SparseArray<List<byte[]>> mLabelUuidIndex;
+
     @Ignore
     private final Comparator<ApplicationKey> appKeyComparator = (key1, key2) -> Integer.compare(key1.getKeyIndex(), key2.getKeyIndex());
 
@@ -174,6 +216,7 @@ abstract class BaseMeshNetwork {
             final NetworkKey networkKey = new NetworkKey(keyIndex, MeshParserUtils.toByteArray(newNetworkKey));
             networkKey.setMeshUuid(meshUUID);
             netKeys.add(networkKey);
+            invalidateNetworkCredentials();
             return;
         }
 
@@ -296,6 +339,7 @@ abstract class BaseMeshNetwork {
             final ApplicationKey applicationKey = new ApplicationKey(keyIndex, MeshParserUtils.toByteArray(newAppKey));
             applicationKey.setMeshUuid(meshUUID);
             appKeys.add(applicationKey);
+            invalidateApplicationKeys();
             return;
         }
 
@@ -318,6 +362,7 @@ abstract class BaseMeshNetwork {
         newAppKey.setMeshUuid(meshUUID);
         if (appKeys.isEmpty()) {
             appKeys.add(newAppKey);
+            invalidateApplicationKeys();
             return;
         }
 
@@ -500,37 +545,57 @@ abstract class BaseMeshNetwork {
         }
     }
 
+    /**
+     * Clears the NID index of the network key credentials so that it is rebuilt on the next lookup
+     */
+    final void invalidateNetworkCredentials() {
+        mNetworkCredentialsIndex = null;
+    }
+
     final void notifyNetKeyAdded(final NetworkKey networkKey) {
+        invalidateNetworkCredentials();
         if (mCallbacks != null) {
             mCallbacks.onNetworkKeyAdded(networkKey);
         }
     }
 
     final void notifyNetKeyUpdated(final NetworkKey networkKey) {
+        invalidateNetworkCredentials();
         if (mCallbacks != null) {
             mCallbacks.onNetworkKeyUpdated(networkKey);
         }
     }
 
     final void notifyNetKeyDeleted(final NetworkKey networkKey) {
+        invalidateNetworkCredentials();
         if (mCallbacks != null) {
             mCallbacks.onNetworkKeyDeleted(networkKey);
         }
     }
 
+    /**
+     * Clears the AID index of the application keys so that it is rebuilt on the next lookup
+     */
+    final void invalidateApplicationKeys() {
+        mApplicationKeyIndex = null;
+    }
+
     final void notifyAppKeyAdded(final ApplicationKey appKey) {
+        invalidateApplicationKeys();
         if (mCallbacks != null) {
             mCallbacks.onApplicationKeyAdded(appKey);
         }
     }
 
     final void notifyAppKeyUpdated(final ApplicationKey appKey) {
+        invalidateApplicationKeys();
         if (mCallbacks != null) {
             mCallbacks.onApplicationKeyUpdated(appKey);
         }
     }
 
     final void notifyAppKeyDeleted(final ApplicationKey appKey) {
+        invalidateApplicationKeys();
         if (mCallbacks != null) {
             mCallbacks.onApplicationKeyDeleted(appKey);
         }
@@ -578,19 +643,29 @@ abstract class BaseMeshNetwork {
         }
     }
 
+    /**
+     * Clears the hash index of the Label UUIDs so that it is rebuilt on the next lookup
+     */
+    final void invalidateLabelUuids() {
+        mLabelUuidIndex = null;
+    }
+
     final void notifyGroupAdded(final Group group) {
+        invalidateLabelUuids();
         if (mCallbacks != null) {
             mCallbacks.onGroupAdded(group);
         }
     }
 
     final void notifyGroupUpdated(final Group group) {
+        invalidateLabelUuids();
         if (mCallbacks != null) {
             mCallbacks.onGroupUpdated(group);
         }
     }
 
     final void notifyGroupDeleted(final Group group) {
+        invalidateLabelUuids();
         if (mCallbacks != null) {
             mCallbacks.onGroupDeleted(group);
         }
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner;
+
+import android.support.annotation.NonNull;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import no.nordicsemi.android.meshprovisioner.transport.ApplicationKey;
+import no.nordicsemi.android.meshprovisioner.transport.NetworkKey;
+import no.nordicsemi.android.meshprovisioner.utils.MeshAddress;
+import no.nordicsemi.android.meshprovisioner.utils.PublicationSettings;
+
+/**
+ * Template describing the configuration a set of nodes should be brought in to.
+ * <p>
+ * The plan lists the application keys to be added to a node and, per model identifier, the application keys to be bound,
+ * the publication and the subscriptions. Model settings apply to every element of a node containing that model.
+ * A plan is executed on a list of nodes using {@link MeshManagerApi#executeConfigurationPlan(ConfigurationPlan, List, ConfigurationPlanCallbacks)},
+ * where the composition data is requested first from the nodes whose elements are not known and steps that are already
+ * satisfied according to the local node model are skipped.
+ * </p>
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public final class ConfigurationPlan {
+
+    private static final int DEFAULT_MAX_RETRIES = 2;
+
+    private final List<AppKey> mAppKeys = new ArrayList<>();
+    private final SparseArray<List<Integer>> mBindings = new SparseArray<>();
+    private final SparseArray<PublicationSettings> mPublications = new SparseArray<>();
+    private final SparseArray<List<Integer>> mSubscriptions = new SparseArray<>();
+    private int mMaxRetries = DEFAULT_MAX_RETRIES;
+
+    /**
+     * Adds an application key to be added to the nodes
+     *
+     * @param networkKey network key the application key is bound to
+     * @param appKey     application key
+     */
+    public void addAppKey(@NonNull final NetworkKey networkKey, @NonNull final ApplicationKey appKey) {
+        mAppKeys.add(new AppKey(networkKey, appKey));
+    }
+
+    /**
+     * Binds an application key to every model with the given identifier
+     *
+     * @param modelIdentifier identifier of the model
+     * @param appKeyIndex     index of the application key
+     */
+    public void bindAppKey(final int modelIdentifier, final int appKeyIndex) {
+        List<Integer> appKeyIndexes = mBindings.get(modelIdentifier);
+        if (appKeyIndexes == null) {
+            appKeyIndexes = new ArrayList<>();
+            mBindings.put(modelIdentifier, appKeyIndexes);
+        }
+        if (!appKeyIndexes.contains(appKeyIndex)) {
+            appKeyIndexes.add(appKeyIndex);
+        }
+    }
+
+    /**
+     * Sets the publication of every model with the given identifier
+     *
+     * @param modelIdentifier     identifier of the model
+     * @param publicationSettings publication settings
+     * @throws IllegalArgumentException if the publish address is not a valid 16-bit address
+     */
+    public void setPublication(final int modelIdentifier, @NonNull final PublicationSettings publicationSettings) {
+        if (!MeshAddress.isAddressInRange(publicationSettings.getPublishAddress()))
+            throw new IllegalArgumentException("Invalid publish address, publish address must be a 16-bit value");
+        mPublications.put(modelIdentifier, publicationSettings);
+    }
+
+    /**
+     * Subscribes every model with the given identifier to an address
+     *
+     * @param modelIdentifier identifier of the model
+     * @param address         group address to subscribe to
+     * @throws IllegalArgumentException if the address is not a group address
+     */
+    public void addSubscription(final int modelIdentifier, final int address) {
+        if (!MeshAddress.isValidGroupAddress(address))
+            throw new IllegalArgumentException("Invalid subscription address, subscription address must be a group address");
+        List<Integer> addresses = mSubscriptions.get(modelIdentifier);
+        if (addresses == null) {
+            addresses = new ArrayList<>();
+            mSubscriptions.put(modelIdentifier, addresses);
+        }
+        if (!addresses.contains(address)) {
+            addresses.add(address);
+        }
+    }
+
+    /**
+     * Sets the number of times a step is retried when no response is received, before the configuration of the node fails.
+     * By default a step is retried twice.
+     *
+     * @param maxRetries maximum number of retries
+     */
+    public void setMaxRetries(final int maxRetries) {
+        if (maxRetries < 0)
+            throw new IllegalArgumentException("Retries cannot be negative");
+        mMaxRetries = maxRetries;
+    }
+
+    public int getMaxRetries() {
+        return mMaxRetries;
+    }
+
+    List<AppKey> getAppKeys() {
+        return mAppKeys;
+    }
+
+    List<Integer> getBindings(final int modelIdentifier) {
+        final List<Integer> appKeyIndexes = mBindings.get(modelIdentifier);
+        return appKeyIndexes != null ? appKeyIndexes : Collections.emptyList();
+    }
+
+    PublicationSettings getPublication(final int modelIdentifier) {
+        return mPublications.get(modelIdentifier);
+    }
+
+    List<Integer> getSubscriptions(final int modelIdentifier) {
+        final List<Integer> addresses = mSubscriptions.get(modelIdentifier);
+        return addresses != null ? addresses : Collections.emptyList();
+    }
+
+    static final class AppKey {
+        final NetworkKey networkKey;
+        final ApplicationKey appKey;
+
+        AppKey(final NetworkKey networkKey, final ApplicationKey appKey) {
+            this.networkKey = networkKey;
+            this.appKey = appKey;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import no.nordicsemi.android.meshprovisioner.transport.MeshMessage;
+
+/**
+ * Callbacks to notify the progress of a {@link ConfigurationPlan} being executed
+ */
+public interface ConfigurationPlanCallbacks {
+
+    /**
+     * Notifies that a step of the configuration of a node has completed or was skipped.
+     * <p>
+     * The total number of steps of a node grows once its composition data has been received.
+     * </p>
+     *
+     * @param unicastAddress unicast address of the node
+     * @param completedSteps number of steps completed
+     * @param totalSteps     number of steps known so far
+     */
+    void onNodeConfigurationProgress(final int unicastAddress, final int completedSteps, final int totalSteps);
+
+    /**
+     * Notifies that a node has been configured according to the plan
+     *
+     * @param unicastAddress unicast address of the node
+     */
+    void onNodeConfigured(final int unicastAddress);
+
+    /**
+     * Notifies that the configuration of a node has failed. The remaining steps of the node are not sent.
+     *
+     * @param unicastAddress unicast address of the node
+     * @param meshMessage    message that failed
+     * @param response       status rejecting the message or null if no response was received after the retries
+     */
+    void onNodeConfigurationFailed(final int unicastAddress, @NonNull final MeshMessage meshMessage, @Nullable final MeshMessage response);
+
+    /**
+     * Notifies that every node of the plan has been configured or has failed, or that the execution was cancelled
+     *
+     * @param configuredNodes number of nodes configured
+     * @param failedNodes     number of nodes that failed
+     * @param cancelledNodes  number of nodes whose configuration was cancelled before it completed
+     */
+    void onConfigurationPlanCompleted(final int configuredNodes, final int failedNodes, final int cancelledNodes);
+}
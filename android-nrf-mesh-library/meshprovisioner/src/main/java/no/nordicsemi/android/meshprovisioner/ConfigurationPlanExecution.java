@@ -0,0 +1,338 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import no.nordicsemi.android.meshprovisioner.transport.ConfigAppKeyAdd;
+import no.nordicsemi.android.meshprovisioner.transport.ConfigAppKeyStatus;
+import no.nordicsemi.android.meshprovisioner.transport.ConfigCompositionDataGet;
+import no.nordicsemi.android.meshprovisioner.transport.ConfigModelAppBind;
+import no.nordicsemi.android.meshprovisioner.transport.ConfigModelPublicationSet;
+import no.nordicsemi.android.meshprovisioner.transport.ConfigModelSubscriptionAdd;
+import no.nordicsemi.android.meshprovisioner.transport.ConfigStatusMessage;
+import no.nordicsemi.android.meshprovisioner.transport.Element;
+import no.nordicsemi.android.meshprovisioner.transport.MeshMessage;
+import no.nordicsemi.android.meshprovisioner.transport.MeshModel;
+import no.nordicsemi.android.meshprovisioner.transport.MeshTransaction;
+import no.nordicsemi.android.meshprovisioner.transport.MeshTransactionCallback;
+import no.nordicsemi.android.meshprovisioner.transport.ProvisionedMeshNode;
+import no.nordicsemi.android.meshprovisioner.utils.MeshLogger;
+import no.nordicsemi.android.meshprovisioner.utils.PublicationSettings;
+
+/**
+ * Executes a {@link ConfigurationPlan} on a list of nodes.
+ * <p>
+ * Every node has its own queue of steps that are sent one at a time, while the nodes are configured concurrently. The messages of all nodes
+ * are pipelined by the transaction table, so the number of messages in flight is set by {@link MeshManagerApi#setMaxInFlightTransactions(int)}.
+ * A step that is not answered within the transaction timeout is retried, a step that is rejected by the node fails the configuration of that node only.
+ * </p>
+ */
+@SuppressWarnings("WeakerAccess")
+public final class ConfigurationPlanExecution {
+
+    private static final String TAG = ConfigurationPlanExecution.class.getSimpleName();
+
+    private final MessageSender mMessageSender;
+    private final MeshNetwork mMeshNetwork;
+    private final ConfigurationPlan mPlan;
+    private final ConfigurationPlanCallbacks mCallbacks;
+    private final List<NodeConfiguration> mNodeConfigurations = new ArrayList<>();
+    private int mConfiguredNodes;
+    private int mFailedNodes;
+    private boolean mCancelled;
+
+    /**
+     * Sends the steps of the plan, i.e. {@link MeshManagerApi#sendMeshMessage(int, MeshMessage, MeshTransactionCallback)}
+     */
+    interface MessageSender {
+
+        /**
+         * Sends an acknowledged message as a transaction
+         *
+         * @param dst         unicast address of the node
+         * @param meshMessage message to be sent
+         * @param callback    callback notified with the result of the transaction
+         * @return transaction handle
+         */
+        MeshTransaction sendMeshMessage(final int dst, @NonNull final MeshMessage meshMessage, @NonNull final MeshTransactionCallback callback);
+    }
+
+    ConfigurationPlanExecution(@NonNull final MessageSender messageSender,
+                               @NonNull final MeshNetwork meshNetwork,
+                               @NonNull final ConfigurationPlan plan,
+                               @NonNull final List<ProvisionedMeshNode> nodes,
+                               @NonNull final ConfigurationPlanCallbacks callbacks) {
+        this.mMessageSender = messageSender;
+        this.mMeshNetwork = meshNetwork;
+        this.mPlan = plan;
+        this.mCallbacks = callbacks;
+        for (ProvisionedMeshNode node : nodes) {
+            mNodeConfigurations.add(new NodeConfiguration(node.getUnicastAddress()));
+        }
+    }
+
+    /**
+     * Starts configuring the nodes
+     */
+    void start() {
+        if (mNodeConfigurations.isEmpty()) {
+            mCallbacks.onConfigurationPlanCompleted(0, 0, 0);
+            return;
+        }
+        for (NodeConfiguration nodeConfiguration : new ArrayList<>(mNodeConfigurations)) {
+            final ProvisionedMeshNode node = mMeshNetwork.getProvisionedNode(nodeConfiguration.unicastAddress);
+            if (node == null || node.getElements().isEmpty()) {
+                nodeConfiguration.steps.add(new ConfigCompositionDataGet());
+                nodeConfiguration.totalSteps++;
+            } else {
+                addSteps(node, nodeConfiguration);
+            }
+            sendNextStep(nodeConfiguration);
+        }
+    }
+
+    /**
+     * Cancels the configuration of the nodes that have not completed. The steps already completed are not reverted.
+     * <p>
+     * If any node was still being configured, {@link ConfigurationPlanCallbacks#onConfigurationPlanCompleted(int, int, int)} is called
+     * with the number of nodes that were cancelled.
+     * </p>
+     */
+    public void cancel() {
+        if (isDone())
+            return;
+        mCancelled = true;
+        for (NodeConfiguration nodeConfiguration : mNodeConfigurations) {
+            if (nodeConfiguration.transaction != null) {
+                nodeConfiguration.transaction.cancel();
+                nodeConfiguration.transaction = null;
+            }
+            nodeConfiguration.steps.clear();
+        }
+        final int cancelledNodes = mNodeConfigurations.size() - mConfiguredNodes - mFailedNodes;
+        mCallbacks.onConfigurationPlanCompleted(mConfiguredNodes, mFailedNodes, cancelledNodes);
+    }
+
+    /**
+     * Returns true if every node has been configured or has failed, or the execution was cancelled
+     */
+    public boolean isDone() {
+        return mCancelled || mConfiguredNodes + mFailedNodes == mNodeConfigurations.size();
+    }
+
+    /**
+     * Returns the number of nodes configured so far
+     */
+    public int getConfiguredNodeCount() {
+        return mConfiguredNodes;
+    }
+
+    /**
+     * Returns the number of nodes that failed so far
+     */
+    public int getFailedNodeCount() {
+        return mFailedNodes;
+    }
+
+    /**
+     * Adds the steps of the plan that are not yet satisfied by the node
+     *
+     * @param node              node to be configured
+     * @param nodeConfiguration configuration of the node
+     */
+    private void addSteps(@NonNull final ProvisionedMeshNode node, @NonNull final NodeConfiguration nodeConfiguration) {
+        final ArrayDeque<MeshMessage> steps = nodeConfiguration.steps;
+        final int queued = steps.size();
+        for (ConfigurationPlan.AppKey appKey : mPlan.getAppKeys()) {
+            if (!node.getAddedAppKeyIndexes().contains(appKey.appKey.getKeyIndex())) {
+                steps.add(new ConfigAppKeyAdd(appKey.networkKey, appKey.appKey));
+            }
+        }
+
+        final List<MeshMessage> publications = new ArrayList<>();
+        final List<MeshMessage> subscriptions = new ArrayList<>();
+        for (Element element : node.getElements().values()) {
+            final int elementAddress = element.getElementAddress();
+            for (MeshModel model : element.getMeshModels().values()) {
+                final int modelIdentifier = model.getModelId();
+                for (int appKeyIndex : mPlan.getBindings(modelIdentifier)) {
+                    if (!model.getBoundAppKeyIndexes().contains(appKeyIndex)) {
+                        steps.add(new ConfigModelAppBind(elementAddress, modelIdentifier, appKeyIndex));
+                    }
+                }
+
+                final PublicationSettings publication = mPlan.getPublication(modelIdentifier);
+                if (publication != null && !isPublicationSet(model.getPublicationSettings(), publication)) {
+                    publications.add(new ConfigModelPublicationSet(elementAddress,
+                            publication.getPublishAddress(),
+                            publication.getAppKeyIndex(),
+                            publication.getCredentialFlag(),
+                            publication.getPublishTtl(),
+                            publication.getPublicationSteps(),
+                            publication.getPublicationResolution(),
+                            publication.getPublishRetransmitCount(),
+                            publication.getPublishRetransmitIntervalSteps(),
+                            modelIdentifier));
+                }
+
+                for (int address : mPlan.getSubscriptions(modelIdentifier)) {
+                    if (!model.getSubscribedAddresses().contains(address)) {
+                        subscriptions.add(new ConfigModelSubscriptionAdd(elementAddress, address, modelIdentifier));
+                    }
+                }
+            }
+        }
+        //Publications and subscriptions are sent after the bindings as a model can only publish with a key bound to it
+        steps.addAll(publications);
+        steps.addAll(subscriptions);
+        nodeConfiguration.totalSteps += steps.size() - queued;
+    }
+
+    private static boolean isPublicationSet(@Nullable final PublicationSettings current, @NonNull final PublicationSettings publication) {
+        return current != null &&
+                current.getPublishAddress() == publication.getPublishAddress() &&
+                current.getAppKeyIndex() == publication.getAppKeyIndex() &&
+                current.getCredentialFlag() == publication.getCredentialFlag() &&
+                current.getPublishTtl() == publication.getPublishTtl() &&
+                current.getPublicationSteps() == publication.getPublicationSteps() &&
+                current.getPublicationResolution() == publication.getPublicationResolution() &&
+                current.getPublishRetransmitCount() == publication.getPublishRetransmitCount() &&
+                current.getPublishRetransmitIntervalSteps() == publication.getPublishRetransmitIntervalSteps();
+    }
+
+    private void sendNextStep(@NonNull final NodeConfiguration nodeConfiguration) {
+        if (mCancelled)
+            return;
+
+        final MeshMessage step = nodeConfiguration.steps.peek();
+        if (step == null) {
+            nodeConfiguration.transaction = null;
+            mConfiguredNodes++;
+            mCallbacks.onNodeConfigured(nodeConfiguration.unicastAddress);
+            onNodeDone();
+            return;
+        }
+        nodeConfiguration.transaction = mMessageSender.sendMeshMessage(nodeConfiguration.unicastAddress, step, nodeConfiguration);
+    }
+
+    private void onStepCompleted(@NonNull final NodeConfiguration nodeConfiguration, @NonNull final MeshMessage response) {
+        final MeshMessage step = nodeConfiguration.steps.peek();
+        if (step == null || mCancelled)
+            return;
+
+        if (!isSuccessful(response)) {
+            if (MeshLogger.isVerbose()) {
+                MeshLogger.v(TAG, "Configuration of node 0x" + Integer.toHexString(nodeConfiguration.unicastAddress) + " rejected: " +
+                        ((ConfigStatusMessage) response).getStatusCodeName());
+            }
+            onNodeFailed(nodeConfiguration, step, response);
+            return;
+        }
+
+        nodeConfiguration.steps.poll();
+        nodeConfiguration.retries = 0;
+        nodeConfiguration.completedSteps++;
+        if (step instanceof ConfigCompositionDataGet) {
+            final ProvisionedMeshNode node = mMeshNetwork.getProvisionedNode(nodeConfiguration.unicastAddress);
+            if (node != null) {
+                addSteps(node, nodeConfiguration);
+            }
+        }
+        mCallbacks.onNodeConfigurationProgress(nodeConfiguration.unicastAddress, nodeConfiguration.completedSteps, nodeConfiguration.totalSteps);
+        sendNextStep(nodeConfiguration);
+    }
+
+    private void onStepFailed(@NonNull final NodeConfiguration nodeConfiguration, final int reason) {
+        final MeshMessage step = nodeConfiguration.steps.peek();
+        if (step == null || mCancelled)
+            return;
+
+        if (reason != MeshTransaction.FAILURE_CANCELLED && nodeConfiguration.retries < mPlan.getMaxRetries()) {
+            nodeConfiguration.retries++;
+            if (MeshLogger.isVerbose()) {
+                MeshLogger.v(TAG, "Retrying step " + nodeConfiguration.completedSteps + " of node 0x" + Integer.toHexString(nodeConfiguration.unicastAddress));
+            }
+            sendNextStep(nodeConfiguration);
+            return;
+        }
+        onNodeFailed(nodeConfiguration, step, null);
+    }
+
+    private void onNodeFailed(@NonNull final NodeConfiguration nodeConfiguration, @NonNull final MeshMessage step, @Nullable final MeshMessage response) {
+        nodeConfiguration.steps.clear();
+        nodeConfiguration.transaction = null;
+        mFailedNodes++;
+        mCallbacks.onNodeConfigurationFailed(nodeConfiguration.unicastAddress, step, response);
+        onNodeDone();
+    }
+
+    private void onNodeDone() {
+        if (mConfiguredNodes + mFailedNodes == mNodeConfigurations.size()) {
+            mCallbacks.onConfigurationPlanCompleted(mConfiguredNodes, mFailedNodes, 0);
+        }
+    }
+
+    /**
+     * Returns true if the status accepts the step. An application key that is already stored on the node is accepted as well.
+     */
+    private static boolean isSuccessful(@NonNull final MeshMessage response) {
+        if (!(response instanceof ConfigStatusMessage))
+            return true;
+
+        final int statusCode = ((ConfigStatusMessage) response).getStatusCode();
+        if (response instanceof ConfigAppKeyStatus) {
+            return statusCode == ConfigStatusMessage.StatusCodeNames.SUCCESS.getStatusCode() ||
+                    statusCode == ConfigStatusMessage.StatusCodeNames.KEY_INDEX_ALREADY_STORED.getStatusCode();
+        }
+        return statusCode == ConfigStatusMessage.StatusCodeNames.SUCCESS.getStatusCode();
+    }
+
+    private final class NodeConfiguration implements MeshTransactionCallback {
+        final int unicastAddress;
+        final ArrayDeque<MeshMessage> steps = new ArrayDeque<>();
+        MeshTransaction transaction;
+        int completedSteps;
+        int totalSteps;
+        int retries;
+
+        NodeConfiguration(final int unicastAddress) {
+            this.unicastAddress = unicastAddress;
+        }
+
+        @Override
+        public void onTransactionCompleted(final int src, @NonNull final MeshMessage response) {
+            onStepCompleted(this, response);
+        }
+
+        @Override
+        public void onTransactionFailed(final int dst, final int reason) {
+            onStepFailed(this, reason);
+        }
+    }
+}
@@ -6,15 +6,20 @@ import android.arch.persistence.room.ForeignKey;
 import android.arch.persistence.room.Ignore;
 import android.arch.persistence.room.Index;
 import android.arch.persistence.room.PrimaryKey;
+import android.arch.persistence.room.TypeConverters;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.annotation.RestrictTo;
 
 import com.google.gson.annotations.Expose;
 import com.google.gson.annotations.SerializedName;
 
+import java.util.UUID;
+
 import no.nordicsemi.android.meshprovisioner.utils.MeshAddress;
+import no.nordicsemi.android.meshprovisioner.utils.MeshTypeConverters;
 
 import static android.arch.persistence.room.ForeignKey.CASCADE;
 
@@ -43,6 +48,12 @@ public class Group implements Parcelable {
     @SerializedName("address")
     private int groupAddress;
 
+    @TypeConverters(MeshTypeConverters.class)
+    @ColumnInfo(name = "address_label")
+    @Expose
+    @SerializedName("addressLabel")
+    private UUID addressLabel;
+
     @ColumnInfo(name = "parent_address")
     @Expose
     @SerializedName("parentAddress")
@@ -89,10 +100,27 @@ public class Group implements Parcelable {
         this.meshUuid = meshUuid;
     }
 
+    /**
+     * Constructs a mesh group with a virtual address
+     *
+     * @param addressLabel Label UUID of the virtual address
+     * @param meshUuid     uuid of the mesh network
+     */
+    @Ignore
+    public Group(@NonNull final UUID addressLabel, @NonNull final String meshUuid) {
+        this.addressLabel = addressLabel;
+        this.groupAddress = MeshAddress.generateVirtualAddress(addressLabel);
+        //by default parent address is set to same as the group address
+        this.parentAddress = groupAddress;
+        this.meshUuid = meshUuid;
+    }
+
     protected Group(Parcel in) {
         id = in.readInt();
         name = in.readString();
         groupAddress = in.readInt();
+        final String label = in.readString();
+        addressLabel = label == null ? null : UUID.fromString(label);
         parentAddress = in.readInt();
         meshUuid = in.readString();
     }
@@ -102,6 +130,7 @@ public class Group implements Parcelable {
         dest.writeInt(id);
         dest.writeString(name);
         dest.writeInt(groupAddress);
+        dest.writeString(addressLabel == null ? null : addressLabel.toString());
         dest.writeInt(parentAddress);
         dest.writeString(meshUuid);
     }
@@ -160,6 +189,32 @@ public class Group implements Parcelable {
         this.groupAddress = groupAddress;
     }
 
+    /**
+     * Returns the Label UUID of a group with a virtual address
+     *
+     * @return Label UUID or null if the group address is not a virtual address
+     */
+    @Nullable
+    public UUID getAddressLabel() {
+        return addressLabel;
+    }
+
+    /**
+     * Sets the Label UUID of a group with a virtual address, the group address is set to the virtual address of the label.
+     * Clearing the label of a group with a virtual address also clears the group address, which must then be set using
+     * {@link #setGroupAddress(int)}.
+     *
+     * @param addressLabel Label UUID or null if the group address is not a virtual address
+     */
+    public void setAddressLabel(@Nullable final UUID addressLabel) {
+        this.addressLabel = addressLabel;
+        if (addressLabel != null) {
+            this.groupAddress = MeshAddress.generateVirtualAddress(addressLabel);
+        } else if (MeshAddress.isVirtualAddress(groupAddress)) {
+            this.groupAddress = MeshAddress.UNASSIGNED_ADDRESS;
+        }
+    }
+
     /**
      * Returns address of the parent group if the group has one
      *
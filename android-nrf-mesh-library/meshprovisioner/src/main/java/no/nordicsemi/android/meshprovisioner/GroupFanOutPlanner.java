@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import no.nordicsemi.android.meshprovisioner.transport.Element;
+import no.nordicsemi.android.meshprovisioner.transport.MeshModel;
+import no.nordicsemi.android.meshprovisioner.transport.ProvisionedMeshNode;
+import no.nordicsemi.android.meshprovisioner.utils.MeshAddress;
+
+/**
+ * Chooses the destinations a message should be sent to so that it reaches a set of elements with as few pdus as possible.
+ * <p>
+ * A group address is used when every element whose model is subscribed to it is one of the targets, so that no other element acts on the message.
+ * Groups are picked greedily by the number of targets not yet covered, and the targets no group covers are sent to individually.
+ * The choice relies on the subscriptions stored in the local node model.
+ * </p>
+ */
+final class GroupFanOutPlanner {
+
+    private GroupFanOutPlanner() {
+    }
+
+    /**
+     * Returns the group addresses the model is subscribed to, per element address, of every node in the network
+     *
+     * @param meshNetwork     mesh network
+     * @param modelIdentifier identifier of the model the message is sent to
+     */
+    static Map<Integer, List<Integer>> getSubscriptions(@NonNull final MeshNetwork meshNetwork, final int modelIdentifier) {
+        final Map<Integer, List<Integer>> subscriptions = new HashMap<>();
+        for (ProvisionedMeshNode node : meshNetwork.getProvisionedNodes()) {
+            for (Element element : node.getElements().values()) {
+                final MeshModel model = element.getMeshModels().get(modelIdentifier);
+                if (model != null && !model.getSubscribedAddresses().isEmpty()) {
+                    subscriptions.put(element.getElementAddress(), model.getSubscribedAddresses());
+                }
+            }
+        }
+        return subscriptions;
+    }
+
+    /**
+     * Returns the destinations covering the target elements
+     *
+     * @param targets       unicast addresses of the target elements
+     * @param subscriptions group addresses subscribed to, per element address
+     * @return group addresses followed by the unicast addresses of the targets not covered by a group
+     */
+    static List<Integer> planDestinations(@NonNull final Set<Integer> targets, @NonNull final Map<Integer, List<Integer>> subscriptions) {
+        //Subscribers of every group address, sorted so that the plan does not depend on the iteration order of the maps
+        final Map<Integer, Set<Integer>> subscribers = new TreeMap<>();
+        for (Map.Entry<Integer, List<Integer>> entry : subscriptions.entrySet()) {
+            for (int address : entry.getValue()) {
+                if (MeshAddress.isValidGroupAddress(address)) {
+                    Set<Integer> elements = subscribers.get(address);
+                    if (elements == null) {
+                        elements = new TreeSet<>();
+                        subscribers.put(address, elements);
+                    }
+                    elements.add(entry.getKey());
+                }
+            }
+        }
+
+        final List<Set<Integer>> candidates = new ArrayList<>();
+        final List<Integer> candidateAddresses = new ArrayList<>();
+        for (Map.Entry<Integer, Set<Integer>> entry : subscribers.entrySet()) {
+            if (targets.containsAll(entry.getValue())) {
+                candidateAddresses.add(entry.getKey());
+                candidates.add(entry.getValue());
+            }
+        }
+
+        final List<Integer> destinations = new ArrayList<>();
+        final Set<Integer> uncovered = new TreeSet<>(targets);
+        while (!uncovered.isEmpty()) {
+            int best = -1;
+            int bestCoverage = 1;
+            for (int i = 0; i < candidates.size(); i++) {
+                int coverage = 0;
+                for (int element : candidates.get(i)) {
+                    if (uncovered.contains(element)) {
+                        coverage++;
+                    }
+                }
+                if (coverage > bestCoverage) {
+                    best = i;
+                    bestCoverage = coverage;
+                }
+            }
+            //A group reaching a single target saves nothing over the unicast address
+            if (best < 0)
+                break;
+            destinations.add(candidateAddresses.get(best));
+            uncovered.removeAll(candidates.get(best));
+        }
+        destinations.addAll(uncovered);
+        return destinations;
+    }
+}
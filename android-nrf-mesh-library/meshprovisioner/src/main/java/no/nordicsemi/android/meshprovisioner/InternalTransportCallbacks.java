@@ -74,6 +74,16 @@ public interface InternalTransportCallbacks {
     @RestrictTo(RestrictTo.Scope.LIBRARY)
     void sendMeshPdu(final int dst, final byte[] pdu);
 
+    /**
+     * Queues a mesh pdu to be sent in the given priority class
+     *
+     * @param dst      Destination address to be sent
+     * @param pdu      mesh pdu to be sent
+     * @param priority {@link TransmitQueueMetrics.TransmitPriority} of the pdu
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    void sendMeshPdu(final int dst, final byte[] pdu, @TransmitQueueMetrics.TransmitPriority final int priority);
+
     /**
      * Update mesh network
      *
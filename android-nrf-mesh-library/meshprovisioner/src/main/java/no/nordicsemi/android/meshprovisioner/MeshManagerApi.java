@@ -25,6 +25,7 @@ package no.nordicsemi.android.meshprovisioner;
 import android.content.Context;
 import android.net.Uri;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
@@ -37,9 +38,12 @@ import java.nio.ByteOrder;
 import java.security.Security;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import no.nordicsemi.android.meshprovisioner.data.ApplicationKeyDao;
 import no.nordicsemi.android.meshprovisioner.data.GroupDao;
@@ -51,18 +55,26 @@ import no.nordicsemi.android.meshprovisioner.data.ProvisionerDao;
 import no.nordicsemi.android.meshprovisioner.data.SceneDao;
 import no.nordicsemi.android.meshprovisioner.provisionerstates.UnprovisionedMeshNode;
 import no.nordicsemi.android.meshprovisioner.transport.ApplicationKey;
+import no.nordicsemi.android.meshprovisioner.transport.HeartbeatTable;
 import no.nordicsemi.android.meshprovisioner.transport.InternalMeshModelDeserializer;
 import no.nordicsemi.android.meshprovisioner.transport.MeshMessage;
+import no.nordicsemi.android.meshprovisioner.transport.MeshMessageDecoder;
+import no.nordicsemi.android.meshprovisioner.transport.MeshTransaction;
+import no.nordicsemi.android.meshprovisioner.transport.MeshTransactionCallback;
 import no.nordicsemi.android.meshprovisioner.transport.MeshModel;
+import no.nordicsemi.android.meshprovisioner.transport.NetworkCredentials;
 import no.nordicsemi.android.meshprovisioner.transport.NetworkKey;
 import no.nordicsemi.android.meshprovisioner.transport.NetworkLayerCallbacks;
 import no.nordicsemi.android.meshprovisioner.transport.ProvisionedMeshNode;
+import no.nordicsemi.android.meshprovisioner.transport.ProxyConfigFilterStatus;
 import no.nordicsemi.android.meshprovisioner.transport.UpperTransportLayerCallbacks;
 import no.nordicsemi.android.meshprovisioner.utils.AddressUtils;
 import no.nordicsemi.android.meshprovisioner.utils.InputOOBAction;
 import no.nordicsemi.android.meshprovisioner.utils.MeshAddress;
+import no.nordicsemi.android.meshprovisioner.utils.MeshLogger;
 import no.nordicsemi.android.meshprovisioner.utils.MeshParserUtils;
 import no.nordicsemi.android.meshprovisioner.utils.OutputOOBAction;
+import no.nordicsemi.android.meshprovisioner.utils.ReplayProtectionList;
 import no.nordicsemi.android.meshprovisioner.utils.SecureUtils;
 
 
@@ -78,18 +90,6 @@ public class MeshManagerApi implements MeshMngrApi {
     public static final byte PDU_TYPE_NETWORK = 0x00;
     public static final byte PDU_TYPE_MESH_BEACON = 0x01;
     public static final byte PDU_TYPE_PROXY_CONFIGURATION = 0x02;
-    //GATT level segmentation
-    private static final byte GATT_SAR_COMPLETE = 0b00;
-    private static final byte GATT_SAR_START = 0b01;
-    private static final byte GATT_SAR_CONTINUATION = 0b10;
-    private static final byte GATT_SAR_END = 0b11;
-    //GATT level segmentation mask
-    private static final int GATT_SAR_MASK = 0xC0;
-    private static final int GATT_SAR_UNMASK = 0x3F;
-    private static final int SAR_BIT_OFFSET = 6;
-
-    //According to the spec the proxy protocol must contain an SAR timeout of 20 seconds.
-    private static final long PROXY_SAR_TRANSFER_TIME_OUT = 20 * 1000;
     /**
      * Length of the random number required to calculate the hash containing the node id
      */
@@ -123,12 +123,13 @@ public class MeshManagerApi implements MeshMngrApi {
     private Context mContext;
     private final Handler mHanlder;
     private MeshManagerCallbacks mTransportCallbacks;
+    private SequenceNumberCallbacks mSequenceNumberCallbacks;
     private MeshProvisioningHandler mMeshProvisioningHandler;
     private MeshMessageHandler mMeshMessageHandler;
-    private byte[] mIncomingBuffer;
-    private int mIncomingBufferOffset;
-    private byte[] mOutgoingBuffer;
-    private int mOutgoingBufferOffset;
+    private final ProxyBearerSession mDefaultProxySession;
+    private final List<ProxyBearerSession> mProxySessions = new CopyOnWriteArrayList<>();
+    private final List<MeshRetransmission> mRetransmissions = new CopyOnWriteArrayList<>();
+    private final NetworkMessageCache mNetworkMessageCache = new NetworkMessageCache();
     private MeshNetwork mMeshNetwork;
     private Gson mGson;
 
@@ -141,11 +142,38 @@ public class MeshManagerApi implements MeshMngrApi {
     private GroupsDao mGroupsDao;
     private GroupDao mGroupDao;
     private SceneDao mSceneDao;
+    private MeshNetworkWriter mMeshNetworkWriter;
 
-    private final Runnable mProxyProtocolTimeoutRunnable = new Runnable() {
+    private final SecureNetworkBeaconHandler.BeaconCallbacks mBeaconCallbacks = new SecureNetworkBeaconHandler.BeaconCallbacks() {
         @Override
-        public void run() {
-            mMeshMessageHandler.onIncompleteTimerExpired(true);
+        public void onIvIndexUpdated() {
+            mMeshNetwork.setTimestamp(MeshParserUtils.getInternationalAtomicTime(System.currentTimeMillis()));
+            //The selected provisioner is written along with the network as its sequence number may have been reset
+            mMeshNetworkWriter.markNetworkDirty(mMeshNetwork);
+            mMeshNetworkWriter.flush();
+            mTransportCallbacks.onNetworkUpdated(mMeshNetwork);
+        }
+    };
+    private final SecureNetworkBeaconHandler mSecureNetworkBeaconHandler = new SecureNetworkBeaconHandler(mBeaconCallbacks);
+
+    private final ProxyBearerSession.SessionCallbacks mProxySessionCallbacks = new ProxyBearerSession.SessionCallbacks() {
+        @Override
+        public void onPduReceived(@NonNull final ProxyBearerSession session, @NonNull final byte[] pdu) {
+            if (pdu[0] == PDU_TYPE_NETWORK && mNetworkMessageCache.isDuplicate(pdu)) {
+                MeshLogger.v(TAG, "Network pdu already received, dropping pdu");
+                return;
+            }
+            parseNotifications(pdu);
+        }
+
+        @Override
+        public void onPduWritten(@NonNull final ProxyBearerSession session, @NonNull final byte[] pdu) {
+            handleWriteCallbacks(pdu);
+        }
+
+        @Override
+        public void onSarTimeout(@NonNull final ProxyBearerSession session) {
+            MeshLogger.vAddress(TAG, "Proxy SAR timeout, dropped the incomplete pdu received from proxy ", session.getProxyAddress());
         }
     };
 
@@ -163,6 +191,17 @@ public class MeshManagerApi implements MeshMngrApi {
     public MeshManagerApi(@NonNull final Context context) {
         this.mContext = context;
         mHanlder = new Handler();
+        mDefaultProxySession = new ProxyBearerSession(MeshAddress.UNASSIGNED_ADDRESS, new ProxyBearerCallbacks() {
+            @Override
+            public int getMtu() {
+                return mTransportCallbacks.getMtu();
+            }
+
+            @Override
+            public void sendMeshPdu(final byte[] pdu) {
+                mTransportCallbacks.sendMeshPdu(pdu);
+            }
+        }, mProxySessionCallbacks);
         mMeshProvisioningHandler = new MeshProvisioningHandler(context, internalTransportCallbacks, internalMeshMgrCallbacks);
         mMeshMessageHandler = new MeshMessageHandler(context, internalTransportCallbacks);
         mMeshMessageHandler.getMeshTransport().setNetworkLayerCallbacks(networkLayerCallbacks);
@@ -171,6 +210,7 @@ public class MeshManagerApi implements MeshMngrApi {
         initBouncyCastle();
         //Init database
         initDb(context);
+        context.getApplicationContext().registerComponentCallbacks(mMeshNetworkWriter);
         initGson();
         migrateMeshNetwork(context);
 
@@ -185,6 +225,15 @@ public class MeshManagerApi implements MeshMngrApi {
         mTransportCallbacks = callbacks;
     }
 
+    /**
+     * Sets the {@link SequenceNumberCallbacks} listener to be notified when the sequence numbers of the provisioner are running low
+     *
+     * @param callbacks callbacks, or null to remove the listener
+     */
+    public void setSequenceNumberCallbacks(final SequenceNumberCallbacks callbacks) {
+        mSequenceNumberCallbacks = callbacks;
+    }
+
     /**
      * Sets the {@link MeshProvisioningStatusCallbacks} listener to return provisioning status callbacks.
      *
@@ -203,6 +252,135 @@ public class MeshManagerApi implements MeshMngrApi {
         mMeshMessageHandler.setMeshStatusCallbacks(callbacks);
     }
 
+    /**
+     * Sets the maximum number of segmented messages that can be received concurrently from different nodes.
+     * <p>
+     * This is useful when sending messages to a group address where several nodes may respond with segmented messages at the same time.
+     * When the limit is reached the least recently used incomplete message is dropped. By default 8 messages are received concurrently.
+     * </p>
+     *
+     * @param maxSessions maximum number of segmented messages received concurrently, must be at least 1
+     */
+    public void setMaxConcurrentSegmentedMessages(final int maxSessions) {
+        mMeshMessageHandler.getMeshTransport().setMaxSegmentedMessageSessions(maxSessions);
+    }
+
+    /**
+     * Sets the maximum number of acknowledged messages sent to unicast addresses that may be waiting for a response at a time.
+     * <p>
+     * Responses are correlated to the request they answer by the address of the node and the opcode of the response, which allows
+     * configuration and control messages to be pipelined to many nodes over one proxy connection. Further messages are queued and sent
+     * as responses are received. A message that expects the same response from the same node as an outstanding one waits for it to complete.
+     * By default 4 messages are in flight at a time.
+     * </p>
+     *
+     * @param maxInFlightTransactions maximum number of transactions in flight, must be at least 1
+     */
+    public void setMaxInFlightTransactions(final int maxInFlightTransactions) {
+        mMeshMessageHandler.setMaxInFlightTransactions(maxInFlightTransactions);
+    }
+
+    /**
+     * Sets the time to wait for the response to an acknowledged message, after which
+     * {@link MeshStatusCallbacks#onTransactionFailed(int, boolean)} is called and the next queued message is sent. By default the timeout is 30 seconds.
+     *
+     * @param timeout timeout in milliseconds
+     */
+    public void setTransactionTimeout(final long timeout) {
+        mMeshMessageHandler.setTransactionTimeout(timeout);
+    }
+
+    /**
+     * Returns a snapshot of the outgoing message queue metrics, i.e. the queue depth, drops and latencies of each priority class.
+     */
+    public TransmitQueueMetrics getTransmitQueueMetrics() {
+        return mDefaultProxySession.getTransmitQueueMetrics();
+    }
+
+    /**
+     * Sets the maximum number of pdus waiting to be written to the proxy node.
+     * <p>
+     * When the queue is full a pdu of the lowest priority class is dropped to make room for a pdu of a higher or equal priority,
+     * or the new pdu is dropped if nothing of lower or equal priority is queued. By default 64 pdus are queued.
+     * </p>
+     *
+     * @param capacity maximum number of queued pdus, must be at least 1
+     */
+    public void setTransmitQueueCapacity(final int capacity) {
+        mDefaultProxySession.setTransmitQueueCapacity(capacity);
+    }
+
+    /**
+     * Sets the number of pdus that may be written to the proxy node before {@link #handleWriteCallbacks(int, byte[])} is called for them.
+     * <p>
+     * A credit is returned on every network or proxy configuration write callback, so the library never writes faster than the bearer
+     * accepts. By default 1 pdu is written at a time.
+     * </p>
+     *
+     * @param credits number of outstanding writes, must be at least 1
+     */
+    public void setTransmitCredits(final int credits) {
+        mDefaultProxySession.setTransmitCredits(credits);
+    }
+
+    /**
+     * Drops the pdus waiting to be written, restores the transmit credits and cancels the pending segment acknowledgements and retransmissions.
+     * This should be called when the connection to the proxy node is lost.
+     */
+    public void clearTransmitQueue() {
+        mDefaultProxySession.clear();
+        mMeshMessageHandler.getMeshTransport().cancelBlockAcknowledgements();
+        cancelRetransmissions();
+    }
+
+    /**
+     * Opens a session for a connection to a proxy node.
+     * <p>
+     * Once a session is opened, the notifications and write callbacks of the connection must be passed to
+     * {@link ProxyBearerSession#handleNotifications(byte[])} and {@link ProxyBearerSession#handleWriteCallbacks(byte[])}.
+     * While sessions are open, mesh pdus are sent through them instead of {@link MeshManagerCallbacks#sendMeshPdu(byte[])}. A pdu is sent
+     * through the session of the proxy node the destination belongs to, if connected, or otherwise through the session with the fewest
+     * queued pdus. Proxy configuration messages are sent through every session, so that all proxy nodes have the same filter. Network pdus
+     * received through more than one proxy node are processed once.
+     * </p>
+     *
+     * @param proxyAddress unicast address of the connected proxy node
+     * @param callbacks    {@link ProxyBearerCallbacks} of the connection
+     * @return the session of the connection
+     */
+    public ProxyBearerSession openProxySession(final int proxyAddress, @NonNull final ProxyBearerCallbacks callbacks) {
+        final ProxyBearerSession session = new ProxyBearerSession(proxyAddress, callbacks, mProxySessionCallbacks);
+        final ProvisionedMeshNode node = mMeshNetwork == null ? null : mMeshNetwork.getProvisionedNode(proxyAddress);
+        if (node != null) {
+            session.setProxyFilter(node.getProxyFilter());
+        }
+        mProxySessions.add(session);
+        return session;
+    }
+
+    /**
+     * Closes the session of a connection to a proxy node, dropping the pdus queued on it.
+     * The pending retransmissions are cancelled once the last session has been closed.
+     * This should be called when the connection to the proxy node is lost.
+     *
+     * @param session session to be closed
+     */
+    public void closeProxySession(@NonNull final ProxyBearerSession session) {
+        if (mProxySessions.remove(session)) {
+            session.clear();
+            if (mProxySessions.isEmpty()) {
+                cancelRetransmissions();
+            }
+        }
+    }
+
+    /**
+     * Returns the open proxy sessions in the order they were opened
+     */
+    public List<ProxyBearerSession> getProxySessions() {
+        return Collections.unmodifiableList(new ArrayList<>(mProxySessions));
+    }
+
     /**
      * Loads the mesh network from the local database.
      * <p>
@@ -211,6 +389,7 @@ public class MeshManagerApi implements MeshMngrApi {
      * </p>
      */
     public void loadMeshNetwork() {
+        mMeshNetworkWriter.flush();
         mMeshNetworkDb.loadNetwork(mMeshNetworkDao,
                 mNetworkKeyDao,
                 mApplicationKeyDao,
@@ -220,6 +399,49 @@ public class MeshManagerApi implements MeshMngrApi {
                 networkLoadCallbacks);
     }
 
+    /**
+     * Writes the pending changes of the mesh network to the local database.
+     * <p>
+     * The sequence number and the node states that change with every message are written behind, at most once per flush interval.
+     * Pending changes are flushed when the application moves to the background, this should also be called before the application is shut down.
+     * </p>
+     */
+    public void flushMeshNetwork() {
+        mMeshNetworkWriter.flush();
+    }
+
+    /**
+     * Writes the pending changes of the mesh network and stops listening to the memory callbacks of the application.
+     * <p>
+     * Call this when the mesh manager api is no longer used, so that it is not kept alive by the application.
+     * </p>
+     */
+    public void close() {
+        cancelRetransmissions();
+        mContext.getApplicationContext().unregisterComponentCallbacks(mMeshNetworkWriter);
+        mMeshNetworkWriter.flush();
+    }
+
+    /**
+     * Sets the maximum time a change of the sequence number or node state waits before it is written to the local database.
+     * By default changes are written within 1 second.
+     *
+     * @param flushInterval flush interval in milliseconds
+     */
+    public void setPersistenceFlushInterval(final long flushInterval) {
+        mMeshNetworkWriter.setFlushInterval(flushInterval);
+    }
+
+    /**
+     * Sets the number of changes after which they are written to the local database without waiting for the flush interval.
+     * By default changes are written after 64 updates.
+     *
+     * @param batchSize number of changes, must be at least 1
+     */
+    public void setPersistenceBatchSize(final int batchSize) {
+        mMeshNetworkWriter.setBatchSize(batchSize);
+    }
+
     /**
      * Returns an already loaded mesh network, make sure to call {@link #loadMeshNetwork()} before calling this
      *
@@ -243,6 +465,7 @@ public class MeshManagerApi implements MeshMngrApi {
         mGroupsDao = mMeshNetworkDb.groupsDao();
         mGroupDao = mMeshNetworkDb.groupDao();
         mSceneDao = mMeshNetworkDb.sceneDao();
+        mMeshNetworkWriter = new MeshNetworkWriter(mMeshNetworkDb, mMeshNetworkDao, mProvisionerDao, mProvisionedNodeDao);
     }
 
     private void initGson() {
@@ -305,42 +528,16 @@ public class MeshManagerApi implements MeshMngrApi {
     /**
      * Handles notifications received by the client.
      * <p>
-     * This method will check if the library should wait for more data in case of a gatt layer segmentation.
-     * If its required the method will remove the segmentation bytes and combine the data together.
+     * Segments of a pdu that is segmented at the gatt layer are reassembled based on their SAR field and the pdu is parsed once the
+     * last segment is received. Notifications of connections opened using {@link #openProxySession(int, ProxyBearerCallbacks)} are
+     * handled by their {@link ProxyBearerSession}.
      * </p>
      *
-     * @param data pdu received by the client
+     * @param mtuSize mtu size of the connection, not required for reassembly as it is driven by the SAR field of each segment
+     * @param data    pdu received by the client
      */
     public final void handleNotifications(final int mtuSize, final byte[] data) {
-        byte[] unsegmentedPdu;
-        if (!shouldWaitForMoreData(data)) {
-            unsegmentedPdu = data;
-        } else {
-            final byte[] combinedPdu = appendPdu(mtuSize, data);
-            if (combinedPdu == null) {
-                //Start the timer
-                toggleProxyProtocolSarTimeOut(data);
-                return;
-            } else {
-                toggleProxyProtocolSarTimeOut(data);
-                unsegmentedPdu = removeSegmentation(mtuSize, combinedPdu);
-            }
-        }
-        parseNotifications(unsegmentedPdu);
-    }
-
-    /**
-     * Toggles the Segmentation and Reassembly timeout for proxy configuration messages received via proxy protocol
-     *
-     * @param data pdu
-     */
-    private void toggleProxyProtocolSarTimeOut(final byte[] data) {
-        final int pduType = MeshParserUtils.unsignedByteToInt(data[0]);
-        if (pduType == ((GATT_SAR_START << SAR_BIT_OFFSET) | MeshManagerApi.PDU_TYPE_PROXY_CONFIGURATION)) {
-            mHanlder.postDelayed(mProxyProtocolTimeoutRunnable, PROXY_SAR_TRANSFER_TIME_OUT);
-        } else if (pduType == ((GATT_SAR_END << SAR_BIT_OFFSET) | MeshManagerApi.PDU_TYPE_PROXY_CONFIGURATION)) {
-            mHanlder.removeCallbacks(mProxyProtocolTimeoutRunnable);
-        }
+        mDefaultProxySession.handleNotifications(data);
     }
 
     /**
@@ -357,13 +554,8 @@ public class MeshManagerApi implements MeshMngrApi {
                 break;
             case PDU_TYPE_MESH_BEACON:
                 //Mesh beacon
-                final byte[] n = mMeshNetwork.getPrimaryNetworkKey().getKey();
-                final byte[] flags = {(byte) mMeshNetwork.getProvisioningFlags()};
-                final byte[] networkId = SecureUtils.calculateK3(n);
-                final byte[] ivIndex = ByteBuffer.allocate(4).putInt(mMeshNetwork.getIvIndex()).array();
-                Log.v(TAG, "Generated mesh beacon: " +
-                        MeshParserUtils.bytesToHex(SecureUtils.calculateSecureNetworkBeacon(n, 1, flags, networkId, ivIndex), true));
                 Log.v(TAG, "Received mesh beacon: " + MeshParserUtils.bytesToHex(unsegmentedPdu, true));
+                mSecureNetworkBeaconHandler.handleBeacon(mMeshNetwork, unsegmentedPdu, 1, unsegmentedPdu.length - 1, System.currentTimeMillis());
                 break;
             case PDU_TYPE_PROXY_CONFIGURATION:
                 //Proxy configuration
@@ -378,19 +570,14 @@ public class MeshManagerApi implements MeshMngrApi {
         }
     }
 
+    /**
+     * Handles the write callbacks of the segments written to the peripheral
+     *
+     * @param mtuSize mtu size of the connection, not required for reassembly as it is driven by the SAR field of each segment
+     * @param data    segment written to the peripheral
+     */
     public final void handleWriteCallbacks(final int mtuSize, final byte[] data) {
-        byte[] unsegmentedPdu;
-        if (!shouldWaitForMoreData(data)) {
-            unsegmentedPdu = data;
-        } else {
-            final byte[] combinedPdu = appendWritePdu(mtuSize, data);
-            if (combinedPdu == null)
-                return;
-            else {
-                unsegmentedPdu = removeSegmentation(mtuSize, combinedPdu);
-            }
-        }
-        handleWriteCallbacks(unsegmentedPdu);
+        mDefaultProxySession.handleWriteCallbacks(data);
     }
 
     /**
@@ -422,136 +609,6 @@ public class MeshManagerApi implements MeshMngrApi {
         }
     }
 
-    private boolean shouldWaitForMoreData(final byte[] pdu) {
-        final int gattSar = (pdu[0] & GATT_SAR_MASK) >> SAR_BIT_OFFSET;
-        switch (gattSar) {
-            case GATT_SAR_START:
-            case GATT_SAR_CONTINUATION:
-            case GATT_SAR_END:
-                return true;
-            default:
-                return false;
-        }
-    }
-
-    /**
-     * Appends the PDUs that are segmented at gatt layer.
-     *
-     * @param mtuSize mtu size supported by the device/node
-     * @param pdu     pdu received by the provisioner
-     * @return the combine pdu or returns null if not complete.
-     */
-    private byte[] appendPdu(final int mtuSize, final byte[] pdu) {
-        if (mIncomingBuffer == null) {
-            final int length = Math.min(pdu.length, mtuSize);
-            mIncomingBufferOffset = 0;
-            mIncomingBufferOffset += length;
-            mIncomingBuffer = pdu;
-        } else {
-            final int length = Math.min(pdu.length, mtuSize);
-            final byte[] buffer = new byte[mIncomingBuffer.length + length];
-            System.arraycopy(mIncomingBuffer, 0, buffer, 0, mIncomingBufferOffset);
-            System.arraycopy(pdu, 0, buffer, mIncomingBufferOffset, length);
-            mIncomingBufferOffset += length;
-            mIncomingBuffer = buffer;
-            if (length < mtuSize) {
-                final byte packet[] = mIncomingBuffer;
-                mIncomingBuffer = null;
-                return packet;
-            }
-        }
-        return null;
-    }
-
-    /**
-     * Appends the PDUs that are segmented at gatt layer.
-     *
-     * @param mtuSize mtu size supported by the device/node
-     * @param pdu     pdu received by the provisioner
-     * @return the combine pdu or returns null if not complete.
-     */
-    private byte[] appendWritePdu(final int mtuSize, final byte[] pdu) {
-        if (mOutgoingBuffer == null) {
-            final int length = Math.min(pdu.length, mtuSize);
-            mOutgoingBufferOffset = 0;
-            mOutgoingBufferOffset += length;
-            mOutgoingBuffer = pdu;
-        } else {
-            final int length = Math.min(pdu.length, mtuSize);
-            final byte[] buffer = new byte[mOutgoingBuffer.length + length];
-            System.arraycopy(mOutgoingBuffer, 0, buffer, 0, mOutgoingBufferOffset);
-            System.arraycopy(pdu, 0, buffer, mOutgoingBufferOffset, length);
-            mOutgoingBufferOffset += length;
-            mOutgoingBuffer = buffer;
-            if (length < mtuSize) {
-                final byte packet[] = mOutgoingBuffer;
-                mOutgoingBuffer = null;
-                return packet;
-            }
-        }
-        return null;
-    }
-
-    private byte[] applySegmentation(final int mtuSize, final byte[] pdu) {
-        int srcOffset = 0;
-        int dstOffset = 0;
-        final int chunks = (pdu.length + (mtuSize - 1)) / mtuSize;
-
-        final int pduType = pdu[0];
-        if (chunks > 1) {
-            final byte[] segmentedBuffer = new byte[pdu.length + chunks - 1];
-            int length;
-            for (int i = 0; i < chunks; i++) {
-                if (i == 0) {
-                    length = Math.min(pdu.length - srcOffset, mtuSize);
-                    System.arraycopy(pdu, srcOffset, segmentedBuffer, dstOffset, length);
-                    segmentedBuffer[0] = (byte) ((GATT_SAR_START << 6) | pduType);
-                } else if (i == chunks - 1) {
-                    length = Math.min(pdu.length - srcOffset, mtuSize);
-                    segmentedBuffer[dstOffset] = (byte) ((GATT_SAR_END << 6) | pduType);
-                    System.arraycopy(pdu, srcOffset, segmentedBuffer, dstOffset + 1, length);
-                } else {
-                    length = Math.min(pdu.length - srcOffset, mtuSize - 1);
-                    segmentedBuffer[dstOffset] = (byte) ((GATT_SAR_CONTINUATION << 6) | pduType);
-                    System.arraycopy(pdu, srcOffset, segmentedBuffer, dstOffset + 1, length);
-                }
-                srcOffset += length;
-                dstOffset += mtuSize;
-            }
-            return segmentedBuffer;
-        }
-        return pdu;
-    }
-
-    private byte[] removeSegmentation(final int mtuSize, final byte[] data) {
-        int srcOffset = 0;
-        int dstOffset = 0;
-        final int chunks = (data.length + (mtuSize - 1)) / mtuSize;
-        if (chunks > 1) {
-            final byte[] buffer = new byte[data.length - (chunks - 1)];
-            int length;
-            for (int i = 0; i < chunks; i++) {
-                // when removing segmentation bits we only remove the start because the pdu type would be the same for each segment.
-                // Therefore we can ignore this pdu type byte as they are already put together in the ble
-                if (i == 0) {
-                    length = Math.min(buffer.length - dstOffset, mtuSize);
-                    System.arraycopy(data, srcOffset, buffer, dstOffset, length);
-                    buffer[0] = (byte) (buffer[0] & GATT_SAR_UNMASK);
-                } else if (i == chunks - 1) {
-                    length = Math.min(buffer.length - dstOffset, mtuSize);
-                    System.arraycopy(data, srcOffset + 1, buffer, dstOffset, length);
-                } else {
-                    length = Math.min(buffer.length - dstOffset, mtuSize) - 1;
-                    System.arraycopy(data, srcOffset + 1, buffer, dstOffset, length);
-                }
-                srcOffset += mtuSize;
-                dstOffset += length;
-            }
-            return buffer;
-        }
-        return data;
-    }
-
     @Override
     public void identifyNode(@NonNull final UUID deviceUUID, @Nullable final String nodeName) throws IllegalArgumentException {
         mMeshProvisioningHandler.identify(deviceUUID, nodeName,
@@ -846,6 +903,114 @@ public class MeshManagerApi implements MeshMngrApi {
         mMeshMessageHandler.sendMeshMessage(mMeshNetwork.getSelectedProvisioner().getProvisionerAddress(), dst, meshMessage);
     }
 
+    @Override
+    public MeshTransaction sendMeshMessage(final int dst, @NonNull final MeshMessage meshMessage, @NonNull final MeshTransactionCallback callback) {
+        if (!MeshAddress.isValidUnicastAddress(dst)) {
+            throw new IllegalArgumentException("Invalid address, destination address must be a unicast address!");
+        }
+        return mMeshMessageHandler.sendMeshMessage(mMeshNetwork.getSelectedProvisioner().getProvisionerAddress(), dst, meshMessage, callback);
+    }
+
+    @Override
+    public MeshRetransmission sendMeshMessage(@NonNull final Set<Integer> elementAddresses,
+                                              final int modelIdentifier,
+                                              @NonNull final MeshMessage meshMessage,
+                                              final int retransmissions,
+                                              final long retransmissionInterval) {
+        for (int address : elementAddresses) {
+            if (!MeshAddress.isValidUnicastAddress(address)) {
+                throw new IllegalArgumentException("Invalid address, element addresses must be unicast addresses!");
+            }
+        }
+        if (retransmissions < 0) {
+            throw new IllegalArgumentException("Retransmissions cannot be negative!");
+        } else if (retransmissions > 0 && meshMessage.isAcknowledged()) {
+            throw new IllegalArgumentException("Only unacknowledged messages can be retransmitted!");
+        } else if (retransmissions > 0 && retransmissionInterval <= 0) {
+            throw new IllegalArgumentException("Retransmission interval must be positive!");
+        }
+
+        final List<Integer> destinations = GroupFanOutPlanner.planDestinations(elementAddresses,
+                GroupFanOutPlanner.getSubscriptions(mMeshNetwork, modelIdentifier));
+        final int src = mMeshNetwork.getSelectedProvisioner().getProvisionerAddress();
+        final MeshRetransmission retransmission = new MeshRetransmission(mHanlder, destinations, () -> {
+            for (int dst : destinations) {
+                mMeshMessageHandler.sendMeshMessage(src, dst, meshMessage);
+            }
+        }, retransmissions, retransmissionInterval, mRetransmissions);
+        mRetransmissions.add(retransmission);
+        retransmission.start();
+        return retransmission;
+    }
+
+    private void cancelRetransmissions() {
+        for (MeshRetransmission retransmission : mRetransmissions) {
+            retransmission.cancel();
+        }
+    }
+
+    @Override
+    public ConfigurationPlanExecution executeConfigurationPlan(@NonNull final ConfigurationPlan plan,
+                                                               @NonNull final List<ProvisionedMeshNode> nodes,
+                                                               @NonNull final ConfigurationPlanCallbacks callbacks) {
+        final ConfigurationPlanExecution execution = new ConfigurationPlanExecution(this::sendMeshMessage, mMeshNetwork, plan, nodes, callbacks);
+        execution.start();
+        return execution;
+    }
+
+    @Override
+    public void sendMeshMessage(@NonNull final UUID labelUuid, @NonNull final MeshMessage meshMessage) {
+        final int virtualAddress = MeshAddress.generateVirtualAddress(labelUuid);
+        final List<byte[]> labelUuids = mMeshNetwork.getLabelUuids(virtualAddress);
+        if (labelUuids.isEmpty() || !Arrays.equals(labelUuids.get(0), MeshParserUtils.uuidToBytes(labelUuid))) {
+            throw new IllegalArgumentException("Label UUID does not belong to a group in the mesh network!");
+        } else if (labelUuids.size() > 1) {
+            throw new IllegalArgumentException("Virtual address of the label UUID is shared with another label in the mesh network!");
+        }
+        sendMeshMessage(virtualAddress, meshMessage);
+    }
+
+    @Override
+    public void registerMeshMessageDecoder(final int opCode, @NonNull final MeshMessageDecoder decoder) {
+        mMeshMessageHandler.registerMeshMessageDecoder(opCode, decoder);
+    }
+
+    @Override
+    public void registerVendorModelMessageDecoder(final int companyIdentifier, final int opCode, @NonNull final MeshMessageDecoder decoder) {
+        mMeshMessageHandler.registerVendorModelMessageDecoder(companyIdentifier, opCode, decoder);
+    }
+
+    @Override
+    public void unregisterMeshMessageDecoder(final int opCode) {
+        mMeshMessageHandler.unregisterMeshMessageDecoder(opCode);
+    }
+
+    @NonNull
+    @Override
+    public HeartbeatTable getHeartbeatTable() {
+        return mMeshMessageHandler.getHeartbeatTable();
+    }
+
+    @NonNull
+    @Override
+    public List<ProvisionedMeshNode> getStaleNodes(final long maxAge) {
+        final List<ProvisionedMeshNode> staleNodes = new ArrayList<>();
+        final MeshNetwork meshNetwork = mMeshNetwork;
+        if (meshNetwork == null)
+            return staleNodes;
+
+        final HeartbeatTable heartbeatTable = mMeshMessageHandler.getHeartbeatTable();
+        final int provisionerAddress = meshNetwork.getProvisionerAddress();
+        final long now = SystemClock.elapsedRealtime();
+        for (ProvisionedMeshNode node : meshNetwork.getProvisionedNodes()) {
+            final int unicastAddress = node.getUnicastAddress();
+            if (unicastAddress != provisionerAddress && !heartbeatTable.isAlive(unicastAddress, maxAge, now)) {
+                staleNodes.add(node);
+            }
+        }
+        return staleNodes;
+    }
+
     @Override
     public void exportMeshNetwork(@NonNull final String path) {
         final MeshNetwork meshNetwork = mMeshNetwork;
@@ -888,31 +1053,48 @@ public class MeshManagerApi implements MeshMngrApi {
         @Override
         public void sendProvisioningPdu(final UnprovisionedMeshNode meshNode, final byte[] pdu) {
             final int mtu = mTransportCallbacks.getMtu();
-            mTransportCallbacks.sendProvisioningPdu(meshNode, applySegmentation(mtu, pdu));
+            mTransportCallbacks.sendProvisioningPdu(meshNode, ProxySarDecoder.applySegmentation(mtu, pdu));
         }
 
         @Override
         public void sendMeshPdu(final byte[] dst, final byte[] pdu) {
-            //We must save the mesh network state for every message that is being sent out.
-            //This will specifically save the sequence number for every message sent.
-            final int dstAddress = AddressUtils.getUnicastAddressInt(dst);
-            final ProvisionedMeshNode meshNode = mMeshNetwork.getProvisionedNode(dstAddress);
-            updateNetwork(meshNode);
-            final int mtu = mTransportCallbacks.getMtu();
-            mTransportCallbacks.sendMeshPdu(applySegmentation(mtu, pdu));
+            sendMeshPdu(AddressUtils.getUnicastAddressInt(dst), pdu, TransmitQueueMetrics.PRIORITY_APPLICATION);
         }
 
         @Override
         public void sendMeshPdu(final int dst, final byte[] pdu) {
-            final ProvisionedMeshNode meshNode = mMeshNetwork.getProvisionedNode(dst);
-            updateNetwork(meshNode);
-            final int mtu = mTransportCallbacks.getMtu();
-            mTransportCallbacks.sendMeshPdu(applySegmentation(mtu, pdu));
+            sendMeshPdu(dst, pdu, TransmitQueueMetrics.PRIORITY_APPLICATION);
+        }
+
+        @Override
+        public void sendMeshPdu(final int dst, final byte[] pdu, final int priority) {
+            //The sequence number is persisted when a block of sequence numbers is reserved, not for every pdu sent
+            if (mProxySessions.isEmpty()) {
+                mDefaultProxySession.send(pdu, priority);
+            } else if (pdu[0] == PDU_TYPE_PROXY_CONFIGURATION) {
+                for (ProxyBearerSession session : mProxySessions) {
+                    session.send(pdu, priority);
+                }
+            } else {
+                final ProvisionedMeshNode node = MeshAddress.isValidUnicastAddress(dst) ? getMeshNode(dst) : null;
+                final ProxyBearerSession session = ProxySessionRouter.select(mProxySessions,
+                        node == null ? MeshAddress.UNASSIGNED_ADDRESS : node.getUnicastAddress());
+                if (session != null) {
+                    session.send(pdu, priority);
+                }
+            }
         }
 
         @Override
         public void updateMeshNetwork(final MeshMessage message) {
             final ProvisionedMeshNode meshNode = mMeshNetwork.getProvisionedNode(message.getSrc());
+            if (message instanceof ProxyConfigFilterStatus && meshNode != null) {
+                for (ProxyBearerSession session : mProxySessions) {
+                    if (session.getProxyAddress() == meshNode.getUnicastAddress()) {
+                        session.setProxyFilter(meshNode.getProxyFilter());
+                    }
+                }
+            }
             updateNetwork(meshNode);
         }
 
@@ -920,6 +1102,12 @@ public class MeshManagerApi implements MeshMngrApi {
         public void onMeshNodeReset(final ProvisionedMeshNode meshNode) {
             if (meshNode != null) {
                 if (mMeshNetwork.deleteResetNode(meshNode)) {
+                    final ReplayProtectionList replayProtectionList = mMeshNetwork.getReplayProtectionList();
+                    replayProtectionList.remove(meshNode.getUnicastAddress());
+                    for (Integer elementAddress : meshNode.getElements().keySet()) {
+                        replayProtectionList.remove(elementAddress);
+                    }
+                    mMeshNetworkWriter.discardNode(meshNode.getUnicastAddress());
                     mMeshNetworkDb.deleteNode(mProvisionedNodeDao, meshNode);
                     mTransportCallbacks.onNetworkUpdated(mMeshNetwork);
                 }
@@ -931,14 +1119,14 @@ public class MeshManagerApi implements MeshMngrApi {
                 for (int i = 0; i < mMeshNetwork.nodes.size(); i++) {
                     if (meshNode.getUnicastAddress() == mMeshNetwork.nodes.get(i).getUnicastAddress()) {
                         mMeshNetwork.nodes.set(i, meshNode);
-                        mMeshNetworkDb.updateNode(mProvisionedNodeDao, meshNode);
+                        mMeshNetworkWriter.markNodeDirty(meshNode);
                         break;
                     }
                 }
             }
-            mMeshNetworkDb.updateProvisioner(mProvisionerDao, mMeshNetwork.getSelectedProvisioner());
             mMeshNetwork.setTimestamp(MeshParserUtils.getInternationalAtomicTime(System.currentTimeMillis()));
-            mMeshNetworkDb.updateNetwork(mMeshNetworkDao, mMeshNetwork);
+            //The selected provisioner is written along with the network
+            mMeshNetworkWriter.markNetworkDirty(mMeshNetwork);
             mTransportCallbacks.onNetworkUpdated(mMeshNetwork);
         }
     };
@@ -999,6 +1187,35 @@ public class MeshManagerApi implements MeshMngrApi {
         public NetworkKey getPrimaryNetworkKey() {
             return mMeshNetwork.getPrimaryNetworkKey();
         }
+
+        @Override
+        public NetworkCredentials getPrimaryNetworkCredentials() {
+            return mMeshNetwork.getPrimaryNetworkKey().getTransmitCredentials();
+        }
+
+        @Override
+        public List<NetworkCredentials> getNetworkCredentials(final int nid) {
+            return mMeshNetwork.getNetworkCredentials(nid);
+        }
+
+        @Override
+        public ReplayProtectionList getReplayProtectionList() {
+            return mMeshNetwork.getReplayProtectionList();
+        }
+
+        @Override
+        public void onSequenceNumbersReserved(final Provisioner provisioner) {
+            if (provisioner.getSequenceNumber() >= Provisioner.IV_UPDATE_SEQUENCE_NUMBER_THRESHOLD) {
+                MeshLogger.w(TAG, "Sequence number " + provisioner.getCurrentSequenceNumber() + " is close to exhaustion");
+                //The iv index only moves with the beacons of the network, as the library does not send beacons of its own
+                if (mSequenceNumberCallbacks != null) {
+                    mSequenceNumberCallbacks.onSequenceNumbersRunningLow(provisioner, provisioner.getCurrentSequenceNumber());
+                }
+            }
+            //The write is queued straight away, the transport layers wait for it before using a sequence number of the new block
+            mMeshNetworkWriter.markNetworkDirty(mMeshNetwork);
+            mMeshNetworkWriter.flush();
+        }
     };
 
     @SuppressWarnings("FieldCanBeLocal")
@@ -1006,19 +1223,24 @@ public class MeshManagerApi implements MeshMngrApi {
 
 
         @Override
-        public byte[] getIvIndex() {
-            return ByteBuffer.allocate(4).putInt(mMeshNetwork.getIvIndex()).array();
+        public int getIvIndex() {
+            //Messages are sent with the previous iv index while the iv update procedure is in progress
+            return SecureNetworkBeaconHandler.getTransmitIvIndex(mMeshNetwork.getIvIndex(), mMeshNetwork.getIvUpdateState());
         }
 
         @Override
-        public byte[] getApplicationKey(final int aid) {
-            for (ApplicationKey key : mMeshNetwork.getAppKeys()) {
-                final byte[] k = key.getKey();
-                if (aid == SecureUtils.calculateK4(k)) {
-                    return key.getKey();
-                }
-            }
-            return null;
+        public int getReceivedIvIndex(final int ivi) {
+            return SecureNetworkBeaconHandler.getReceivedIvIndex(mMeshNetwork.getIvIndex(), ivi);
+        }
+
+        @Override
+        public List<byte[]> getApplicationKeys(final int aid) {
+            return mMeshNetwork.getApplicationKeys(aid);
+        }
+
+        @Override
+        public List<byte[]> getLabelUuids(final int address) {
+            return mMeshNetwork.getLabelUuids(address);
         }
     };
 
@@ -1038,6 +1260,12 @@ public class MeshManagerApi implements MeshMngrApi {
             }
             network.setCallbacks(callbacks);
             mMeshNetwork = network;
+            //Allocation resumes at the end of the persisted block, so the next block is reserved before the first message is sent
+            final Provisioner provisioner = network.getSelectedProvisioner();
+            if (provisioner != null && provisioner.reserveSequenceNumbers()) {
+                mMeshNetworkWriter.markNetworkDirty(network);
+                mMeshNetworkWriter.flush();
+            }
             mTransportCallbacks.onNetworkLoaded(network);
         }
 
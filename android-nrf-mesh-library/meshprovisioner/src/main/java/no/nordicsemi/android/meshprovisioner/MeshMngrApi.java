@@ -4,10 +4,17 @@ import android.net.Uri;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
 import no.nordicsemi.android.meshprovisioner.provisionerstates.UnprovisionedMeshNode;
+import no.nordicsemi.android.meshprovisioner.transport.ConfigHeartbeatPublicationSet;
+import no.nordicsemi.android.meshprovisioner.transport.HeartbeatTable;
 import no.nordicsemi.android.meshprovisioner.transport.MeshMessage;
+import no.nordicsemi.android.meshprovisioner.transport.MeshMessageDecoder;
+import no.nordicsemi.android.meshprovisioner.transport.MeshTransaction;
+import no.nordicsemi.android.meshprovisioner.transport.MeshTransactionCallback;
 import no.nordicsemi.android.meshprovisioner.transport.ProvisionedMeshNode;
 import no.nordicsemi.android.meshprovisioner.utils.InputOOBAction;
 import no.nordicsemi.android.meshprovisioner.utils.OutputOOBAction;
@@ -190,6 +197,125 @@ interface MeshMngrApi {
      */
     void sendMeshMessage(final int dst, @NonNull final MeshMessage meshMessage) throws IllegalArgumentException;
 
+    /**
+     * Sends the specified mesh message to the virtual address of a Label UUID
+     * <p>
+     * The Label UUID must belong to a group in the mesh network and must not share its virtual address with another label of the network.
+     * </p>
+     *
+     * @param labelUuid   Label UUID of the virtual address
+     * @param meshMessage {@link MeshMessage} Mesh message containing the message opcode and message parameters
+     */
+    void sendMeshMessage(@NonNull final UUID labelUuid, @NonNull final MeshMessage meshMessage) throws IllegalArgumentException;
+
+    /**
+     * Sends an acknowledged mesh message to a unicast address and returns a handle to the transaction.
+     * <p>
+     * The callback is notified with the typed status the node responded with, e.g. {@link no.nordicsemi.android.meshprovisioner.transport.ConfigAppKeyStatus},
+     * once it has been correlated to the message, or with the failure of the transaction. Messages are queued while the maximum number of
+     * transactions are in flight, which allows a large number of requests to be issued with a bounded concurrency.
+     * </p>
+     *
+     * @param dst         unicast address of the element the message is sent to
+     * @param meshMessage acknowledged {@link MeshMessage}
+     * @param callback    {@link MeshTransactionCallback} notified with the result of the transaction
+     * @return {@link MeshTransaction} handle that can be used to cancel the transaction
+     * @throws IllegalArgumentException if the message is not acknowledged or the destination is not a unicast address
+     */
+    MeshTransaction sendMeshMessage(final int dst, @NonNull final MeshMessage meshMessage, @NonNull final MeshTransactionCallback callback) throws IllegalArgumentException;
+
+    /**
+     * Sends a mesh message to a set of elements using as few destinations as the stored subscriptions allow.
+     * <p>
+     * A group address is used instead of the unicast addresses of its subscribers when every element whose model is subscribed to it is one of the targets,
+     * the remaining elements are sent to individually. Unacknowledged messages can be retransmitted, where each retransmission reuses the parameters
+     * of the message so that the nodes recognise a repeated message by its transaction identifier.
+     * </p>
+     *
+     * @param elementAddresses       unicast addresses of the target elements
+     * @param modelIdentifier        identifier of the model the message is sent to, whose subscriptions are used
+     * @param meshMessage            {@link MeshMessage} to be sent
+     * @param retransmissions        number of times an unacknowledged message is repeated
+     * @param retransmissionInterval interval between the repetitions in milliseconds, must be positive if the message is repeated
+     * @return {@link MeshRetransmission} handle with the destination addresses, that can be used to cancel the retransmissions
+     * @throws IllegalArgumentException if an address is not a unicast address, an acknowledged message is to be retransmitted or the
+     *                                  retransmission interval is not positive
+     */
+    MeshRetransmission sendMeshMessage(@NonNull final Set<Integer> elementAddresses,
+                                       final int modelIdentifier,
+                                       @NonNull final MeshMessage meshMessage,
+                                       final int retransmissions,
+                                       final long retransmissionInterval) throws IllegalArgumentException;
+
+    /**
+     * Configures a list of provisioned nodes according to a {@link ConfigurationPlan}.
+     * <p>
+     * The composition data is requested from the nodes whose elements are not known, then the application keys are added and the bindings,
+     * publications and subscriptions of the plan are set. Steps already satisfied according to the local node model are skipped.
+     * The nodes are configured concurrently and the progress is notified to the {@link ConfigurationPlanCallbacks}.
+     * </p>
+     *
+     * @param plan      {@link ConfigurationPlan} to be applied
+     * @param nodes     nodes to be configured
+     * @param callbacks {@link ConfigurationPlanCallbacks} notified with the progress of each node
+     * @return {@link ConfigurationPlanExecution} handle that can be used to cancel the configuration
+     */
+    ConfigurationPlanExecution executeConfigurationPlan(@NonNull final ConfigurationPlan plan,
+                                                        @NonNull final List<ProvisionedMeshNode> nodes,
+                                                        @NonNull final ConfigurationPlanCallbacks callbacks);
+
+    /**
+     * Registers a decoder for the opcode of a received access message, allowing the status messages of application defined models to be parsed.
+     * <p>
+     * The decoded message is delivered to {@link MeshStatusCallbacks#onMeshMessageReceived(int, MeshMessage)}.
+     * The status messages decoded by the library can not be replaced.
+     * </p>
+     *
+     * @param opCode  1, 2 or 3-octet opcode of the message
+     * @param decoder {@link MeshMessageDecoder} decoding the message
+     * @throws IllegalArgumentException if the opcode is invalid or is decoded by the library
+     */
+    void registerMeshMessageDecoder(final int opCode, @NonNull final MeshMessageDecoder decoder) throws IllegalArgumentException;
+
+    /**
+     * Registers a decoder for the opcode of a received vendor model message.
+     * <p>
+     * Vendor model messages without a registered decoder are only decoded if the last message sent was a vendor model message.
+     * </p>
+     *
+     * @param companyIdentifier 16-bit company identifier of the vendor model
+     * @param opCode            6-bit vendor opcode of the message
+     * @param decoder           {@link MeshMessageDecoder} decoding the message
+     */
+    void registerVendorModelMessageDecoder(final int companyIdentifier, final int opCode, @NonNull final MeshMessageDecoder decoder);
+
+    /**
+     * Removes a decoder registered by the application
+     *
+     * @param opCode 1, 2 or 3-octet opcode of the message
+     */
+    void unregisterMeshMessageDecoder(final int opCode);
+
+    /**
+     * Returns the table of heartbeats received from the nodes in the network.
+     * <p>
+     * Nodes publish heartbeats once heartbeat publication is configured using {@link ConfigHeartbeatPublicationSet}.
+     * </p>
+     */
+    @NonNull
+    HeartbeatTable getHeartbeatTable();
+
+    /**
+     * Returns the nodes from which no heartbeat was received within the given time.
+     * <p>
+     * Nodes from which no heartbeat has been received at all are also returned, while the node of the provisioner is not.
+     * </p>
+     *
+     * @param maxAge maximum time since the last heartbeat, in milliseconds
+     */
+    @NonNull
+    List<ProvisionedMeshNode> getStaleNodes(final long maxAge);
+
     /**
      * Exports mesh network to a json file
      */
@@ -5,19 +5,23 @@ import android.arch.persistence.room.Entity;
 import android.support.annotation.NonNull;
 import android.support.annotation.RestrictTo;
 import android.text.TextUtils;
+import android.util.SparseArray;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 
 import no.nordicsemi.android.meshprovisioner.transport.ApplicationKey;
 import no.nordicsemi.android.meshprovisioner.transport.Element;
 import no.nordicsemi.android.meshprovisioner.transport.MeshModel;
+import no.nordicsemi.android.meshprovisioner.transport.NetworkCredentials;
 import no.nordicsemi.android.meshprovisioner.transport.NetworkKey;
 import no.nordicsemi.android.meshprovisioner.transport.ProvisionedMeshNode;
 import no.nordicsemi.android.meshprovisioner.utils.AddressUtils;
 import no.nordicsemi.android.meshprovisioner.utils.MeshParserUtils;
+import no.nordicsemi.android.meshprovisioner.utils.ReplayProtectionList;
 import no.nordicsemi.android.meshprovisioner.utils.SecureUtils;
 
 @SuppressWarnings({"WeakerAccess", "unused", "UnusedReturnValue"})
@@ -109,6 +113,7 @@ public final class MeshNetwork extends BaseMeshNetwork {
 
     void setGroups(final List<Group> groups) {
         this.groups = groups;
+        invalidateLabelUuids();
     }
 
     /**
@@ -120,9 +125,7 @@ public final class MeshNetwork extends BaseMeshNetwork {
     public boolean addGroup(@NonNull final Group group) {
         if (!isGroupExist(group)) {
             this.groups.add(group);
-            if (mCallbacks != null) {
-                mCallbacks.onGroupAdded(group);
-            }
+            notifyGroupAdded(group);
             return true;
         }
         return false;
@@ -142,9 +145,27 @@ public final class MeshNetwork extends BaseMeshNetwork {
 
         if (!isGroupExist(group)) {
             this.groups.add(group);
-            if (mCallbacks != null) {
-                mCallbacks.onGroupAdded(group);
-            }
+            notifyGroupAdded(group);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Adds a group with a virtual address to the existing group list within the network
+     *
+     * @param addressLabel Label UUID of the virtual address
+     * @param name         Friendly name of the group
+     * @return true if the group was successfully added and false otherwise since a group may already exist with the same Label UUID
+     */
+    public boolean addGroup(@NonNull final UUID addressLabel, @NonNull final String name) {
+        final Group group = new Group(addressLabel, meshUUID);
+        if (!TextUtils.isEmpty(name))
+            group.setName(name);
+
+        if (!isGroupExist(group)) {
+            this.groups.add(group);
+            notifyGroupAdded(group);
             return true;
         }
         return false;
@@ -165,9 +186,7 @@ public final class MeshNetwork extends BaseMeshNetwork {
      */
     public boolean updateGroup(@NonNull final Group group){
         if (isGroupExist(group)) {
-            if (mCallbacks != null) {
-                mCallbacks.onGroupUpdated(group);
-            }
+            notifyGroupUpdated(group);
             return true;
         }
         return false;
@@ -179,9 +198,7 @@ public final class MeshNetwork extends BaseMeshNetwork {
      */
     public boolean removeGroup(@NonNull final Group group){
         if(groups.remove(group)){
-            if(mCallbacks != null) {
-                mCallbacks.onGroupDeleted(group);
-            }
+            notifyGroupDeleted(group);
             return true;
         }
         return false;
@@ -209,12 +226,56 @@ public final class MeshNetwork extends BaseMeshNetwork {
     public boolean isGroupExist(@NonNull final Group group) {
         for (final Group grp : groups) {
             if (group.getGroupAddress() == grp.getGroupAddress()) {
-                return true;
+                //Different Label UUIDs may share the same virtual address
+                if (group.getAddressLabel() == null || group.getAddressLabel().equals(grp.getAddressLabel())) {
+                    return true;
+                }
             }
         }
         return false;
     }
 
+    /**
+     * Returns the Label UUIDs of the groups whose virtual address matches a given address.
+     * <p>
+     * The Label UUIDs are indexed by the 14-bit hash that makes up the virtual address, so only the few labels sharing the hash are returned.
+     * </p>
+     *
+     * @param address virtual address
+     * @return list of 16-byte Label UUIDs or an empty list if there are none
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public List<byte[]> getLabelUuids(final int address) {
+        final int hash = address & 0x3FFF;
+        SparseArray<List<byte[]>> index = mLabelUuidIndex;
+        if (index == null) {
+            index = buildLabelUuidIndex();
+            mLabelUuidIndex = index;
+        }
+        final List<byte[]> labelUuids = index.get(hash);
+        if (labelUuids == null) {
+            return Collections.emptyList();
+        }
+        return labelUuids;
+    }
+
+    private SparseArray<List<byte[]>> buildLabelUuidIndex() {
+        final SparseArray<List<byte[]>> index = new SparseArray<>();
+        for (Group group : groups) {
+            final UUID addressLabel = group.getAddressLabel();
+            if (addressLabel != null) {
+                final int hash = group.getGroupAddress() & 0x3FFF;
+                List<byte[]> labelUuids = index.get(hash);
+                if (labelUuids == null) {
+                    labelUuids = new ArrayList<>();
+                    index.put(hash, labelUuids);
+                }
+                labelUuids.add(MeshParserUtils.uuidToBytes(addressLabel));
+            }
+        }
+        return index;
+    }
+
     /**
      * Returns a list of elements assigned to a particular group
      *
@@ -302,11 +363,70 @@ public final class MeshNetwork extends BaseMeshNetwork {
 
         final NetworkKey networkKey = new NetworkKey(0, MeshParserUtils.toByteArray(SecureUtils.generateRandomNetworkKey()));
         netKeys.add(networkKey);
+        invalidateNetworkCredentials();
         return networkKey;
     }
 
     void setNetKeys(List<NetworkKey> netKeys) {
         this.netKeys = netKeys;
+        invalidateNetworkCredentials();
+    }
+
+    /**
+     * Returns the replay protection list containing the last sequence number received from each element
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public ReplayProtectionList getReplayProtectionList() {
+        if (replayProtectionList == null) {
+            replayProtectionList = new ReplayProtectionList();
+        }
+        return replayProtectionList;
+    }
+
+    /**
+     * Returns the credentials of the network keys matching a given NID.
+     * <p>
+     * During a key refresh procedure both the old and the new key of a subnet are returned, with the new key first.
+     * The NID is only 7 bits long, so more than one subnet may share the same NID and callers must try each candidate.
+     * The NID index is built on the first lookup and cleared whenever a network key is added, updated or removed through the network.
+     * </p>
+     *
+     * @param nid 7-bit network identifier
+     * @return list of matching credentials or an empty list if there are none
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public List<NetworkCredentials> getNetworkCredentials(final int nid) {
+        SparseArray<List<NetworkCredentials>> index = mNetworkCredentialsIndex;
+        if (index == null) {
+            index = buildNetworkCredentialsIndex();
+            mNetworkCredentialsIndex = index;
+        }
+        final List<NetworkCredentials> credentials = index.get(nid);
+        if (credentials == null) {
+            return Collections.emptyList();
+        }
+        return credentials;
+    }
+
+    private SparseArray<List<NetworkCredentials>> buildNetworkCredentialsIndex() {
+        final SparseArray<List<NetworkCredentials>> index = new SparseArray<>();
+        for (NetworkKey networkKey : netKeys) {
+            addToNetworkCredentialsIndex(index, networkKey.getCredentials());
+            final NetworkCredentials oldCredentials = networkKey.getOldCredentials();
+            if (oldCredentials != null) {
+                addToNetworkCredentialsIndex(index, oldCredentials);
+            }
+        }
+        return index;
+    }
+
+    private void addToNetworkCredentialsIndex(final SparseArray<List<NetworkCredentials>> index, final NetworkCredentials credentials) {
+        List<NetworkCredentials> candidates = index.get(credentials.getNid());
+        if (candidates == null) {
+            candidates = new ArrayList<>();
+            index.put(credentials.getNid(), candidates);
+        }
+        candidates.add(credentials);
     }
 
     public List<ApplicationKey> getAppKeys() {
@@ -315,6 +435,52 @@ public final class MeshNetwork extends BaseMeshNetwork {
 
     void setAppKeys(List<ApplicationKey> appKeys) {
         this.appKeys = appKeys;
+        invalidateApplicationKeys();
+    }
+
+    /**
+     * Returns the application keys matching a given AID.
+     * <p>
+     * During a key refresh procedure both the new and the old key of an application key are returned, with the new key first.
+     * The AID is only 6 bits long, so more than one application key may share the same AID and callers must try each candidate.
+     * The AID index is built on the first lookup and cleared whenever an application key is added, updated or removed through the network.
+     * </p>
+     *
+     * @param aid 6-bit application key identifier
+     * @return list of matching keys or an empty list if there are none
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public List<byte[]> getApplicationKeys(final int aid) {
+        SparseArray<List<byte[]>> index = mApplicationKeyIndex;
+        if (index == null) {
+            index = buildApplicationKeyIndex();
+            mApplicationKeyIndex = index;
+        }
+        final List<byte[]> keys = index.get(aid);
+        if (keys == null) {
+            return Collections.emptyList();
+        }
+        return keys;
+    }
+
+    private SparseArray<List<byte[]>> buildApplicationKeyIndex() {
+        final SparseArray<List<byte[]>> index = new SparseArray<>();
+        for (ApplicationKey applicationKey : appKeys) {
+            addToApplicationKeyIndex(index, applicationKey.getAid(), applicationKey.getKey());
+            if (applicationKey.getOldKey() != null) {
+                addToApplicationKeyIndex(index, applicationKey.getOldAid(), applicationKey.getOldKey());
+            }
+        }
+        return index;
+    }
+
+    private void addToApplicationKeyIndex(final SparseArray<List<byte[]>> index, final int aid, final byte[] key) {
+        List<byte[]> keys = index.get(aid);
+        if (keys == null) {
+            keys = new ArrayList<>();
+            index.put(aid, keys);
+        }
+        keys.add(key);
     }
 
     /**
@@ -391,7 +557,7 @@ public final class MeshNetwork extends BaseMeshNetwork {
     /**
      * Sets the iv update state.
      * <p>
-     * This is not currently supported by the library
+     * The iv update state is driven by the secure network beacons received from the proxy nodes
      * </p>
      *
      * @param ivUpdateState 0 if normal operation and 1 if iv update is active
@@ -402,16 +568,30 @@ public final class MeshNetwork extends BaseMeshNetwork {
     }
 
     /**
-     * Returns the provisioning flags
+     * Returns the time the iv index or the iv update state last changed in milliseconds since the epoch
+     */
+    long getIvUpdateTimestamp() {
+        return ivUpdateTimestamp;
+    }
+
+    /**
+     * Returns the time the iv index was last recovered in milliseconds since the epoch or 0 if it has never been recovered
+     */
+    long getIvRecoveryTimestamp() {
+        return ivRecoveryTimestamp;
+    }
+
+    /**
+     * Returns the provisioning flags, where bit 0 is the key refresh flag and bit 1 is the iv update flag
      */
     public final int getProvisioningFlags() {
         int flags = 0;
         if (getPrimaryNetworkKey().getPhase() == NetworkKey.PHASE_2) {
-            flags |= 1 << 7;
+            flags |= SecureNetworkBeaconHandler.KEY_REFRESH_FLAG;
         }
 
         if (ivUpdateState == IV_UPDATE_ACTIVE) {
-            flags |= 1 << 6;
+            flags |= SecureNetworkBeaconHandler.IV_UPDATE_FLAG;
         }
 
         return flags;
@@ -43,7 +43,7 @@ import no.nordicsemi.android.meshprovisioner.utils.MeshParserUtils;
         ProvisionedMeshNode.class,
         Group.class,
         Scene.class},
-        version = 2)
+        version = 5)
 abstract class MeshNetworkDb extends RoomDatabase {
 
     abstract MeshNetworkDao meshNetworkDao();
@@ -79,7 +79,7 @@ abstract class MeshNetworkDb extends RoomDatabase {
                     INSTANCE = Room.databaseBuilder(context.getApplicationContext(),
                             MeshNetworkDb.class, "mesh_network_database.db")
                             .addCallback(sRoomDatabaseCallback)
-                            .addMigrations(MIGRATION_1_2)
+                            .addMigrations(MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5)
                             .build();
                 }
 
@@ -144,6 +144,18 @@ abstract class MeshNetworkDb extends RoomDatabase {
         new UpdateNetworkAsyncTask(dao).execute(meshNetwork);
     }
 
+    /**
+     * Writes the nodes, the provisioner and the network in a single transaction
+     */
+    void updateNetwork(final MeshNetworkDao dao,
+                       final ProvisionerDao provisionerDao,
+                       final ProvisionedMeshNodeDao nodeDao,
+                       final List<ProvisionedMeshNode> nodes,
+                       final Provisioner provisioner,
+                       final MeshNetwork meshNetwork) {
+        new UpdateNetworkStateAsyncTask(this, dao, provisionerDao, nodeDao, nodes, provisioner).execute(meshNetwork);
+    }
+
     void deleteNetwork(final MeshNetworkDao dao, final MeshNetwork meshNetwork) {
         new DeleteNetworkAsyncTask(dao).execute(meshNetwork);
     }
@@ -344,6 +356,51 @@ abstract class MeshNetworkDb extends RoomDatabase {
         }
     }
 
+    private static class UpdateNetworkStateAsyncTask extends AsyncTask<MeshNetwork, Void, Void> {
+
+        private final MeshNetworkDb mMeshNetworkDb;
+        private final MeshNetworkDao mAsyncTaskDao;
+        private final ProvisionerDao provisionerDao;
+        private final ProvisionedMeshNodeDao nodeDao;
+        private final List<ProvisionedMeshNode> nodes;
+        private final Provisioner provisioner;
+
+        UpdateNetworkStateAsyncTask(final MeshNetworkDb meshNetworkDb,
+                                    final MeshNetworkDao dao,
+                                    final ProvisionerDao provisionerDao,
+                                    final ProvisionedMeshNodeDao nodeDao,
+                                    final List<ProvisionedMeshNode> nodes,
+                                    final Provisioner provisioner) {
+            this.mMeshNetworkDb = meshNetworkDb;
+            this.mAsyncTaskDao = dao;
+            this.provisionerDao = provisionerDao;
+            this.nodeDao = nodeDao;
+            this.nodes = nodes;
+            this.provisioner = provisioner;
+        }
+
+        @Override
+        protected Void doInBackground(final MeshNetwork... params) {
+            //The sequence number may be reserved further while writing, so only the value read before the write is confirmed
+            final int sequenceNumber = provisioner != null ? provisioner.getSequenceNumber() : 0;
+            mMeshNetworkDb.runInTransaction(() -> {
+                if (!nodes.isEmpty()) {
+                    nodeDao.update(nodes);
+                }
+                if (provisioner != null) {
+                    provisionerDao.update(provisioner);
+                }
+                if (params[0] != null) {
+                    mAsyncTaskDao.update(params[0]);
+                }
+            });
+            if (provisioner != null) {
+                provisioner.onSequenceNumbersPersisted(sequenceNumber);
+            }
+            return null;
+        }
+    }
+
     private static class DeleteNetworkAsyncTask extends AsyncTask<MeshNetwork, Void, Void> {
 
         private MeshNetworkDao mAsyncTaskDao;
@@ -685,6 +742,32 @@ abstract class MeshNetworkDb extends RoomDatabase {
         }
     };
 
+    static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE mesh_network "
+                    + " ADD COLUMN replay_protection_list BLOB");
+        }
+    };
+
+    static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE groups "
+                    + " ADD COLUMN address_label TEXT");
+        }
+    };
+
+    static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE mesh_network "
+                    + " ADD COLUMN iv_update_timestamp INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("ALTER TABLE mesh_network "
+                    + " ADD COLUMN iv_recovery_timestamp INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
     private static void migrateMeshNetwork(final SupportSQLiteDatabase database) {
         database.execSQL("CREATE TABLE `mesh_network_temp` " +
                 "(`mesh_uuid` TEXT NOT NULL, " +
@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import no.nordicsemi.android.meshprovisioner.data.MeshNetworkDao;
+import no.nordicsemi.android.meshprovisioner.data.ProvisionedMeshNodeDao;
+import no.nordicsemi.android.meshprovisioner.data.ProvisionerDao;
+import no.nordicsemi.android.meshprovisioner.transport.ProvisionedMeshNode;
+import no.nordicsemi.android.meshprovisioner.utils.MeshLogger;
+
+/**
+ * Write-behind persistence of the state that changes with every message, i.e. the sequence number of the provisioner and the state of the nodes.
+ * <p>
+ * Nodes and the network are marked dirty as messages are sent and received, and the dirty entities are written in one database transaction
+ * once the flush interval elapses or the number of updates reaches the batch size, whichever comes first. Pending writes are flushed when the
+ * application moves to the background, and should be flushed with {@link MeshManagerApi#flushMeshNetwork()} before the application is shut down.
+ * Writes are executed on the same serial executor as the other database tasks, so they are applied in order with inserts and deletes.
+ * </p>
+ */
+final class MeshNetworkWriter implements ComponentCallbacks2 {
+
+    private static final String TAG = MeshNetworkWriter.class.getSimpleName();
+    private static final long DEFAULT_FLUSH_INTERVAL = 1000;
+    private static final int DEFAULT_BATCH_SIZE = 64;
+
+    private final MeshNetworkDb mMeshNetworkDb;
+    private final MeshNetworkDao mMeshNetworkDao;
+    private final ProvisionerDao mProvisionerDao;
+    private final ProvisionedMeshNodeDao mProvisionedNodeDao;
+    private final Handler mHandler;
+    private final Runnable mFlushRunnable = this::flush;
+    private final Map<Integer, ProvisionedMeshNode> mDirtyNodes = new LinkedHashMap<>();
+    private MeshNetwork mDirtyNetwork;
+    private int mPendingUpdates;
+    private boolean mFlushScheduled;
+    private long mFlushInterval = DEFAULT_FLUSH_INTERVAL;
+    private int mBatchSize = DEFAULT_BATCH_SIZE;
+
+    MeshNetworkWriter(@NonNull final MeshNetworkDb meshNetworkDb,
+                      @NonNull final MeshNetworkDao meshNetworkDao,
+                      @NonNull final ProvisionerDao provisionerDao,
+                      @NonNull final ProvisionedMeshNodeDao provisionedNodeDao) {
+        this(meshNetworkDb, meshNetworkDao, provisionerDao, provisionedNodeDao, new Handler(Looper.getMainLooper()));
+    }
+
+    @VisibleForTesting
+    MeshNetworkWriter(@NonNull final MeshNetworkDb meshNetworkDb,
+                      @NonNull final MeshNetworkDao meshNetworkDao,
+                      @NonNull final ProvisionerDao provisionerDao,
+                      @NonNull final ProvisionedMeshNodeDao provisionedNodeDao,
+                      @NonNull final Handler handler) {
+        this.mMeshNetworkDb = meshNetworkDb;
+        this.mMeshNetworkDao = meshNetworkDao;
+        this.mProvisionerDao = provisionerDao;
+        this.mProvisionedNodeDao = provisionedNodeDao;
+        this.mHandler = handler;
+    }
+
+    /**
+     * Sets the maximum time an update waits before it is written
+     *
+     * @param flushInterval flush interval in milliseconds
+     */
+    synchronized void setFlushInterval(final long flushInterval) {
+        if (flushInterval < 0)
+            throw new IllegalArgumentException("Flush interval cannot be negative");
+        mFlushInterval = flushInterval;
+    }
+
+    /**
+     * Sets the number of updates after which the dirty entities are written without waiting for the flush interval
+     *
+     * @param batchSize number of updates, must be at least 1
+     */
+    synchronized void setBatchSize(final int batchSize) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("Batch size must be at least 1");
+        mBatchSize = batchSize;
+    }
+
+    /**
+     * Marks a node to be written with the next flush
+     *
+     * @param node provisioned node
+     */
+    void markNodeDirty(@NonNull final ProvisionedMeshNode node) {
+        synchronized (this) {
+            mDirtyNodes.put(node.getUnicastAddress(), node);
+        }
+        onUpdated();
+    }
+
+    /**
+     * Marks the network and its selected provisioner to be written with the next flush
+     *
+     * @param meshNetwork mesh network
+     */
+    void markNetworkDirty(@NonNull final MeshNetwork meshNetwork) {
+        synchronized (this) {
+            mDirtyNetwork = meshNetwork;
+        }
+        onUpdated();
+    }
+
+    /**
+     * Discards a pending update of a node that has been deleted
+     *
+     * @param unicastAddress unicast address of the node
+     */
+    synchronized void discardNode(final int unicastAddress) {
+        mDirtyNodes.remove(unicastAddress);
+    }
+
+    /**
+     * Writes the dirty entities in a single transaction
+     */
+    void flush() {
+        final List<ProvisionedMeshNode> nodes;
+        final MeshNetwork meshNetwork;
+        synchronized (this) {
+            mHandler.removeCallbacks(mFlushRunnable);
+            mFlushScheduled = false;
+            if (mPendingUpdates == 0)
+                return;
+
+            nodes = new ArrayList<>(mDirtyNodes.values());
+            meshNetwork = mDirtyNetwork;
+            if (MeshLogger.isVerbose()) {
+                MeshLogger.v(TAG, "Writing " + mPendingUpdates + " updates to " + nodes.size() + " nodes");
+            }
+            mDirtyNodes.clear();
+            mDirtyNetwork = null;
+            mPendingUpdates = 0;
+        }
+        //The only updates may have been to nodes that were deleted since
+        if (nodes.isEmpty() && meshNetwork == null)
+            return;
+        mMeshNetworkDb.updateNetwork(mMeshNetworkDao, mProvisionerDao, mProvisionedNodeDao, nodes,
+                meshNetwork != null ? meshNetwork.getSelectedProvisioner() : null, meshNetwork);
+    }
+
+    private void onUpdated() {
+        final boolean flush;
+        synchronized (this) {
+            mPendingUpdates++;
+            flush = mPendingUpdates >= mBatchSize;
+            if (!flush && !mFlushScheduled) {
+                mFlushScheduled = true;
+                mHandler.postDelayed(mFlushRunnable, mFlushInterval);
+            }
+        }
+        if (flush) {
+            flush();
+        }
+    }
+
+    @Override
+    public void onTrimMemory(final int level) {
+        //The application has moved to the background or is about to be killed
+        if (level >= TRIM_MEMORY_UI_HIDDEN) {
+            flush();
+        }
+    }
+
+    @Override
+    public void onConfigurationChanged(final Configuration newConfig) {
+        //Not used
+    }
+
+    @Override
+    public void onLowMemory() {
+        flush();
+    }
+}
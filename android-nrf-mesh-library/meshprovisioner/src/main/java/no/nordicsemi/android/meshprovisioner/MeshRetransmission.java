@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner;
+
+import android.os.Handler;
+import android.support.annotation.NonNull;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Handle to an unacknowledged message sent to a set of elements, see {@link MeshManagerApi#sendMeshMessage(java.util.Set, int, no.nordicsemi.android.meshprovisioner.transport.MeshMessage, int, long)}.
+ * <p>
+ * The message is repeated once per retransmission interval until every retransmission has been sent or the retransmissions are cancelled.
+ * Pending retransmissions are also cancelled when the transmit queue is cleared or the last proxy session is closed, so that they are not
+ * sent after the connection has been lost.
+ * </p>
+ */
+@SuppressWarnings("WeakerAccess")
+public final class MeshRetransmission {
+
+    private final Handler mHandler;
+    private final List<Integer> mDestinations;
+    private final Runnable mSend;
+    private final long mInterval;
+    private final Collection<MeshRetransmission> mPending;
+    private final Runnable mRetransmitRunnable = this::retransmit;
+    private int mRemaining;
+
+    MeshRetransmission(@NonNull final Handler handler,
+                       @NonNull final List<Integer> destinations,
+                       @NonNull final Runnable send,
+                       final int retransmissions,
+                       final long interval,
+                       @NonNull final Collection<MeshRetransmission> pending) {
+        this.mHandler = handler;
+        this.mDestinations = Collections.unmodifiableList(destinations);
+        this.mSend = send;
+        this.mRemaining = retransmissions;
+        this.mInterval = interval;
+        this.mPending = pending;
+    }
+
+    /**
+     * Returns the destination addresses the message is sent to
+     */
+    @NonNull
+    public List<Integer> getDestinations() {
+        return mDestinations;
+    }
+
+    /**
+     * Returns the number of retransmissions that have not been sent yet
+     */
+    public synchronized int getRemainingRetransmissions() {
+        return mRemaining;
+    }
+
+    /**
+     * Cancels the retransmissions that have not been sent yet
+     */
+    public void cancel() {
+        synchronized (this) {
+            mRemaining = 0;
+        }
+        mHandler.removeCallbacks(mRetransmitRunnable);
+        mPending.remove(this);
+    }
+
+    /**
+     * Sends the message and schedules the first retransmission
+     */
+    void start() {
+        mSend.run();
+        scheduleNext();
+    }
+
+    private void retransmit() {
+        synchronized (this) {
+            if (mRemaining == 0)
+                return;
+            mRemaining--;
+        }
+        mSend.run();
+        scheduleNext();
+    }
+
+    private void scheduleNext() {
+        synchronized (this) {
+            if (mRemaining > 0) {
+                mHandler.postDelayed(mRetransmitRunnable, mInterval);
+                return;
+            }
+        }
+        mPending.remove(this);
+    }
+}
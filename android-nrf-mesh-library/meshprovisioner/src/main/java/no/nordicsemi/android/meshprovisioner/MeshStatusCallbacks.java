@@ -47,9 +47,12 @@ public interface MeshStatusCallbacks {
     /**
      * Notifies if a transaction has failed
      * <p>
-     * As of now this is only triggered if the incomplete timer has expired for a given segmented message.
+     * This is triggered if the incomplete timer has expired for a given segmented message.
      * The incomplete timer will wait for a minimum of 10 seconds on receiving a segmented message.
      * If all segments are not received during this period, that transaction shall be considered as failed.
+     * This is also triggered with hasIncompleteTimerExpired set to false if a segmented message that was sent
+     * is cancelled by the peer or has not been acknowledged after the maximum number of retransmissions, or if no
+     * response was received to an acknowledged message within the transaction timeout.
      * </p>
      *
      * @param dst                       unique dst address of the device
@@ -107,6 +110,14 @@ public interface MeshStatusCallbacks {
      */
     void onBlockAcknowledgementReceived(final int src);
 
+    /**
+     * Notifies that all segments of a segmented message have been acknowledged by the destination
+     *
+     * @param dst         Destination address of the segmented message
+     * @param meshMessage {@link MeshMessage} containing the message that was delivered
+     */
+    void onSegmentedMessageDelivered(final int dst, final MeshMessage meshMessage);
+
     /**
      * Callback to notify the mesh message has been sent
      *
@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner;
+
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Cache of the network pdus received recently.
+ * <p>
+ * When the mesh manager is connected to several proxy nodes, or relays retransmit a message, the same network pdu is received more
+ * than once. As recommended by the specification the cache keeps the network pdus received recently, so that copies are dropped before
+ * the network header is de-obfuscated and the pdu is decrypted.
+ * </p>
+ * <p>
+ * A pdu is identified by a 64-bit hash of its IVI and NID, its obfuscated network header and its NetMIC. The obfuscated header depends on
+ * the privacy random taken from the encrypted payload, so two different pdus are practically never identified as the same. The hashes
+ * are kept in a fixed size open addressing table of longs. When the cache is full a pdu is evicted using the clock algorithm, i.e. the
+ * pdus are visited in the order they were added and a pdu that was received again since the last visit is given a second chance,
+ * so that looking up and adding a pdu does not allocate.
+ * </p>
+ */
+final class NetworkMessageCache {
+
+    private static final int DEFAULT_CAPACITY = 128;
+    private static final long EMPTY = 0;
+    private static final int IVI_NID_OFFSET = 1;
+    private static final int OBFUSCATED_HEADER_LENGTH = 6;
+    private static final int NET_MIC_LENGTH = 4;
+    /**
+     * Pdu type, IVI and NID, obfuscated header, destination address and NetMIC
+     */
+    private static final int MINIMUM_PDU_LENGTH = 1 + 1 + OBFUSCATED_HEADER_LENGTH + 2 + NET_MIC_LENGTH;
+
+    private final int mCapacity;
+    //Open addressing table of the hashes and the clock slot of each hash
+    private final long[] mKeys;
+    private final int[] mSlots;
+    //Clock of the hashes in the order they were added
+    private final long[] mClock;
+    private final boolean[] mReferenced;
+    private int mHand;
+    private int mSize;
+
+    NetworkMessageCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructs the cache
+     *
+     * @param capacity number of pdus kept in the cache
+     */
+    NetworkMessageCache(final int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity must be at least 1");
+        mCapacity = capacity;
+        //Keep the load factor of the table at or below 0.5
+        final int tableSize = Integer.highestOneBit(capacity) << 2;
+        mKeys = new long[tableSize];
+        mSlots = new int[tableSize];
+        mClock = new long[capacity];
+        mReferenced = new boolean[capacity];
+    }
+
+    /**
+     * Adds a received network pdu to the cache
+     *
+     * @param pdu network pdu received, starting with the pdu type
+     * @return true if the pdu was already in the cache and should be dropped
+     */
+    synchronized boolean isDuplicate(@NonNull final byte[] pdu) {
+        if (pdu.length < MINIMUM_PDU_LENGTH)
+            return false;
+
+        final long key = hash(pdu);
+        final int index = indexOf(key);
+        if (mKeys[index] == key) {
+            mReferenced[mSlots[index]] = true;
+            return true;
+        }
+
+        final int slot;
+        if (mSize < mCapacity) {
+            slot = mSize++;
+        } else {
+            slot = evict();
+        }
+        mClock[slot] = key;
+        mReferenced[slot] = false;
+        //The index may have changed if an entry was moved when evicting
+        final int insertIndex = indexOf(key);
+        mKeys[insertIndex] = key;
+        mSlots[insertIndex] = slot;
+        return false;
+    }
+
+    /**
+     * Removes all pdus from the cache
+     */
+    synchronized void clear() {
+        Arrays.fill(mKeys, EMPTY);
+        Arrays.fill(mReferenced, false);
+        mHand = 0;
+        mSize = 0;
+    }
+
+    /**
+     * Returns the 64-bit hash of the IVI and NID, the obfuscated header and the NetMIC of a pdu
+     *
+     * @param pdu network pdu
+     */
+    static long hash(@NonNull final byte[] pdu) {
+        long header = 0;
+        for (int i = IVI_NID_OFFSET; i <= IVI_NID_OFFSET + OBFUSCATED_HEADER_LENGTH; i++) {
+            header = (header << 8) | (pdu[i] & 0xFF);
+        }
+        long netMic = 0;
+        for (int i = pdu.length - NET_MIC_LENGTH; i < pdu.length; i++) {
+            netMic = (netMic << 8) | (pdu[i] & 0xFF);
+        }
+        final long key = mix(mix(header) ^ netMic);
+        return key == EMPTY ? 1 : key;
+    }
+
+    /**
+     * Finalizer of MurmurHash3, so that the bits of the hash are evenly distributed over the table
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Returns the index of the hash or the empty index it would be inserted at
+     */
+    private int indexOf(final long key) {
+        final int mask = mKeys.length - 1;
+        int index = (int) key & mask;
+        while (mKeys[index] != EMPTY && mKeys[index] != key) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    /**
+     * Advances the clock hand to the first hash that was not received again since the last visit and removes it from the table
+     *
+     * @return the clock slot of the evicted hash
+     */
+    private int evict() {
+        while (mReferenced[mHand]) {
+            mReferenced[mHand] = false;
+            mHand = (mHand + 1) % mCapacity;
+        }
+        final int slot = mHand;
+        mHand = (mHand + 1) % mCapacity;
+        remove(mClock[slot]);
+        return slot;
+    }
+
+    /**
+     * Removes a hash from the table using backward shift deletion, which keeps the probe sequences of the remaining hashes intact
+     */
+    private void remove(final long key) {
+        final int mask = mKeys.length - 1;
+        int hole = indexOf(key);
+        if (mKeys[hole] == EMPTY)
+            return;
+
+        int next = (hole + 1) & mask;
+        while (mKeys[next] != EMPTY) {
+            final int ideal = (int) mKeys[next] & mask;
+            if (((next - ideal) & mask) >= ((next - hole) & mask)) {
+                mKeys[hole] = mKeys[next];
+                mSlots[hole] = mSlots[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        mKeys[hole] = EMPTY;
+    }
+}
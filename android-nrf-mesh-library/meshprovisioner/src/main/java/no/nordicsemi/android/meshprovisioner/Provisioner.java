@@ -32,6 +32,14 @@ import static android.arch.persistence.room.ForeignKey.CASCADE;
 @RestrictTo(RestrictTo.Scope.LIBRARY)
 public class Provisioner {
 
+    // Sequence numbers are reserved in blocks so that only the end of the reserved block needs to be persisted
+    static final int SEQUENCE_NUMBER_BLOCK_SIZE = 1024;
+    // The next block is reserved when this many sequence numbers remain, so that it is persisted before it is used
+    private static final int SEQUENCE_NUMBER_RESERVE_THRESHOLD = SEQUENCE_NUMBER_BLOCK_SIZE / 4;
+    static final int MAX_SEQUENCE_NUMBER = 0xFFFFFF;
+    // An iv update should be started once three quarters of the sequence numbers have been used
+    static final int IV_UPDATE_SEQUENCE_NUMBER_THRESHOLD = 0xC00000;
+
     @ColumnInfo(name = "mesh_uuid")
     @NonNull
     @Expose
@@ -63,6 +71,12 @@ public class Provisioner {
     @Expose
     private int sequenceNumber;
 
+    @Ignore
+    private int currentSequenceNumber = -1;
+
+    @Ignore
+    private int persistedSequenceNumber = -1;
+
     @ColumnInfo(name = "provisioner_address")
     @Expose
     private int provisionerAddress = 0x7FFF;
@@ -201,12 +215,30 @@ public class Provisioner {
     }
 
 
-    public int getSequenceNumber() {
+    /**
+     * Returns the end of the reserved block of sequence numbers, which is the value persisted.
+     * Every sequence number used so far is lower than or equal to this value.
+     */
+    public synchronized int getSequenceNumber() {
         return sequenceNumber;
     }
 
-    public void setSequenceNumber(final int sequenceNumber) {
+    /**
+     * Sets the sequence number, from which the next sequence numbers are allocated
+     *
+     * @param sequenceNumber sequence number
+     */
+    public synchronized void setSequenceNumber(final int sequenceNumber) {
         this.sequenceNumber = sequenceNumber;
+        this.currentSequenceNumber = sequenceNumber;
+        this.persistedSequenceNumber = sequenceNumber;
+    }
+
+    /**
+     * Returns the last sequence number used by this provisioner
+     */
+    public synchronized int getCurrentSequenceNumber() {
+        return currentSequenceNumber < 0 ? sequenceNumber : currentSequenceNumber;
     }
 
     public int getProvisionerAddress() {
@@ -236,8 +268,91 @@ public class Provisioner {
         this.lastSelected = lastSelected;
     }
 
-    public int incrementSequenceNumber() {
-        sequenceNumber = sequenceNumber + 1;
-        return sequenceNumber;
+    /**
+     * Allocates the next sequence number.
+     * <p>
+     * After the network is loaded allocation continues from the end of the reserved block, so that a sequence number used before
+     * the application was killed is never used again. Call {@link #reserveSequenceNumbers()} to extend the reserved block
+     * and {@link #awaitSequenceNumberPersisted(int, long)} before the allocated sequence number is used.
+     * </p>
+     *
+     * @throws IllegalStateException if the sequence numbers of the current iv index have been exhausted
+     */
+    public synchronized int incrementSequenceNumber() {
+        final int sequenceNumber = getCurrentSequenceNumber();
+        if (sequenceNumber >= MAX_SEQUENCE_NUMBER)
+            throw new IllegalStateException("Sequence numbers exhausted, the iv update procedure must complete before sending");
+        currentSequenceNumber = sequenceNumber + 1;
+        return currentSequenceNumber;
+    }
+
+    /**
+     * Allocates the sequence number following the given one or the last one allocated, whichever is higher
+     *
+     * @param sequenceNumber sequence number used last by a message
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public synchronized int incrementSequenceNumber(final int sequenceNumber) {
+        if (sequenceNumber > getCurrentSequenceNumber()) {
+            currentSequenceNumber = sequenceNumber;
+        }
+        return incrementSequenceNumber();
+    }
+
+    /**
+     * Extends the reserved block of sequence numbers when the allocated sequence numbers are close to its end
+     *
+     * @return true if a new block was reserved and the provisioner must be persisted
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public synchronized boolean reserveSequenceNumbers() {
+        final int current = getCurrentSequenceNumber();
+        if (sequenceNumber - current > SEQUENCE_NUMBER_RESERVE_THRESHOLD)
+            return false;
+        getPersistedSequenceNumber();
+        sequenceNumber = Math.min(current + SEQUENCE_NUMBER_BLOCK_SIZE, MAX_SEQUENCE_NUMBER);
+        return true;
+    }
+
+    /**
+     * Records that the reserved block has been written to the database up to the given sequence number
+     *
+     * @param sequenceNumber end of the reserved block that was written
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public synchronized void onSequenceNumbersPersisted(final int sequenceNumber) {
+        if (sequenceNumber > getPersistedSequenceNumber()) {
+            persistedSequenceNumber = sequenceNumber;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Waits until the reserved block containing the given sequence number has been written to the database
+     *
+     * @param sequenceNumber sequence number about to be used
+     * @param timeout        maximum time to wait in milliseconds
+     * @return true if the sequence number has been persisted, false if the timeout elapsed first
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public synchronized boolean awaitSequenceNumberPersisted(final int sequenceNumber, final long timeout) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeout;
+        long remaining = timeout;
+        while (sequenceNumber > getPersistedSequenceNumber()) {
+            if (remaining <= 0)
+                return false;
+            wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+        }
+        return true;
+    }
+
+    private int getPersistedSequenceNumber() {
+        //A provisioner that was not loaded from the database has persisted nothing beyond its initial sequence number
+        if (persistedSequenceNumber < 0) {
+            persistedSequenceNumber = sequenceNumber;
+        }
+        return persistedSequenceNumber;
     }
 }
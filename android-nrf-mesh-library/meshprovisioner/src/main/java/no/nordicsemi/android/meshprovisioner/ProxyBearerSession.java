@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import no.nordicsemi.android.meshprovisioner.utils.ProxyFilter;
+
+/**
+ * A connection to a proxy node.
+ * <p>
+ * Each session reassembles the pdus segmented at the gatt layer, queues the pdus written to its proxy node and keeps the proxy filter
+ * last reported by the proxy node, so that a {@link MeshManagerApi} can communicate through several proxy nodes at the same time.
+ * A session is opened using {@link MeshManagerApi#openProxySession(int, ProxyBearerCallbacks)} once the proxy node is connected and
+ * must be closed using {@link MeshManagerApi#closeProxySession(ProxyBearerSession)} when the connection is lost.
+ * </p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class ProxyBearerSession implements ProxySessionRouter.Route {
+
+    private static final String TAG = ProxyBearerSession.class.getSimpleName();
+    //According to the spec the proxy protocol must contain an SAR timeout of 20 seconds.
+    private static final long PROXY_SAR_TRANSFER_TIME_OUT = 20 * 1000;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final int mProxyAddress;
+    private final ProxyBearerCallbacks mCallbacks;
+    private final SessionCallbacks mSessionCallbacks;
+    private final ProxySarDecoder mIncomingSarDecoder = new ProxySarDecoder();
+    private final ProxySarDecoder mOutgoingSarDecoder = new ProxySarDecoder();
+    private final TransmitScheduler mTransmitScheduler;
+    private ProxyFilter mProxyFilter;
+
+    private final Runnable mSarTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mIncomingSarDecoder.reset();
+            mSessionCallbacks.onSarTimeout(ProxyBearerSession.this);
+        }
+    };
+
+    /**
+     * Callbacks of the session to the mesh manager
+     */
+    interface SessionCallbacks {
+
+        /**
+         * Notifies that a complete pdu was received from the proxy node
+         *
+         * @param session session the pdu was received on
+         * @param pdu     reassembled pdu
+         */
+        void onPduReceived(@NonNull final ProxyBearerSession session, @NonNull final byte[] pdu);
+
+        /**
+         * Notifies that a complete pdu was written to the proxy node
+         *
+         * @param session session the pdu was written on
+         * @param pdu     reassembled pdu
+         */
+        void onPduWritten(@NonNull final ProxyBearerSession session, @NonNull final byte[] pdu);
+
+        /**
+         * Notifies that a segmented pdu was not received completely within the SAR timeout.
+         * The incomplete pdu of the session has already been dropped, other sessions and the mesh message state are not affected.
+         *
+         * @param session session the segments were received on
+         */
+        void onSarTimeout(@NonNull final ProxyBearerSession session);
+    }
+
+    ProxyBearerSession(final int proxyAddress,
+                       @NonNull final ProxyBearerCallbacks callbacks,
+                       @NonNull final SessionCallbacks sessionCallbacks) {
+        mProxyAddress = proxyAddress;
+        mCallbacks = callbacks;
+        mSessionCallbacks = sessionCallbacks;
+        mTransmitScheduler = new TransmitScheduler(pdu -> mCallbacks.sendMeshPdu(ProxySarDecoder.applySegmentation(mCallbacks.getMtu(), pdu)));
+    }
+
+    /**
+     * Handles the notifications received from the proxy node of this session.
+     * <p>
+     * Segments of a pdu that is segmented at the gatt layer are reassembled based on their SAR field and the pdu is parsed once the
+     * last segment is received.
+     * </p>
+     *
+     * @param data pdu received from the proxy node
+     */
+    public void handleNotifications(@NonNull final byte[] data) {
+        final byte[] pdu = mIncomingSarDecoder.decode(data);
+        toggleSarTimeOut(data);
+        if (pdu != null) {
+            mSessionCallbacks.onPduReceived(this, pdu);
+        }
+    }
+
+    /**
+     * Handles the write callbacks of the segments written to the proxy node of this session
+     *
+     * @param data segment written to the proxy node
+     */
+    public void handleWriteCallbacks(@NonNull final byte[] data) {
+        final byte[] pdu = mOutgoingSarDecoder.decode(data);
+        if (pdu == null)
+            return;
+
+        final int pduType = ProxySarDecoder.getPduType(pdu);
+        if (pduType == MeshManagerApi.PDU_TYPE_NETWORK || pduType == MeshManagerApi.PDU_TYPE_PROXY_CONFIGURATION) {
+            mTransmitScheduler.onWriteCompleted();
+        }
+        mSessionCallbacks.onPduWritten(this, pdu);
+    }
+
+    /**
+     * Returns the unicast address of the proxy node or the unassigned address if it is not known
+     */
+    @Override
+    public int getProxyAddress() {
+        return mProxyAddress;
+    }
+
+    /**
+     * Returns the number of pdus waiting to be written to the proxy node
+     */
+    @Override
+    public int getQueueSize() {
+        return mTransmitScheduler.size();
+    }
+
+    /**
+     * Returns the mtu size of the connection
+     */
+    public int getMtu() {
+        return mCallbacks.getMtu();
+    }
+
+    /**
+     * Returns the proxy filter last reported by the proxy node or null if no filter status was received on this session
+     */
+    @Nullable
+    public ProxyFilter getProxyFilter() {
+        return mProxyFilter;
+    }
+
+    /**
+     * Returns a snapshot of the metrics of the pdus queued on this session
+     */
+    public TransmitQueueMetrics getTransmitQueueMetrics() {
+        return mTransmitScheduler.getMetrics();
+    }
+
+    /**
+     * Sets the maximum number of pdus waiting to be written to the proxy node, see {@link MeshManagerApi#setTransmitQueueCapacity(int)}
+     *
+     * @param capacity maximum number of queued pdus, must be at least 1
+     */
+    public void setTransmitQueueCapacity(final int capacity) {
+        mTransmitScheduler.setCapacity(capacity);
+    }
+
+    /**
+     * Sets the number of pdus that may be written before their write callbacks are received, see {@link MeshManagerApi#setTransmitCredits(int)}
+     *
+     * @param credits number of outstanding writes, must be at least 1
+     */
+    public void setTransmitCredits(final int credits) {
+        mTransmitScheduler.setCredits(credits);
+    }
+
+    void setProxyFilter(@Nullable final ProxyFilter proxyFilter) {
+        mProxyFilter = proxyFilter;
+    }
+
+    /**
+     * Queues a pdu to be written to the proxy node
+     *
+     * @param pdu      mesh pdu to be sent
+     * @param priority {@link TransmitQueueMetrics.TransmitPriority} of the pdu
+     */
+    void send(@NonNull final byte[] pdu, @TransmitQueueMetrics.TransmitPriority final int priority) {
+        mTransmitScheduler.enqueue(pdu, priority);
+    }
+
+    /**
+     * Drops the queued pdus and the incomplete pdus, i.e. when the connection to the proxy node is lost
+     */
+    void clear() {
+        mTransmitScheduler.clear();
+        mIncomingSarDecoder.reset();
+        mOutgoingSarDecoder.reset();
+        mHandler.removeCallbacks(mSarTimeoutRunnable);
+    }
+
+    /**
+     * Restarts the SAR timer on every segment received while a pdu is being reassembled and stops it once no pdu is being reassembled
+     *
+     * @param data pdu
+     */
+    private void toggleSarTimeOut(final byte[] data) {
+        if (!mIncomingSarDecoder.isReassembling()) {
+            mHandler.removeCallbacks(mSarTimeoutRunnable);
+        } else if (data.length > 0 && ProxySarDecoder.getSar(data) != ProxySarDecoder.SAR_COMPLETE) {
+            mHandler.removeCallbacks(mSarTimeoutRunnable);
+            mHandler.postDelayed(mSarTimeoutRunnable, PROXY_SAR_TRANSFER_TIME_OUT);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Segments proxy pdus at the gatt layer and reassembles the segmented pdus received.
+ * <p>
+ * Reassembly is driven by the SAR field of each segment rather than its length, so that a last segment that fills the whole mtu completes
+ * the pdu. Segments are appended to a buffer that is kept per pdu type and reused for the following pdus of the same type, growing only
+ * when a longer pdu is received, so that reassembling a pdu is linear in its length. Segments of different pdu types are reassembled
+ * independently of each other, while a complete pdu is returned as received without being copied.
+ * </p>
+ */
+final class ProxySarDecoder {
+
+    static final int SAR_COMPLETE = 0b00;
+    static final int SAR_FIRST = 0b01;
+    static final int SAR_CONTINUATION = 0b10;
+    static final int SAR_LAST = 0b11;
+    private static final int SAR_BIT_OFFSET = 6;
+    private static final int PDU_TYPE_MASK = 0x3F;
+    private static final int PDU_TYPE_COUNT = 4;
+    private static final int INITIAL_BUFFER_LENGTH = 64;
+    /**
+     * Upper bound of a reassembled pdu, which is well above the longest pdu defined by the proxy protocol
+     */
+    static final int MAX_PDU_LENGTH = 512;
+
+    private final byte[][] mBuffers = new byte[PDU_TYPE_COUNT][];
+    private final int[] mLengths = new int[PDU_TYPE_COUNT];
+    private int mPendingPdus;
+
+    /**
+     * Returns the SAR field of a proxy pdu
+     *
+     * @param pdu proxy pdu
+     */
+    static int getSar(@NonNull final byte[] pdu) {
+        return (pdu[0] & 0xFF) >> SAR_BIT_OFFSET;
+    }
+
+    /**
+     * Returns the pdu type of a proxy pdu
+     *
+     * @param pdu proxy pdu
+     */
+    static int getPduType(@NonNull final byte[] pdu) {
+        return pdu[0] & PDU_TYPE_MASK;
+    }
+
+    /**
+     * Segments a pdu at the gatt layer.
+     * <p>
+     * Each segment starts with the SAR field and the pdu type followed by at most mtu - 1 octets of the pdu, so that the returned
+     * buffer can be written to the peripheral in chunks of the mtu size.
+     * </p>
+     *
+     * @param mtuSize mtu size of the connection
+     * @param pdu     pdu to be segmented
+     * @return the segmented pdu or the pdu if it fits in to the mtu
+     */
+    static byte[] applySegmentation(final int mtuSize, final byte[] pdu) {
+        if (pdu.length <= mtuSize)
+            return pdu;
+
+        final int pduType = pdu[0] & PDU_TYPE_MASK;
+        final int payloadLength = pdu.length - 1;
+        final int segmentPayloadLength = mtuSize - 1;
+        final int chunks = (payloadLength + (segmentPayloadLength - 1)) / segmentPayloadLength;
+        final byte[] segmentedBuffer = new byte[payloadLength + chunks];
+        int srcOffset = 1;
+        int dstOffset = 0;
+        for (int i = 0; i < chunks; i++) {
+            final int sar;
+            if (i == 0) {
+                sar = SAR_FIRST;
+            } else if (i == chunks - 1) {
+                sar = SAR_LAST;
+            } else {
+                sar = SAR_CONTINUATION;
+            }
+            final int length = Math.min(pdu.length - srcOffset, segmentPayloadLength);
+            segmentedBuffer[dstOffset] = (byte) ((sar << SAR_BIT_OFFSET) | pduType);
+            System.arraycopy(pdu, srcOffset, segmentedBuffer, dstOffset + 1, length);
+            srcOffset += length;
+            dstOffset += mtuSize;
+        }
+        return segmentedBuffer;
+    }
+
+    /**
+     * Appends a segment received from the gatt layer.
+     * <p>
+     * A continuation or last segment without a preceding first segment of the same pdu type is dropped, and a first segment discards
+     * any incomplete pdu of the same type.
+     * </p>
+     *
+     * @param segment proxy pdu received from the gatt layer
+     * @return the reassembled pdu, starting with the pdu type, or null if more segments are required
+     */
+    @Nullable
+    byte[] decode(@NonNull final byte[] segment) {
+        if (segment.length == 0)
+            return null;
+
+        final int sar = getSar(segment);
+        final int pduType = getPduType(segment);
+        if (sar == SAR_COMPLETE)
+            return segment;
+
+        if (pduType >= PDU_TYPE_COUNT)
+            return null;
+
+        switch (sar) {
+            case SAR_FIRST:
+                if (mLengths[pduType] == 0) {
+                    mPendingPdus++;
+                }
+                mLengths[pduType] = 0;
+                ensureCapacity(pduType, segment.length);
+                mBuffers[pduType][0] = (byte) pduType;
+                mLengths[pduType] = 1;
+                append(pduType, segment);
+                return null;
+            case SAR_CONTINUATION:
+                if (mLengths[pduType] == 0)
+                    return null;
+                append(pduType, segment);
+                return null;
+            default:
+                if (mLengths[pduType] == 0)
+                    return null;
+                append(pduType, segment);
+                final int length = mLengths[pduType];
+                if (length == 0)
+                    return null;
+                discard(pduType);
+                return Arrays.copyOf(mBuffers[pduType], length);
+        }
+    }
+
+    /**
+     * Returns true if a pdu is being reassembled
+     */
+    boolean isReassembling() {
+        return mPendingPdus > 0;
+    }
+
+    /**
+     * Discards all incomplete pdus, i.e. when the SAR timer expires or the connection is lost. The buffers are kept for reuse.
+     */
+    void reset() {
+        Arrays.fill(mLengths, 0);
+        mPendingPdus = 0;
+    }
+
+    /**
+     * Appends the payload of a segment, i.e. the segment without the SAR and pdu type octet
+     */
+    private void append(final int pduType, final byte[] segment) {
+        final int payloadLength = segment.length - 1;
+        final int length = mLengths[pduType] + payloadLength;
+        if (length > MAX_PDU_LENGTH) {
+            discard(pduType);
+            return;
+        }
+        ensureCapacity(pduType, length);
+        System.arraycopy(segment, 1, mBuffers[pduType], mLengths[pduType], payloadLength);
+        mLengths[pduType] = length;
+    }
+
+    private void discard(final int pduType) {
+        mLengths[pduType] = 0;
+        mPendingPdus--;
+    }
+
+    private void ensureCapacity(final int pduType, final int length) {
+        final byte[] buffer = mBuffers[pduType];
+        if (buffer == null) {
+            mBuffers[pduType] = new byte[Math.max(INITIAL_BUFFER_LENGTH, length)];
+        } else if (buffer.length < length) {
+            mBuffers[pduType] = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length));
+        }
+    }
+}
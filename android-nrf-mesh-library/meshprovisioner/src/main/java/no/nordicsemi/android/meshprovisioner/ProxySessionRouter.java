@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.List;
+
+import no.nordicsemi.android.meshprovisioner.utils.MeshAddress;
+
+/**
+ * Chooses the proxy connection a pdu is sent through.
+ * <p>
+ * A pdu to a node that is itself connected as a proxy is sent through that connection, as it is delivered without being relayed.
+ * Otherwise the pdu is sent through the connection with the fewest queued pdus, so that traffic is spread over the proxy nodes and
+ * a slow or stalled proxy node does not hold back the pdus sent through the others. Ties are broken by the order the connections
+ * were opened in.
+ * </p>
+ */
+final class ProxySessionRouter {
+
+    /**
+     * A proxy connection pdus can be routed through
+     */
+    interface Route {
+
+        /**
+         * Returns the unicast address of the proxy node
+         */
+        int getProxyAddress();
+
+        /**
+         * Returns the number of pdus waiting to be written to the proxy node
+         */
+        int getQueueSize();
+    }
+
+    private ProxySessionRouter() {
+    }
+
+    /**
+     * Selects the route a pdu is sent through
+     *
+     * @param routes                 open routes in the order they were opened
+     * @param destinationNodeAddress unicast address of the node the destination belongs to or the unassigned address for group,
+     *                               virtual and unknown destinations
+     * @return the selected route or null if there are no routes
+     */
+    @Nullable
+    static <T extends Route> T select(@NonNull final List<T> routes, final int destinationNodeAddress) {
+        T selected = null;
+        int queueSize = Integer.MAX_VALUE;
+        for (T route : routes) {
+            if (destinationNodeAddress != MeshAddress.UNASSIGNED_ADDRESS && route.getProxyAddress() == destinationNodeAddress)
+                return route;
+
+            final int size = route.getQueueSize();
+            if (size < queueSize) {
+                selected = route;
+                queueSize = size;
+            }
+        }
+        return selected;
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import no.nordicsemi.android.meshprovisioner.transport.NetworkCredentials;
+import no.nordicsemi.android.meshprovisioner.transport.NetworkKey;
+import no.nordicsemi.android.meshprovisioner.utils.MeshLogger;
+import no.nordicsemi.android.meshprovisioner.utils.MeshParserUtils;
+import no.nordicsemi.android.meshprovisioner.utils.SecureUtils;
+
+/**
+ * Authenticates secure network beacons and drives the iv update and key refresh procedures from them.
+ * <p>
+ * A beacon is matched to a network key by its network id and authenticated with the beacon key cached in the {@link NetworkCredentials}
+ * of that key. The last authenticated beacon of each network id is kept, so that the beacons a proxy node sends every few seconds with
+ * an unchanged network id, iv index and flags are recognised without calculating the authentication value again.
+ * </p>
+ * <p>
+ * The iv index follows the rules of the iv update procedure. The network has to remain in a state for at least 96 hours before moving
+ * to the next one, and the iv index can only be recovered once every 192 hours and by no more than 42. Sequence numbers are reset
+ * whenever the iv index used to send messages increases.
+ * </p>
+ */
+final class SecureNetworkBeaconHandler {
+
+    private static final String TAG = SecureNetworkBeaconHandler.class.getSimpleName();
+
+    static final int SECURE_NETWORK_BEACON = 0x01;
+    static final int KEY_REFRESH_FLAG = 0x01;
+    static final int IV_UPDATE_FLAG = 0x02;
+
+    private static final int BEACON_TYPE_OFFSET = 0;
+    private static final int FLAGS_OFFSET = 1;
+    private static final int NETWORK_ID_OFFSET = 2;
+    private static final int NETWORK_ID_LENGTH = 8;
+    private static final int IV_INDEX_OFFSET = NETWORK_ID_OFFSET + NETWORK_ID_LENGTH;
+    private static final int AUTHENTICATION_VALUE_OFFSET = IV_INDEX_OFFSET + 4;
+    private static final int AUTHENTICATION_VALUE_LENGTH = 8;
+    private static final int AUTHENTICATED_LENGTH = AUTHENTICATION_VALUE_OFFSET - FLAGS_OFFSET;
+    static final int BEACON_LENGTH = AUTHENTICATION_VALUE_OFFSET + AUTHENTICATION_VALUE_LENGTH;
+
+    static final long IV_UPDATE_MINIMUM_DURATION = TimeUnit.HOURS.toMillis(96);
+    static final long IV_RECOVERY_INTERVAL = TimeUnit.HOURS.toMillis(192);
+    static final int IV_RECOVERY_MAXIMUM_DIFFERENCE = 42;
+
+    /**
+     * Callbacks notifying the changes made to the iv index
+     */
+    interface BeaconCallbacks {
+
+        /**
+         * Notifies that the iv index or the iv update state of the network has changed.
+         * The network and its selected provisioner, whose sequence number may have been reset, must be persisted.
+         */
+        void onIvIndexUpdated();
+    }
+
+    private final BeaconCallbacks mCallbacks;
+    // Last authenticated beacon of each network id, starting with the flags
+    private final List<byte[]> mAuthenticatedBeacons = new ArrayList<>();
+    private final byte[] mCmac = new byte[16];
+
+    SecureNetworkBeaconHandler(@NonNull final BeaconCallbacks callbacks) {
+        mCallbacks = callbacks;
+    }
+
+    /**
+     * Handles a secure network beacon
+     *
+     * @param network mesh network
+     * @param data    buffer containing the beacon, starting with the beacon type
+     * @param offset  offset of the beacon
+     * @param length  length of the beacon
+     * @param now     current time in milliseconds since the epoch
+     * @return true if the beacon was authenticated with one of the network keys or false otherwise
+     */
+    synchronized boolean handleBeacon(@NonNull final MeshNetwork network,
+                                      @NonNull final byte[] data,
+                                      final int offset,
+                                      final int length,
+                                      final long now) {
+        if (length != BEACON_LENGTH || data[offset + BEACON_TYPE_OFFSET] != SECURE_NETWORK_BEACON) {
+            MeshLogger.v(TAG, "Not a secure network beacon, ignoring it");
+            return false;
+        }
+
+        //Find the network key the beacon was sent with, which is either the current or the old key of a subnet
+        NetworkKey networkKey = null;
+        NetworkCredentials credentials = null;
+        boolean newKey = false;
+        for (NetworkKey key : network.getNetKeys()) {
+            if (matchesNetworkId(key.getCredentials(), data, offset)) {
+                networkKey = key;
+                credentials = key.getCredentials();
+                newKey = key.getOldKey() != null;
+                break;
+            }
+            final NetworkCredentials oldCredentials = key.getOldCredentials();
+            if (oldCredentials != null && matchesNetworkId(oldCredentials, data, offset)) {
+                networkKey = key;
+                credentials = oldCredentials;
+                break;
+            }
+        }
+        if (networkKey == null) {
+            MeshLogger.v(TAG, "Secure network beacon of an unknown network, ignoring it");
+            return false;
+        }
+
+        if (!authenticate(credentials, data, offset))
+            return false;
+
+        final int flags = data[offset + FLAGS_OFFSET];
+        final int ivIndex = ((data[offset + IV_INDEX_OFFSET] & 0xFF) << 24) | ((data[offset + IV_INDEX_OFFSET + 1] & 0xFF) << 16) |
+                ((data[offset + IV_INDEX_OFFSET + 2] & 0xFF) << 8) | (data[offset + IV_INDEX_OFFSET + 3] & 0xFF);
+
+        if (newKey) {
+            updateKeyRefreshPhase(network, networkKey, (flags & KEY_REFRESH_FLAG) != 0, now);
+        }
+        //Beacons of secondary subnets may not raise the iv index of a node in the primary subnet
+        if (networkKey.getKeyIndex() == 0 || (ivIndex & 0xFFFFFFFFL) <= (network.getIvIndex() & 0xFFFFFFFFL)) {
+            updateIvIndex(network, ivIndex, (flags & IV_UPDATE_FLAG) != 0, now);
+        }
+        return true;
+    }
+
+    /**
+     * Authenticates a beacon with the beacon key of a network key.
+     * <p>
+     * A beacon with the same flags, iv index and authentication value as the last authenticated beacon of its network id is accepted
+     * without calculating the authentication value. One with the same flags and iv index but a different authentication value can not
+     * be valid and is rejected as well.
+     * </p>
+     */
+    private boolean authenticate(@NonNull final NetworkCredentials credentials, @NonNull final byte[] data, final int offset) {
+        byte[] lastBeacon = null;
+        for (byte[] beacon : mAuthenticatedBeacons) {
+            if (regionEquals(beacon, NETWORK_ID_OFFSET - FLAGS_OFFSET, data, offset + NETWORK_ID_OFFSET, NETWORK_ID_LENGTH)) {
+                lastBeacon = beacon;
+                break;
+            }
+        }
+
+        if (lastBeacon != null && regionEquals(lastBeacon, 0, data, offset + FLAGS_OFFSET, AUTHENTICATED_LENGTH)) {
+            if (regionEquals(lastBeacon, AUTHENTICATED_LENGTH, data, offset + AUTHENTICATION_VALUE_OFFSET, AUTHENTICATION_VALUE_LENGTH)) {
+                return true;
+            }
+            MeshLogger.v(TAG, "Secure network beacon authentication failed");
+            return false;
+        }
+
+        SecureUtils.calculateCMAC(credentials.getBeaconKey(), data, offset + FLAGS_OFFSET, AUTHENTICATED_LENGTH, mCmac, 0);
+        if (!regionEquals(mCmac, 0, data, offset + AUTHENTICATION_VALUE_OFFSET, AUTHENTICATION_VALUE_LENGTH)) {
+            MeshLogger.v(TAG, "Secure network beacon authentication failed");
+            return false;
+        }
+
+        if (lastBeacon == null) {
+            lastBeacon = new byte[BEACON_LENGTH - FLAGS_OFFSET];
+            mAuthenticatedBeacons.add(lastBeacon);
+        }
+        System.arraycopy(data, offset + FLAGS_OFFSET, lastBeacon, 0, lastBeacon.length);
+        return true;
+    }
+
+    /**
+     * Moves the key refresh procedure of a network key on, based on a beacon authenticated with its new key
+     *
+     * @param network    mesh network
+     * @param networkKey network key
+     * @param keyRefresh key refresh flag of the beacon
+     * @param now        current time in milliseconds since the epoch
+     */
+    private void updateKeyRefreshPhase(@NonNull final MeshNetwork network, @NonNull final NetworkKey networkKey, final boolean keyRefresh, final long now) {
+        final int phase = networkKey.getPhase();
+        if (keyRefresh) {
+            if (phase != NetworkKey.PHASE_1)
+                return;
+            MeshLogger.v(TAG, "Key refresh phase 2 for network key index ", networkKey.getKeyIndex());
+            networkKey.setPhase(NetworkKey.PHASE_2);
+        } else {
+            if (phase == NetworkKey.PHASE_0)
+                return;
+            //Phase 3 revokes the old key and returns to normal operation right away
+            MeshLogger.v(TAG, "Key refresh completed for network key index ", networkKey.getKeyIndex());
+            networkKey.setOldKey(null);
+            networkKey.setPhase(NetworkKey.PHASE_0);
+        }
+        networkKey.setTimestamp(MeshParserUtils.getInternationalAtomicTime(now));
+        network.notifyNetKeyUpdated(networkKey);
+    }
+
+    /**
+     * Updates the iv index of the network based on an authenticated beacon
+     *
+     * @param network  mesh network
+     * @param ivIndex  iv index of the beacon
+     * @param ivUpdate iv update flag of the beacon
+     * @param now      current time in milliseconds since the epoch
+     */
+    private void updateIvIndex(@NonNull final MeshNetwork network, final int ivIndex, final boolean ivUpdate, final long now) {
+        final long current = network.getIvIndex() & 0xFFFFFFFFL;
+        final long received = ivIndex & 0xFFFFFFFFL;
+        final boolean active = network.getIvUpdateState() == MeshNetwork.IV_UPDATE_ACTIVE;
+        if (received < current)
+            return;
+
+        if (received == current) {
+            if (!active || ivUpdate)
+                return;
+            //The iv update procedure is only completed once the network itself has moved to normal operation
+            if (now - network.getIvUpdateTimestamp() < IV_UPDATE_MINIMUM_DURATION)
+                return;
+            MeshLogger.v(TAG, "Iv update completed, iv index ", ivIndex);
+            setIvIndex(network, ivIndex, MeshNetwork.NORMAL_OPERATION, now);
+        } else if (received == current + 1 && ivUpdate && !active) {
+            //The procedure was started by another node
+            if (now - network.getIvUpdateTimestamp() < IV_UPDATE_MINIMUM_DURATION)
+                return;
+            MeshLogger.v(TAG, "Iv update started, iv index ", ivIndex);
+            setIvIndex(network, ivIndex, MeshNetwork.IV_UPDATE_ACTIVE, now);
+        } else {
+            //The network missed at least one iv update, e.g. while the application was not in use
+            if (received - current > IV_RECOVERY_MAXIMUM_DIFFERENCE) {
+                MeshLogger.w(TAG, "Iv index " + ivIndex + " is too far ahead to recover to");
+                return;
+            }
+            final long lastRecovery = network.getIvRecoveryTimestamp();
+            if (lastRecovery != 0 && now - lastRecovery < IV_RECOVERY_INTERVAL) {
+                MeshLogger.w(TAG, "Iv index recovered within the last 192 hours, ignoring iv index " + ivIndex);
+                return;
+            }
+            MeshLogger.v(TAG, "Iv index recovered to ", ivIndex);
+            network.ivRecoveryTimestamp = now;
+            setIvIndex(network, ivIndex, ivUpdate ? MeshNetwork.IV_UPDATE_ACTIVE : MeshNetwork.NORMAL_OPERATION, now);
+        }
+    }
+
+    private void setIvIndex(@NonNull final MeshNetwork network, final int ivIndex, final int ivUpdateState, final long now) {
+        final int transmitIvIndex = getTransmitIvIndex(network.getIvIndex(), network.getIvUpdateState());
+        network.ivIndex = ivIndex;
+        network.ivUpdateState = ivUpdateState;
+        network.ivUpdateTimestamp = now;
+
+        //Sequence numbers start over once messages are sent with a higher iv index
+        final Provisioner provisioner = network.getSelectedProvisioner();
+        if (provisioner != null && getTransmitIvIndex(ivIndex, ivUpdateState) != transmitIvIndex) {
+            MeshLogger.v(TAG, "Resetting the sequence number");
+            provisioner.setSequenceNumber(0);
+        }
+        mCallbacks.onIvIndexUpdated();
+    }
+
+    /**
+     * Returns the iv index messages are sent with, which is the previous iv index while an iv update is in progress
+     *
+     * @param ivIndex       iv index of the network
+     * @param ivUpdateState iv update state of the network
+     */
+    static int getTransmitIvIndex(final int ivIndex, final int ivUpdateState) {
+        return ivUpdateState == MeshNetwork.IV_UPDATE_ACTIVE ? ivIndex - 1 : ivIndex;
+    }
+
+    /**
+     * Returns the iv index a received pdu was sent with, which is told apart by its IVI bit
+     *
+     * @param ivIndex iv index of the network
+     * @param ivi     least significant bit of the iv index the pdu was sent with
+     */
+    static int getReceivedIvIndex(final int ivIndex, final int ivi) {
+        return (ivIndex & 0x01) == ivi ? ivIndex : ivIndex - 1;
+    }
+
+    private static boolean matchesNetworkId(@NonNull final NetworkCredentials credentials, @NonNull final byte[] data, final int offset) {
+        return regionEquals(credentials.getNetworkId(), 0, data, offset + NETWORK_ID_OFFSET, NETWORK_ID_LENGTH);
+    }
+
+    private static boolean regionEquals(@NonNull final byte[] a, final int aOffset, @NonNull final byte[] b, final int bOffset, final int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[aOffset + i] != b[bOffset + i])
+                return false;
+        }
+        return true;
+    }
+}
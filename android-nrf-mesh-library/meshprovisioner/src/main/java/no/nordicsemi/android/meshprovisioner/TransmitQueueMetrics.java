@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner;
+
+import android.support.annotation.IntDef;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Snapshot of the metrics of the queue of mesh pdus written to the proxy bearer.
+ * <p>
+ * Per priority values are indexed by {@link TransmitPriority}. Latencies are in microseconds, the queue latency
+ * is the time a pdu waited in the queue before being written and the write latency the time until its write callback was received.
+ * </p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class TransmitQueueMetrics {
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({PRIORITY_SEGMENT_ACKNOWLEDGEMENT, PRIORITY_PROXY_CONFIGURATION, PRIORITY_CONFIGURATION, PRIORITY_APPLICATION})
+    public @interface TransmitPriority {
+    }
+
+    // Transmit priority classes, highest priority first
+    public static final int PRIORITY_SEGMENT_ACKNOWLEDGEMENT = 0; //Segment acknowledgements of the lower transport layer
+    public static final int PRIORITY_PROXY_CONFIGURATION = 1; //Proxy configuration messages
+    public static final int PRIORITY_CONFIGURATION = 2; //Configuration messages
+    public static final int PRIORITY_APPLICATION = 3; //Application messages
+
+    private final int[] mQueueDepth;
+    private final long[] mEnqueued;
+    private final long[] mDropped;
+    private final long mWritten;
+    private final long mWriteTimeouts;
+    private final int mMaxQueueDepth;
+    private final long mAverageQueueLatency;
+    private final long mMaxQueueLatency;
+    private final long mAverageWriteLatency;
+    private final long mMaxWriteLatency;
+
+    TransmitQueueMetrics(final int[] queueDepth,
+                         final long[] enqueued,
+                         final long[] dropped,
+                         final long written,
+                         final long writeTimeouts,
+                         final int maxQueueDepth,
+                         final long averageQueueLatency,
+                         final long maxQueueLatency,
+                         final long averageWriteLatency,
+                         final long maxWriteLatency) {
+        this.mQueueDepth = queueDepth;
+        this.mEnqueued = enqueued;
+        this.mDropped = dropped;
+        this.mWritten = written;
+        this.mWriteTimeouts = writeTimeouts;
+        this.mMaxQueueDepth = maxQueueDepth;
+        this.mAverageQueueLatency = averageQueueLatency;
+        this.mMaxQueueLatency = maxQueueLatency;
+        this.mAverageWriteLatency = averageWriteLatency;
+        this.mMaxWriteLatency = maxWriteLatency;
+    }
+
+    /**
+     * Returns the number of pdus currently queued in a priority class
+     *
+     * @param priority {@link TransmitPriority}
+     */
+    public int getQueueDepth(@TransmitPriority final int priority) {
+        return mQueueDepth[priority];
+    }
+
+    /**
+     * Returns the total number of pdus currently queued
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (int queueDepth : mQueueDepth) {
+            depth += queueDepth;
+        }
+        return depth;
+    }
+
+    /**
+     * Returns the highest number of pdus that have been queued at a time
+     */
+    public int getMaxQueueDepth() {
+        return mMaxQueueDepth;
+    }
+
+    /**
+     * Returns the number of pdus queued in a priority class
+     *
+     * @param priority {@link TransmitPriority}
+     */
+    public long getEnqueuedCount(@TransmitPriority final int priority) {
+        return mEnqueued[priority];
+    }
+
+    /**
+     * Returns the number of pdus of a priority class dropped as the queue was full
+     *
+     * @param priority {@link TransmitPriority}
+     */
+    public long getDroppedCount(@TransmitPriority final int priority) {
+        return mDropped[priority];
+    }
+
+    /**
+     * Returns the number of pdus written to the bearer
+     */
+    public long getWrittenCount() {
+        return mWritten;
+    }
+
+    /**
+     * Returns the number of times a write callback was not received within the write timeout
+     */
+    public long getWriteTimeoutCount() {
+        return mWriteTimeouts;
+    }
+
+    /**
+     * Returns the average time in microseconds a pdu waited in the queue
+     */
+    public long getAverageQueueLatency() {
+        return mAverageQueueLatency;
+    }
+
+    /**
+     * Returns the longest time in microseconds a pdu waited in the queue
+     */
+    public long getMaxQueueLatency() {
+        return mMaxQueueLatency;
+    }
+
+    /**
+     * Returns the average time in microseconds between writing a pdu and receiving its write callback
+     */
+    public long getAverageWriteLatency() {
+        return mAverageWriteLatency;
+    }
+
+    /**
+     * Returns the longest time in microseconds between writing a pdu and receiving its write callback
+     */
+    public long getMaxWriteLatency() {
+        return mMaxWriteLatency;
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayDeque;
+
+import no.nordicsemi.android.meshprovisioner.utils.MeshLogger;
+
+import static no.nordicsemi.android.meshprovisioner.TransmitQueueMetrics.PRIORITY_APPLICATION;
+import static no.nordicsemi.android.meshprovisioner.TransmitQueueMetrics.PRIORITY_SEGMENT_ACKNOWLEDGEMENT;
+
+/**
+ * Schedules the mesh pdus written to the proxy bearer.
+ * <p>
+ * Pdus are queued in one of the {@link TransmitQueueMetrics.TransmitPriority} classes and written highest priority first, so that
+ * segment acknowledgements and proxy configuration messages are not delayed behind bulk application traffic. The number of pdus written to
+ * the bearer without a write callback is limited by a number of credits, a credit is returned when the write of a complete proxy pdu is
+ * reported through {@link MeshManagerApi#handleWriteCallbacks(int, byte[])}. If a write callback is not received within the write timeout
+ * the credits are restored so that a lost callback does not stall the queue.
+ * </p>
+ * <p>
+ * The queue is bounded, when it is full the oldest pdu of the lowest priority class at or below the priority of the new pdu is dropped,
+ * or the new pdu if all queued pdus have a higher priority.
+ * </p>
+ */
+final class TransmitScheduler {
+
+    private static final String TAG = TransmitScheduler.class.getSimpleName();
+    private static final int PRIORITY_CLASSES = PRIORITY_APPLICATION + 1;
+    private static final int DEFAULT_QUEUE_CAPACITY = 64;
+    private static final int DEFAULT_CREDITS = 1;
+    private static final long WRITE_TIMEOUT = 5 * 1000;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final PriorityClass[] mQueues;
+    private final Bearer mBearer;
+    private final Runnable mWriteTimeoutRunnable = this::onWriteTimeout;
+    private int mCapacity = DEFAULT_QUEUE_CAPACITY;
+    private int mMaxCredits = DEFAULT_CREDITS;
+    private int mCredits = DEFAULT_CREDITS;
+    //Write timestamps of the pdus awaiting a write callback, in a ring holding one entry per credit
+    private long[] mWriteTimestamps = new long[DEFAULT_CREDITS];
+    private int mWriteTimestampHead;
+    private int mPendingWrites;
+    private int mSize;
+    private boolean mWriting;
+
+    //Metrics
+    private final long[] mEnqueued = new long[PRIORITY_CLASSES];
+    private final long[] mDropped = new long[PRIORITY_CLASSES];
+    private long mWritten;
+    private long mWriteTimeouts;
+    private int mMaxQueueDepth;
+    private long mTotalQueueLatency;
+    private long mMaxQueueLatency;
+    private long mTotalWriteLatency;
+    private long mMaxWriteLatency;
+    private long mWriteCallbacks;
+
+    interface Bearer {
+
+        /**
+         * Writes the pdu to the proxy bearer
+         *
+         * @param pdu mesh pdu to be written
+         */
+        void write(@NonNull final byte[] pdu);
+    }
+
+    TransmitScheduler(@NonNull final Bearer bearer) {
+        mBearer = bearer;
+        mQueues = new PriorityClass[PRIORITY_CLASSES];
+        for (int i = 0; i < PRIORITY_CLASSES; i++) {
+            mQueues[i] = new PriorityClass();
+        }
+    }
+
+    /**
+     * Sets the maximum number of pdus queued
+     *
+     * @param capacity queue capacity, must be at least 1
+     */
+    synchronized void setCapacity(final int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Queue capacity must be at least 1");
+        mCapacity = capacity;
+        while (mSize > mCapacity) {
+            dropLowestPriority(PRIORITY_SEGMENT_ACKNOWLEDGEMENT);
+        }
+    }
+
+    /**
+     * Sets the number of pdus that may be written to the bearer before a write callback is received
+     *
+     * @param credits number of credits, must be at least 1
+     */
+    void setCredits(final int credits) {
+        if (credits < 1)
+            throw new IllegalArgumentException("At least one credit is required");
+        synchronized (this) {
+            mCredits += credits - mMaxCredits;
+            mMaxCredits = credits;
+            //Writes in flight are kept when the credits are reduced, no further pdu is written until they are below the new limit
+            final long[] timestamps = new long[Math.max(credits, mPendingWrites)];
+            for (int i = 0; i < mPendingWrites; i++) {
+                timestamps[i] = mWriteTimestamps[(mWriteTimestampHead + i) % mWriteTimestamps.length];
+            }
+            mWriteTimestamps = timestamps;
+            mWriteTimestampHead = 0;
+        }
+        writePending();
+    }
+
+    /**
+     * Queues a pdu and writes the queued pdus the credits allow
+     *
+     * @param pdu      mesh pdu to be sent
+     * @param priority {@link TransmitQueueMetrics.TransmitPriority} of the pdu
+     */
+    void enqueue(@NonNull final byte[] pdu, @TransmitQueueMetrics.TransmitPriority final int priority) {
+        synchronized (this) {
+            if (mSize >= mCapacity && !dropLowestPriority(priority)) {
+                MeshLogger.v(TAG, "Transmit queue full, dropping pdu of priority ", priority);
+                mDropped[priority]++;
+                return;
+            }
+            mQueues[priority].pdus.add(new QueuedPdu(pdu, System.nanoTime()));
+            mSize++;
+            mEnqueued[priority]++;
+            mMaxQueueDepth = Math.max(mMaxQueueDepth, mSize);
+        }
+        writePending();
+    }
+
+    /**
+     * Returns a credit after a complete pdu has been written to the bearer
+     */
+    void onWriteCompleted() {
+        synchronized (this) {
+            if (mPendingWrites == 0)
+                return;
+
+            final long latency = System.nanoTime() - mWriteTimestamps[mWriteTimestampHead];
+            mWriteTimestampHead = (mWriteTimestampHead + 1) % mWriteTimestamps.length;
+            mPendingWrites--;
+            mTotalWriteLatency += latency;
+            mMaxWriteLatency = Math.max(mMaxWriteLatency, latency);
+            mWriteCallbacks++;
+            mCredits++;
+            mHandler.removeCallbacks(mWriteTimeoutRunnable);
+            if (mPendingWrites != 0) {
+                mHandler.postDelayed(mWriteTimeoutRunnable, WRITE_TIMEOUT);
+            }
+        }
+        writePending();
+    }
+
+    /**
+     * Drops the queued pdus and restores the credits, i.e. when the bearer is disconnected
+     */
+    synchronized void clear() {
+        for (PriorityClass queue : mQueues) {
+            queue.pdus.clear();
+        }
+        mSize = 0;
+        mPendingWrites = 0;
+        mCredits = mMaxCredits;
+        mHandler.removeCallbacks(mWriteTimeoutRunnable);
+    }
+
+    /**
+     * Returns the number of queued pdus
+     */
+    synchronized int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns a snapshot of the queue metrics
+     */
+    synchronized TransmitQueueMetrics getMetrics() {
+        final int[] depth = new int[PRIORITY_CLASSES];
+        for (int i = 0; i < PRIORITY_CLASSES; i++) {
+            depth[i] = mQueues[i].pdus.size();
+        }
+        return new TransmitQueueMetrics(depth, mEnqueued.clone(), mDropped.clone(), mWritten, mWriteTimeouts, mMaxQueueDepth,
+                mWritten == 0 ? 0 : mTotalQueueLatency / mWritten / 1000, mMaxQueueLatency / 1000,
+                mWriteCallbacks == 0 ? 0 : mTotalWriteLatency / mWriteCallbacks / 1000, mMaxWriteLatency / 1000);
+    }
+
+    /**
+     * Writes queued pdus, highest priority first, while credits are available.
+     * <p>
+     * The bearer is called outside the lock as the application may write synchronously and report the write callback from within
+     * {@link Bearer#write(byte[])}. Only one caller writes at a time, a caller that finds a write in progress returns and leaves the queued
+     * pdus to the writing one, so the bearer never sees concurrent writes and pdus are written in the order they were dequeued.
+     * </p>
+     */
+    private void writePending() {
+        synchronized (this) {
+            if (mWriting)
+                return;
+            mWriting = true;
+        }
+        while (true) {
+            final byte[] pdu;
+            synchronized (this) {
+                if (mCredits <= 0 || mSize == 0) {
+                    mWriting = false;
+                    return;
+                }
+
+                final QueuedPdu queuedPdu = poll();
+                final long now = System.nanoTime();
+                final long latency = now - queuedPdu.timestamp;
+                mTotalQueueLatency += latency;
+                mMaxQueueLatency = Math.max(mMaxQueueLatency, latency);
+                mWritten++;
+                mCredits--;
+                if (mPendingWrites == 0) {
+                    mHandler.postDelayed(mWriteTimeoutRunnable, WRITE_TIMEOUT);
+                }
+                mWriteTimestamps[(mWriteTimestampHead + mPendingWrites) % mWriteTimestamps.length] = now;
+                mPendingWrites++;
+                pdu = queuedPdu.pdu;
+            }
+            try {
+                mBearer.write(pdu);
+            } catch (RuntimeException ex) {
+                synchronized (this) {
+                    mWriting = false;
+                }
+                throw ex;
+            }
+        }
+    }
+
+    private QueuedPdu poll() {
+        for (PriorityClass queue : mQueues) {
+            if (!queue.pdus.isEmpty()) {
+                mSize--;
+                return queue.pdus.poll();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Drops the oldest pdu of the lowest priority class that is at or below the given priority
+     *
+     * @return true if a pdu was dropped
+     */
+    private boolean dropLowestPriority(final int priority) {
+        for (int i = PRIORITY_APPLICATION; i >= priority; i--) {
+            if (!mQueues[i].pdus.isEmpty()) {
+                mQueues[i].pdus.poll();
+                mSize--;
+                mDropped[i]++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void onWriteTimeout() {
+        synchronized (this) {
+            if (mPendingWrites == 0)
+                return;
+            if (MeshLogger.isVerbose()) {
+                MeshLogger.v(TAG, "Write callback not received, restoring " + mPendingWrites + " credits");
+            }
+            mWriteTimeouts++;
+            mPendingWrites = 0;
+            mCredits = mMaxCredits;
+        }
+        writePending();
+    }
+
+    private static final class PriorityClass {
+        final ArrayDeque<QueuedPdu> pdus = new ArrayDeque<>();
+    }
+
+    private static final class QueuedPdu {
+        final byte[] pdu;
+        final long timestamp;
+
+        QueuedPdu(final byte[] pdu, final long timestamp) {
+            this.pdu = pdu;
+            this.timestamp = timestamp;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner.control;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Heartbeat message published by a node.
+ * <p>
+ * The heartbeat contains the initial TTL the message was published with and the features that are currently in use by the node,
+ * which together with the TTL of the received message tell how many hops away the node is.
+ * </p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class HeartbeatMessage extends TransportControlMessage {
+
+    private static final String TAG = HeartbeatMessage.class.getSimpleName();
+    private static final int HEARTBEAT_PAYLOAD_LENGTH = 3;
+
+    /**
+     * Relay feature bit
+     */
+    public static final int FEATURE_RELAY = 1;
+
+    /**
+     * Proxy feature bit
+     */
+    public static final int FEATURE_PROXY = 1 << 1;
+
+    /**
+     * Friend feature bit
+     */
+    public static final int FEATURE_FRIEND = 1 << 2;
+
+    /**
+     * Low power feature bit
+     */
+    public static final int FEATURE_LOW_POWER = 1 << 3;
+
+    private final int mInitTtl;
+    private final int mFeatures;
+
+    /**
+     * Constructs a heartbeat message from the upper transport control pdu received
+     *
+     * @param heartbeatPayload upper transport control pdu without the opcode
+     * @throws IllegalArgumentException if the payload is not a valid heartbeat
+     */
+    public HeartbeatMessage(@NonNull final byte[] heartbeatPayload) {
+        if (heartbeatPayload.length != HEARTBEAT_PAYLOAD_LENGTH)
+            throw new IllegalArgumentException("Invalid heartbeat payload length: " + heartbeatPayload.length);
+        mInitTtl = heartbeatPayload[0] & 0x7F;
+        mFeatures = ((heartbeatPayload[1] & 0xFF) << 8) | (heartbeatPayload[2] & 0xFF);
+    }
+
+    @Override
+    public TransportControlMessageState getState() {
+        return TransportControlMessageState.UPPER_TRANSPORT_HEARTBEAT;
+    }
+
+    /**
+     * Returns the initial TTL the heartbeat was published with
+     */
+    public int getInitTtl() {
+        return mInitTtl;
+    }
+
+    /**
+     * Returns the features currently in use by the node
+     */
+    public int getFeatures() {
+        return mFeatures;
+    }
+
+    /**
+     * Returns the number of hops the heartbeat travelled
+     *
+     * @param receivedTtl TTL of the network pdu the heartbeat was received in
+     */
+    public int getHops(final int receivedTtl) {
+        return mInitTtl - receivedTtl + 1;
+    }
+}
@@ -27,4 +27,9 @@ public class TransportLayerOpCodes {
      * Lower transport layer reserved opcode for block acks.
      */
     public static final int SAR_ACK_OPCODE = 0x00;
+
+    /**
+     * Upper transport layer opcode for heartbeat messages.
+     */
+    public static final int HEARTBEAT_OPCODE = 0x0A;
 }
@@ -25,11 +25,12 @@ package no.nordicsemi.android.meshprovisioner.transport;
 import android.content.Context;
 import android.os.Handler;
 import android.support.annotation.VisibleForTesting;
-import android.util.Log;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.Arrays;
 
+import no.nordicsemi.android.meshprovisioner.utils.MeshLogger;
 import no.nordicsemi.android.meshprovisioner.utils.MeshParserUtils;
 
 abstract class AccessLayer {
@@ -80,7 +81,7 @@ abstract class AccessLayer {
         }
         final byte[] accessPdu = accessMessageBuffer.array();
 
-        Log.v(TAG, "Created Access PDU " + MeshParserUtils.bytesToHex(accessPdu, false));
+        MeshLogger.v(TAG, "Created Access PDU ", accessPdu);
         accessMessage.setAccessPdu(accessMessageBuffer.array());
     }
 
@@ -105,7 +106,7 @@ abstract class AccessLayer {
             accessMessageBuffer.put(opCodesCompanyIdentifier);
         }
         final byte[] accessPdu = accessMessageBuffer.array();
-        Log.v(TAG, "Created Access PDU " + MeshParserUtils.bytesToHex(accessPdu, false));
+        MeshLogger.v(TAG, "Created Access PDU ", accessPdu);
         accessMessage.setAccessPdu(accessPdu);
     }
 
@@ -117,22 +118,16 @@ abstract class AccessLayer {
     protected final void parseAccessLayerPDU(final AccessMessage message) {
         //MSB of the first octet defines the length of opcodes.
         //if MSB = 0 length is 1 and so forth
-        final byte[] accessPayload = message.getAccessPdu();
-        final int msb = ((accessPayload[0] & 0xF0) >> 6);
-        final int opCodeLength;
-        if (msb == 0)
-            opCodeLength = 1;
-        else {
-            opCodeLength = msb;
-        }
-        Log.v(TAG, "Opcode length: " + opCodeLength + " Octets");
+        final byte[] accessPayload = message.getAccessPduBuffer();
+        final int offset = message.getAccessPduOffset();
+        final int opCodeLength = NetworkPduDecoder.getOpCodeLength(accessPayload, offset);
+        MeshLogger.v(TAG, "Opcode length in octets: ", opCodeLength);
 
-        final int opcode = MeshParserUtils.getOpCode(accessPayload, opCodeLength);
+        final int opcode = MeshParserUtils.getOpCode(accessPayload, offset, opCodeLength);
         message.setOpCode(opcode);
-        final int length = accessPayload.length - opCodeLength;
-        final ByteBuffer paramsBuffer = ByteBuffer.allocate(length).order(ByteOrder.BIG_ENDIAN);
-        paramsBuffer.put(accessPayload, opCodeLength, length);
-        message.setParameters(paramsBuffer.array());
-        Log.v(TAG, "Received Access PDU " + MeshParserUtils.bytesToHex(accessPayload, false));
+        //The parameters are the only part of the access pdu that is copied
+        final int parametersOffset = offset + opCodeLength;
+        message.setParameters(Arrays.copyOfRange(accessPayload, parametersOffset, offset + message.getAccessPduLength()));
+        MeshLogger.v(TAG, "Received Access PDU ", accessPayload, offset, message.getAccessPduLength());
     }
 }
@@ -25,12 +25,21 @@ package no.nordicsemi.android.meshprovisioner.transport;
 import android.os.Parcel;
 import android.util.SparseArray;
 
+import java.util.Arrays;
+
 @SuppressWarnings("WeakerAccess")
 public final class AccessMessage extends Message {
 
     protected SparseArray<byte[]> lowerTransportAccessPdu = new SparseArray<>();
     private byte[] accessPdu;
     private byte[] transportPdu;
+    //Received unsegmented messages are decoded in place, in which case the pdus below are regions of the decoded network pdu
+    private byte[] pduBuffer;
+    private int transportPduOffset;
+    private int transportPduLength;
+    private int accessPduOffset;
+    private int accessPduLength;
+    private byte[] labelUuid;
 
     public static final Creator<AccessMessage> CREATOR = new Creator<AccessMessage>() {
         @Override
@@ -53,6 +62,7 @@ public final class AccessMessage extends Message {
         lowerTransportAccessPdu = readSparseArrayToParcelable(source);
         accessPdu = source.createByteArray();
         transportPdu = source.createByteArray();
+        labelUuid = source.createByteArray();
     }
 
     @Override
@@ -64,8 +74,9 @@ public final class AccessMessage extends Message {
     public void writeToParcel(final Parcel dest, final int flags) {
         super.writeToParcel(dest, flags);
         writeSparseArrayToParcelable(dest, lowerTransportAccessPdu);
-        dest.writeByteArray(accessPdu);
-        dest.writeByteArray(transportPdu);
+        dest.writeByteArray(getAccessPdu());
+        dest.writeByteArray(getUpperTransportPdu());
+        dest.writeByteArray(labelUuid);
     }
 
     @Override
@@ -73,20 +84,118 @@ public final class AccessMessage extends Message {
         return ctl;
     }
 
+    /**
+     * Returns the access pdu, the access pdu of a message decoded in place is copied out of the decoded network pdu on the first call
+     */
     public final byte[] getAccessPdu() {
+        if (accessPdu == null && pduBuffer != null && accessPduLength > 0) {
+            accessPdu = Arrays.copyOfRange(pduBuffer, accessPduOffset, accessPduOffset + accessPduLength);
+        }
         return accessPdu;
     }
 
     public final void setAccessPdu(final byte[] accessPdu) {
         this.accessPdu = accessPdu;
+        this.accessPduLength = 0;
+    }
+
+    /**
+     * Sets the access pdu as a region of a decoded network pdu.
+     * <p>
+     * The upper transport pdu is decrypted in place, so the encrypted upper transport pdu is no longer available once this is set.
+     * </p>
+     *
+     * @param buffer decoded network pdu
+     * @param offset offset of the access pdu
+     * @param length length of the access pdu
+     */
+    /*package*/
+    final void setAccessPdu(final byte[] buffer, final int offset, final int length) {
+        this.accessPdu = null;
+        this.transportPdu = null;
+        this.pduBuffer = buffer;
+        this.accessPduOffset = offset;
+        this.accessPduLength = length;
+        this.transportPduLength = 0;
+    }
+
+    /**
+     * Returns the buffer containing the access pdu, which is either the access pdu itself or the decoded network pdu
+     */
+    /*package*/
+    final byte[] getAccessPduBuffer() {
+        return accessPdu != null ? accessPdu : pduBuffer;
     }
 
+    /**
+     * Returns the offset of the access pdu in the buffer returned by {@link #getAccessPduBuffer()}
+     */
+    /*package*/
+    final int getAccessPduOffset() {
+        return accessPdu != null ? 0 : accessPduOffset;
+    }
+
+    /**
+     * Returns the length of the access pdu
+     */
+    /*package*/
+    final int getAccessPduLength() {
+        return accessPdu != null ? accessPdu.length : accessPduLength;
+    }
+
+    /**
+     * Returns the upper transport pdu, the upper transport pdu of a message decoded in place is copied out of the decoded network pdu
+     * on the first call and is not available after it has been decrypted
+     */
     public final byte[] getUpperTransportPdu() {
+        if (transportPdu == null && pduBuffer != null && transportPduLength > 0) {
+            transportPdu = Arrays.copyOfRange(pduBuffer, transportPduOffset, transportPduOffset + transportPduLength);
+        }
         return transportPdu;
     }
 
     public final void setUpperTransportPdu(final byte[] transportPdu) {
         this.transportPdu = transportPdu;
+        this.transportPduLength = 0;
+    }
+
+    /**
+     * Sets the upper transport pdu as a region of a decoded network pdu
+     *
+     * @param buffer decoded network pdu
+     * @param offset offset of the upper transport pdu
+     * @param length length of the upper transport pdu including the transport mic
+     */
+    /*package*/
+    final void setUpperTransportPdu(final byte[] buffer, final int offset, final int length) {
+        this.transportPdu = null;
+        this.pduBuffer = buffer;
+        this.transportPduOffset = offset;
+        this.transportPduLength = length;
+    }
+
+    /**
+     * Returns the buffer containing the upper transport pdu, which is either the upper transport pdu itself or the decoded network pdu
+     */
+    /*package*/
+    final byte[] getUpperTransportPduBuffer() {
+        return transportPdu != null ? transportPdu : (transportPduLength > 0 ? pduBuffer : null);
+    }
+
+    /**
+     * Returns the offset of the upper transport pdu in the buffer returned by {@link #getUpperTransportPduBuffer()}
+     */
+    /*package*/
+    final int getUpperTransportPduOffset() {
+        return transportPdu != null ? 0 : transportPduOffset;
+    }
+
+    /**
+     * Returns the length of the upper transport pdu including the transport mic
+     */
+    /*package*/
+    final int getUpperTransportPduLength() {
+        return transportPdu != null ? transportPdu.length : transportPduLength;
     }
 
     public final SparseArray<byte[]> getLowerTransportAccessPdu() {
@@ -96,4 +205,22 @@ public final class AccessMessage extends Message {
     public final void setLowerTransportAccessPdu(final SparseArray<byte[]> lowerTransportAccessPdu) {
         this.lowerTransportAccessPdu = lowerTransportAccessPdu;
     }
+
+    /**
+     * Returns the Label UUID of the virtual destination address, which is authenticated as additional data by the upper transport layer
+     *
+     * @return 16-byte Label UUID or null if the destination is not a virtual address
+     */
+    public final byte[] getLabelUuid() {
+        return labelUuid;
+    }
+
+    /**
+     * Sets the Label UUID of the virtual destination address
+     *
+     * @param labelUuid 16-byte Label UUID
+     */
+    public final void setLabelUuid(final byte[] labelUuid) {
+        this.labelUuid = labelUuid;
+    }
 }
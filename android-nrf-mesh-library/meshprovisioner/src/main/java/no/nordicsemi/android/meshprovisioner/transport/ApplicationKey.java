@@ -3,6 +3,7 @@ package no.nordicsemi.android.meshprovisioner.transport;
 import android.arch.persistence.room.ColumnInfo;
 import android.arch.persistence.room.Entity;
 import android.arch.persistence.room.ForeignKey;
+import android.arch.persistence.room.Ignore;
 import android.arch.persistence.room.Index;
 import android.arch.persistence.room.PrimaryKey;
 import android.os.Parcel;
@@ -13,6 +14,7 @@ import android.support.annotation.RestrictTo;
 import com.google.gson.annotations.Expose;
 
 import no.nordicsemi.android.meshprovisioner.MeshNetwork;
+import no.nordicsemi.android.meshprovisioner.utils.SecureUtils;
 
 import static android.arch.persistence.room.ForeignKey.CASCADE;
 
@@ -60,6 +62,10 @@ public final class ApplicationKey implements Parcelable {
     @ColumnInfo(name = "old_key")
     @Expose
     private byte[] oldKey;
+    @Ignore
+    private int mAid = -1;
+    @Ignore
+    private int mOldAid = -1;
 
     /**
      * Constructs a ApplicationKey object with a given key index and network key
@@ -158,6 +164,7 @@ public final class ApplicationKey implements Parcelable {
      */
     public void setKey(@NonNull final byte[] key) {
         this.key = key;
+        mAid = -1;
     }
 
     /**
@@ -212,5 +219,37 @@ public final class ApplicationKey implements Parcelable {
      */
     public void setOldKey(final byte[] oldKey) {
         this.oldKey = oldKey;
+        mOldAid = -1;
+    }
+
+    /**
+     * Returns the application key identifier, which is derived once using k4 and cached until the key changes
+     *
+     * @return 6-bit application key identifier
+     */
+    public int getAid() {
+        int aid = mAid;
+        if (aid < 0) {
+            aid = SecureUtils.calculateK4(key);
+            mAid = aid;
+        }
+        return aid;
+    }
+
+    /**
+     * Returns the application key identifier of the old key
+     *
+     * @return 6-bit application key identifier of the old key or -1 if there is no old key
+     */
+    public int getOldAid() {
+        if (oldKey == null)
+            return -1;
+
+        int aid = mOldAid;
+        if (aid < 0) {
+            aid = SecureUtils.calculateK4(oldKey);
+            mOldAid = aid;
+        }
+        return aid;
     }
 }
@@ -39,6 +39,21 @@ public abstract class BaseMeshMessageHandler implements MeshMessageHandlerApi, I
     protected final InternalTransportCallbacks mInternalTransportCallbacks;
     protected MeshStatusCallbacks mStatusCallbacks;
     private MeshMessageState mMeshMessageState;
+    private final OpCodeRegistry mOpCodeRegistry = new OpCodeRegistry();
+    private final HeartbeatTable mHeartbeatTable = new HeartbeatTable();
+    private final TransactionTable mTransactionTable = new TransactionTable(new TransactionTable.TransactionCallbacks() {
+        @Override
+        public void sendMeshMessage(final int src, final int dst, @NonNull final MeshMessage meshMessage) {
+            dispatchMeshMessage(src, dst, meshMessage);
+        }
+
+        @Override
+        public void onTransactionTimeout(final int dst, @NonNull final MeshMessage meshMessage) {
+            if (mStatusCallbacks != null) {
+                mStatusCallbacks.onTransactionFailed(dst, false);
+            }
+        }
+    });
 
     protected BaseMeshMessageHandler(final Context context, final InternalTransportCallbacks internalTransportCallbacks) {
         this.mContext = context;
@@ -109,6 +124,14 @@ public abstract class BaseMeshMessageHandler implements MeshMessageHandlerApi, I
                     final ConfigModelSubscriptionDeleteState subscriptionDelete = (ConfigModelSubscriptionDeleteState) mMeshMessageState;
                     switchToNoOperationState(new DefaultNoOperationMessageState(mContext, subscriptionDelete.getMeshMessage(), mMeshTransport, this));
                     break;
+                case CONFIG_MODEL_SUBSCRIPTION_VIRTUAL_ADDRESS_ADD_STATE:
+                    final ConfigModelSubscriptionVirtualAddressAddState virtualAddressAdd = (ConfigModelSubscriptionVirtualAddressAddState) mMeshMessageState;
+                    switchToNoOperationState(new DefaultNoOperationMessageState(mContext, virtualAddressAdd.getMeshMessage(), mMeshTransport, this));
+                    break;
+                case CONFIG_MODEL_SUBSCRIPTION_VIRTUAL_ADDRESS_DELETE_STATE:
+                    final ConfigModelSubscriptionVirtualAddressDeleteState virtualAddressDelete = (ConfigModelSubscriptionVirtualAddressDeleteState) mMeshMessageState;
+                    switchToNoOperationState(new DefaultNoOperationMessageState(mContext, virtualAddressDelete.getMeshMessage(), mMeshTransport, this));
+                    break;
                 case CONFIG_NODE_RESET_STATE:
                     final ConfigNodeResetState resetState = (ConfigNodeResetState) mMeshMessageState;
                     switchToNoOperationState(new DefaultNoOperationMessageState(mContext, resetState.getMeshMessage(), mMeshTransport, this));
@@ -137,6 +160,22 @@ public abstract class BaseMeshMessageHandler implements MeshMessageHandlerApi, I
                     final ConfigProxySetState configProxySetState = (ConfigProxySetState) mMeshMessageState;
                     switchToNoOperationState(new DefaultNoOperationMessageState(mContext, configProxySetState.getMeshMessage(), mMeshTransport, this));
                     break;
+                case CONFIG_HEARTBEAT_PUBLICATION_GET_STATE:
+                    final ConfigHeartbeatPublicationGetState heartbeatPublicationGetState = (ConfigHeartbeatPublicationGetState) mMeshMessageState;
+                    switchToNoOperationState(new DefaultNoOperationMessageState(mContext, heartbeatPublicationGetState.getMeshMessage(), mMeshTransport, this));
+                    break;
+                case CONFIG_HEARTBEAT_PUBLICATION_SET_STATE:
+                    final ConfigHeartbeatPublicationSetState heartbeatPublicationSetState = (ConfigHeartbeatPublicationSetState) mMeshMessageState;
+                    switchToNoOperationState(new DefaultNoOperationMessageState(mContext, heartbeatPublicationSetState.getMeshMessage(), mMeshTransport, this));
+                    break;
+                case CONFIG_HEARTBEAT_SUBSCRIPTION_GET_STATE:
+                    final ConfigHeartbeatSubscriptionGetState heartbeatSubscriptionGetState = (ConfigHeartbeatSubscriptionGetState) mMeshMessageState;
+                    switchToNoOperationState(new DefaultNoOperationMessageState(mContext, heartbeatSubscriptionGetState.getMeshMessage(), mMeshTransport, this));
+                    break;
+                case CONFIG_HEARTBEAT_SUBSCRIPTION_SET_STATE:
+                    final ConfigHeartbeatSubscriptionSetState heartbeatSubscriptionSetState = (ConfigHeartbeatSubscriptionSetState) mMeshMessageState;
+                    switchToNoOperationState(new DefaultNoOperationMessageState(mContext, heartbeatSubscriptionSetState.getMeshMessage(), mMeshTransport, this));
+                    break;
             }
         } else if (mMeshMessageState instanceof GenericMessageState) {
             switch (mMeshMessageState.getState()) {
@@ -265,6 +304,52 @@ public abstract class BaseMeshMessageHandler implements MeshMessageHandlerApi, I
         switchToNoOperationState(new DefaultNoOperationMessageState(mContext, meshMessage, mMeshTransport, this));
     }
 
+    @Override
+    public final OpCodeRegistry getOpCodeRegistry() {
+        return mOpCodeRegistry;
+    }
+
+    @NonNull
+    @Override
+    public final HeartbeatTable getHeartbeatTable() {
+        return mHeartbeatTable;
+    }
+
+    @Override
+    public final MeshTransaction completeTransaction(final int src, final int opCode) {
+        return mTransactionTable.complete(src, opCode);
+    }
+
+    @Override
+    public final void sendPendingTransactions() {
+        mTransactionTable.sendPendingTransactions();
+    }
+
+    @Override
+    public final void setMaxInFlightTransactions(final int maxInFlightTransactions) {
+        mTransactionTable.setMaxInFlightTransactions(maxInFlightTransactions);
+    }
+
+    @Override
+    public final void setTransactionTimeout(final long timeout) {
+        mTransactionTable.setTransactionTimeout(timeout);
+    }
+
+    @Override
+    public final void registerMeshMessageDecoder(final int opCode, @NonNull final MeshMessageDecoder decoder) {
+        mOpCodeRegistry.register(opCode, decoder);
+    }
+
+    @Override
+    public final void registerVendorModelMessageDecoder(final int companyIdentifier, final int opCode, @NonNull final MeshMessageDecoder decoder) {
+        mOpCodeRegistry.register(OpCodeRegistry.getVendorOpCode(companyIdentifier, opCode), decoder);
+    }
+
+    @Override
+    public final void unregisterMeshMessageDecoder(final int opCode) {
+        mOpCodeRegistry.unregister(opCode);
+    }
+
     /**
      * Switch the current state of the mesh message handler
      * <p>
@@ -287,19 +372,30 @@ public abstract class BaseMeshMessageHandler implements MeshMessageHandlerApi, I
 
     @Override
     public void sendMeshMessage(@NonNull final byte[] src, @NonNull final byte[] dst, @NonNull final MeshMessage meshMessage) {
-        final int srcAddress = AddressUtils.getUnicastAddressInt(src);
-        final int dstAddress = AddressUtils.getUnicastAddressInt(dst);
-        if (meshMessage instanceof ProxyConfigMessage) {
-            sendProxyConfigMeshMessage(srcAddress, dstAddress, (ProxyConfigMessage) meshMessage);
-        } else if (meshMessage instanceof ConfigMessage) {
-            sendConfigMeshMessage(srcAddress, dstAddress, (ConfigMessage) meshMessage);
-        } else if (meshMessage instanceof GenericMessage) {
-            sendAppMeshMessage(srcAddress, dstAddress, (GenericMessage) meshMessage);
-        }
+        sendMeshMessage(AddressUtils.getUnicastAddressInt(src), AddressUtils.getUnicastAddressInt(dst), meshMessage);
     }
 
     @Override
     public void sendMeshMessage(final int src, final int dst, @NonNull final MeshMessage meshMessage) {
+        mTransactionTable.send(src, dst, meshMessage, null);
+    }
+
+    @Override
+    public MeshTransaction sendMeshMessage(final int src,
+                                           final int dst,
+                                           @NonNull final MeshMessage meshMessage,
+                                           @NonNull final MeshTransactionCallback callback) {
+        return mTransactionTable.send(src, dst, meshMessage, callback);
+    }
+
+    /**
+     * Creates the state for a mesh message and sends it
+     *
+     * @param src         source address
+     * @param dst         destination address
+     * @param meshMessage {@link MeshMessage} Mesh message containing the message opcode and message parameters
+     */
+    private void dispatchMeshMessage(final int src, final int dst, @NonNull final MeshMessage meshMessage) {
         if (meshMessage instanceof ProxyConfigMessage) {
             sendProxyConfigMeshMessage(src, dst, (ProxyConfigMessage) meshMessage);
         } else if (meshMessage instanceof ConfigMessage) {
@@ -408,6 +504,20 @@ public abstract class BaseMeshMessageHandler implements MeshMessageHandlerApi, I
             configModelSubscriptionDeleteState.setStatusCallbacks(mStatusCallbacks);
             mMeshMessageState = configModelSubscriptionDeleteState;
             configModelSubscriptionDeleteState.executeSend();
+        } else if (configurationMessage instanceof ConfigModelSubscriptionVirtualAddressAdd) {
+            final ConfigModelSubscriptionVirtualAddressAddState configModelSubscriptionVirtualAddressAddState = new ConfigModelSubscriptionVirtualAddressAddState(mContext, src, dst,
+                    node.getDeviceKey(), (ConfigModelSubscriptionVirtualAddressAdd) configurationMessage, mMeshTransport, this);
+            configModelSubscriptionVirtualAddressAddState.setTransportCallbacks(mInternalTransportCallbacks);
+            configModelSubscriptionVirtualAddressAddState.setStatusCallbacks(mStatusCallbacks);
+            mMeshMessageState = configModelSubscriptionVirtualAddressAddState;
+            configModelSubscriptionVirtualAddressAddState.executeSend();
+        } else if (configurationMessage instanceof ConfigModelSubscriptionVirtualAddressDelete) {
+            final ConfigModelSubscriptionVirtualAddressDeleteState configModelSubscriptionVirtualAddressDeleteState = new ConfigModelSubscriptionVirtualAddressDeleteState(mContext, src, dst,
+                    node.getDeviceKey(), (ConfigModelSubscriptionVirtualAddressDelete) configurationMessage, mMeshTransport, this);
+            configModelSubscriptionVirtualAddressDeleteState.setTransportCallbacks(mInternalTransportCallbacks);
+            configModelSubscriptionVirtualAddressDeleteState.setStatusCallbacks(mStatusCallbacks);
+            mMeshMessageState = configModelSubscriptionVirtualAddressDeleteState;
+            configModelSubscriptionVirtualAddressDeleteState.executeSend();
         } else if (configurationMessage instanceof ConfigNodeReset) {
             final ConfigNodeResetState configNodeResetState = new ConfigNodeResetState(mContext, src, dst, node.getDeviceKey(),
                     (ConfigNodeReset) configurationMessage, mMeshTransport, this);
@@ -457,6 +567,34 @@ public abstract class BaseMeshMessageHandler implements MeshMessageHandlerApi, I
             configProxySetState.setStatusCallbacks(mStatusCallbacks);
             mMeshMessageState = configProxySetState;
             configProxySetState.executeSend();
+        } else if (configurationMessage instanceof ConfigHeartbeatPublicationGet) {
+            final ConfigHeartbeatPublicationGetState configHeartbeatPublicationGetState = new ConfigHeartbeatPublicationGetState(mContext, src, dst, node.getDeviceKey(),
+                    (ConfigHeartbeatPublicationGet) configurationMessage, mMeshTransport, this);
+            configHeartbeatPublicationGetState.setTransportCallbacks(mInternalTransportCallbacks);
+            configHeartbeatPublicationGetState.setStatusCallbacks(mStatusCallbacks);
+            mMeshMessageState = configHeartbeatPublicationGetState;
+            configHeartbeatPublicationGetState.executeSend();
+        } else if (configurationMessage instanceof ConfigHeartbeatPublicationSet) {
+            final ConfigHeartbeatPublicationSetState configHeartbeatPublicationSetState = new ConfigHeartbeatPublicationSetState(mContext, src, dst, node.getDeviceKey(),
+                    (ConfigHeartbeatPublicationSet) configurationMessage, mMeshTransport, this);
+            configHeartbeatPublicationSetState.setTransportCallbacks(mInternalTransportCallbacks);
+            configHeartbeatPublicationSetState.setStatusCallbacks(mStatusCallbacks);
+            mMeshMessageState = configHeartbeatPublicationSetState;
+            configHeartbeatPublicationSetState.executeSend();
+        } else if (configurationMessage instanceof ConfigHeartbeatSubscriptionGet) {
+            final ConfigHeartbeatSubscriptionGetState configHeartbeatSubscriptionGetState = new ConfigHeartbeatSubscriptionGetState(mContext, src, dst, node.getDeviceKey(),
+                    (ConfigHeartbeatSubscriptionGet) configurationMessage, mMeshTransport, this);
+            configHeartbeatSubscriptionGetState.setTransportCallbacks(mInternalTransportCallbacks);
+            configHeartbeatSubscriptionGetState.setStatusCallbacks(mStatusCallbacks);
+            mMeshMessageState = configHeartbeatSubscriptionGetState;
+            configHeartbeatSubscriptionGetState.executeSend();
+        } else if (configurationMessage instanceof ConfigHeartbeatSubscriptionSet) {
+            final ConfigHeartbeatSubscriptionSetState configHeartbeatSubscriptionSetState = new ConfigHeartbeatSubscriptionSetState(mContext, src, dst, node.getDeviceKey(),
+                    (ConfigHeartbeatSubscriptionSet) configurationMessage, mMeshTransport, this);
+            configHeartbeatSubscriptionSetState.setTransportCallbacks(mInternalTransportCallbacks);
+            configHeartbeatSubscriptionSetState.setStatusCallbacks(mStatusCallbacks);
+            mMeshMessageState = configHeartbeatSubscriptionSetState;
+            configHeartbeatSubscriptionSetState.executeSend();
         }
     }
 
@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner.transport;
+
+import android.support.annotation.NonNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import no.nordicsemi.android.meshprovisioner.utils.MeshLogger;
+
+/**
+ * Schedules the block acknowledgements of the segmented messages being reassembled.
+ * <p>
+ * Acknowledgements are coalesced per SRC and SeqZero, so that all segments received while the acknowledgement timer of a message is
+ * running are acknowledged with a single block acknowledgement. An acknowledgement is not sent again if no new segments were received
+ * since the last one. Once all segments of a message have been received the final acknowledgement is sent right away.
+ * </p>
+ * <p>
+ * The scheduler does not own a thread. Its timers run on the main looper handler of the transport layers, the same thread as the
+ * incomplete timer, the segment retransmissions and the callbacks delivered to the application, so an acknowledgement is never sent
+ * while the lower transport layer is creating or retransmitting the segments of another message.
+ * </p>
+ */
+final class BlockAcknowledgementScheduler {
+
+    private static final String TAG = BlockAcknowledgementScheduler.class.getSimpleName();
+    private static final int ACKNOWLEDGEMENT_TIMER_BASE = 150;
+    private static final int ACKNOWLEDGEMENT_TIMER_TTL_FACTOR = 50;
+
+    /**
+     * Runs the acknowledgement timers, i.e. the main looper handler of the transport layers
+     */
+    interface Timer {
+
+        /**
+         * Runs a task after a delay
+         *
+         * @param task  task to run
+         * @param delay delay in milliseconds
+         */
+        void postDelayed(@NonNull final Runnable task, final long delay);
+
+        /**
+         * Removes a task that has not run yet
+         *
+         * @param task task to remove
+         */
+        void removeCallbacks(@NonNull final Runnable task);
+    }
+
+    interface Callbacks {
+
+        /**
+         * Sends a block acknowledgement for a segmented message
+         *
+         * @param src      source address of the segmented message
+         * @param dst      destination address of the segmented message
+         * @param ttl      ttl of the segmented message
+         * @param seqZero  SeqZero of the segmented message
+         * @param blockAck block acknowledgement value
+         */
+        void sendBlockAcknowledgement(final int src, final int dst, final int ttl, final int seqZero, final int blockAck);
+    }
+
+    private static final class Acknowledgement {
+        final int src;
+        final int dst;
+        final int ttl;
+        final int seqZero;
+        int blockAck;
+        int sentBlockAck;
+        boolean resend;
+        Runnable timer;
+
+        Acknowledgement(final int src, final int dst, final int ttl, final int seqZero) {
+            this.src = src;
+            this.dst = dst;
+            this.ttl = ttl;
+            this.seqZero = seqZero;
+        }
+    }
+
+    private final Map<Integer, Acknowledgement> mAcknowledgements = new HashMap<>();
+    private final Timer mTimer;
+    private final Callbacks mCallbacks;
+
+    BlockAcknowledgementScheduler(@NonNull final Timer timer, @NonNull final Callbacks callbacks) {
+        this.mTimer = timer;
+        this.mCallbacks = callbacks;
+    }
+
+    /**
+     * Returns the acknowledgement timer interval in milliseconds, which is 150 ms + 50 ms * TTL.
+     *
+     * @param ttl ttl of the segmented message
+     */
+    static int getAcknowledgementTimerInterval(final int ttl) {
+        return ACKNOWLEDGEMENT_TIMER_BASE + ACKNOWLEDGEMENT_TIMER_TTL_FACTOR * ttl;
+    }
+
+    /**
+     * Schedules an acknowledgement for a segment of an incomplete message.
+     * <p>
+     * The acknowledgement timer is started by the first segment that has not been acknowledged, segments received while it is running
+     * are acknowledged together when it expires.
+     * </p>
+     *
+     * @param session reassembly session the segment was added to
+     */
+    synchronized void onSegmentReceived(@NonNull final ReassemblyTable.Session session) {
+        final Acknowledgement acknowledgement = getAcknowledgement(session);
+        acknowledgement.blockAck = session.getBlockAck();
+        if (acknowledgement.timer == null) {
+            schedule(acknowledgement, getAcknowledgementTimerInterval(acknowledgement.ttl));
+        }
+    }
+
+    /**
+     * Sends the final acknowledgement of a completed message without waiting for the acknowledgement timer
+     *
+     * @param session completed reassembly session
+     */
+    synchronized void onMessageCompleted(@NonNull final ReassemblyTable.Session session) {
+        final Acknowledgement acknowledgement = getAcknowledgement(session);
+        acknowledgement.blockAck = session.getBlockAck();
+        cancelTimer(acknowledgement);
+        schedule(acknowledgement, 0);
+    }
+
+    /**
+     * Schedules the final acknowledgement to be sent again when a segment of a completed message is received.
+     * <p>
+     * This happens when the previous acknowledgement was lost. The sender retransmits all segments it believes to be missing at once,
+     * so the segments received while the acknowledgement timer is running are answered with a single acknowledgement.
+     * </p>
+     *
+     * @param session completed reassembly session
+     */
+    synchronized void onCompletedMessageSegmentReceived(@NonNull final ReassemblyTable.Session session) {
+        final Acknowledgement acknowledgement = getAcknowledgement(session);
+        acknowledgement.blockAck = session.getBlockAck();
+        acknowledgement.resend = true;
+        if (acknowledgement.timer == null) {
+            schedule(acknowledgement, getAcknowledgementTimerInterval(acknowledgement.ttl));
+        }
+    }
+
+    /**
+     * Cancels any pending acknowledgement of a reassembly session that was removed
+     *
+     * @param session reassembly session
+     */
+    synchronized void remove(@NonNull final ReassemblyTable.Session session) {
+        final int key = getKey(session.src, session.seqZero);
+        final Acknowledgement acknowledgement = mAcknowledgements.get(key);
+        if (acknowledgement != null) {
+            cancelTimer(acknowledgement);
+            mAcknowledgements.remove(key);
+        }
+    }
+
+    /**
+     * Cancels every pending acknowledgement, i.e. when the connection to the proxy node is lost
+     */
+    synchronized void clear() {
+        for (Acknowledgement acknowledgement : mAcknowledgements.values()) {
+            cancelTimer(acknowledgement);
+        }
+        mAcknowledgements.clear();
+    }
+
+    private Acknowledgement getAcknowledgement(final ReassemblyTable.Session session) {
+        final int key = getKey(session.src, session.seqZero);
+        Acknowledgement acknowledgement = mAcknowledgements.get(key);
+        if (acknowledgement == null) {
+            acknowledgement = new Acknowledgement(session.src, session.dst, session.ttl, session.seqZero);
+            mAcknowledgements.put(key, acknowledgement);
+        }
+        return acknowledgement;
+    }
+
+    private void schedule(final Acknowledgement acknowledgement, final int delay) {
+        acknowledgement.timer = () -> onAcknowledgementTimerExpired(acknowledgement);
+        mTimer.postDelayed(acknowledgement.timer, delay);
+    }
+
+    private void cancelTimer(final Acknowledgement acknowledgement) {
+        if (acknowledgement.timer != null) {
+            mTimer.removeCallbacks(acknowledgement.timer);
+            acknowledgement.timer = null;
+        }
+    }
+
+    private void onAcknowledgementTimerExpired(final Acknowledgement acknowledgement) {
+        final int blockAck;
+        synchronized (this) {
+            acknowledgement.timer = null;
+            if (!acknowledgement.resend && acknowledgement.blockAck == acknowledgement.sentBlockAck) {
+                MeshLogger.vAddress(TAG, "No new segments received, suppressing acknowledgement to src: ", acknowledgement.src);
+                return;
+            }
+            acknowledgement.resend = false;
+            acknowledgement.sentBlockAck = blockAck = acknowledgement.blockAck;
+        }
+        mCallbacks.sendBlockAcknowledgement(acknowledgement.src, acknowledgement.dst, acknowledgement.ttl, acknowledgement.seqZero, blockAck);
+    }
+
+    private static int getKey(final int src, final int seqZero) {
+        return (src << 13) | seqZero;
+    }
+}
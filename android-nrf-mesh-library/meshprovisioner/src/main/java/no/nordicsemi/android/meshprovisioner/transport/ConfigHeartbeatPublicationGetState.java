@@ -0,0 +1,68 @@
+package no.nordicsemi.android.meshprovisioner.transport;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+
+/**
+ * State that handles the ConfigHeartbeatPublicationGet message
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class ConfigHeartbeatPublicationGetState extends ConfigMessageState {
+
+    private static final String TAG = ConfigHeartbeatPublicationGetState.class.getSimpleName();
+    private final byte[] mDeviceKey;
+
+    /**
+     * Constructs the state for {@link ConfigHeartbeatPublicationGet} message
+     *
+     * @param context                       context
+     * @param src                           source address
+     * @param dst                           destination address
+     * @param deviceKey                     device key
+     * @param configHeartbeatPublicationGet {@link ConfigHeartbeatPublicationGet} message
+     * @param meshTransport                 {@link MeshTransport}
+     * @param callbacks                     {@link InternalMeshMsgHandlerCallbacks} Internal mesh handler callbacks
+     */
+    ConfigHeartbeatPublicationGetState(@NonNull final Context context,
+                                       final int src,
+                                       final int dst,
+                                       @NonNull final byte[] deviceKey,
+                                       @NonNull final ConfigHeartbeatPublicationGet configHeartbeatPublicationGet,
+                                       @NonNull final MeshTransport meshTransport,
+                                       @NonNull final InternalMeshMsgHandlerCallbacks callbacks) {
+        super(context, configHeartbeatPublicationGet, meshTransport, callbacks);
+        this.mSrc = src;
+        this.mDst = dst;
+        this.mDeviceKey = deviceKey;
+        createAccessMessage();
+    }
+
+    @Override
+    public MessageState getState() {
+        return MessageState.CONFIG_HEARTBEAT_PUBLICATION_GET_STATE;
+    }
+
+    private void createAccessMessage() {
+        final ConfigHeartbeatPublicationGet configHeartbeatPublicationGet = (ConfigHeartbeatPublicationGet) mMeshMessage;
+        final int akf = configHeartbeatPublicationGet.getAkf();
+        final int aid = configHeartbeatPublicationGet.getAid();
+        final int aszmic = configHeartbeatPublicationGet.getAszmic();
+        final int opCode = configHeartbeatPublicationGet.getOpCode();
+        final byte[] parameters = configHeartbeatPublicationGet.getParameters();
+        message = mMeshTransport.createMeshMessage(mSrc, mDst, mDeviceKey, akf, aid, aszmic, opCode, parameters);
+        configHeartbeatPublicationGet.setMessage(message);
+    }
+
+    @Override
+    public final void executeSend() {
+        Log.v(TAG, "Sending config heartbeat publication get");
+        super.executeSend();
+
+        if (message.getNetworkPdu().size() > 0) {
+            if (mMeshStatusCallbacks != null)
+                mMeshStatusCallbacks.onMeshMessageSent(mDst, mMeshMessage);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner.transport;
+
+import no.nordicsemi.android.meshprovisioner.opcodes.ConfigMessageOpCodes;
+import no.nordicsemi.android.meshprovisioner.utils.MeshAddress;
+
+/**
+ * To be used as a wrapper class for when creating the ConfigHeartbeatPublicationSet message.
+ * <p>
+ * The count and period are log values, i.e. a node publishes 2^(countLog - 1) heartbeats, one every 2^(periodLog - 1) seconds.
+ * A count log of 0 disables publication and 0xFF publishes heartbeats indefinitely.
+ * </p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class ConfigHeartbeatPublicationSet extends ConfigMessage {
+
+    /**
+     * Publishes heartbeats indefinitely
+     */
+    public static final int COUNT_LOG_INDEFINITE = 0xFF;
+    private static final int MAX_LOG = 0x11;
+    private static final int MAX_TTL = 0x7F;
+    private static final int MAX_FEATURES = 0x0F;
+
+    private static final String TAG = ConfigHeartbeatPublicationSet.class.getSimpleName();
+    private static final int OP_CODE = ConfigMessageOpCodes.CONFIG_HEARTBEAT_PUBLICATION_SET;
+
+    private final int mDst;
+    private final int mCountLog;
+    private final int mPeriodLog;
+    private final int mTtl;
+    private final int mFeatures;
+    private final int mNetKeyIndex;
+
+    /**
+     * Constructs a ConfigHeartbeatPublicationSet message.
+     *
+     * @param dst         unicast or group address heartbeats are published to or the unassigned address to disable publication
+     * @param countLog    number of heartbeats to publish as a log value or {@link #COUNT_LOG_INDEFINITE}
+     * @param periodLog   period between heartbeats as a log value
+     * @param ttl         TTL heartbeats are published with
+     * @param features    features that trigger a heartbeat when they change, see {@link no.nordicsemi.android.meshprovisioner.control.HeartbeatMessage}
+     * @param netKeyIndex index of the network key heartbeats are published with
+     * @throws IllegalArgumentException if any illegal arguments are passed
+     */
+    public ConfigHeartbeatPublicationSet(final int dst,
+                                         final int countLog,
+                                         final int periodLog,
+                                         final int ttl,
+                                         final int features,
+                                         final int netKeyIndex) throws IllegalArgumentException {
+        if (dst != MeshAddress.UNASSIGNED_ADDRESS && !MeshAddress.isValidUnicastAddress(dst) && !MeshAddress.isValidGroupAddress(dst))
+            throw new IllegalArgumentException("Destination must be an unassigned, unicast or group address");
+        if ((countLog < 0 || countLog > MAX_LOG) && countLog != COUNT_LOG_INDEFINITE)
+            throw new IllegalArgumentException("Count log must be between 0x00 and 0x11 (inclusive) or 0xFF");
+        if (periodLog < 0 || periodLog > MAX_LOG)
+            throw new IllegalArgumentException("Period log must be between 0x00 and 0x11 (inclusive)");
+        if (ttl < 0 || ttl > MAX_TTL)
+            throw new IllegalArgumentException("TTL must be between 0x00 and 0x7F (inclusive)");
+        if (features < 0 || features > MAX_FEATURES)
+            throw new IllegalArgumentException("Features must be a combination of the relay, proxy, friend and low power bits");
+        if (netKeyIndex < 0 || netKeyIndex > 0xFFF)
+            throw new IllegalArgumentException("Network key index must be a 12-bit value");
+        mDst = dst;
+        mCountLog = countLog;
+        mPeriodLog = periodLog;
+        mTtl = ttl;
+        mFeatures = features;
+        mNetKeyIndex = netKeyIndex;
+        assembleMessageParameters();
+    }
+
+    @Override
+    final void assembleMessageParameters() {
+        mParameters = new byte[]{
+                (byte) mDst, (byte) (mDst >> 8),
+                (byte) mCountLog,
+                (byte) mPeriodLog,
+                (byte) mTtl,
+                (byte) mFeatures, (byte) (mFeatures >> 8),
+                (byte) mNetKeyIndex, (byte) ((mNetKeyIndex >> 8) & 0x0F)};
+    }
+
+    @Override
+    public int getOpCode() {
+        return OP_CODE;
+    }
+
+    /**
+     * Returns the address heartbeats are published to
+     */
+    public int getDestination() {
+        return mDst;
+    }
+
+    /**
+     * Returns the number of heartbeats to publish as a log value
+     */
+    public int getCountLog() {
+        return mCountLog;
+    }
+
+    /**
+     * Returns the period between heartbeats as a log value
+     */
+    public int getPeriodLog() {
+        return mPeriodLog;
+    }
+
+    /**
+     * Returns the TTL heartbeats are published with
+     */
+    public int getTtl() {
+        return mTtl;
+    }
+
+    /**
+     * Returns the features that trigger a heartbeat when they change
+     */
+    public int getFeatures() {
+        return mFeatures;
+    }
+
+    /**
+     * Returns the index of the network key heartbeats are published with
+     */
+    public int getNetKeyIndex() {
+        return mNetKeyIndex;
+    }
+}
@@ -0,0 +1,68 @@
+package no.nordicsemi.android.meshprovisioner.transport;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+
+/**
+ * State that handles the ConfigHeartbeatPublicationSet message
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class ConfigHeartbeatPublicationSetState extends ConfigMessageState {
+
+    private static final String TAG = ConfigHeartbeatPublicationSetState.class.getSimpleName();
+    private final byte[] mDeviceKey;
+
+    /**
+     * Constructs the state for {@link ConfigHeartbeatPublicationSet} message
+     *
+     * @param context                       context
+     * @param src                           source address
+     * @param dst                           destination address
+     * @param deviceKey                     device key
+     * @param configHeartbeatPublicationSet {@link ConfigHeartbeatPublicationSet} message
+     * @param meshTransport                 {@link MeshTransport}
+     * @param callbacks                     {@link InternalMeshMsgHandlerCallbacks} Internal mesh handler callbacks
+     */
+    ConfigHeartbeatPublicationSetState(@NonNull final Context context,
+                                       final int src,
+                                       final int dst,
+                                       @NonNull final byte[] deviceKey,
+                                       @NonNull final ConfigHeartbeatPublicationSet configHeartbeatPublicationSet,
+                                       @NonNull final MeshTransport meshTransport,
+                                       @NonNull final InternalMeshMsgHandlerCallbacks callbacks) {
+        super(context, configHeartbeatPublicationSet, meshTransport, callbacks);
+        this.mSrc = src;
+        this.mDst = dst;
+        this.mDeviceKey = deviceKey;
+        createAccessMessage();
+    }
+
+    @Override
+    public MessageState getState() {
+        return MessageState.CONFIG_HEARTBEAT_PUBLICATION_SET_STATE;
+    }
+
+    private void createAccessMessage() {
+        final ConfigHeartbeatPublicationSet configHeartbeatPublicationSet = (ConfigHeartbeatPublicationSet) mMeshMessage;
+        final int akf = configHeartbeatPublicationSet.getAkf();
+        final int aid = configHeartbeatPublicationSet.getAid();
+        final int aszmic = configHeartbeatPublicationSet.getAszmic();
+        final int opCode = configHeartbeatPublicationSet.getOpCode();
+        final byte[] parameters = configHeartbeatPublicationSet.getParameters();
+        message = mMeshTransport.createMeshMessage(mSrc, mDst, mDeviceKey, akf, aid, aszmic, opCode, parameters);
+        configHeartbeatPublicationSet.setMessage(message);
+    }
+
+    @Override
+    public final void executeSend() {
+        Log.v(TAG, "Sending config heartbeat publication set");
+        super.executeSend();
+
+        if (message.getNetworkPdu().size() > 0) {
+            if (mMeshStatusCallbacks != null)
+                mMeshStatusCallbacks.onMeshMessageSent(mDst, mMeshMessage);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner.transport;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import no.nordicsemi.android.meshprovisioner.opcodes.ConfigMessageOpCodes;
+import no.nordicsemi.android.meshprovisioner.utils.MeshAddress;
+import no.nordicsemi.android.meshprovisioner.utils.MeshParserUtils;
+
+/**
+ * To be used as a wrapper class for when creating the ConfigHeartbeatPublicationStatus message.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class ConfigHeartbeatPublicationStatus extends ConfigStatusMessage implements Parcelable {
+
+    private static final String TAG = ConfigHeartbeatPublicationStatus.class.getSimpleName();
+    private static final int OP_CODE = ConfigMessageOpCodes.CONFIG_HEARTBEAT_PUBLICATION_STATUS;
+    private int mDestination;
+    private int mCountLog;
+    private int mPeriodLog;
+    private int mTtl;
+    private int mFeatures;
+    private int mNetKeyIndex;
+
+    private static final Creator<ConfigHeartbeatPublicationStatus> CREATOR = new Creator<ConfigHeartbeatPublicationStatus>() {
+        @Override
+        public ConfigHeartbeatPublicationStatus createFromParcel(Parcel in) {
+            final AccessMessage message = in.readParcelable(AccessMessage.class.getClassLoader());
+            //noinspection ConstantConditions
+            return new ConfigHeartbeatPublicationStatus(message);
+        }
+
+        @Override
+        public ConfigHeartbeatPublicationStatus[] newArray(int size) {
+            return new ConfigHeartbeatPublicationStatus[size];
+        }
+    };
+
+    /**
+     * Constructs a ConfigHeartbeatPublicationStatus message.
+     *
+     * @param message Access message received
+     * @throws IllegalArgumentException if any illegal arguments are passed
+     */
+    public ConfigHeartbeatPublicationStatus(@NonNull final AccessMessage message) {
+        super(message);
+        this.mParameters = message.getParameters();
+        parseStatusParameters();
+    }
+
+    @Override
+    public int getOpCode() {
+        return OP_CODE;
+    }
+
+    @Override
+    final void parseStatusParameters() {
+        mStatusCode = mParameters[0];
+        mStatusCodeName = getStatusCodeName(mStatusCode);
+        mDestination = MeshParserUtils.unsignedBytesToInt(mParameters[1], mParameters[2]);
+        mCountLog = MeshParserUtils.unsignedByteToInt(mParameters[3]);
+        mPeriodLog = MeshParserUtils.unsignedByteToInt(mParameters[4]);
+        mTtl = mParameters[5] & 0x7F;
+        mFeatures = MeshParserUtils.unsignedBytesToInt(mParameters[6], mParameters[7]);
+        mNetKeyIndex = MeshParserUtils.unsignedBytesToInt(mParameters[8], (byte) (mParameters[9] & 0x0F));
+        Log.v(TAG, "Status code: " + mStatusCode);
+        Log.v(TAG, "Status message: " + mStatusCodeName);
+        Log.v(TAG, "Destination: " + MeshAddress.formatAddress(mDestination, false));
+        Log.v(TAG, "Count log: " + mCountLog + ", period log: " + mPeriodLog + ", TTL: " + mTtl);
+    }
+
+    /**
+     * Returns if the message was successful
+     *
+     * @return true if the message was successful or false otherwise
+     */
+    public final boolean isSuccessful() {
+        return mStatusCode == 0x00;
+    }
+
+    /**
+     * Returns the address heartbeats are published to
+     */
+    public int getDestination() {
+        return mDestination;
+    }
+
+    /**
+     * Returns the number of heartbeats remaining to be published as a log value
+     */
+    public int getCountLog() {
+        return mCountLog;
+    }
+
+    /**
+     * Returns the period between heartbeats as a log value
+     */
+    public int getPeriodLog() {
+        return mPeriodLog;
+    }
+
+    /**
+     * Returns the TTL heartbeats are published with
+     */
+    public int getTtl() {
+        return mTtl;
+    }
+
+    /**
+     * Returns the features that trigger a heartbeat when they change
+     */
+    public int getFeatures() {
+        return mFeatures;
+    }
+
+    /**
+     * Returns the index of the network key heartbeats are published with
+     */
+    public int getNetKeyIndex() {
+        return mNetKeyIndex;
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(final Parcel dest, final int flags) {
+        final AccessMessage message = (AccessMessage) mMessage;
+        dest.writeParcelable(message, flags);
+    }
+}
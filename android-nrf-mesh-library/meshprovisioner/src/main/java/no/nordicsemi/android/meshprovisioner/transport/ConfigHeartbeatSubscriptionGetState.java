@@ -0,0 +1,68 @@
+package no.nordicsemi.android.meshprovisioner.transport;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+
+/**
+ * State that handles the ConfigHeartbeatSubscriptionGet message
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class ConfigHeartbeatSubscriptionGetState extends ConfigMessageState {
+
+    private static final String TAG = ConfigHeartbeatSubscriptionGetState.class.getSimpleName();
+    private final byte[] mDeviceKey;
+
+    /**
+     * Constructs the state for {@link ConfigHeartbeatSubscriptionGet} message
+     *
+     * @param context                        context
+     * @param src                            source address
+     * @param dst                            destination address
+     * @param deviceKey                      device key
+     * @param configHeartbeatSubscriptionGet {@link ConfigHeartbeatSubscriptionGet} message
+     * @param meshTransport                  {@link MeshTransport}
+     * @param callbacks                      {@link InternalMeshMsgHandlerCallbacks} Internal mesh handler callbacks
+     */
+    ConfigHeartbeatSubscriptionGetState(@NonNull final Context context,
+                                        final int src,
+                                        final int dst,
+                                        @NonNull final byte[] deviceKey,
+                                        @NonNull final ConfigHeartbeatSubscriptionGet configHeartbeatSubscriptionGet,
+                                        @NonNull final MeshTransport meshTransport,
+                                        @NonNull final InternalMeshMsgHandlerCallbacks callbacks) {
+        super(context, configHeartbeatSubscriptionGet, meshTransport, callbacks);
+        this.mSrc = src;
+        this.mDst = dst;
+        this.mDeviceKey = deviceKey;
+        createAccessMessage();
+    }
+
+    @Override
+    public MessageState getState() {
+        return MessageState.CONFIG_HEARTBEAT_SUBSCRIPTION_GET_STATE;
+    }
+
+    private void createAccessMessage() {
+        final ConfigHeartbeatSubscriptionGet configHeartbeatSubscriptionGet = (ConfigHeartbeatSubscriptionGet) mMeshMessage;
+        final int akf = configHeartbeatSubscriptionGet.getAkf();
+        final int aid = configHeartbeatSubscriptionGet.getAid();
+        final int aszmic = configHeartbeatSubscriptionGet.getAszmic();
+        final int opCode = configHeartbeatSubscriptionGet.getOpCode();
+        final byte[] parameters = configHeartbeatSubscriptionGet.getParameters();
+        message = mMeshTransport.createMeshMessage(mSrc, mDst, mDeviceKey, akf, aid, aszmic, opCode, parameters);
+        configHeartbeatSubscriptionGet.setMessage(message);
+    }
+
+    @Override
+    public final void executeSend() {
+        Log.v(TAG, "Sending config heartbeat subscription get");
+        super.executeSend();
+
+        if (message.getNetworkPdu().size() > 0) {
+            if (mMeshStatusCallbacks != null)
+                mMeshStatusCallbacks.onMeshMessageSent(mDst, mMeshMessage);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner.transport;
+
+import no.nordicsemi.android.meshprovisioner.opcodes.ConfigMessageOpCodes;
+import no.nordicsemi.android.meshprovisioner.utils.MeshAddress;
+
+/**
+ * To be used as a wrapper class for when creating the ConfigHeartbeatSubscriptionSet message.
+ * <p>
+ * The node processes heartbeats from the source address to the destination address for 2^(periodLog - 1) seconds.
+ * Setting the source or the destination to the unassigned address or the period log to 0 disables the subscription.
+ * </p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class ConfigHeartbeatSubscriptionSet extends ConfigMessage {
+
+    private static final int MAX_PERIOD_LOG = 0x11;
+
+    private static final String TAG = ConfigHeartbeatSubscriptionSet.class.getSimpleName();
+    private static final int OP_CODE = ConfigMessageOpCodes.CONFIG_HEARTBEAT_SUBSCRIPTION_SET;
+
+    private final int mSrc;
+    private final int mDst;
+    private final int mPeriodLog;
+
+    /**
+     * Constructs a ConfigHeartbeatSubscriptionSet message.
+     *
+     * @param src       unicast address heartbeats are received from or the unassigned address
+     * @param dst       unicast or group address heartbeats are received on or the unassigned address
+     * @param periodLog period heartbeats are processed for as a log value
+     * @throws IllegalArgumentException if any illegal arguments are passed
+     */
+    public ConfigHeartbeatSubscriptionSet(final int src, final int dst, final int periodLog) throws IllegalArgumentException {
+        if (src != MeshAddress.UNASSIGNED_ADDRESS && !MeshAddress.isValidUnicastAddress(src))
+            throw new IllegalArgumentException("Source must be an unassigned or unicast address");
+        if (dst != MeshAddress.UNASSIGNED_ADDRESS && !MeshAddress.isValidUnicastAddress(dst) && !MeshAddress.isValidGroupAddress(dst))
+            throw new IllegalArgumentException("Destination must be an unassigned, unicast or group address");
+        if (periodLog < 0 || periodLog > MAX_PERIOD_LOG)
+            throw new IllegalArgumentException("Period log must be between 0x00 and 0x11 (inclusive)");
+        mSrc = src;
+        mDst = dst;
+        mPeriodLog = periodLog;
+        assembleMessageParameters();
+    }
+
+    @Override
+    final void assembleMessageParameters() {
+        mParameters = new byte[]{
+                (byte) mSrc, (byte) (mSrc >> 8),
+                (byte) mDst, (byte) (mDst >> 8),
+                (byte) mPeriodLog};
+    }
+
+    @Override
+    public int getOpCode() {
+        return OP_CODE;
+    }
+
+    /**
+     * Returns the address heartbeats are received from
+     */
+    public int getSource() {
+        return mSrc;
+    }
+
+    /**
+     * Returns the address heartbeats are received on
+     */
+    public int getDestination() {
+        return mDst;
+    }
+
+    /**
+     * Returns the period heartbeats are processed for as a log value
+     */
+    public int getPeriodLog() {
+        return mPeriodLog;
+    }
+}
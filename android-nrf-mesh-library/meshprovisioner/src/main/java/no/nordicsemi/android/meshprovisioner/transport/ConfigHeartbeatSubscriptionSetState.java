@@ -0,0 +1,68 @@
+package no.nordicsemi.android.meshprovisioner.transport;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+
+/**
+ * State that handles the ConfigHeartbeatSubscriptionSet message
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class ConfigHeartbeatSubscriptionSetState extends ConfigMessageState {
+
+    private static final String TAG = ConfigHeartbeatSubscriptionSetState.class.getSimpleName();
+    private final byte[] mDeviceKey;
+
+    /**
+     * Constructs the state for {@link ConfigHeartbeatSubscriptionSet} message
+     *
+     * @param context                        context
+     * @param src                            source address
+     * @param dst                            destination address
+     * @param deviceKey                      device key
+     * @param configHeartbeatSubscriptionSet {@link ConfigHeartbeatSubscriptionSet} message
+     * @param meshTransport                  {@link MeshTransport}
+     * @param callbacks                      {@link InternalMeshMsgHandlerCallbacks} Internal mesh handler callbacks
+     */
+    ConfigHeartbeatSubscriptionSetState(@NonNull final Context context,
+                                        final int src,
+                                        final int dst,
+                                        @NonNull final byte[] deviceKey,
+                                        @NonNull final ConfigHeartbeatSubscriptionSet configHeartbeatSubscriptionSet,
+                                        @NonNull final MeshTransport meshTransport,
+                                        @NonNull final InternalMeshMsgHandlerCallbacks callbacks) {
+        super(context, configHeartbeatSubscriptionSet, meshTransport, callbacks);
+        this.mSrc = src;
+        this.mDst = dst;
+        this.mDeviceKey = deviceKey;
+        createAccessMessage();
+    }
+
+    @Override
+    public MessageState getState() {
+        return MessageState.CONFIG_HEARTBEAT_SUBSCRIPTION_SET_STATE;
+    }
+
+    private void createAccessMessage() {
+        final ConfigHeartbeatSubscriptionSet configHeartbeatSubscriptionSet = (ConfigHeartbeatSubscriptionSet) mMeshMessage;
+        final int akf = configHeartbeatSubscriptionSet.getAkf();
+        final int aid = configHeartbeatSubscriptionSet.getAid();
+        final int aszmic = configHeartbeatSubscriptionSet.getAszmic();
+        final int opCode = configHeartbeatSubscriptionSet.getOpCode();
+        final byte[] parameters = configHeartbeatSubscriptionSet.getParameters();
+        message = mMeshTransport.createMeshMessage(mSrc, mDst, mDeviceKey, akf, aid, aszmic, opCode, parameters);
+        configHeartbeatSubscriptionSet.setMessage(message);
+    }
+
+    @Override
+    public final void executeSend() {
+        Log.v(TAG, "Sending config heartbeat subscription set");
+        super.executeSend();
+
+        if (message.getNetworkPdu().size() > 0) {
+            if (mMeshStatusCallbacks != null)
+                mMeshStatusCallbacks.onMeshMessageSent(mDst, mMeshMessage);
+        }
+    }
+}
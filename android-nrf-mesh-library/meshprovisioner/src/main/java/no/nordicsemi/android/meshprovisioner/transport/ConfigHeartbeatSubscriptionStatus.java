@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner.transport;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import no.nordicsemi.android.meshprovisioner.opcodes.ConfigMessageOpCodes;
+import no.nordicsemi.android.meshprovisioner.utils.MeshAddress;
+import no.nordicsemi.android.meshprovisioner.utils.MeshParserUtils;
+
+/**
+ * To be used as a wrapper class for when creating the ConfigHeartbeatSubscriptionStatus message.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class ConfigHeartbeatSubscriptionStatus extends ConfigStatusMessage implements Parcelable {
+
+    private static final String TAG = ConfigHeartbeatSubscriptionStatus.class.getSimpleName();
+    private static final int OP_CODE = ConfigMessageOpCodes.CONFIG_HEARTBEAT_SUBSCRIPTION_STATUS;
+    private int mSource;
+    private int mDestination;
+    private int mPeriodLog;
+    private int mCountLog;
+    private int mMinHops;
+    private int mMaxHops;
+
+    private static final Creator<ConfigHeartbeatSubscriptionStatus> CREATOR = new Creator<ConfigHeartbeatSubscriptionStatus>() {
+        @Override
+        public ConfigHeartbeatSubscriptionStatus createFromParcel(Parcel in) {
+            final AccessMessage message = in.readParcelable(AccessMessage.class.getClassLoader());
+            //noinspection ConstantConditions
+            return new ConfigHeartbeatSubscriptionStatus(message);
+        }
+
+        @Override
+        public ConfigHeartbeatSubscriptionStatus[] newArray(int size) {
+            return new ConfigHeartbeatSubscriptionStatus[size];
+        }
+    };
+
+    /**
+     * Constructs a ConfigHeartbeatSubscriptionStatus message.
+     *
+     * @param message Access message received
+     * @throws IllegalArgumentException if any illegal arguments are passed
+     */
+    public ConfigHeartbeatSubscriptionStatus(@NonNull final AccessMessage message) {
+        super(message);
+        this.mParameters = message.getParameters();
+        parseStatusParameters();
+    }
+
+    @Override
+    public int getOpCode() {
+        return OP_CODE;
+    }
+
+    @Override
+    final void parseStatusParameters() {
+        mStatusCode = mParameters[0];
+        mStatusCodeName = getStatusCodeName(mStatusCode);
+        mSource = MeshParserUtils.unsignedBytesToInt(mParameters[1], mParameters[2]);
+        mDestination = MeshParserUtils.unsignedBytesToInt(mParameters[3], mParameters[4]);
+        mPeriodLog = MeshParserUtils.unsignedByteToInt(mParameters[5]);
+        mCountLog = MeshParserUtils.unsignedByteToInt(mParameters[6]);
+        mMinHops = MeshParserUtils.unsignedByteToInt(mParameters[7]);
+        mMaxHops = MeshParserUtils.unsignedByteToInt(mParameters[8]);
+        Log.v(TAG, "Status code: " + mStatusCode);
+        Log.v(TAG, "Status message: " + mStatusCodeName);
+        Log.v(TAG, "Source: " + MeshAddress.formatAddress(mSource, false));
+        Log.v(TAG, "Destination: " + MeshAddress.formatAddress(mDestination, false));
+        Log.v(TAG, "Min hops: " + mMinHops + ", max hops: " + mMaxHops);
+    }
+
+    /**
+     * Returns if the message was successful
+     *
+     * @return true if the message was successful or false otherwise
+     */
+    public final boolean isSuccessful() {
+        return mStatusCode == 0x00;
+    }
+
+    /**
+     * Returns the address heartbeats are received from
+     */
+    public int getSource() {
+        return mSource;
+    }
+
+    /**
+     * Returns the address heartbeats are received on
+     */
+    public int getDestination() {
+        return mDestination;
+    }
+
+    /**
+     * Returns the remaining period heartbeats are processed for as a log value
+     */
+    public int getPeriodLog() {
+        return mPeriodLog;
+    }
+
+    /**
+     * Returns the number of heartbeats received as a log value
+     */
+    public int getCountLog() {
+        return mCountLog;
+    }
+
+    /**
+     * Returns the minimum number of hops of the heartbeats received
+     */
+    public int getMinHops() {
+        return mMinHops;
+    }
+
+    /**
+     * Returns the maximum number of hops of the heartbeats received
+     */
+    public int getMaxHops() {
+        return mMaxHops;
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(final Parcel dest, final int flags) {
+        final AccessMessage message = (AccessMessage) mMessage;
+        dest.writeParcelable(message, flags);
+    }
+}
@@ -25,6 +25,8 @@ package no.nordicsemi.android.meshprovisioner.transport;
 import android.content.Context;
 import android.support.annotation.NonNull;
 
+import no.nordicsemi.android.meshprovisioner.TransmitQueueMetrics;
+
 abstract class ConfigMessageState extends MeshMessageState {
 
     private static final String TAG = ConfigMessageState.class.getSimpleName();
@@ -37,4 +39,9 @@ abstract class ConfigMessageState extends MeshMessageState {
     }
 
     public abstract MessageState getState();
+
+    @Override
+    int getTransmitPriority() {
+        return TransmitQueueMetrics.PRIORITY_CONFIGURATION;
+    }
 }
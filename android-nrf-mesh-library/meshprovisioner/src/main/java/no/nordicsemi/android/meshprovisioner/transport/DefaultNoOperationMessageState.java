@@ -1,20 +1,19 @@
 package no.nordicsemi.android.meshprovisioner.transport;
 
 import android.content.Context;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
-import java.util.ArrayList;
-
 import no.nordicsemi.android.meshprovisioner.MeshManagerApi;
-import no.nordicsemi.android.meshprovisioner.control.BlockAcknowledgementMessage;
+import no.nordicsemi.android.meshprovisioner.control.HeartbeatMessage;
 import no.nordicsemi.android.meshprovisioner.control.TransportControlMessage;
-import no.nordicsemi.android.meshprovisioner.opcodes.ApplicationMessageOpCodes;
 import no.nordicsemi.android.meshprovisioner.opcodes.ConfigMessageOpCodes;
 import no.nordicsemi.android.meshprovisioner.opcodes.ProxyConfigMessageOpCodes;
 import no.nordicsemi.android.meshprovisioner.utils.AddressArray;
 import no.nordicsemi.android.meshprovisioner.utils.ExtendedInvalidCipherTextException;
+import no.nordicsemi.android.meshprovisioner.utils.MeshLogger;
 import no.nordicsemi.android.meshprovisioner.utils.MeshParserUtils;
 import no.nordicsemi.android.meshprovisioner.utils.NetworkTransmitSettings;
 import no.nordicsemi.android.meshprovisioner.utils.ProxyFilter;
@@ -64,167 +63,173 @@ class DefaultNoOperationMessageState extends MeshMessageState {
      * @param message access message received by the acccess layer
      */
     private void parseAccessMessage(final AccessMessage message) {
-        final byte[] accessPayload = message.getAccessPdu();
-        final ProvisionedMeshNode node = mInternalTransportCallbacks.getProvisionedNode(message.getSrc());
-        final int opCodeLength = ((accessPayload[0] & 0xF0) >> 6);
-        //OpCode length
-        switch (opCodeLength) {
-            case 0:
-                if (message.getOpCode() == ConfigMessageOpCodes.CONFIG_COMPOSITION_DATA_STATUS) {
-                    final ConfigCompositionDataStatus status = new ConfigCompositionDataStatus(message);
-                    node.setCompositionData(status);
-                    mInternalTransportCallbacks.updateMeshNetwork(status);
-                    mMeshStatusCallbacks.onMeshMessageReceived(message.getSrc(), status);
-                }
+        final int opCode = message.getOpCode();
+        //The request is looked up from the transactions in flight, so that a late status is not attributed to the last message sent
+        final MeshTransaction transaction = meshMessageHandlerCallbacks.completeTransaction(message.getSrc(), opCode);
+        final MeshMessage request = transaction != null ? transaction.getMeshMessage() : null;
+        final OpCodeRegistry opCodeRegistry = meshMessageHandlerCallbacks.getOpCodeRegistry();
+        final MeshMessageDecoder decoder = opCodeRegistry.get(opCode);
+        final MeshMessage status;
+        if (decoder != null) {
+            status = decoder.decode(message);
+        } else {
+            status = decodeVendorModelMessageStatus(message, request != null ? request : mMeshMessage);
+        }
+
+        if (status == null) {
+            MeshLogger.v(TAG, "Unknown Access PDU Received: ", message.getAccessPduBuffer(), message.getAccessPduOffset(), message.getAccessPduLength());
+            mMeshStatusCallbacks.onUnknownPduReceived(message.getSrc(), message.getAccessPdu());
+            if (transaction != null) {
+                transaction.onFailed(MeshTransaction.FAILURE_INVALID_RESPONSE);
+                meshMessageHandlerCallbacks.sendPendingTransactions();
+            }
+            return;
+        }
+
+        if (opCodeRegistry.isLibraryDefined(opCode)) {
+            final ProvisionedMeshNode node = mInternalTransportCallbacks.getProvisionedNode(message.getSrc());
+            updateNode(node, opCode, status, request);
+            mInternalTransportCallbacks.updateMeshNetwork(status);
+        }
+        mMeshStatusCallbacks.onMeshMessageReceived(message.getSrc(), status);
+        if (transaction != null) {
+            transaction.onCompleted(message.getSrc(), status);
+            //The next queued message is sent only after the response to this one has been delivered
+            meshMessageHandlerCallbacks.sendPendingTransactions();
+        }
+    }
+
+    /**
+     * Decodes a vendor model status with the model identifier of the vendor message that was sent, if no decoder was registered for its opcode
+     *
+     * @param message access message received by the acccess layer
+     * @param request vendor model message the status responds to
+     * @return vendor model status or null if the request was not a vendor model message
+     */
+    private MeshMessage decodeVendorModelMessageStatus(final AccessMessage message, final MeshMessage request) {
+        if (NetworkPduDecoder.getOpCodeLength(message.getAccessPduBuffer(), message.getAccessPduOffset()) != 3)
+            return null;
+
+        if (request instanceof VendorModelMessageAcked) {
+            final VendorModelMessageAcked vendorModelMessageAcked = (VendorModelMessageAcked) request;
+            MeshLogger.v(TAG, "Vendor model Access PDU Received: ", message.getAccessPduBuffer(), message.getAccessPduOffset(), message.getAccessPduLength());
+            return new VendorModelMessageStatus(message, vendorModelMessageAcked.getModelIdentifier());
+        } else if (request instanceof VendorModelMessageUnacked) {
+            final VendorModelMessageUnacked vendorModelMessageUnacked = (VendorModelMessageUnacked) request;
+            return new VendorModelMessageStatus(message, vendorModelMessageUnacked.getModelIdentifier());
+        }
+        return null;
+    }
+
+    /**
+     * Updates the node with a status decoded by the library
+     *
+     * @param node    node the status was received from
+     * @param opCode  opcode of the status
+     * @param status  decoded status
+     * @param request message the status responds to or null if the status was not requested
+     */
+    private void updateNode(final ProvisionedMeshNode node, final int opCode, final MeshMessage status, @Nullable final MeshMessage request) {
+        switch (opCode) {
+            case ConfigMessageOpCodes.CONFIG_COMPOSITION_DATA_STATUS:
+                node.setCompositionData((ConfigCompositionDataStatus) status);
                 break;
-            case 1:
-                if (message.getOpCode() == ApplicationMessageOpCodes.SCENE_STATUS) {
-                    final SceneStatus sceneStatus = new SceneStatus(message);
-                    mInternalTransportCallbacks.updateMeshNetwork(sceneStatus);
-                    mMeshStatusCallbacks.onMeshMessageReceived(message.getSrc(), sceneStatus);
+            case ConfigMessageOpCodes.CONFIG_APPKEY_STATUS: {
+                final ConfigAppKeyStatus appKeyStatus = (ConfigAppKeyStatus) status;
+                if (appKeyStatus.isSuccessful() && request instanceof ConfigAppKeyAdd) {
+                    final ConfigAppKeyAdd configAppKeyAdd = (ConfigAppKeyAdd) request;
+                    node.setAddedAppKey(appKeyStatus.getAppKeyIndex(), configAppKeyAdd.getAppKey());
                 }
                 break;
-            case 2:
-                if (message.getOpCode() == ConfigMessageOpCodes.CONFIG_APPKEY_STATUS) {
-                    final ConfigAppKeyStatus status = new ConfigAppKeyStatus(message);
-                    if (status.isSuccessful()) {
-                        if (mMeshMessage instanceof ConfigAppKeyAdd) {
-                            final ConfigAppKeyAdd configAppKeyAdd = (ConfigAppKeyAdd) mMeshMessage;
-                            node.setAddedAppKey(status.getAppKeyIndex(), configAppKeyAdd.getAppKey());
-                        }
-                    }
-                    mInternalTransportCallbacks.updateMeshNetwork(status);
-                    mMeshStatusCallbacks.onMeshMessageReceived(message.getSrc(), status);
-                } else if (message.getOpCode() == ConfigMessageOpCodes.CONFIG_MODEL_APP_STATUS) {
-                    final ConfigModelAppStatus status = new ConfigModelAppStatus(message);
-                    if (status.isSuccessful()) {
-                        if (mMeshMessage instanceof ConfigModelAppBind) {
-                            node.setAppKeyBindStatus(status);
-                        } else {
-                            node.setAppKeyUnbindStatus(status);
-                        }
+            }
+            case ConfigMessageOpCodes.CONFIG_MODEL_APP_STATUS: {
+                final ConfigModelAppStatus modelAppStatus = (ConfigModelAppStatus) status;
+                if (modelAppStatus.isSuccessful()) {
+                    if (request instanceof ConfigModelAppBind) {
+                        node.setAppKeyBindStatus(modelAppStatus);
+                    } else if (request instanceof ConfigModelAppUnbind) {
+                        node.setAppKeyUnbindStatus(modelAppStatus);
                     }
-                    mInternalTransportCallbacks.updateMeshNetwork(status);
-                    mMeshStatusCallbacks.onMeshMessageReceived(message.getSrc(), status);
-
-                } else if (message.getOpCode() == ConfigMessageOpCodes.CONFIG_MODEL_PUBLICATION_STATUS) {
-                    final ConfigModelPublicationStatus status = new ConfigModelPublicationStatus(message);
-                    if (status.isSuccessful()) {
-                        final Element element = node.getElements().get(status.getElementAddress());
-                        if(element != null) {
-                            final MeshModel model = element.getMeshModels().get(status.getModelIdentifier());
-                            if(model != null) {
-                                model.setPublicationStatus(status);
-                            }
-                        }
+                }
+                break;
+            }
+            case ConfigMessageOpCodes.CONFIG_MODEL_PUBLICATION_STATUS: {
+                final ConfigModelPublicationStatus publicationStatus = (ConfigModelPublicationStatus) status;
+                if (publicationStatus.isSuccessful()) {
+                    final MeshModel model = getMeshModel(node, publicationStatus.getElementAddress(), publicationStatus.getModelIdentifier());
+                    if (model != null) {
+                        model.setPublicationStatus(publicationStatus);
                     }
-                    mInternalTransportCallbacks.updateMeshNetwork(status);
-                    mMeshStatusCallbacks.onMeshMessageReceived(message.getSrc(), status);
-
-                } else if (message.getOpCode() == ConfigMessageOpCodes.CONFIG_MODEL_SUBSCRIPTION_STATUS) {
-                    final ConfigModelSubscriptionStatus status = new ConfigModelSubscriptionStatus(message);
-
-                    if (status.isSuccessful()) {
-                        final Element element = node.getElements().get(status.getElementAddress());
-                        if(element != null) {
-                            final MeshModel model = element.getMeshModels().get(status.getModelIdentifier());
-                            if(model != null) {
-                                if (mMeshMessage instanceof ConfigModelSubscriptionAdd) {
-                                    model.addSubscriptionAddress(status.getSubscriptionAddress());
-                                } else if (mMeshMessage instanceof ConfigModelSubscriptionDelete) {
-                                    model.removeSubscriptionAddress(status.getSubscriptionAddress());
-                                }
-                            }
+                }
+                break;
+            }
+            case ConfigMessageOpCodes.CONFIG_MODEL_SUBSCRIPTION_STATUS: {
+                final ConfigModelSubscriptionStatus subscriptionStatus = (ConfigModelSubscriptionStatus) status;
+                if (subscriptionStatus.isSuccessful()) {
+                    final MeshModel model = getMeshModel(node, subscriptionStatus.getElementAddress(), subscriptionStatus.getModelIdentifier());
+                    if (model != null) {
+                        if (request instanceof ConfigModelSubscriptionAdd || request instanceof ConfigModelSubscriptionVirtualAddressAdd) {
+                            model.addSubscriptionAddress(subscriptionStatus.getSubscriptionAddress());
+                        } else if (request instanceof ConfigModelSubscriptionDelete || request instanceof ConfigModelSubscriptionVirtualAddressDelete) {
+                            model.removeSubscriptionAddress(subscriptionStatus.getSubscriptionAddress());
                         }
                     }
-                    mInternalTransportCallbacks.updateMeshNetwork(status);
-                    mMeshStatusCallbacks.onMeshMessageReceived(message.getSrc(), status);
-                } else if (message.getOpCode() == ConfigMessageOpCodes.CONFIG_NODE_RESET_STATUS) {
-                    final ConfigNodeResetStatus status = new ConfigNodeResetStatus(message);
-                    mInternalTransportCallbacks.onMeshNodeReset(node);
-                    mMeshStatusCallbacks.onMeshMessageReceived(message.getSrc(), status);
-                } else if (message.getOpCode() == ConfigMessageOpCodes.CONFIG_NETWORK_TRANSMIT_STATUS) {
-                    final ConfigNetworkTransmitStatus status = new ConfigNetworkTransmitStatus(message);
-                    final NetworkTransmitSettings networkTransmitSettings =
-                            new NetworkTransmitSettings(status.getNetworkTransmitCount(), status.getNetworkTransmitIntervalSteps());
-                    node.setNetworkTransmitSettings(networkTransmitSettings);
-                    mInternalTransportCallbacks.updateMeshNetwork(status);
-                    mMeshStatusCallbacks.onMeshMessageReceived(message.getSrc(), status);
-                } else if (message.getOpCode() == ConfigMessageOpCodes.CONFIG_RELAY_STATUS) {
-                    final ConfigRelayStatus status = new ConfigRelayStatus(message);
-                    final RelaySettings relaySettings =
-                            new RelaySettings(status.getRelayRetransmitCount(), status.getRelayRetransmitIntervalSteps());
-                    node.setRelaySettings(relaySettings);
-                    mInternalTransportCallbacks.updateMeshNetwork(status);
-                    mMeshStatusCallbacks.onMeshMessageReceived(message.getSrc(), status);
-                } else if (message.getOpCode() == ConfigMessageOpCodes.CONFIG_GATT_PROXY_STATUS) {
-                    final ConfigProxyStatus status = new ConfigProxyStatus(message);
-                    mInternalTransportCallbacks.updateMeshNetwork(status);
-                    mMeshStatusCallbacks.onMeshMessageReceived(message.getSrc(), status);
-                } else if (message.getOpCode() == ApplicationMessageOpCodes.GENERIC_ON_OFF_STATUS) {
-                    final GenericOnOffStatus status = new GenericOnOffStatus(message);
-                    mInternalTransportCallbacks.updateMeshNetwork(status);
-                    mMeshStatusCallbacks.onMeshMessageReceived(message.getSrc(), status);
-                } else if (message.getOpCode() == ApplicationMessageOpCodes.GENERIC_LEVEL_STATUS) {
-                    final GenericLevelStatus genericLevelStatus = new GenericLevelStatus(message);
-                    mInternalTransportCallbacks.updateMeshNetwork(genericLevelStatus);
-                    mMeshStatusCallbacks.onMeshMessageReceived(message.getSrc(), genericLevelStatus);
-                } else if (message.getOpCode() == ApplicationMessageOpCodes.LIGHT_LIGHTNESS_STATUS) {
-                    final LightLightnessStatus lightLightnessStatus = new LightLightnessStatus(message);
-                    mInternalTransportCallbacks.updateMeshNetwork(lightLightnessStatus);
-                    mMeshStatusCallbacks.onMeshMessageReceived(message.getSrc(), lightLightnessStatus);
-                } else if (message.getOpCode() == ApplicationMessageOpCodes.LIGHT_CTL_STATUS) {
-                    final LightCtlStatus lightCtlStatus = new LightCtlStatus(message);
-                    mInternalTransportCallbacks.updateMeshNetwork(lightCtlStatus);
-                    mMeshStatusCallbacks.onMeshMessageReceived(message.getSrc(), lightCtlStatus);
-                } else if (message.getOpCode() == ApplicationMessageOpCodes.LIGHT_HSL_STATUS) {
-                    final LightHslStatus lightHslStatus = new LightHslStatus(message);
-                    mInternalTransportCallbacks.updateMeshNetwork(lightHslStatus);
-                    mMeshStatusCallbacks.onMeshMessageReceived(message.getSrc(), lightHslStatus);
-                } else if (message.getOpCode() == ApplicationMessageOpCodes.SCENE_REGISTER_STATUS) {
-                    final SceneRegisterStatus registerStatus = new SceneRegisterStatus(message);
-                    registerStatus.parseStatusParameters();
-                    mInternalTransportCallbacks.updateMeshNetwork(registerStatus);
-                    mMeshStatusCallbacks.onMeshMessageReceived(message.getSrc(), registerStatus);
-                } else {
-                    Log.v(TAG, "Unknown Access PDU Received: " + MeshParserUtils.bytesToHex(accessPayload, false));
                 }
                 break;
-            case 3:
-                if (mMeshMessage instanceof VendorModelMessageAcked) {
-                    final VendorModelMessageAcked vendorModelMessageAcked = (VendorModelMessageAcked) mMeshMessage;
-                    final VendorModelMessageStatus status = new VendorModelMessageStatus(message, vendorModelMessageAcked.getModelIdentifier());
-                    mMeshStatusCallbacks.onMeshMessageReceived(message.getSrc(), status);
-                    Log.v(TAG, "Vendor model Access PDU Received: " + MeshParserUtils.bytesToHex(accessPayload, false));
-                } else if (mMeshMessage instanceof VendorModelMessageUnacked) {
-                    final VendorModelMessageUnacked vendorModelMessageUnacked = (VendorModelMessageUnacked) mMeshMessage;
-                    final VendorModelMessageStatus status = new VendorModelMessageStatus(message, vendorModelMessageUnacked.getModelIdentifier());
-                    mMeshStatusCallbacks.onMeshMessageReceived(message.getSrc(), status);
-                }
+            }
+            case ConfigMessageOpCodes.CONFIG_NODE_RESET_STATUS:
+                meshMessageHandlerCallbacks.getHeartbeatTable().remove(message.getSrc());
+                mInternalTransportCallbacks.onMeshNodeReset(node);
                 break;
-            default:
-                Log.v(TAG, "Unknown Access PDU Received: " + MeshParserUtils.bytesToHex(accessPayload, false));
-                mMeshStatusCallbacks.onUnknownPduReceived(message.getSrc(), message.getAccessPdu());
+            case ConfigMessageOpCodes.CONFIG_NETWORK_TRANSMIT_STATUS: {
+                final ConfigNetworkTransmitStatus networkTransmitStatus = (ConfigNetworkTransmitStatus) status;
+                node.setNetworkTransmitSettings(new NetworkTransmitSettings(networkTransmitStatus.getNetworkTransmitCount(),
+                        networkTransmitStatus.getNetworkTransmitIntervalSteps()));
                 break;
+            }
+            case ConfigMessageOpCodes.CONFIG_RELAY_STATUS: {
+                final ConfigRelayStatus relayStatus = (ConfigRelayStatus) status;
+                node.setRelaySettings(new RelaySettings(relayStatus.getRelayRetransmitCount(), relayStatus.getRelayRetransmitIntervalSteps()));
+                break;
+            }
         }
     }
 
+    /**
+     * Returns the model of an element of the node or null if the node does not contain it
+     */
+    private MeshModel getMeshModel(final ProvisionedMeshNode node, final int elementAddress, final int modelIdentifier) {
+        final Element element = node.getElements().get(elementAddress);
+        if (element != null) {
+            return element.getMeshModels().get(modelIdentifier);
+        }
+        return null;
+    }
+
     /**
      * Parses control message received
      *
      * @param controlMessage control message received by the transport layer
      */
     private void parseControlMessage(final ControlMessage controlMessage) {
-        //Get the segment count count of the access message
-        final int segmentCount = message.getNetworkPdu().size();
         if (controlMessage.getPduType() == MeshManagerApi.PDU_TYPE_NETWORK) {
             final TransportControlMessage transportControlMessage = controlMessage.getTransportControlMessage();
+            if (transportControlMessage == null) {
+                Log.v(TAG, "Unexpected control message received, ignoring message");
+                mMeshStatusCallbacks.onUnknownPduReceived(controlMessage.getSrc(), controlMessage.getTransportControlPdu());
+                return;
+            }
             switch (transportControlMessage.getState()) {
                 case LOWER_TRANSPORT_BLOCK_ACKNOWLEDGEMENT:
                     Log.v(TAG, "Acknowledgement payload: " + MeshParserUtils.bytesToHex(controlMessage.getTransportControlPdu(), false));
-                    final ArrayList<Integer> retransmitPduIndexes = BlockAcknowledgementMessage.getSegmentsToBeRetransmitted(controlMessage.getTransportControlPdu(), segmentCount);
+                    //Missing segments are retransmitted by the lower transport layer
                     mMeshStatusCallbacks.onBlockAcknowledgementReceived(controlMessage.getSrc());
-                    executeResend(retransmitPduIndexes);
+                    break;
+                case UPPER_TRANSPORT_HEARTBEAT:
+                    final HeartbeatMessage heartbeat = (HeartbeatMessage) transportControlMessage;
+                    MeshLogger.vAddress(TAG, "Heartbeat received from ", controlMessage.getSrc());
+                    meshMessageHandlerCallbacks.getHeartbeatTable().update(controlMessage.getSrc(),
+                            heartbeat.getHops(controlMessage.getTtl()), heartbeat.getFeatures(), SystemClock.elapsedRealtime());
                     break;
                 default:
                     Log.v(TAG, "Unexpected control message received, ignoring message");
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner.transport;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps track of the heartbeats received from the nodes in the network.
+ * <p>
+ * For each unicast address a heartbeat was received from, the table keeps the time the last heartbeat was received at, the minimum and
+ * maximum number of hops heartbeats travelled and the features last reported by the node. Entries are kept sorted by address in
+ * parallel primitive arrays, so that the table does not allocate per heartbeat and the liveness of a large network can be queried
+ * from heartbeats received passively rather than by polling each node.
+ * </p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class HeartbeatTable {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Returned by {@link #getLastSeen(int)} if no heartbeat was received from the address
+     */
+    public static final long NEVER = -1;
+
+    private int[] mAddresses = new int[INITIAL_CAPACITY];
+    private long[] mLastSeen = new long[INITIAL_CAPACITY];
+    private byte[] mMinHops = new byte[INITIAL_CAPACITY];
+    private byte[] mMaxHops = new byte[INITIAL_CAPACITY];
+    private char[] mFeatures = new char[INITIAL_CAPACITY];
+    private int mSize;
+
+    HeartbeatTable() {
+    }
+
+    /**
+     * Records a heartbeat received from a node
+     *
+     * @param src      unicast address the heartbeat was received from
+     * @param hops     number of hops the heartbeat travelled
+     * @param features features reported in the heartbeat
+     * @param now      time the heartbeat was received at, in milliseconds
+     */
+    synchronized void update(final int src, final int hops, final int features, final long now) {
+        final byte clampedHops = (byte) Math.max(0, Math.min(hops, 0x7F));
+        int index = Arrays.binarySearch(mAddresses, 0, mSize, src);
+        if (index < 0) {
+            index = ~index;
+            insert(index, src);
+            mMinHops[index] = clampedHops;
+            mMaxHops[index] = clampedHops;
+        } else {
+            if (clampedHops < mMinHops[index])
+                mMinHops[index] = clampedHops;
+            if (clampedHops > mMaxHops[index])
+                mMaxHops[index] = clampedHops;
+        }
+        mLastSeen[index] = now;
+        mFeatures[index] = (char) features;
+    }
+
+    /**
+     * Returns the number of addresses a heartbeat was received from
+     */
+    public synchronized int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns true if a heartbeat was received from the address
+     *
+     * @param address unicast address of the node
+     */
+    public synchronized boolean contains(final int address) {
+        return Arrays.binarySearch(mAddresses, 0, mSize, address) >= 0;
+    }
+
+    /**
+     * Returns the time the last heartbeat was received from the address, in milliseconds since boot, or {@link #NEVER}
+     *
+     * @param address unicast address of the node
+     */
+    public synchronized long getLastSeen(final int address) {
+        final int index = Arrays.binarySearch(mAddresses, 0, mSize, address);
+        return index < 0 ? NEVER : mLastSeen[index];
+    }
+
+    /**
+     * Returns the minimum number of hops a heartbeat from the address travelled or 0 if no heartbeat was received
+     *
+     * @param address unicast address of the node
+     */
+    public synchronized int getMinHops(final int address) {
+        final int index = Arrays.binarySearch(mAddresses, 0, mSize, address);
+        return index < 0 ? 0 : mMinHops[index];
+    }
+
+    /**
+     * Returns the maximum number of hops a heartbeat from the address travelled or 0 if no heartbeat was received
+     *
+     * @param address unicast address of the node
+     */
+    public synchronized int getMaxHops(final int address) {
+        final int index = Arrays.binarySearch(mAddresses, 0, mSize, address);
+        return index < 0 ? 0 : mMaxHops[index];
+    }
+
+    /**
+     * Returns the features reported in the last heartbeat from the address or 0 if no heartbeat was received,
+     * see {@link no.nordicsemi.android.meshprovisioner.control.HeartbeatMessage}
+     *
+     * @param address unicast address of the node
+     */
+    public synchronized int getFeatures(final int address) {
+        final int index = Arrays.binarySearch(mAddresses, 0, mSize, address);
+        return index < 0 ? 0 : mFeatures[index];
+    }
+
+    /**
+     * Returns the addresses from which no heartbeat was received within the given time
+     *
+     * @param maxAge maximum time since the last heartbeat, in milliseconds
+     * @param now    current time, in milliseconds
+     * @return addresses in ascending order
+     */
+    @NonNull
+    public synchronized List<Integer> getStaleAddresses(final long maxAge, final long now) {
+        final List<Integer> addresses = new ArrayList<>();
+        for (int i = 0; i < mSize; i++) {
+            if (now - mLastSeen[i] > maxAge) {
+                addresses.add(mAddresses[i]);
+            }
+        }
+        return addresses;
+    }
+
+    /**
+     * Returns true if a heartbeat was received from the address within the given time
+     *
+     * @param address unicast address of the node
+     * @param maxAge  maximum time since the last heartbeat, in milliseconds
+     * @param now     current time, in milliseconds
+     */
+    public synchronized boolean isAlive(final int address, final long maxAge, final long now) {
+        final int index = Arrays.binarySearch(mAddresses, 0, mSize, address);
+        return index >= 0 && now - mLastSeen[index] <= maxAge;
+    }
+
+    /**
+     * Removes the entry of an address, i.e. when the node is reset
+     *
+     * @param address unicast address of the node
+     */
+    public synchronized void remove(final int address) {
+        final int index = Arrays.binarySearch(mAddresses, 0, mSize, address);
+        if (index < 0)
+            return;
+        final int moved = mSize - index - 1;
+        System.arraycopy(mAddresses, index + 1, mAddresses, index, moved);
+        System.arraycopy(mLastSeen, index + 1, mLastSeen, index, moved);
+        System.arraycopy(mMinHops, index + 1, mMinHops, index, moved);
+        System.arraycopy(mMaxHops, index + 1, mMaxHops, index, moved);
+        System.arraycopy(mFeatures, index + 1, mFeatures, index, moved);
+        mSize--;
+    }
+
+    /**
+     * Removes all entries
+     */
+    public synchronized void clear() {
+        mSize = 0;
+    }
+
+    private void insert(final int index, final int address) {
+        if (mSize == mAddresses.length) {
+            final int capacity = mAddresses.length * 2;
+            mAddresses = Arrays.copyOf(mAddresses, capacity);
+            mLastSeen = Arrays.copyOf(mLastSeen, capacity);
+            mMinHops = Arrays.copyOf(mMinHops, capacity);
+            mMaxHops = Arrays.copyOf(mMaxHops, capacity);
+            mFeatures = Arrays.copyOf(mFeatures, capacity);
+        }
+        final int moved = mSize - index;
+        System.arraycopy(mAddresses, index, mAddresses, index + 1, moved);
+        System.arraycopy(mLastSeen, index, mLastSeen, index + 1, moved);
+        System.arraycopy(mMinHops, index, mMinHops, index + 1, moved);
+        System.arraycopy(mMaxHops, index, mMaxHops, index + 1, moved);
+        System.arraycopy(mFeatures, index, mFeatures, index + 1, moved);
+        mAddresses[index] = address;
+        mSize++;
+    }
+}
@@ -33,4 +33,28 @@ interface InternalMeshMsgHandlerCallbacks {
      * @param incompleteTimerExpired state of the incomplete timer
      */
     void onIncompleteTimerExpired(final boolean incompleteTimerExpired);
+
+    /**
+     * Returns the registry of decoders for the opcodes of received access messages
+     */
+    OpCodeRegistry getOpCodeRegistry();
+
+    /**
+     * Returns the table the heartbeats received from the nodes are recorded in
+     */
+    HeartbeatTable getHeartbeatTable();
+
+    /**
+     * Completes the transaction a received message responds to
+     *
+     * @param src    source address of the received message
+     * @param opCode opcode of the received message
+     * @return transaction the received message responds to or null if the message was not expected
+     */
+    MeshTransaction completeTransaction(final int src, final int opCode);
+
+    /**
+     * Sends the queued transactions that fit in to the transaction window, once the result of a completed transaction has been delivered
+     */
+    void sendPendingTransactions();
 }
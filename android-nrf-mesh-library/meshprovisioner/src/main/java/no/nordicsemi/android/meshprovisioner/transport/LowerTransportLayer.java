@@ -22,19 +22,22 @@
 
 package no.nordicsemi.android.meshprovisioner.transport;
 
+import android.support.annotation.NonNull;
 import android.support.annotation.VisibleForTesting;
-import android.util.Log;
 import android.util.SparseArray;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.Arrays;
 
 import no.nordicsemi.android.meshprovisioner.MeshManagerApi;
 import no.nordicsemi.android.meshprovisioner.control.BlockAcknowledgementMessage;
 import no.nordicsemi.android.meshprovisioner.opcodes.TransportLayerOpCodes;
 import no.nordicsemi.android.meshprovisioner.utils.ExtendedInvalidCipherTextException;
 import no.nordicsemi.android.meshprovisioner.utils.MeshAddress;
+import no.nordicsemi.android.meshprovisioner.utils.MeshLogger;
 import no.nordicsemi.android.meshprovisioner.utils.MeshParserUtils;
+import no.nordicsemi.android.meshprovisioner.utils.ReplayProtectionList;
 
 abstract class LowerTransportLayer extends UpperTransportLayer {
 
@@ -46,35 +49,30 @@ abstract class LowerTransportLayer extends UpperTransportLayer {
     private static final int SEGMENTED_MESSAGE_HEADER_LENGTH = 4;
 
     private static final int UNSEGMENTED_ACK_MESSAGE_HEADER_LENGTH = 3;
+    private static final int SEGMENTED_HEADER_OFFSET = NetworkPduDecoder.LOWER_TRANSPORT_PDU_OFFSET + 1;
+    private static final int SEGMENTED_PAYLOAD_OFFSET = NetworkPduDecoder.LOWER_TRANSPORT_PDU_OFFSET + SEGMENTED_MESSAGE_HEADER_LENGTH;
     private static final long INCOMPLETE_TIMER_DELAY = 10 * 1000; // According to the spec the incomplete timer must be a minimum of 10 seconds.
 
-    private final SparseArray<byte[]> segmentedAccessMessageMap = new SparseArray<>();
-    private final SparseArray<byte[]> segmentedControlMessageMap = new SparseArray<>();
-
-    private LowerTransportLayerCallbacks mLowerTransportLayerCallbacks;
-
-    private boolean mSegmentedAccessAcknowledgementTimerStarted;
-    private Integer mSegmentedAccessBlockAck;
-
-    private boolean mSegmentedControlAcknowledgementTimerStarted;
-    private Integer mSegmentedControlBlockAck;
-
-    private boolean mIncompleteTimerStarted;
+    private final ReassemblyTable mReassemblyTable = new ReassemblyTable();
+    private final SparseArray<SegmentedTransmission> mSegmentedTransmissions = new SparseArray<>(); //Keyed by destination address and SeqZero
+    //Block acknowledgements are timed on the main looper handler with the other timers of the transport layers
+    private final BlockAcknowledgementScheduler mBlockAcknowledgementScheduler = new BlockAcknowledgementScheduler(new BlockAcknowledgementScheduler.Timer() {
+        @Override
+        public void postDelayed(@NonNull final Runnable task, final long delay) {
+            mHandler.postDelayed(task, delay);
+        }
 
-    private boolean mBlockAckSent;
+        @Override
+        public void removeCallbacks(@NonNull final Runnable task) {
+            mHandler.removeCallbacks(task);
+        }
+    }, this::sendBlockAck);
 
-    private long mDuration;
+    private LowerTransportLayerCallbacks mLowerTransportLayerCallbacks;
     /**
-     * Runnable for incomplete timer
+     * IV Index of the network pdu that is being parsed, selected by the IVI bit of the pdu
      */
-    private Runnable mIncompleteTimerRunnable = new Runnable() {
-        @Override
-        public void run() {
-            mLowerTransportLayerCallbacks.onIncompleteTimerExpired();
-            //Reset the incomplete timer flag once it expires
-            mIncompleteTimerStarted = false;
-        }
-    };
+    int mReceivedIvIndex;
 
     protected void setLowerTransportLayerCallbacks(final LowerTransportLayerCallbacks callbacks) {
         mLowerTransportLayerCallbacks = callbacks;
@@ -130,10 +128,10 @@ abstract class LowerTransportLayer extends UpperTransportLayer {
             case MeshManagerApi.PDU_TYPE_NETWORK:
                 final byte[] transportControlPdu = message.getTransportControlPdu();
                 if (transportControlPdu.length <= MAX_UNSEGMENTED_CONTROL_PAYLOAD_LENGTH) {
-                    Log.v(TAG, "Creating unsegmented transport control");
+                    MeshLogger.v(TAG, "Creating unsegmented transport control");
                     createUnsegmentedControlMessage(message);
                 } else {
-                    Log.v(TAG, "Creating segmented transport control");
+                    MeshLogger.v(TAG, "Creating segmented transport control");
                     createSegmentedControlMessage(message);
                 }
         }
@@ -141,6 +139,10 @@ abstract class LowerTransportLayer extends UpperTransportLayer {
 
     @Override
     final void reassembleLowerTransportAccessPDU(final AccessMessage accessMessage) {
+        if (accessMessage.getUpperTransportPduBuffer() != null) {
+            //Received messages are decoded in place or reassembled by the reassembly table, so there is nothing left to reassemble
+            return;
+        }
         final SparseArray<byte[]> lowerTransportAccessPdu = removeLowerTransportAccessMessageHeader(accessMessage);
         final byte[] upperTransportPdu = MeshParserUtils.concatenateSegmentedMessages(lowerTransportAccessPdu);
         accessMessage.setUpperTransportPdu(upperTransportPdu);
@@ -238,7 +240,12 @@ abstract class LowerTransportLayer extends UpperTransportLayer {
      * @param sequenceNumber Sequence number to be incremented.
      * @return Incremented sequence number.
      */
-    protected abstract int incrementSequenceNumber(final int src, final byte[] sequenceNumber);
+    protected abstract int incrementSequenceNumber(final int src, final int sequenceNumber);
+
+    /**
+     * Returns the replay protection list of the provisioner
+     */
+    protected abstract ReplayProtectionList getReplayProtectionList();
 
     /**
      * Creates the network layer pdu
@@ -248,6 +255,15 @@ abstract class LowerTransportLayer extends UpperTransportLayer {
      */
     protected abstract Message createNetworkLayerPDU(final Message message);
 
+    /**
+     * Creates the network layer pdu of a single segment to be retransmitted
+     *
+     * @param message segmented message with underlying data
+     * @param segment index of the segment to be retransmitted
+     * @return message containing the network pdu of the segment or null if the pdu could not be created
+     */
+    abstract Message createRetransmitNetworkLayerPDU(final Message message, final int segment);
+
     /**
      * Creates an unsegmented access message.
      *
@@ -263,7 +279,7 @@ abstract class LowerTransportLayer extends UpperTransportLayer {
         lowerTransportBuffer.put(header);
         lowerTransportBuffer.put(encryptedUpperTransportPDU);
         final byte[] lowerTransportPDU = lowerTransportBuffer.array();
-        Log.v(TAG, "Unsegmented Lower transport access PDU " + MeshParserUtils.bytesToHex(lowerTransportPDU, false));
+        MeshLogger.v(TAG, "Unsegmented Lower transport access PDU ", lowerTransportPDU);
         return lowerTransportPDU;
     }
 
@@ -277,8 +293,7 @@ abstract class LowerTransportLayer extends UpperTransportLayer {
         final byte[] encryptedUpperTransportPDU = message.getUpperTransportPdu();
         final int akfAid = ((message.getAkf() << 6) | message.getAid());
         final int aszmic = message.getAszmic();
-        final byte[] sequenceNumber = message.getSequenceNumber();
-        int seqZero = MeshParserUtils.calculateSeqZero(sequenceNumber);
+        int seqZero = MeshParserUtils.calculateSeqZero(message.getSequenceNumberValue());
 
         final int numberOfSegments = (encryptedUpperTransportPDU.length + (MAX_SEGMENTED_ACCESS_PAYLOAD_LENGTH - 1)) / MAX_SEGMENTED_ACCESS_PAYLOAD_LENGTH;
         final int segN = numberOfSegments - 1; //Zero based segN
@@ -297,7 +312,9 @@ abstract class LowerTransportLayer extends UpperTransportLayer {
             offset += length;
 
             final byte[] lowerTransportPDU = lowerTransportBuffer.array();
-            Log.v(TAG, "Segmented Lower transport access PDU: " + MeshParserUtils.bytesToHex(lowerTransportPDU, false) + " " + segO + " of " + numberOfSegments);
+            if (MeshLogger.isVerbose()) {
+                MeshLogger.v(TAG, "Segmented Lower transport access PDU: " + MeshParserUtils.bytesToHex(lowerTransportPDU, false) + " " + segO + " of " + numberOfSegments);
+            }
             lowerTransportPduMap.put(segO, lowerTransportPDU);
         }
         return lowerTransportPduMap;
@@ -330,7 +347,7 @@ abstract class LowerTransportLayer extends UpperTransportLayer {
 
         lowerTransportBuffer.put(upperTransportControlPDU);
         final byte[] lowerTransportPDU = lowerTransportBuffer.array();
-        Log.v(TAG, "Unsegmented Lower transport control PDU " + MeshParserUtils.bytesToHex(lowerTransportPDU, false));
+        MeshLogger.v(TAG, "Unsegmented Lower transport control PDU ", lowerTransportPDU);
         final SparseArray<byte[]> lowerTransportControlPduMap = new SparseArray<>();
         lowerTransportControlPduMap.put(0, lowerTransportPDU);
         message.setLowerTransportControlPdu(lowerTransportControlPduMap);
@@ -346,8 +363,7 @@ abstract class LowerTransportLayer extends UpperTransportLayer {
         final byte[] encryptedUpperTransportControlPDU = controlMessage.getTransportControlPdu();
         final int opCode = controlMessage.getOpCode();
         final int rfu = 0;
-        final byte[] sequenceNumber = controlMessage.getSequenceNumber();
-        final int seqZero = MeshParserUtils.calculateSeqZero(sequenceNumber);
+        final int seqZero = MeshParserUtils.calculateSeqZero(controlMessage.getSequenceNumberValue());
 
         final int numberOfSegments = (encryptedUpperTransportControlPDU.length + (MAX_SEGMENTED_CONTROL_PAYLOAD_LENGTH - 1)) / MAX_SEGMENTED_CONTROL_PAYLOAD_LENGTH;
         final int segN = numberOfSegments - 1; //Zero based segN
@@ -366,7 +382,9 @@ abstract class LowerTransportLayer extends UpperTransportLayer {
             offset += length;
 
             final byte[] lowerTransportPDU = lowerTransportBuffer.array();
-            Log.v(TAG, "Segmented Lower transport access PDU: " + MeshParserUtils.bytesToHex(lowerTransportPDU, false) + " " + segO + " of " + numberOfSegments);
+            if (MeshLogger.isVerbose()) {
+                MeshLogger.v(TAG, "Segmented Lower transport access PDU: " + MeshParserUtils.bytesToHex(lowerTransportPDU, false) + " " + segO + " of " + numberOfSegments);
+            }
             lowerTransportControlPduMap.put(segO, lowerTransportPDU);
         }
         controlMessage.setLowerTransportControlPdu(lowerTransportControlPduMap);
@@ -390,152 +408,159 @@ abstract class LowerTransportLayer extends UpperTransportLayer {
      */
     /*package*/
     final void parseUnsegmentedAccessLowerTransportPDU(final AccessMessage message, final byte[] pdu) {
-
-        final byte header = pdu[10]; //Lower transport pdu starts here
+        final byte header = NetworkPduDecoder.getLowerTransportHeader(pdu); //Lower transport pdu starts here
         final int seg = (header >> 7) & 0x01;
         final int akf = (header >> 6) & 0x01;
         final int aid = header & 0x3F;
         if (seg == 0) { //Unsegmented message
-            if (akf == 0) {// device key was used to encrypt
-                final int lowerTransportPduLength = pdu.length - 10;
-                final ByteBuffer lowerTransportBuffer = ByteBuffer.allocate(lowerTransportPduLength).order(ByteOrder.BIG_ENDIAN);
-                lowerTransportBuffer.put(pdu, 10, lowerTransportPduLength);
-                final byte[] lowerTransportPDU = lowerTransportBuffer.array();
-                final SparseArray<byte[]> messages = new SparseArray<>();
-                messages.put(0, lowerTransportPDU);
-                message.setSegmented(false);
-                message.setAszmic(0); //aszmic is always 0 for unsegmented access messages
-                message.setAkf(akf);
-                message.setAid(aid);
-                message.setLowerTransportAccessPdu(messages);
-            } else {
-                final int lowerTransportPduLength = pdu.length - 10;
-                final ByteBuffer lowerTransportBuffer = ByteBuffer.allocate(lowerTransportPduLength).order(ByteOrder.BIG_ENDIAN);
-                lowerTransportBuffer.put(pdu, 10, lowerTransportPduLength);
-                final byte[] lowerTransportPDU = lowerTransportBuffer.array();
-                final SparseArray<byte[]> messages = new SparseArray<>();
-                messages.put(0, lowerTransportPDU);
-                message.setSegmented(false);
-                message.setAszmic(0); //aszmic is always 0 for unsegmented access messages
-                message.setAkf(akf);
-                message.setAid(aid);
-                message.setLowerTransportAccessPdu(messages);
-            }
+            message.setSegmented(false);
+            message.setAszmic(0); //aszmic is always 0 for unsegmented access messages
+            message.setAkf(akf);
+            message.setAid(aid);
+            //The upper transport pdu is not copied, it is decrypted in place by the upper transport layer
+            final int offset = NetworkPduDecoder.UNSEGMENTED_UPPER_TRANSPORT_PDU_OFFSET;
+            message.setUpperTransportPdu(pdu, offset, pdu.length - offset);
         }
     }
 
     /**
      * Parses a segmented lower transport access pdu.
+     * <p>
+     * The segment is stored in the reassembly session of its source address, see {@link ReassemblyTable}.
+     * </p>
      *
-     * @param pdu The complete pdu was received from the node. This is already de-obfuscated and decrypted at network layer.
+     * @param data network pdu the segment was received in
+     * @param pdu  The complete pdu was received from the node. This is already de-obfuscated and decrypted at network layer.
+     * @return the reassembled access message once all segments have been received or null otherwise
      */
     /*package*/
-    final AccessMessage parseSegmentedAccessLowerTransportPDU(final byte[] pdu) {
-
-        final byte header = pdu[10]; //Lower transport pdu starts here
-        final int akf = (header >> 6) & 0x01;
-        final int aid = header & 0x3F;
-
-        final int szmic = (pdu[11] >> 7) & 0x01;
-        final int seqZero = ((pdu[11] & 0x7F) << 6) | ((pdu[12] & 0xFC) >> 2);
-        final int segO = ((pdu[12] & 0x03) << 3) | ((pdu[13] & 0xE0) >> 5);
-        final int segN = ((pdu[13]) & 0x1F);
-
-        final int ttl = pdu[2] & 0x7F;
-        final byte[] src = MeshParserUtils.getSrcAddress(pdu);
-        final byte[] dst = MeshParserUtils.getDstAddress(pdu);
-
-        final int blockAckSrc = MeshParserUtils.unsignedBytesToInt(dst[1], dst[0]); //Destination of the received packet would be the source for the ack
-        final int blockAckDst = MeshParserUtils.unsignedBytesToInt(src[1], src[0]); //Source of the received packet would be the destination for the ack
-
-        Log.v(TAG, "SEG O: " + segO);
-        Log.v(TAG, "SEG N: " + segN);
-
-        final int ivIndex = ByteBuffer.wrap(mUpperTransportLayerCallbacks.getIvIndex()).order(ByteOrder.BIG_ENDIAN).getInt();
-        final int seqAuth = ivIndex | getTransportLayerSequenceNumber(MeshParserUtils.getSequenceNumberFromPDU(pdu), seqZero);
-        final Integer lastSeqAuth = mMeshNode.getSeqAuth(blockAckDst);
-        if (lastSeqAuth != null)
-            Log.v(TAG, "Last SeqAuth value " + lastSeqAuth);
-
-        Log.v(TAG, "Current SeqAuth value " + seqAuth);
-
-        final int payloadLength = pdu.length - 10;
-        final ByteBuffer payloadBuffer = ByteBuffer.allocate(payloadLength);
-        payloadBuffer.put(pdu, 10, payloadLength);
-
-        //Check if the current SeqAuth value is greater than the last and if the incomplete timer has not started, start it!
-        if ((lastSeqAuth == null || lastSeqAuth < seqAuth)) {
-            segmentedAccessMessageMap.clear();
-            segmentedAccessMessageMap.put(segO, payloadBuffer.array());
-            mMeshNode.setSeqAuth(blockAckDst, seqAuth);
-            //Reset the block acknowledgement value
-            mSegmentedAccessBlockAck = BlockAcknowledgementMessage.calculateBlockAcknowledgement(null, segO);
-
-            Log.v(TAG, "Starting incomplete timer for src: " + MeshAddress.formatAddress(blockAckDst, false));
-            initIncompleteTimer();
+    final AccessMessage parseSegmentedAccessLowerTransportPDU(final byte[] data, final byte[] pdu) {
+        final ReassemblyTable.Session session = reassembleSegment(data, pdu, false);
+        if (session == null)
+            return null;
+
+        final byte header = NetworkPduDecoder.getLowerTransportHeader(pdu);
+        final AccessMessage accessMessage = new AccessMessage();
+        accessMessage.setAszmic((pdu[SEGMENTED_HEADER_OFFSET] >> 7) & 0x01);
+        accessMessage.setSequenceNumber(session.sequenceNumber);
+        accessMessage.setAkf((header >> 6) & 0x01);
+        accessMessage.setAid(header & 0x3F);
+        accessMessage.setSegmented(true);
+        accessMessage.setNetworkPdu(getNetworkPdus(session));
+        //The upper transport pdu is decrypted in place in the payload buffer of the session
+        accessMessage.setUpperTransportPdu(session.getPayload(), 0, session.getPayloadLength());
+        return accessMessage;
+    }
 
-            //Start acknowledgement timer only for messages directed to a unicast address.
-            if (MeshParserUtils.isValidUnicastAddress(dst)) {
-                //Start the block acknowledgement timer irrespective of which segment was received first
-                initSegmentedAccessAcknowledgementTimer(seqZero, ttl, blockAckSrc, blockAckDst, segN);
+    /**
+     * Stores a received segment in the reassembly session of its source address.
+     * <p>
+     * A session is created for the first segment of a segmented message and replaces any session of an older SeqAuth from the same source.
+     * Once all segments have been received the timers of the session are cancelled and the segments are acknowledged immediately.
+     * The completed session is kept in the table so that retransmitted segments can be acknowledged again if the acknowledgement was lost.
+     * The SeqAuth of a message is stored in the replay protection list when the message is complete.
+     * </p>
+     *
+     * @param data    network pdu the segment was received in
+     * @param pdu     decoded pdu containing the segment
+     * @param control true if the segment belongs to a transport control message
+     * @return the completed session or null if there are segments missing or the segment was ignored
+     */
+    private ReassemblyTable.Session reassembleSegment(final byte[] data, final byte[] pdu, final boolean control) {
+        final int seqZero = ((pdu[SEGMENTED_HEADER_OFFSET] & 0x7F) << 6) | ((pdu[SEGMENTED_HEADER_OFFSET + 1] & 0xFC) >> 2);
+        final int segO = ((pdu[SEGMENTED_HEADER_OFFSET + 1] & 0x03) << 3) | ((pdu[SEGMENTED_HEADER_OFFSET + 2] & 0xE0) >> 5);
+        final int segN = ((pdu[SEGMENTED_HEADER_OFFSET + 2]) & 0x1F);
+
+        final int ttl = NetworkPduDecoder.getTtl(pdu);
+        final int src = NetworkPduDecoder.getSrc(pdu, NetworkPduDecoder.NETWORK_HEADER_OFFSET);
+        final int dst = NetworkPduDecoder.getDst(pdu);
+
+        MeshLogger.v(TAG, "SEG O: ", segO);
+        MeshLogger.v(TAG, "SEG N: ", segN);
+
+        final int sequenceNumber = getTransportLayerSequenceNumber(NetworkPduDecoder.getSequenceNumber(pdu, NetworkPduDecoder.NETWORK_HEADER_OFFSET), seqZero);
+        final int ivIndex = mReceivedIvIndex;
+        final long seqAuth = ReplayProtectionList.calculateSeqAuth(ivIndex, sequenceNumber);
+        MeshLogger.v(TAG, "Current SeqAuth value ", seqAuth);
+
+        ReassemblyTable.Session session = mReassemblyTable.get(src);
+        if (session != null && session.seqAuth != seqAuth) {
+            if (session.seqAuth > seqAuth) {
+                MeshLogger.v(TAG, "Ignoring segment of an older segmented message");
+                return null;
             }
-        } else {
-            //if the seqauth values are the same and the init complete timer has already started for a received segmented message, we need to restart the incomplete timer
-            if (lastSeqAuth == seqAuth) {
-                if (mIncompleteTimerStarted) {
-                    segmentedAccessMessageMap.put(segO, payloadBuffer.array());
-                    final int receivedSegmentedMessageCount = segmentedAccessMessageMap.size();
-                    Log.v(TAG, "Received segment message count: " + receivedSegmentedMessageCount);
-                    //Add +1 to segN since its zero based
-                    if (receivedSegmentedMessageCount != (segN + 1)) {
-                        mSegmentedAccessBlockAck = BlockAcknowledgementMessage.calculateBlockAcknowledgement(mSegmentedAccessBlockAck, segO);
-                        Log.v(TAG, "Restarting incomplete timer for src: " + MeshAddress.formatAddress(blockAckDst, false));
-                        restartIncompleteTimer();
-
-                        //Start acknowledgement timer only for messages directed to a unicast address.
-                        //We also have to make sure we restart the acknowledgement timer only if the acknowledgement timer is not active and the incomplete timer is active
-                        if (MeshParserUtils.isValidUnicastAddress(dst) && !mSegmentedAccessAcknowledgementTimerStarted) {
-                            Log.v(TAG, "Restarting block acknowledgement timer for src: " + MeshAddress.formatAddress(blockAckDst, false));
-                            //Start the block acknowledgement timer irrespective of which segment was received first
-                            initSegmentedAccessAcknowledgementTimer(seqZero, ttl, blockAckSrc, blockAckDst, segN);
-                        }
-                    } else {
-                        mSegmentedAccessBlockAck = BlockAcknowledgementMessage.calculateBlockAcknowledgement(mSegmentedAccessBlockAck, segO);
-                        Log.v(TAG, "SEG O BLOCK ACK VAL: " + mSegmentedAccessBlockAck);
-                        handleImmediateBlockAcks(seqZero, ttl, blockAckSrc, blockAckDst, segN);
-
-                        final int upperTransportSequenceNumber = getTransportLayerSequenceNumber(MeshParserUtils.getSequenceNumberFromPDU(pdu), seqZero);
-                        final byte[] sequenceNumber = MeshParserUtils.getSequenceNumberBytes(upperTransportSequenceNumber);
-                        final AccessMessage accessMessage = new AccessMessage();
-                        accessMessage.setAszmic(szmic);
-                        accessMessage.setSequenceNumber(sequenceNumber);
-                        accessMessage.setAkf(akf);
-                        accessMessage.setAid(aid);
-                        accessMessage.setSegmented(true);
-                        final SparseArray<byte[]> segmentedMessages = segmentedAccessMessageMap.clone();
-                        accessMessage.setLowerTransportAccessPdu(segmentedMessages);
-                        return accessMessage;
-                    }
-                } else {
-                    Log.v(TAG, "Ignoring message since the incomplete timer has expired and all messages have been received");
+            //A node sends only one segmented message at a time, so a newer SeqAuth cancels the message in progress
+            mReassemblyTable.remove(session);
+            cancelTimers(session);
+            session = null;
+        }
+
+        if (session == null) {
+            final ReplayProtectionList replayProtectionList = getReplayProtectionList();
+            final long lastSeqAuth = replayProtectionList.getSeqAuth(src);
+            if (lastSeqAuth >= 0) {
+                MeshLogger.v(TAG, "Last SeqAuth value ", lastSeqAuth);
+                if (lastSeqAuth >= seqAuth) {
+                    MeshLogger.v(TAG, "Ignoring segment of a segmented message that has already been processed");
+                    return null;
                 }
             }
+            if (mReassemblyTable.isFull()) {
+                final ReassemblyTable.Session evicted = mReassemblyTable.evictLeastRecentlyUsed();
+                MeshLogger.vAddress(TAG, "Reassembly table is full, evicting the session for src: ", evicted.src);
+                cancelTimers(evicted);
+            }
+            final int segmentLength = control ? MAX_SEGMENTED_CONTROL_PAYLOAD_LENGTH : MAX_SEGMENTED_ACCESS_PAYLOAD_LENGTH;
+            session = new ReassemblyTable.Session(src, dst, seqAuth, seqZero, segN, sequenceNumber, control, ttl, segmentLength);
+            mReassemblyTable.put(session);
+        } else if (session.isComplete()) {
+            //The acknowledgement of a completed message may have been lost so we acknowledge all segments again
+            if (MeshAddress.isValidUnicastAddress(dst)) {
+                mBlockAcknowledgementScheduler.onCompletedMessageSegmentReceived(session);
+            }
+            return null;
+        }
+
+        final int payloadLength = pdu.length - SEGMENTED_PAYLOAD_OFFSET;
+        if (session.control != control || !session.putSegment(segO, segN, data, pdu, SEGMENTED_PAYLOAD_OFFSET, payloadLength)) {
+            MeshLogger.v(TAG, "Ignoring a duplicate or invalid segment");
+            return null;
+        }
+        MeshLogger.v(TAG, "Block acknowledgement value: ", session.getBlockAck());
+
+        if (session.isComplete()) {
+            MeshLogger.v(TAG, "All segments received");
+            //SeqAuth is recorded only once the message is complete, so that segments of a session that was evicted or timed out
+            //before completion are not rejected as replays when they are retransmitted
+            getReplayProtectionList().setSeqAuth(src, seqAuth);
+            cancelIncompleteTimer(session);
+            //Segments are acknowledged only for messages directed to a unicast address.
+            if (MeshAddress.isValidUnicastAddress(dst)) {
+                mBlockAcknowledgementScheduler.onMessageCompleted(session);
+            }
+            return session;
+        }
+
+        MeshLogger.vAddress(TAG, "Restarting incomplete timer for src: ", src);
+        restartIncompleteTimer(session);
+        //Segments are acknowledged only for messages directed to a unicast address.
+        if (MeshAddress.isValidUnicastAddress(dst)) {
+            mBlockAcknowledgementScheduler.onSegmentReceived(session);
         }
         return null;
     }
 
     /**
-     * Send immediate block acknowledgement
+     * Returns the network pdus the segments of a completed session were received in
      *
-     * @param seqZero seqzero of the message
-     * @param ttl     ttl of the message
-     * @param src     source address of the message
-     * @param dst     destination address of the message
-     * @param segN    total segment count
+     * @param session completed reassembly session
      */
-    private void handleImmediateBlockAcks(final int seqZero, final int ttl, final int src, final int dst, final int segN) {
-        cancelIncompleteTimer();
-        sendBlockAck(seqZero, ttl, src, dst, segN);
+    private SparseArray<byte[]> getNetworkPdus(final ReassemblyTable.Session session) {
+        final SparseArray<byte[]> networkPdus = new SparseArray<>();
+        for (int segO = 0; segO <= session.segN; segO++) {
+            networkPdus.put(segO, session.getNetworkPdu(segO));
+        }
+        return networkPdus;
     }
 
     /**
@@ -575,195 +600,121 @@ abstract class LowerTransportLayer extends UpperTransportLayer {
 
     /**
      * Parses a segmented lower transport control pdu.
+     * <p>
+     * The segment is stored in the reassembly session of its source address, see {@link ReassemblyTable}.
+     * </p>
      *
-     * @param pdu The complete pdu was received from the node. This is already de-obfuscated and decrypted at network layer.
+     * @param data network pdu the segment was received in
+     * @param pdu  The complete pdu was received from the node. This is already de-obfuscated and decrypted at network layer.
+     * @return the reassembled control message once all segments have been received or null otherwise
      */
     /*package*/
-    final ControlMessage parseSegmentedControlLowerTransportPDU(final byte[] pdu) {
-
-        final byte header = pdu[10]; //Lower transport pdu starts here
-        final int akf = (header >> 6) & 0x01;
-        final int aid = header & 0x3F;
-
-        final int szmic = (pdu[11] >> 7) & 0x01;
-        final int seqZero = ((pdu[11] & 0x7F) << 6) | ((pdu[12] & 0xFC) >> 2);
-        final int segO = ((pdu[12] & 0x3) << 3) | ((pdu[13] & 0xe0) >> 5);
-        final int segN = ((pdu[13]) & 0x1F);
-
-        final int ttl = pdu[2] & 0x7F;
-        final byte[] src = MeshParserUtils.getSrcAddress(pdu);
-        final byte[] dst = MeshParserUtils.getDstAddress(pdu);
-
-        final int blockAckSrc = MeshParserUtils.unsignedBytesToInt(dst[1], dst[0]); //Destination of the received packet would be the source for the ack
-        final int blockAckDst = MeshParserUtils.unsignedBytesToInt(src[1], src[0]); //Source of the received packet would be the destination for the ack
-
-        Log.v(TAG, "SEG O: " + segO);
-        Log.v(TAG, "SEG N: " + segN);
-
-        //Start the timer irrespective of which segment was received first
-        initSegmentedControlAcknowledgementTimer(seqZero, ttl, blockAckDst, blockAckSrc, segN);
-        mSegmentedControlBlockAck = BlockAcknowledgementMessage.calculateBlockAcknowledgement(mSegmentedControlBlockAck, segO);
-        Log.v(TAG, "Block acknowledgement value for " + mSegmentedControlBlockAck + " Seg O " + segO);
-
-        final int payloadLength = pdu.length - 10;
-
-        final ByteBuffer payloadBuffer = ByteBuffer.allocate(payloadLength);
-        payloadBuffer.put(pdu, 10, payloadLength);
-        segmentedControlMessageMap.put(segO, payloadBuffer.array());
-
-        //Check the message count against the zero-based segN;
-        final int receivedSegmentedMessageCount = segmentedControlMessageMap.size() - 1;
-        if (segN == receivedSegmentedMessageCount) {
-            Log.v(TAG, "All segments received");
-            //Remove the incomplete timer if all segments were received
-            mHandler.removeCallbacks(mIncompleteTimerRunnable);
-            Log.v(TAG, "Block ack sent? " + mBlockAckSent);
-            if (mDuration > System.currentTimeMillis() && !mBlockAckSent) {
-                if (MeshParserUtils.isValidUnicastAddress(dst)) {
-                    mHandler.removeCallbacksAndMessages(null);
-                    Log.v(TAG, "Cancelling Scheduled block ack and incomplete timer, sending an immediate block ack");
-                    sendBlockAck(seqZero, ttl, blockAckSrc, blockAckDst, segN);
-                    //mBlockAckSent = false;
-                }
-            }
-            final int upperTransportSequenceNumber = getTransportLayerSequenceNumber(MeshParserUtils.getSequenceNumberFromPDU(pdu), seqZero);
-            final byte[] sequenceNumber = MeshParserUtils.getSequenceNumberBytes(upperTransportSequenceNumber);
-            final ControlMessage message = new ControlMessage();
-            message.setAszmic(szmic);
-            message.setSequenceNumber(sequenceNumber);
-            message.setAkf(akf);
-            message.setAid(aid);
-            message.setSegmented(true);
-            final SparseArray<byte[]> segmentedMessages = segmentedControlMessageMap.clone();
-            segmentedControlMessageMap.clear();
-            message.setLowerTransportControlPdu(segmentedMessages);
-            return message;
-        }
-
-        return null;
+    final ControlMessage parseSegmentedControlLowerTransportPDU(final byte[] data, final byte[] pdu) {
+        final ReassemblyTable.Session session = reassembleSegment(data, pdu, true);
+        if (session == null)
+            return null;
+
+        final ControlMessage message = new ControlMessage();
+        message.setPduType(MeshManagerApi.PDU_TYPE_NETWORK);
+        message.setOpCode(NetworkPduDecoder.getLowerTransportHeader(pdu) & 0x7F);
+        message.setAszmic(0);
+        message.setSequenceNumber(session.sequenceNumber);
+        message.setSegmented(true);
+        message.setNetworkPdu(getNetworkPdus(session));
+        message.setTransportControlPdu(Arrays.copyOf(session.getPayload(), session.getPayloadLength()));
+        return message;
     }
 
     /**
-     * Start incomplete timer for segmented messages.
-     */
-    private void initIncompleteTimer() {
-        mHandler.postDelayed(mIncompleteTimerRunnable, INCOMPLETE_TIMER_DELAY);
-        mIncompleteTimerStarted = true;
-    }
-
-    /**
-     * Restarts the incomplete timer
+     * Sets the maximum number of segmented messages that can be reassembled concurrently.
+     * <p>
+     * When the limit is reached the least recently used reassembly session is dropped.
+     * </p>
+     *
+     * @param maxSessions maximum number of concurrent reassembly sessions
      */
-    private void restartIncompleteTimer() {
-        //Remove the existing incomplete timer
-        if (mIncompleteTimerStarted) {
-            mHandler.removeCallbacks(mIncompleteTimerRunnable);
+    protected void setMaxSegmentedMessageSessions(final int maxSessions) {
+        for (ReassemblyTable.Session session : mReassemblyTable.setMaxSessions(maxSessions)) {
+            cancelTimers(session);
         }
-        //Call init to start the timer again
-        initIncompleteTimer();
     }
 
     /**
-     * Cancels an already started the incomplete timer
+     * Cancels the pending block acknowledgements, i.e. when the connection to the proxy node is lost
      */
-    private void cancelIncompleteTimer() {
-        //Remove the existing incomplete timer
-        mIncompleteTimerStarted = false;
-        mHandler.removeCallbacks(mIncompleteTimerRunnable);
+    protected void cancelBlockAcknowledgements() {
+        mBlockAcknowledgementScheduler.clear();
     }
 
     /**
-     * Start acknowledgement timer for segmented messages.
+     * Restarts the incomplete timer of a reassembly session
      *
-     * @param seqZero seqzero of the segmented messages.
-     * @param ttl     ttl of the segmented messages.
-     * @param dst     destination address.
+     * @param session reassembly session
      */
-    private void initSegmentedAccessAcknowledgementTimer(final int seqZero, final int ttl, final int src, final int dst, final int segN) {
-        if (!mSegmentedAccessAcknowledgementTimerStarted) {
-            mSegmentedAccessAcknowledgementTimerStarted = true;
-            final int duration = (150 + (50 * ttl));
-            mDuration = System.currentTimeMillis() + duration;
-            mHandler.postDelayed(() -> {
-                Log.v(TAG, "Acknowledgement timer expiring");
-                sendBlockAck(seqZero, ttl, src, dst, segN);
-            }, duration);
+    private void restartIncompleteTimer(final ReassemblyTable.Session session) {
+        if (session.incompleteTimer == null) {
+            session.incompleteTimer = () -> {
+                MeshLogger.vAddress(TAG, "Incomplete timer expired for src: ", session.src);
+                session.incompleteTimer = null;
+                mReassemblyTable.remove(session);
+                cancelTimers(session);
+                mLowerTransportLayerCallbacks.onIncompleteTimerExpired();
+            };
+        } else {
+            mHandler.removeCallbacks(session.incompleteTimer);
         }
+        mHandler.postDelayed(session.incompleteTimer, INCOMPLETE_TIMER_DELAY);
     }
 
     /**
-     * Start acknowledgement timer for segmented messages.
+     * Cancels the incomplete timer of a reassembly session
      *
-     * @param seqZero seqzero of the segmented messages.
-     * @param ttl     ttl of the segmented messages.
-     * @param src     source address which is the element address
-     * @param dst     destination address.
+     * @param session reassembly session
      */
-    private void initSegmentedControlAcknowledgementTimer(final int seqZero, final int ttl, final int src, final int dst, final int segN) {
-        if (!mSegmentedControlAcknowledgementTimerStarted) {
-            mSegmentedControlAcknowledgementTimerStarted = true;
-            final int duration = (150 + (50 * ttl));
-            mDuration = System.currentTimeMillis() + duration;
-            mHandler.postDelayed(() -> sendBlockAck(seqZero, ttl, src, dst, segN), duration);
+    private void cancelIncompleteTimer(final ReassemblyTable.Session session) {
+        if (session.incompleteTimer != null) {
+            mHandler.removeCallbacks(session.incompleteTimer);
+            session.incompleteTimer = null;
         }
     }
 
     /**
-     * Send block acknowledgement
+     * Cancels the incomplete timer and any pending acknowledgement of a reassembly session
      *
-     * @param seqZero seqzero of the segmented messages.
-     * @param ttl     ttl of the segmented messages.
-     * @param src     source address which is the element address
-     * @param dst     destination address.
+     * @param session reassembly session
      */
-    private void sendBlockAck(final int seqZero, final int ttl, final int src, final int dst, final int segN) {
-        final int blockAck = mSegmentedAccessBlockAck;
-        //mSegmentedAccessBlockAck = null;
-        if (BlockAcknowledgementMessage.hasAllSegmentsBeenReceived(blockAck, segN)) {
-            Log.v(TAG, "All segments received cancelling incomplete timer");
-            cancelIncompleteTimer();
-        }
-
-        final byte[] upperTransportControlPdu = createAcknowledgementPayload(seqZero, blockAck);
-        Log.v(TAG, "Block acknowledgement payload: " + MeshParserUtils.bytesToHex(upperTransportControlPdu, false));
-        final ControlMessage controlMessage = new ControlMessage();
-        controlMessage.setOpCode(TransportLayerOpCodes.SAR_ACK_OPCODE);
-        controlMessage.setTransportControlPdu(upperTransportControlPdu);
-        controlMessage.setTtl(ttl);
-        controlMessage.setPduType(MeshManagerApi.PDU_TYPE_NETWORK);
-        controlMessage.setSrc(src);
-        controlMessage.setDst(dst);
-        controlMessage.setIvIndex(mUpperTransportLayerCallbacks.getIvIndex());
-        final int sequenceNumber = incrementSequenceNumber(controlMessage.getSrc());
-        final byte[] sequenceNum = MeshParserUtils.getSequenceNumberBytes(sequenceNumber);
-        controlMessage.setSequenceNumber(sequenceNum);
-        mBlockAckSent = true;
-        mLowerTransportLayerCallbacks.sendSegmentAcknowledgementMessage(controlMessage);
-        mSegmentedAccessAcknowledgementTimerStarted = false;
+    private void cancelTimers(final ReassemblyTable.Session session) {
+        cancelIncompleteTimer(session);
+        mBlockAcknowledgementScheduler.remove(session);
     }
 
-    private void sendBlockAck(final int blockAck, final int seqZero, final int ttl, final int src, final int dst, final int segN) {
-        if (BlockAcknowledgementMessage.hasAllSegmentsBeenReceived(blockAck, segN)) {
-            Log.v(TAG, "All segments received cancelling incomplete timer");
-            cancelIncompleteTimer();
-        }
-
+    /**
+     * Send block acknowledgement for the segments received of a segmented message.
+     * <p>
+     * This is called from the acknowledgement timers of the {@link BlockAcknowledgementScheduler} on the main thread.
+     * </p>
+     *
+     * @param src      source address of the segmented message
+     * @param dst      destination address of the segmented message
+     * @param ttl      ttl of the segmented message
+     * @param seqZero  SeqZero of the segmented message
+     * @param blockAck block acknowledgement value
+     */
+    private void sendBlockAck(final int src, final int dst, final int ttl, final int seqZero, final int blockAck) {
         final byte[] upperTransportControlPdu = createAcknowledgementPayload(seqZero, blockAck);
-        Log.v(TAG, "Block acknowledgement payload: " + MeshParserUtils.bytesToHex(upperTransportControlPdu, false));
+        MeshLogger.v(TAG, "Block acknowledgement payload: ", upperTransportControlPdu);
         final ControlMessage controlMessage = new ControlMessage();
         controlMessage.setOpCode(TransportLayerOpCodes.SAR_ACK_OPCODE);
         controlMessage.setTransportControlPdu(upperTransportControlPdu);
         controlMessage.setTtl(ttl);
         controlMessage.setPduType(MeshManagerApi.PDU_TYPE_NETWORK);
-        controlMessage.setSrc(src);
-        controlMessage.setDst(dst);
+        //Destination of the received segments is the source of the acknowledgement and vice versa
+        controlMessage.setSrc(dst);
+        controlMessage.setDst(src);
         controlMessage.setIvIndex(mUpperTransportLayerCallbacks.getIvIndex());
         final int sequenceNumber = incrementSequenceNumber(controlMessage.getSrc());
-        final byte[] sequenceNum = MeshParserUtils.getSequenceNumberBytes(sequenceNumber);
-        controlMessage.setSequenceNumber(sequenceNum);
-        mBlockAckSent = true;
+        controlMessage.setSequenceNumber(sequenceNumber);
         mLowerTransportLayerCallbacks.sendSegmentAcknowledgementMessage(controlMessage);
-        mSegmentedAccessAcknowledgementTimerStarted = false;
     }
 
     /**
@@ -788,20 +739,189 @@ abstract class LowerTransportLayer extends UpperTransportLayer {
      *
      * @param controlMessage underlying message containing the access pdu.
      */
-    private void parseLowerTransportLayerPDU(final ControlMessage controlMessage) {
+    private void parseLowerTransportLayerPDU(final ControlMessage controlMessage) throws ExtendedInvalidCipherTextException {
+        final int opCode = controlMessage.getOpCode();
+        int obo = 0;
+        int seqZero = 0;
+        if (opCode == TransportLayerOpCodes.SAR_ACK_OPCODE) {
+            //OBO and SeqZero are part of the header of the acknowledgement which is removed when reassembling
+            final byte[] lowerTransportPdu = controlMessage.getLowerTransportControlPdu().get(0);
+            obo = (lowerTransportPdu[1] >> 7) & 0x01;
+            seqZero = ((lowerTransportPdu[1] & 0x7F) << 6) | ((lowerTransportPdu[2] & 0xFC) >> 2);
+        }
 
         //First we reassemble the transport layer message if its a segmented message
         reassembleLowerTransportControlPDU(controlMessage);
         final byte[] transportControlPdu = controlMessage.getTransportControlPdu();
-        final int opCode = controlMessage.getOpCode();
 
         switch (opCode) {
             case TransportLayerOpCodes.SAR_ACK_OPCODE:
                 final BlockAcknowledgementMessage acknowledgement = new BlockAcknowledgementMessage(transportControlPdu);
                 controlMessage.setTransportControlMessage(acknowledgement);
+                final int blockAck = ByteBuffer.wrap(transportControlPdu).order(ByteOrder.BIG_ENDIAN).getInt();
+                handleBlockAcknowledgement(controlMessage.getSrc(), obo, seqZero, blockAck);
+                break;
             default:
+                parseUpperTransportPDU(controlMessage);
                 break;
         }
 
     }
+
+    /**
+     * Starts tracking the acknowledgements of a segmented message that was sent.
+     * <p>
+     * The segment transmission timer is started and the segments that have not been acknowledged are retransmitted when it expires,
+     * see {@link SegmentedTransmission}. Messages sent to a group or virtual address are not acknowledged, so all segments are
+     * retransmitted until the retransmission limit is reached.
+     * </p>
+     *
+     * @param message segmented message that was sent
+     */
+    final void startSegmentedTransmission(final Message message) {
+        final SparseArray<byte[]> lowerTransportPdus;
+        if (message instanceof AccessMessage) {
+            lowerTransportPdus = ((AccessMessage) message).getLowerTransportAccessPdu();
+        } else {
+            lowerTransportPdus = ((ControlMessage) message).getLowerTransportControlPdu();
+        }
+        if (message.getPduType() != MeshManagerApi.PDU_TYPE_NETWORK || lowerTransportPdus == null || lowerTransportPdus.size() <= 1)
+            return;
+
+        final int seqZero = MeshParserUtils.calculateSeqZero(message.getSequenceNumberValue());
+        final int dst = message.getDst();
+        final int key = getSegmentedTransmissionKey(dst, seqZero);
+        final SegmentedTransmission previous = mSegmentedTransmissions.get(key);
+        if (previous != null) {
+            cancelSegmentTransmissionTimer(previous);
+        }
+        final SegmentedTransmission transmission = new SegmentedTransmission(message, dst, seqZero,
+                lowerTransportPdus.size() - 1, SegmentedTransmission.DEFAULT_RETRANSMISSION_LIMIT);
+        mSegmentedTransmissions.put(key, transmission);
+        startSegmentTransmissionTimer(transmission);
+    }
+
+    /**
+     * Handles a block acknowledgement received for a segmented message that was sent.
+     * <p>
+     * A block acknowledgement of 0 means the peer is unable to receive the message and the transmission is cancelled.
+     * Otherwise the missing segments are retransmitted immediately and the segment transmission timer is restarted.
+     * </p>
+     *
+     * @param src      source address of the acknowledgement
+     * @param obo      1 if the acknowledgement was sent by a friend node on behalf of a low power node
+     * @param seqZero  SeqZero of the acknowledged message
+     * @param blockAck block acknowledgement
+     */
+    private void handleBlockAcknowledgement(final int src, final int obo, final int seqZero, final int blockAck) {
+        final SegmentedTransmission transmission = getSegmentedTransmission(src, obo, seqZero);
+        if (transmission == null) {
+            MeshLogger.v(TAG, "Received a block acknowledgement for an unknown segmented message");
+            return;
+        }
+
+        cancelSegmentTransmissionTimer(transmission);
+        if (blockAck == 0) {
+            MeshLogger.v(TAG, "Segmented message was cancelled by the peer");
+            removeSegmentedTransmission(transmission);
+            mLowerTransportLayerCallbacks.onSegmentedMessageFailed(transmission.dst, transmission.message);
+            return;
+        }
+
+        transmission.acknowledge(blockAck);
+        if (transmission.isAcknowledged()) {
+            MeshLogger.v(TAG, "All segments acknowledged");
+            removeSegmentedTransmission(transmission);
+            mLowerTransportLayerCallbacks.onSegmentedMessageDelivered(transmission.dst, transmission.message);
+        } else {
+            retransmitSegments(transmission);
+        }
+    }
+
+    /**
+     * Returns the segmented transmission a block acknowledgement was received for.
+     * <p>
+     * Acknowledgements sent on behalf of a low power node originate from its friend node, so they are matched on the SeqZero alone.
+     * </p>
+     *
+     * @param src     source address of the acknowledgement
+     * @param obo     1 if the acknowledgement was sent by a friend node on behalf of a low power node
+     * @param seqZero SeqZero of the acknowledged message
+     * @return segmented transmission or null if no message with the SeqZero is being sent to the source address
+     */
+    private SegmentedTransmission getSegmentedTransmission(final int src, final int obo, final int seqZero) {
+        if (obo == 0)
+            return mSegmentedTransmissions.get(getSegmentedTransmissionKey(src, seqZero));
+
+        for (int i = 0; i < mSegmentedTransmissions.size(); i++) {
+            final SegmentedTransmission transmission = mSegmentedTransmissions.valueAt(i);
+            if (transmission.seqZero == seqZero && MeshAddress.isValidUnicastAddress(transmission.dst)) {
+                return transmission;
+            }
+        }
+        return null;
+    }
+
+    private void removeSegmentedTransmission(final SegmentedTransmission transmission) {
+        mSegmentedTransmissions.remove(getSegmentedTransmissionKey(transmission.dst, transmission.seqZero));
+    }
+
+    private static int getSegmentedTransmissionKey(final int dst, final int seqZero) {
+        return (dst << 13) | seqZero;
+    }
+
+    /**
+     * Retransmits the unacknowledged segments if the retransmission limit has not been reached and restarts the segment transmission timer.
+     *
+     * @param transmission segmented transmission
+     */
+    private void retransmitSegments(final SegmentedTransmission transmission) {
+        if (!transmission.consumeRetransmission()) {
+            removeSegmentedTransmission(transmission);
+            if (MeshAddress.isValidUnicastAddress(transmission.dst)) {
+                MeshLogger.v(TAG, "Retransmission limit reached, segmented message was not delivered");
+                mLowerTransportLayerCallbacks.onSegmentedMessageFailed(transmission.dst, transmission.message);
+            }
+            return;
+        }
+
+        final int unacknowledgedSegments = transmission.getUnacknowledgedSegments();
+        for (int segO = 0; segO <= transmission.segN; segO++) {
+            if (((unacknowledgedSegments >> segO) & 0x01) == 1) {
+                final Message message = createRetransmitNetworkLayerPDU(transmission.message, segO);
+                if (message != null) {
+                    MeshLogger.v(TAG, "Resending segment ", segO);
+                    mLowerTransportLayerCallbacks.resendSegment(transmission.dst, message.getNetworkPdu().get(segO));
+                }
+            }
+        }
+        startSegmentTransmissionTimer(transmission);
+    }
+
+    /**
+     * Starts the segment transmission timer of a segmented transmission
+     *
+     * @param transmission segmented transmission
+     */
+    private void startSegmentTransmissionTimer(final SegmentedTransmission transmission) {
+        transmission.segmentTransmissionTimer = () -> {
+            MeshLogger.v(TAG, "Segment transmission timer expired");
+            transmission.segmentTransmissionTimer = null;
+            retransmitSegments(transmission);
+        };
+        mHandler.postDelayed(transmission.segmentTransmissionTimer,
+                SegmentedTransmission.getSegmentTransmissionInterval(transmission.message.getTtl()));
+    }
+
+    /**
+     * Cancels the segment transmission timer of a segmented transmission
+     *
+     * @param transmission segmented transmission
+     */
+    private void cancelSegmentTransmissionTimer(final SegmentedTransmission transmission) {
+        if (transmission.segmentTransmissionTimer != null) {
+            mHandler.removeCallbacks(transmission.segmentTransmissionTimer);
+            transmission.segmentTransmissionTimer = null;
+        }
+    }
 }
@@ -35,4 +35,28 @@ public interface LowerTransportLayerCallbacks {
      * Callback to notify that the incomplete timer has expired.
      */
     void onIncompleteTimerExpired();
+
+    /**
+     * Callback to notify that a segment of a segmented message must be sent again.
+     *
+     * @param dst        destination address of the segmented message
+     * @param networkPdu network pdu of the segment
+     */
+    void resendSegment(final int dst, final byte[] networkPdu);
+
+    /**
+     * Callback to notify that all segments of a segmented message have been acknowledged.
+     *
+     * @param dst     destination address of the segmented message
+     * @param message segmented message
+     */
+    void onSegmentedMessageDelivered(final int dst, final Message message);
+
+    /**
+     * Callback to notify that a segmented message was cancelled by the peer or was not acknowledged within the retransmission limit.
+     *
+     * @param dst     destination address of the segmented message
+     * @param message segmented message
+     */
+    void onSegmentedMessageFailed(final int dst, final Message message);
 }
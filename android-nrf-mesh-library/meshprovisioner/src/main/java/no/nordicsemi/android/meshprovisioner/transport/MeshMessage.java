@@ -78,4 +78,11 @@ public abstract class MeshMessage {
         return mMessage.getDst();
     }
 
+    /**
+     * Returns true if the message is answered with a status by the node it is sent to
+     */
+    public final boolean isAcknowledged() {
+        return TransactionTable.getResponseOpCode(this) != TransactionTable.NO_RESPONSE;
+    }
+
 }
@@ -22,4 +22,56 @@ interface MeshMessageHandlerApi {
      * @param meshMessage {@link MeshMessage} Mesh message containing the message opcode and message parameters
      */
     void sendMeshMessage(final int src, final int dst, @NonNull final MeshMessage meshMessage);
+
+    /**
+     * Sends an acknowledged mesh message to a unicast address and returns a handle to the transaction
+     *
+     * @param meshMessage {@link MeshMessage} Mesh message containing the message opcode and message parameters
+     * @param callback    {@link MeshTransactionCallback} notified with the response or the failure of the transaction
+     */
+    MeshTransaction sendMeshMessage(final int src, final int dst, @NonNull final MeshMessage meshMessage, @NonNull final MeshTransactionCallback callback);
+
+    /**
+     * Sets the maximum number of acknowledged messages that may be waiting for a response at a time
+     *
+     * @param maxInFlightTransactions maximum number of transactions in flight
+     */
+    void setMaxInFlightTransactions(final int maxInFlightTransactions);
+
+    /**
+     * Sets the time to wait for the response to an acknowledged message
+     *
+     * @param timeout timeout in milliseconds
+     */
+    void setTransactionTimeout(final long timeout);
+
+    /**
+     * Registers a decoder for the opcode of a received access message
+     *
+     * @param opCode  1, 2 or 3-octet opcode of the message
+     * @param decoder {@link MeshMessageDecoder} decoding the message
+     */
+    void registerMeshMessageDecoder(final int opCode, @NonNull final MeshMessageDecoder decoder);
+
+    /**
+     * Registers a decoder for the opcode of a received vendor model message
+     *
+     * @param companyIdentifier 16-bit company identifier of the vendor model
+     * @param opCode            6-bit vendor opcode of the message
+     * @param decoder           {@link MeshMessageDecoder} decoding the message
+     */
+    void registerVendorModelMessageDecoder(final int companyIdentifier, final int opCode, @NonNull final MeshMessageDecoder decoder);
+
+    /**
+     * Removes the decoder registered for the opcode of a received access message
+     *
+     * @param opCode 1, 2 or 3-octet opcode of the message
+     */
+    void unregisterMeshMessageDecoder(final int opCode);
+
+    /**
+     * Returns the table of heartbeats received from the nodes in the network
+     */
+    @NonNull
+    HeartbeatTable getHeartbeatTable();
 }
@@ -5,10 +5,10 @@ import android.support.annotation.NonNull;
 import android.util.Log;
 import android.util.SparseArray;
 
-import java.util.List;
-
 import no.nordicsemi.android.meshprovisioner.InternalTransportCallbacks;
 import no.nordicsemi.android.meshprovisioner.MeshStatusCallbacks;
+import no.nordicsemi.android.meshprovisioner.TransmitQueueMetrics;
+import no.nordicsemi.android.meshprovisioner.utils.MeshLogger;
 import no.nordicsemi.android.meshprovisioner.utils.MeshParserUtils;
 
 /**
@@ -25,7 +25,7 @@ abstract class MeshMessageState implements LowerTransportLayerCallbacks {
 
     protected final Context mContext;
     final MeshTransport mMeshTransport;
-    private final InternalMeshMsgHandlerCallbacks meshMessageHandlerCallbacks;
+    final InternalMeshMsgHandlerCallbacks meshMessageHandlerCallbacks;
     protected MeshMessage mMeshMessage;
     protected int mSrc;
     protected int mDst;
@@ -93,30 +93,27 @@ abstract class MeshMessageState implements LowerTransportLayerCallbacks {
 
     /**
      * Starts sending the mesh pdu
+     * <p>
+     * Segmented messages are retransmitted by the lower transport layer until all segments have been acknowledged.
+     * </p>
      */
     public void executeSend() {
         if (message.getNetworkPdu().size() > 0) {
             for (int i = 0; i < message.getNetworkPdu().size(); i++) {
-                mInternalTransportCallbacks.sendMeshPdu(mDst, message.getNetworkPdu().get(i));
+                mInternalTransportCallbacks.sendMeshPdu(mDst, message.getNetworkPdu().get(i), getTransmitPriority());
+            }
+            if (isSegmented()) {
+                mMeshTransport.startSegmentedTransmission(message);
             }
         }
     }
 
     /**
-     * Re-sends the mesh pdu segments that were lost in flight
+     * Returns the priority class the pdus of this message are queued in before being written to the proxy node
      */
-    final void executeResend(final List<Integer> retransmitPduIndexes) {
-        if (message.getNetworkPdu().size() > 0 && !retransmitPduIndexes.isEmpty()) {
-            for (int i = 0; i < retransmitPduIndexes.size(); i++) {
-                final int segO = retransmitPduIndexes.get(i);
-                if (message.getNetworkPdu().get(segO) != null) {
-                    final byte[] pdu = message.getNetworkPdu().get(segO);
-                    Log.v(TAG, "Resending segment " + segO + " : " + MeshParserUtils.bytesToHex(pdu, false));
-                    final Message retransmitMeshMessage = mMeshTransport.createRetransmitMeshMessage(message, segO);
-                    mInternalTransportCallbacks.sendMeshPdu(mDst, retransmitMeshMessage.getNetworkPdu().get(segO));
-                }
-            }
-        }
+    @TransmitQueueMetrics.TransmitPriority
+    int getTransmitPriority() {
+        return TransmitQueueMetrics.PRIORITY_APPLICATION;
     }
 
     boolean isSegmented() {
@@ -142,10 +139,31 @@ abstract class MeshMessageState implements LowerTransportLayerCallbacks {
         //We don't send acks here
         final ControlMessage message = mMeshTransport.createSegmentBlockAcknowledgementMessage(controlMessage);
         Log.v(TAG, "Sending acknowledgement: " + MeshParserUtils.bytesToHex(message.getNetworkPdu().get(0), false));
-        mInternalTransportCallbacks.sendMeshPdu(message.getDst(), message.getNetworkPdu().get(0));
+        mInternalTransportCallbacks.sendMeshPdu(message.getDst(), message.getNetworkPdu().get(0), TransmitQueueMetrics.PRIORITY_SEGMENT_ACKNOWLEDGEMENT);
         mMeshStatusCallbacks.onBlockAcknowledgementSent(message.getDst());
     }
 
+    @Override
+    public void resendSegment(final int dst, final byte[] networkPdu) {
+        MeshLogger.v(TAG, "Resending segment: ", networkPdu);
+        mInternalTransportCallbacks.sendMeshPdu(dst, networkPdu, getTransmitPriority());
+    }
+
+    @Override
+    public void onSegmentedMessageDelivered(final int dst, final Message message) {
+        if (mMeshStatusCallbacks != null) {
+            mMeshStatusCallbacks.onSegmentedMessageDelivered(dst, mMeshMessage);
+        }
+    }
+
+    @Override
+    public void onSegmentedMessageFailed(final int dst, final Message message) {
+        MeshLogger.vAddress(TAG, "Segmented message was not acknowledged by ", dst);
+        if (mMeshStatusCallbacks != null) {
+            mMeshStatusCallbacks.onTransactionFailed(dst, false);
+        }
+    }
+
     public enum MessageState {
 
         //Proxy configuration message
@@ -162,6 +180,8 @@ abstract class MeshMessageState implements LowerTransportLayerCallbacks {
         CONFIG_MODEL_PUBLICATION_SET_STATE(4),
         CONFIG_MODEL_SUBSCRIPTION_ADD_STATE(5),
         CONFIG_MODEL_SUBSCRIPTION_DELETE_STATE(6),
+        CONFIG_MODEL_SUBSCRIPTION_VIRTUAL_ADDRESS_ADD_STATE(12),
+        CONFIG_MODEL_SUBSCRIPTION_VIRTUAL_ADDRESS_DELETE_STATE(13),
         CONFIG_NODE_RESET_STATE(7),
         CONFIG_NETWORK_TRANSMIT_SET_STATE(8),
         CONFIG_NETWORK_TRANSMIT_GET_STATE(9),
@@ -169,6 +189,10 @@ abstract class MeshMessageState implements LowerTransportLayerCallbacks {
         CONFIG_RELAY_SET_STATE(11),
         CONFIG_PROXY_GET_STATE(10),
         CONFIG_PROXY_SET_STATE(11),
+        CONFIG_HEARTBEAT_PUBLICATION_GET_STATE(14),
+        CONFIG_HEARTBEAT_PUBLICATION_SET_STATE(15),
+        CONFIG_HEARTBEAT_SUBSCRIPTION_GET_STATE(16),
+        CONFIG_HEARTBEAT_SUBSCRIPTION_SET_STATE(17),
 
         //Application message States
         GENERIC_ON_OFF_GET_STATE(200),
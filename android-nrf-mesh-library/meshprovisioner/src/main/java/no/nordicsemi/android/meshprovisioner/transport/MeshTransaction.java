@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner.transport;
+
+import android.support.annotation.IntDef;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Handle to an acknowledged message sent to a unicast address.
+ * <p>
+ * A transaction is queued until it fits in to the window of transactions in flight, is sent and completes with the response of the node,
+ * or fails if no response is received within the transaction timeout or if it is cancelled. The result is delivered to the
+ * {@link MeshTransactionCallback} given when the message was sent.
+ * </p>
+ */
+@SuppressWarnings("WeakerAccess")
+public final class MeshTransaction {
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({FAILURE_TIMEOUT, FAILURE_CANCELLED, FAILURE_INVALID_RESPONSE})
+    public @interface FailureReason {
+    }
+
+    public static final int FAILURE_TIMEOUT = 1; //No response was received within the transaction timeout
+    public static final int FAILURE_CANCELLED = 2; //Transaction was cancelled before a response was received
+    public static final int FAILURE_INVALID_RESPONSE = 3; //Response was received but could not be decoded
+
+    private static final int STATE_PENDING = 0;
+    private static final int STATE_IN_FLIGHT = 1;
+    private static final int STATE_DONE = 2;
+
+    final int src;
+    final int dst;
+    final long key;
+    final MeshMessage meshMessage;
+    final Runnable timeoutRunnable;
+    private final TransactionTable mTransactionTable;
+    private final MeshTransactionCallback mCallback;
+    private int mState = STATE_PENDING;
+    private MeshMessage mResponse;
+
+    MeshTransaction(@NonNull final TransactionTable transactionTable,
+                    final int src,
+                    final int dst,
+                    final long key,
+                    @NonNull final MeshMessage meshMessage,
+                    @Nullable final MeshTransactionCallback callback) {
+        this.mTransactionTable = transactionTable;
+        this.src = src;
+        this.dst = dst;
+        this.key = key;
+        this.meshMessage = meshMessage;
+        this.mCallback = callback;
+        this.timeoutRunnable = () -> transactionTable.onTransactionTimeout(this);
+    }
+
+    /**
+     * Returns the destination address of the message
+     */
+    public int getDst() {
+        return dst;
+    }
+
+    /**
+     * Returns the message sent
+     */
+    @NonNull
+    public MeshMessage getMeshMessage() {
+        return meshMessage;
+    }
+
+    /**
+     * Returns the response received or null if the transaction has not completed successfully
+     */
+    @Nullable
+    public MeshMessage getResponse() {
+        return mResponse;
+    }
+
+    /**
+     * Returns true if the message has been sent and the transaction is waiting for a response
+     */
+    public boolean isInFlight() {
+        return mState == STATE_IN_FLIGHT;
+    }
+
+    /**
+     * Returns true if the transaction has completed or failed
+     */
+    public boolean isDone() {
+        return mState == STATE_DONE;
+    }
+
+    /**
+     * Cancels the transaction.
+     * <p>
+     * A queued message is not sent. A message already sent no longer waits for its response, which allows the next queued message to be sent.
+     * A response received later is delivered only to {@link no.nordicsemi.android.meshprovisioner.MeshStatusCallbacks}.
+     * </p>
+     */
+    public void cancel() {
+        mTransactionTable.cancel(this);
+    }
+
+    void onSent() {
+        mState = STATE_IN_FLIGHT;
+    }
+
+    void onCompleted(final int src, @NonNull final MeshMessage response) {
+        mState = STATE_DONE;
+        mResponse = response;
+        if (mCallback != null) {
+            mCallback.onTransactionCompleted(src, response);
+        }
+    }
+
+    void onFailed(@FailureReason final int reason) {
+        mState = STATE_DONE;
+        if (mCallback != null) {
+            mCallback.onTransactionFailed(dst, reason);
+        }
+    }
+}
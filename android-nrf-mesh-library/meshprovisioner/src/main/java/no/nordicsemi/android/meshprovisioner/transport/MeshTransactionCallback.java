@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner.transport;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Callbacks notifying the result of a {@link MeshTransaction}
+ */
+public interface MeshTransactionCallback {
+
+    /**
+     * Called when the response to an acknowledged message has been received.
+     * <p>
+     * The response is the status message decoded by the library, i.e. {@link ConfigAppKeyStatus} for {@link ConfigAppKeyAdd},
+     * {@link GenericOnOffStatus} for {@link GenericOnOffSet} etc. or the message returned by a registered {@link MeshMessageDecoder}.
+     * The response is also delivered to {@link no.nordicsemi.android.meshprovisioner.MeshStatusCallbacks#onMeshMessageReceived(int, MeshMessage)}.
+     * </p>
+     *
+     * @param src      address of the element the response was received from
+     * @param response decoded response
+     */
+    void onTransactionCompleted(final int src, @NonNull final MeshMessage response);
+
+    /**
+     * Called when an acknowledged message did not complete
+     *
+     * @param dst    destination address of the message
+     * @param reason reason for the failure, one of {@link MeshTransaction#FAILURE_TIMEOUT}, {@link MeshTransaction#FAILURE_CANCELLED}
+     *               or {@link MeshTransaction#FAILURE_INVALID_RESPONSE}
+     */
+    void onTransactionFailed(final int dst, @MeshTransaction.FailureReason final int reason);
+}
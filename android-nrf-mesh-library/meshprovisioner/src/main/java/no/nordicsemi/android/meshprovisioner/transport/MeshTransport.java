@@ -25,18 +25,20 @@ package no.nordicsemi.android.meshprovisioner.transport;
 import android.content.Context;
 import android.os.Handler;
 import android.support.annotation.VisibleForTesting;
-import android.util.Log;
 
 import no.nordicsemi.android.meshprovisioner.MeshManagerApi;
 import no.nordicsemi.android.meshprovisioner.Provisioner;
 import no.nordicsemi.android.meshprovisioner.utils.ExtendedInvalidCipherTextException;
 import no.nordicsemi.android.meshprovisioner.utils.MeshAddress;
+import no.nordicsemi.android.meshprovisioner.utils.MeshLogger;
 import no.nordicsemi.android.meshprovisioner.utils.MeshParserUtils;
+import no.nordicsemi.android.meshprovisioner.utils.ReplayProtectionList;
 
 public final class MeshTransport extends NetworkLayer {
 
     private static final String TAG = MeshTransport.class.getSimpleName();
     private static final int PROXY_CONFIGURATION_TTL = 0;
+    private static final long SEQUENCE_NUMBER_PERSIST_TIMEOUT = 1000;
 
     MeshTransport(final Context context) {
         this.mContext = context;
@@ -61,6 +63,16 @@ public final class MeshTransport extends NetworkLayer {
         super.setLowerTransportLayerCallbacks(callbacks);
     }
 
+    @Override
+    public final void setMaxSegmentedMessageSessions(final int maxSessions) {
+        super.setMaxSegmentedMessageSessions(maxSessions);
+    }
+
+    @Override
+    public final void cancelBlockAcknowledgements() {
+        super.cancelBlockAcknowledgements();
+    }
+
     public final void setNetworkLayerCallbacks(final NetworkLayerCallbacks callbacks) {
         this.mNetworkLayerCallbacks = callbacks;
     }
@@ -70,18 +82,45 @@ public final class MeshTransport extends NetworkLayer {
         this.mUpperTransportLayerCallbacks = callbacks;
     }
 
+    @Override
+    protected final ReplayProtectionList getReplayProtectionList() {
+        return mNetworkLayerCallbacks.getReplayProtectionList();
+    }
+
     @Override
     protected final int incrementSequenceNumber(final int src) {
         final Provisioner provisioner = mNetworkLayerCallbacks.getProvisioner(src);
-        return provisioner.incrementSequenceNumber();
+        reserveSequenceNumbers(provisioner);
+        final int sequenceNumber = provisioner.incrementSequenceNumber();
+        awaitSequenceNumberPersisted(provisioner, sequenceNumber);
+        return sequenceNumber;
     }
 
     @Override
-    protected final int incrementSequenceNumber(final int src, final byte[] sequenceNumber) {
+    protected final int incrementSequenceNumber(final int src, final int sequenceNumber) {
         final Provisioner provisioner = mNetworkLayerCallbacks.getProvisioner(src);
-        final int seqNumber = MeshParserUtils.getSequenceNumber(sequenceNumber);
-        provisioner.setSequenceNumber(seqNumber);
-        return provisioner.incrementSequenceNumber();
+        reserveSequenceNumbers(provisioner);
+        final int nextSequenceNumber = provisioner.incrementSequenceNumber(sequenceNumber);
+        awaitSequenceNumberPersisted(provisioner, nextSequenceNumber);
+        return nextSequenceNumber;
+    }
+
+    private void reserveSequenceNumbers(final Provisioner provisioner) {
+        //The next block is reserved a quarter of a block ahead, so its write has normally completed long before it is reached
+        if (provisioner.reserveSequenceNumbers()) {
+            mNetworkLayerCallbacks.onSequenceNumbersReserved(provisioner);
+        }
+    }
+
+    private void awaitSequenceNumberPersisted(final Provisioner provisioner, final int sequenceNumber) {
+        //A sequence number that is not persisted could be used again after the application is killed
+        try {
+            if (!provisioner.awaitSequenceNumberPersisted(sequenceNumber, SEQUENCE_NUMBER_PERSIST_TIMEOUT))
+                throw new IllegalStateException("Reserved sequence numbers could not be written to the database");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while writing the reserved sequence numbers", e);
+        }
     }
 
     /**
@@ -116,23 +155,22 @@ public final class MeshTransport extends NetworkLayer {
                                           final byte[] key, final int akf, final int aid, final int aszmic,
                                           final int accessOpCode, final byte[] accessMessageParameters) {
         final int sequenceNumber = incrementSequenceNumber(src);
-        final byte[] sequenceNum = MeshParserUtils.getSequenceNumberBytes(sequenceNumber);
-
-        Log.v(TAG, "Src address: " + MeshAddress.formatAddress(src, false));
-        Log.v(TAG, "Dst address: " + MeshAddress.formatAddress(dst, false));
-        Log.v(TAG, "Key: " + MeshParserUtils.bytesToHex(key, false));
-        Log.v(TAG, "akf: " + akf);
-        Log.v(TAG, "aid: " + aid);
-        Log.v(TAG, "aszmic: " + aszmic);
-        Log.v(TAG, "Sequence number: " + sequenceNumber);
-        Log.v(TAG, "Access message opcode: " + Integer.toHexString(accessOpCode));
-        Log.v(TAG, "Access message parameters: " + MeshParserUtils.bytesToHex(accessMessageParameters, false));
+
+        MeshLogger.vAddress(TAG, "Src address: ", src);
+        MeshLogger.vAddress(TAG, "Dst address: ", dst);
+        MeshLogger.vKey(TAG, "Key: ", key);
+        MeshLogger.v(TAG, "akf: ", akf);
+        MeshLogger.v(TAG, "aid: ", aid);
+        MeshLogger.v(TAG, "aszmic: ", aszmic);
+        MeshLogger.v(TAG, "Sequence number: ", sequenceNumber);
+        MeshLogger.vHex(TAG, "Access message opcode: ", accessOpCode);
+        MeshLogger.v(TAG, "Access message parameters: ", accessMessageParameters);
 
         final AccessMessage message = new AccessMessage();
         message.setSrc(src);
         message.setDst(dst);
         message.setIvIndex(mUpperTransportLayerCallbacks.getIvIndex());
-        message.setSequenceNumber(sequenceNum);
+        message.setSequenceNumber(sequenceNumber);
         message.setKey(key);
         message.setAkf(akf);
         message.setAid(aid);
@@ -165,24 +203,23 @@ public final class MeshTransport extends NetworkLayer {
                                                 final byte[] key, final int akf, final int aid, final int aszmic,
                                                 final int accessOpCode, final byte[] accessMessageParameters) {
         final int sequenceNumber = incrementSequenceNumber(src);
-        final byte[] sequenceNum = MeshParserUtils.getSequenceNumberBytes(sequenceNumber);
-
-        Log.v(TAG, "Src address: " + MeshAddress.formatAddress(src, false));
-        Log.v(TAG, "Dst address: " + MeshAddress.formatAddress(dst, false));
-        Log.v(TAG, "Key: " + MeshParserUtils.bytesToHex(key, false));
-        Log.v(TAG, "akf: " + akf);
-        Log.v(TAG, "aid: " + aid);
-        Log.v(TAG, "aszmic: " + aszmic);
-        Log.v(TAG, "Sequence number: " + sequenceNumber);
-        Log.v(TAG, "Access message opcode: " + Integer.toHexString(accessOpCode));
-        Log.v(TAG, "Access message parameters: " + MeshParserUtils.bytesToHex(accessMessageParameters, false));
+
+        MeshLogger.vAddress(TAG, "Src address: ", src);
+        MeshLogger.vAddress(TAG, "Dst address: ", dst);
+        MeshLogger.vKey(TAG, "Key: ", key);
+        MeshLogger.v(TAG, "akf: ", akf);
+        MeshLogger.v(TAG, "aid: ", aid);
+        MeshLogger.v(TAG, "aszmic: ", aszmic);
+        MeshLogger.v(TAG, "Sequence number: ", sequenceNumber);
+        MeshLogger.vHex(TAG, "Access message opcode: ", accessOpCode);
+        MeshLogger.v(TAG, "Access message parameters: ", accessMessageParameters);
 
         final AccessMessage message = new AccessMessage();
         message.setCompanyIdentifier(companyIdentifier);
         message.setSrc(src);
         message.setDst(dst);
         message.setIvIndex(mUpperTransportLayerCallbacks.getIvIndex());
-        message.setSequenceNumber(sequenceNum);
+        message.setSequenceNumber(sequenceNumber);
         message.setKey(key);
         message.setAkf(akf);
         message.setAid(aid);
@@ -208,20 +245,19 @@ public final class MeshTransport extends NetworkLayer {
                                                          final int dst,
                                                          final int opcode, final byte[] parameters) {
         final int sequenceNumber = incrementSequenceNumber(src);
-        final byte[] sequenceNum = MeshParserUtils.getSequenceNumberBytes(sequenceNumber);
 
-        Log.v(TAG, "Src address: " + MeshAddress.formatAddress(src, false));
-        Log.v(TAG, "Dst address: " + MeshAddress.formatAddress(dst, false));
-        Log.v(TAG, "Sequence number: " + sequenceNumber);
-        Log.v(TAG, "Control message opcode: " + Integer.toHexString(opcode));
-        Log.v(TAG, "Control message parameters: " + MeshParserUtils.bytesToHex(parameters, false));
+        MeshLogger.vAddress(TAG, "Src address: ", src);
+        MeshLogger.vAddress(TAG, "Dst address: ", dst);
+        MeshLogger.v(TAG, "Sequence number: ", sequenceNumber);
+        MeshLogger.vHex(TAG, "Control message opcode: ", opcode);
+        MeshLogger.v(TAG, "Control message parameters: ", parameters);
 
         final ControlMessage message = new ControlMessage();
         message.setSrc(src);
         message.setDst(dst);
         message.setTtl(PROXY_CONFIGURATION_TTL); //TTL for proxy configuration messages are set to 0
         message.setIvIndex(mUpperTransportLayerCallbacks.getIvIndex());
-        message.setSequenceNumber(sequenceNum);
+        message.setSequenceNumber(sequenceNumber);
         message.setOpCode(opcode);
         message.setParameters(parameters);
         message.setPduType(MeshManagerApi.PDU_TYPE_PROXY_CONFIGURATION);
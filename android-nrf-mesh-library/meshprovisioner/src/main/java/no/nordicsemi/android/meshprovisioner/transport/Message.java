@@ -26,6 +26,8 @@ import android.os.Parcel;
 import android.os.Parcelable;
 import android.util.SparseArray;
 
+import no.nordicsemi.android.meshprovisioner.utils.MeshParserUtils;
+
 @SuppressWarnings({"WeakerAccess", "unused"})
 abstract class Message implements Parcelable {
 
@@ -53,7 +55,7 @@ abstract class Message implements Parcelable {
     /**
      * sequence number, which is unique 24-bit value for each message
      **/
-    private byte[] mSequenceNumber;
+    private int mSequenceNumber;
     /**
      * key, used for encryption in transport layer which could be application key or device key
      **/
@@ -87,8 +89,12 @@ abstract class Message implements Parcelable {
      **/
     private byte[] parameters;
     private int companyIdentifier;
-    private byte[] ivIndex;
+    private int ivIndex;
     private boolean segmented;
+    /**
+     * netKeyIndex, index of the network key that authenticated a received message
+     **/
+    private int netKeyIndex;
 
     Message(){}
 
@@ -99,7 +105,7 @@ abstract class Message implements Parcelable {
         ttl = source.readInt();
         src = source.readInt();
         dst = source.readInt();
-        mSequenceNumber = source.createByteArray();
+        mSequenceNumber = source.readInt();
         key = source.createByteArray();
         encryptionKey = source.createByteArray();
         privacyKey = source.createByteArray();
@@ -109,8 +115,9 @@ abstract class Message implements Parcelable {
         opCode = source.readInt();
         parameters = source.createByteArray();
         companyIdentifier = source.readInt();
-        ivIndex = source.createByteArray();
+        ivIndex = source.readInt();
         segmented = source.readInt() == 1;
+        netKeyIndex = source.readInt();
     }
 
     @Override
@@ -121,7 +128,7 @@ abstract class Message implements Parcelable {
         dest.writeInt(ttl);
         dest.writeInt(src);
         dest.writeInt(dst);
-        dest.writeByteArray(mSequenceNumber);
+        dest.writeInt(mSequenceNumber);
         dest.writeByteArray(key);
         dest.writeByteArray(encryptionKey);
         dest.writeByteArray(privacyKey);
@@ -131,8 +138,9 @@ abstract class Message implements Parcelable {
         dest.writeInt(opCode);
         dest.writeByteArray(parameters);
         dest.writeInt(companyIdentifier);
-        dest.writeByteArray(ivIndex);
+        dest.writeInt(ivIndex);
         dest.writeInt(segmented ? 1 : 0);
+        dest.writeInt(netKeyIndex);
     }
 
     public abstract int getCtl();
@@ -169,14 +177,31 @@ abstract class Message implements Parcelable {
         this.dst = dst;
     }
 
-    public final byte[] getSequenceNumber() {
+    /**
+     * Returns the 24-bit sequence number of the message
+     */
+    public final int getSequenceNumberValue() {
         return mSequenceNumber;
     }
 
-    public final void setSequenceNumber(final byte[] sequenceNumber) {
+    public final void setSequenceNumber(final int sequenceNumber) {
         this.mSequenceNumber = sequenceNumber;
     }
 
+    /**
+     * Returns the sequence number as a 3-byte big endian array, kept for compatibility. Use {@link #getSequenceNumberValue()} instead.
+     */
+    public final byte[] getSequenceNumber() {
+        return MeshParserUtils.getSequenceNumberBytes(mSequenceNumber);
+    }
+
+    /**
+     * Sets the sequence number from a 3-byte big endian array, kept for compatibility. Use {@link #setSequenceNumber(int)} instead.
+     */
+    public final void setSequenceNumber(final byte[] sequenceNumber) {
+        this.mSequenceNumber = MeshParserUtils.getSequenceNumber(sequenceNumber);
+    }
+
     public final byte[] getKey() {
         return key;
     }
@@ -249,14 +274,31 @@ abstract class Message implements Parcelable {
         this.companyIdentifier = companyIdentifier;
     }
 
-    public final byte[] getIvIndex() {
+    /**
+     * Returns the 32-bit IV index of the message
+     */
+    public final int getIvIndexValue() {
         return ivIndex;
     }
 
-    public final void setIvIndex(final byte[] ivIndex) {
+    public final void setIvIndex(final int ivIndex) {
         this.ivIndex = ivIndex;
     }
 
+    /**
+     * Returns the IV index as a 4-byte big endian array, kept for compatibility. Use {@link #getIvIndexValue()} instead.
+     */
+    public final byte[] getIvIndex() {
+        return new byte[]{(byte) (ivIndex >> 24), (byte) (ivIndex >> 16), (byte) (ivIndex >> 8), (byte) ivIndex};
+    }
+
+    /**
+     * Sets the IV index from a 4-byte big endian array, kept for compatibility. Use {@link #setIvIndex(int)} instead.
+     */
+    public final void setIvIndex(final byte[] ivIndex) {
+        this.ivIndex = ((ivIndex[0] & 0xFF) << 24) | ((ivIndex[1] & 0xFF) << 16) | ((ivIndex[2] & 0xFF) << 8) | (ivIndex[3] & 0xFF);
+    }
+
     public final boolean isSegmented() {
         return segmented;
     }
@@ -265,6 +307,17 @@ abstract class Message implements Parcelable {
         this.segmented = segmented;
     }
 
+    /**
+     * Returns the index of the network key, i.e. the subnet, that authenticated a received message
+     */
+    public final int getNetKeyIndex() {
+        return netKeyIndex;
+    }
+
+    final void setNetKeyIndex(final int netKeyIndex) {
+        this.netKeyIndex = netKeyIndex;
+    }
+
     public final SparseArray<byte[]> getNetworkPdu() {
         return networkPdu;
     }
@@ -274,7 +327,7 @@ abstract class Message implements Parcelable {
     }
 
     protected final void writeSparseArrayToParcelable(final Parcel dest, final SparseArray<byte[]> array){
-        final int size = array.size();
+        final int size = array == null ? 0 : array.size();
         dest.writeInt(size);
         for(int i = 0; i < size; i++) {
             dest.writeByteArray(array.valueAt(i));
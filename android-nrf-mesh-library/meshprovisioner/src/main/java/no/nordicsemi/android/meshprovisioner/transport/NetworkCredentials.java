@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package no.nordicsemi.android.meshprovisioner.transport;
+
+import android.support.annotation.NonNull;
+
+import no.nordicsemi.android.meshprovisioner.utils.SecureUtils;
+
+/**
+ * Holds the security material derived from a single network key.
+ * <p>
+ * Deriving the NID, encryption key, privacy key, network id, beacon key and identity key requires several AES-CMAC operations.
+ * These values only depend on the network key itself, so they are derived once and reused for every network PDU sent or received
+ * until the key is updated. Instances are immutable and are owned by {@link NetworkKey}.
+ * </p>
+ */
+@SuppressWarnings("WeakerAccess")
+public final class NetworkCredentials {
+
+    private final int keyIndex;
+    private final byte[] networkKey;
+    private final int nid;
+    private final byte[] encryptionKey;
+    private final byte[] privacyKey;
+    private final byte[] networkId;
+    private final byte[] beaconKey;
+    private final byte[] identityKey;
+
+    private NetworkCredentials(final int keyIndex,
+                               @NonNull final byte[] networkKey,
+                               @NonNull final SecureUtils.K2Output k2Output,
+                               @NonNull final byte[] networkId,
+                               @NonNull final byte[] beaconKey,
+                               @NonNull final byte[] identityKey) {
+        this.keyIndex = keyIndex;
+        this.networkKey = networkKey;
+        this.nid = k2Output.getNid() & 0x7F;
+        this.encryptionKey = k2Output.getEncryptionKey();
+        this.privacyKey = k2Output.getPrivacyKey();
+        this.networkId = networkId;
+        this.beaconKey = beaconKey;
+        this.identityKey = identityKey;
+    }
+
+    /**
+     * Derives the network credentials for a given network key
+     *
+     * @param keyIndex   index of the network key
+     * @param networkKey 16-byte network key
+     * @return network credentials
+     */
+    static NetworkCredentials derive(final int keyIndex, @NonNull final byte[] networkKey) {
+        return new NetworkCredentials(keyIndex, networkKey,
+                SecureUtils.calculateK2(networkKey, SecureUtils.K2_MASTER_INPUT),
+                SecureUtils.calculateK3(networkKey),
+                SecureUtils.calculateBeaconKey(networkKey),
+                SecureUtils.calculateIdentityKey(networkKey));
+    }
+
+    /**
+     * Returns the index of the network key, identifying the subnet these credentials belong to
+     */
+    public int getKeyIndex() {
+        return keyIndex;
+    }
+
+    /**
+     * Returns the network key these credentials were derived from
+     */
+    public byte[] getNetworkKey() {
+        return networkKey;
+    }
+
+    /**
+     * Returns the 7-bit network identifier (NID)
+     */
+    public int getNid() {
+        return nid;
+    }
+
+    /**
+     * Returns the encryption key used to encrypt and authenticate network PDUs
+     */
+    public byte[] getEncryptionKey() {
+        return encryptionKey;
+    }
+
+    /**
+     * Returns the privacy key used to obfuscate the network header
+     */
+    public byte[] getPrivacyKey() {
+        return privacyKey;
+    }
+
+    /**
+     * Returns the 64-bit network id (k3) advertised in secure network beacons and proxy advertisements
+     */
+    public byte[] getNetworkId() {
+        return networkId;
+    }
+
+    /**
+     * Returns the beacon key used to authenticate secure network beacons
+     */
+    public byte[] getBeaconKey() {
+        return beaconKey;
+    }
+
+    /**
+     * Returns the identity key used to resolve node identity advertisements
+     */
+    public byte[] getIdentityKey() {
+        return identityKey;
+    }
+}
@@ -3,12 +3,14 @@ package no.nordicsemi.android.meshprovisioner.transport;
 import android.arch.persistence.room.ColumnInfo;
 import android.arch.persistence.room.Entity;
 import android.arch.persistence.room.ForeignKey;
+import android.arch.persistence.room.Ignore;
 import android.arch.persistence.room.Index;
 import android.arch.persistence.room.PrimaryKey;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.support.annotation.IntDef;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.annotation.RestrictTo;
 
 import com.google.gson.annotations.Expose;
@@ -84,6 +86,12 @@ public final class NetworkKey implements Parcelable {
     @Expose
     private long timestamp = 0x0;
 
+    @Ignore
+    private NetworkCredentials mCredentials;
+
+    @Ignore
+    private NetworkCredentials mOldCredentials;
+
     /**
      * Constructs a NetworkKey object with a given key index and network key
      *
@@ -176,6 +184,7 @@ public final class NetworkKey implements Parcelable {
      */
     public void setKey(@NonNull final byte[] key) {
         this.key = key;
+        mCredentials = null;
     }
 
     /**
@@ -190,6 +199,7 @@ public final class NetworkKey implements Parcelable {
 
     public void setPhase(@KeyRefreshPhases final int phase) {
         this.phase = phase;
+        invalidateCredentials();
     }
 
     /**
@@ -208,6 +218,7 @@ public final class NetworkKey implements Parcelable {
      */
     public void setKeyIndex(final int keyIndex) {
         this.keyIndex = keyIndex;
+        invalidateCredentials();
     }
 
     /**
@@ -244,6 +255,68 @@ public final class NetworkKey implements Parcelable {
      */
     public void setOldKey(final byte[] oldKey) {
         this.oldKey = oldKey;
+        mOldCredentials = null;
+    }
+
+    /**
+     * Returns the credentials derived from the current network key.
+     * <p>
+     * The credentials are derived once and cached until the key or the key refresh phase changes.
+     * </p>
+     *
+     * @return {@link NetworkCredentials} of the network key
+     */
+    public NetworkCredentials getCredentials() {
+        NetworkCredentials credentials = mCredentials;
+        if (credentials == null) {
+            credentials = NetworkCredentials.derive(keyIndex, key);
+            mCredentials = credentials;
+        }
+        return credentials;
+    }
+
+    /**
+     * Returns the credentials derived from the old network key if a key refresh procedure is in progress.
+     *
+     * @return {@link NetworkCredentials} of the old network key or null if there is no old key
+     */
+    @Nullable
+    public NetworkCredentials getOldCredentials() {
+        if (oldKey == null)
+            return null;
+
+        NetworkCredentials credentials = mOldCredentials;
+        if (credentials == null) {
+            credentials = NetworkCredentials.derive(keyIndex, oldKey);
+            mOldCredentials = credentials;
+        }
+        return credentials;
+    }
+
+    /**
+     * Returns the credentials messages are sent with.
+     * <p>
+     * During phase 1 of the key refresh procedure messages are still sent with the old key, as not every node may have received the
+     * new key yet. From phase 2 onwards they are sent with the new key.
+     * </p>
+     *
+     * @return {@link NetworkCredentials} used to send messages
+     */
+    public NetworkCredentials getTransmitCredentials() {
+        if (phase == PHASE_1) {
+            final NetworkCredentials oldCredentials = getOldCredentials();
+            if (oldCredentials != null)
+                return oldCredentials;
+        }
+        return getCredentials();
+    }
+
+    /**
+     * Clears the cached credentials so that they are derived again the next time they are requested
+     */
+    void invalidateCredentials() {
+        mCredentials = null;
+        mOldCredentials = null;
     }
 
     /**
@@ -22,21 +22,22 @@
 package no.nordicsemi.android.meshprovisioner.transport;
 
 import android.support.annotation.VisibleForTesting;
-import android.util.Log;
 import android.util.SparseArray;
 
 import org.spongycastle.crypto.InvalidCipherTextException;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.ArrayList;
 import java.util.List;
 
 import no.nordicsemi.android.meshprovisioner.MeshManagerApi;
 import no.nordicsemi.android.meshprovisioner.Provisioner;
+import no.nordicsemi.android.meshprovisioner.utils.CryptoContext;
 import no.nordicsemi.android.meshprovisioner.utils.ExtendedInvalidCipherTextException;
 import no.nordicsemi.android.meshprovisioner.utils.MeshAddress;
+import no.nordicsemi.android.meshprovisioner.utils.MeshLogger;
 import no.nordicsemi.android.meshprovisioner.utils.MeshParserUtils;
+import no.nordicsemi.android.meshprovisioner.utils.ReplayProtectionList;
 import no.nordicsemi.android.meshprovisioner.utils.SecureUtils;
 
 /**
@@ -47,8 +48,9 @@ public abstract class NetworkLayer extends LowerTransportLayer {
 
     private static final String TAG = NetworkLayer.class.getSimpleName();
     NetworkLayerCallbacks mNetworkLayerCallbacks;
-    private SparseArray<byte[]> segmentedAccessMessagesMessages;
-    private SparseArray<byte[]> segmentedControlMessagesMessages;
+    //Scratch buffers used while de-obfuscating received pdus
+    private final byte[] mPecb = new byte[NetworkPduDecoder.PECB_LENGTH];
+    private final byte[] mNetworkHeader = new byte[NetworkPduDecoder.NETWORK_HEADER_LENGTH];
 
     /**
      * Creates a mesh message
@@ -80,23 +82,23 @@ public abstract class NetworkLayer extends LowerTransportLayer {
 
     @Override
     public final Message createNetworkLayerPDU(final Message message) {
-        final SecureUtils.K2Output k2Output = getK2Output();
-        final int nid = k2Output.getNid();
-        final byte[] encryptionKey = k2Output.getEncryptionKey();
-        Log.v(TAG, "Encryption key: " + MeshParserUtils.bytesToHex(encryptionKey, false));
+        final NetworkCredentials credentials = mNetworkLayerCallbacks.getPrimaryNetworkCredentials();
+        final int nid = credentials.getNid();
+        final byte[] encryptionKey = credentials.getEncryptionKey();
+        MeshLogger.vKey(TAG, "Encryption key: ", encryptionKey);
 
-        final byte[] privacyKey = k2Output.getPrivacyKey();
-        Log.v(TAG, "Privacy key: " + MeshParserUtils.bytesToHex(privacyKey, false));
+        final byte[] privacyKey = credentials.getPrivacyKey();
+        MeshLogger.vKey(TAG, "Privacy key: ", privacyKey);
         final int ctl = message.getCtl();
         final int ttl = message.getTtl();
-        final int ivi = message.getIvIndex()[3] & 0x01; // least significant bit of IV Index
+        final int ivi = message.getIvIndexValue() & 0x01; // least significant bit of IV Index
         final byte iviNID = (byte) ((ivi << 7) | nid);
         final byte ctlTTL = (byte) ((ctl << 7) | ttl);
 
         final int src = message.getSrc();
         final SparseArray<byte[]> lowerTransportPduMap;
         final SparseArray<byte[]> encryptedNetworkPduPayloadMap = new SparseArray<>();
-        final List<byte[]> sequenceNumbers = new ArrayList<>();
+        final int[] sequenceNumbers;
 
         final int pduType = message.getPduType();
         switch (message.getPduType()) {
@@ -106,45 +108,44 @@ public abstract class NetworkLayer extends LowerTransportLayer {
                 } else {
                     lowerTransportPduMap = ((ControlMessage) message).getLowerTransportControlPdu();
                 }
+                sequenceNumbers = new int[lowerTransportPduMap.size()];
                 for (int i = 0; i < lowerTransportPduMap.size(); i++) {
                     final byte[] lowerTransportPdu = lowerTransportPduMap.get(i);
                     if (i != 0) {
-                        final int sequenceNumber = incrementSequenceNumber(message.getSrc(), message.getSequenceNumber());
-                        final byte[] sequenceNum = MeshParserUtils.getSequenceNumberBytes(sequenceNumber);
-                        message.setSequenceNumber(sequenceNum);
+                        final int sequenceNumber = incrementSequenceNumber(message.getSrc(), message.getSequenceNumberValue());
+                        message.setSequenceNumber(sequenceNumber);
                     }
-                    sequenceNumbers.add(message.getSequenceNumber());
-                    Log.v(TAG, "Sequence Number: " + MeshParserUtils.bytesToHex(sequenceNumbers.get(i), false));
-                    final byte[] encryptedPayload = encryptNetworkPduPayload(message, sequenceNumbers.get(i), lowerTransportPdu, encryptionKey);
+                    sequenceNumbers[i] = message.getSequenceNumberValue();
+                    MeshLogger.v(TAG, "Sequence Number: ", sequenceNumbers[i]);
+                    final byte[] encryptedPayload = encryptNetworkPduPayload(message, sequenceNumbers[i], lowerTransportPdu, encryptionKey);
                     encryptedNetworkPduPayloadMap.put(i, encryptedPayload);
-                    Log.v(TAG, "Encrypted Network payload: " + MeshParserUtils.bytesToHex(encryptedPayload, false));
+                    MeshLogger.v(TAG, "Encrypted Network payload: ", encryptedPayload);
                 }
                 break;
             case MeshManagerApi.PDU_TYPE_PROXY_CONFIGURATION:
                 lowerTransportPduMap = ((ControlMessage) message).getLowerTransportControlPdu();
+                sequenceNumbers = new int[lowerTransportPduMap.size()];
                 for (int i = 0; i < lowerTransportPduMap.size(); i++) {
                     final byte[] lowerTransportPdu = lowerTransportPduMap.get(i);
                     final int sequenceNumber = incrementSequenceNumber(message.getSrc());
-                    final byte[] sequenceNum = MeshParserUtils.getSequenceNumberBytes(sequenceNumber);
-                    message.setSequenceNumber(sequenceNum);
-                    sequenceNumbers.add(message.getSequenceNumber());
+                    message.setSequenceNumber(sequenceNumber);
+                    sequenceNumbers[i] = sequenceNumber;
                     final byte[] encryptedPayload = encryptProxyConfigurationPduPayload(message, lowerTransportPdu, encryptionKey);
                     encryptedNetworkPduPayloadMap.put(i, encryptedPayload);
-                    Log.v(TAG, "Encrypted Network payload: " + MeshParserUtils.bytesToHex(encryptedPayload, false));
+                    MeshLogger.v(TAG, "Encrypted Network payload: ", encryptedPayload);
                 }
                 break;
+            default:
+                return message;
         }
 
         final SparseArray<byte[]> networkPduMap = new SparseArray<>();
         for (int i = 0; i < encryptedNetworkPduPayloadMap.size(); i++) {
-            //Create the privacy random
+            //Create the PECB from the privacy random
             final byte[] encryptedPayload = encryptedNetworkPduPayloadMap.get(i);
-            final byte[] privacyRandom = createPrivacyRandom(encryptedPayload);
-            //Next we create the PECB
-            final byte[] pecb = createPECB(message.getIvIndex(), privacyRandom, privacyKey);
-
+            final byte[] pecb = createPECB(message.getIvIndexValue(), encryptedPayload, privacyKey);
 
-            final byte[] header = obfuscateNetworkHeader(ctlTTL, sequenceNumbers.get(i), src, pecb);
+            final byte[] header = obfuscateNetworkHeader(ctlTTL, sequenceNumbers[i], src, pecb);
             final byte[] networkPdu = ByteBuffer.allocate(1 + 1 + header.length + encryptedPayload.length).order(ByteOrder.BIG_ENDIAN)
                     .put((byte) pduType)
                     .put(iviNID)
@@ -159,18 +160,19 @@ public abstract class NetworkLayer extends LowerTransportLayer {
         return message;
     }
 
+    @Override
     @VisibleForTesting(otherwise = VisibleForTesting.PROTECTED)
     final Message createRetransmitNetworkLayerPDU(final Message message, final int segment) {
-        final SecureUtils.K2Output k2Output = getK2Output();
-        final int nid = k2Output.getNid();
-        final byte[] encryptionKey = k2Output.getEncryptionKey();
-        Log.v(TAG, "Encryption key: " + MeshParserUtils.bytesToHex(encryptionKey, false));
+        final NetworkCredentials credentials = mNetworkLayerCallbacks.getPrimaryNetworkCredentials();
+        final int nid = credentials.getNid();
+        final byte[] encryptionKey = credentials.getEncryptionKey();
+        MeshLogger.vKey(TAG, "Encryption key: ", encryptionKey);
 
-        final byte[] privacyKey = k2Output.getPrivacyKey();
-        Log.v(TAG, "Privacy key: " + MeshParserUtils.bytesToHex(privacyKey, false));
+        final byte[] privacyKey = credentials.getPrivacyKey();
+        MeshLogger.vKey(TAG, "Privacy key: ", privacyKey);
         final int ctl = message.getCtl();
         final int ttl = message.getTtl();
-        final int ivi = message.getIvIndex()[3] & 0x01; // least significant bit of IV Index
+        final int ivi = message.getIvIndexValue() & 0x01; // least significant bit of IV Index
         final byte iviNID = (byte) ((ivi << 7) | nid);
         final byte ctlTTL = (byte) ((ctl << 7) | ttl);
 
@@ -183,37 +185,32 @@ public abstract class NetworkLayer extends LowerTransportLayer {
         }
 
         byte[] encryptedNetworkPayload = null;
+        //Every retransmission is sent with a new sequence number, the SeqZero of the segment keeps referring to the original message
+        final int sequenceNumber = incrementSequenceNumber(message.getSrc());
         final int pduType = message.getPduType();
         switch (message.getPduType()) {
             case MeshManagerApi.PDU_TYPE_NETWORK:
                 final byte[] lowerTransportPdu = lowerTransportPduMap.get(segment);
-                final int sequenceNumber = incrementSequenceNumber(message.getSrc(), message.getSequenceNumber());
-                final byte[] sequenceNum = MeshParserUtils.getSequenceNumberBytes(sequenceNumber);
-                message.setSequenceNumber(sequenceNum);
-
-                Log.v(TAG, "Sequence Number: " + MeshParserUtils.bytesToHex(sequenceNum, false));
-                encryptedNetworkPayload = encryptNetworkPduPayload(message, sequenceNum, lowerTransportPdu, encryptionKey);
+                MeshLogger.v(TAG, "Sequence Number: ", sequenceNumber);
+                encryptedNetworkPayload = encryptNetworkPduPayload(message, sequenceNumber, lowerTransportPdu, encryptionKey);
                 if (encryptedNetworkPayload == null)
                     return null;
-                Log.v(TAG, "Encrypted Network payload: " + MeshParserUtils.bytesToHex(encryptedNetworkPayload, false));
+                MeshLogger.v(TAG, "Encrypted Network payload: ", encryptedNetworkPayload);
                 break;
         }
 
-        final SparseArray<byte[]> networkPduMap = new SparseArray<>();
-        final byte[] privacyRandom = createPrivacyRandom(encryptedNetworkPayload);
-        //Next we create the PECB
-        final byte[] pecb = createPECB(message.getIvIndex(), privacyRandom, privacyKey);
-
         if (encryptedNetworkPayload != null) {
-            final byte[] header = obfuscateNetworkHeader(ctlTTL, message.getSequenceNumber(), src, pecb);
+            //Create the PECB from the privacy random
+            final byte[] pecb = createPECB(message.getIvIndexValue(), encryptedNetworkPayload, privacyKey);
+            final byte[] header = obfuscateNetworkHeader(ctlTTL, sequenceNumber, src, pecb);
             final byte[] networkPdu = ByteBuffer.allocate(1 + 1 + header.length + encryptedNetworkPayload.length).order(ByteOrder.BIG_ENDIAN)
                     .put((byte) pduType)
                     .put(iviNID)
                     .put(header)
                     .put(encryptedNetworkPayload)
                     .array();
-            networkPduMap.put(segment, networkPdu);
-            message.setNetworkPdu(networkPduMap);
+            //Replace the segment in place so that the network pdus of the other segments are kept
+            message.getNetworkPdu().put(segment, networkPdu);
             return message;
         } else {
             return null;
@@ -229,11 +226,11 @@ public abstract class NetworkLayer extends LowerTransportLayer {
      * @param encryptionKey     key used to encrypt the payload.
      * @return encrypted payload
      */
-    private byte[] encryptNetworkPduPayload(final Message message, final byte[] sequenceNumber, final byte[] lowerTransportPdu, final byte[] encryptionKey) {
+    private byte[] encryptNetworkPduPayload(final Message message, final int sequenceNumber, final byte[] lowerTransportPdu, final byte[] encryptionKey) {
 
         final byte ctlTTL = (byte) ((message.getCtl() << 7) | message.getTtl());
-        final byte[] networkNonce = createNetworkNonce(ctlTTL, sequenceNumber, message.getSrc(), message.getIvIndex());
-        Log.v(TAG, "Network nonce: " + MeshParserUtils.bytesToHex(networkNonce, false));
+        final byte[] networkNonce = createNetworkNonce(ctlTTL, sequenceNumber, message.getSrc(), message.getIvIndexValue());
+        MeshLogger.v(TAG, "Network nonce: ", networkNonce);
 
         final int dst = message.getDst();
         //Adding the destination address on network layer
@@ -253,8 +250,8 @@ public abstract class NetworkLayer extends LowerTransportLayer {
      */
     private byte[] encryptProxyConfigurationPduPayload(final Message message, final byte[] lowerTransportPdu, final byte[] encryptionKey) {
 
-        final byte[] proxyNonce = createProxyNonce(message.getSequenceNumber(), message.getSrc(), message.getIvIndex());
-        Log.v(TAG, "Proxy nonce: " + MeshParserUtils.bytesToHex(proxyNonce, false));
+        final byte[] proxyNonce = createProxyNonce(message.getSequenceNumberValue(), message.getSrc(), message.getIvIndexValue());
+        MeshLogger.v(TAG, "Proxy nonce: ", proxyNonce);
 
         final int dst = message.getDst();
         //Adding the destination address on network layer
@@ -274,126 +271,88 @@ public abstract class NetworkLayer extends LowerTransportLayer {
      * @param pecb           value derived from the privacy random
      * @return obfuscted network header
      */
-    private byte[] obfuscateNetworkHeader(final byte ctlTTL, final byte[] sequenceNumber, final int src, final byte[] pecb) {
-
-        final ByteBuffer buffer = ByteBuffer.allocate(1 + sequenceNumber.length + 2).order(ByteOrder.BIG_ENDIAN);
-        buffer.put(ctlTTL);
-        buffer.put(sequenceNumber);   //sequence number
-        buffer.putShort((short) src);       //source address
-
-        final byte[] headerBuffer = buffer.array();
-
-        final ByteBuffer bufferPECB = ByteBuffer.allocate(6);
-        bufferPECB.put(pecb, 0, 6);
-
-        final byte[] obfuscated = new byte[6];
-        for (int i = 0; i < 6; i++)
-            obfuscated[i] = (byte) (headerBuffer[i] ^ pecb[i]);
-
+    private byte[] obfuscateNetworkHeader(final byte ctlTTL, final int sequenceNumber, final int src, final byte[] pecb) {
+        final byte[] obfuscated = new byte[NetworkPduDecoder.NETWORK_HEADER_LENGTH];
+        obfuscated[0] = (byte) (ctlTTL ^ pecb[0]);
+        obfuscated[1] = (byte) ((sequenceNumber >> 16) ^ pecb[1]);
+        obfuscated[2] = (byte) ((sequenceNumber >> 8) ^ pecb[2]);
+        obfuscated[3] = (byte) (sequenceNumber ^ pecb[3]);
+        obfuscated[4] = (byte) ((src >> 8) ^ pecb[4]);
+        obfuscated[5] = (byte) (src ^ pecb[5]);
         return obfuscated;
     }
 
     /**
-     * De-obfuscates the network header
-     *
-     * @param pdu received from the node
-     * @return obfuscted network header
-     */
-    private byte[] deobfuscateNetworkHeader(final byte[] pdu) {
-        final byte[] privacyKey = getK2Output().getPrivacyKey();
-        final ByteBuffer obfuscatedNetworkBuffer = ByteBuffer.allocate(6);
-        obfuscatedNetworkBuffer.order(ByteOrder.BIG_ENDIAN);
-        obfuscatedNetworkBuffer.put(pdu, 2, 6);
-        final byte[] obfuscatedData = obfuscatedNetworkBuffer.array();
-
-        final ByteBuffer privacyRandomBuffer = ByteBuffer.allocate(7);
-        privacyRandomBuffer.order(ByteOrder.BIG_ENDIAN);
-        privacyRandomBuffer.put(pdu, 8, 7);
-        final byte[] privacyRandom = createPrivacyRandom(privacyRandomBuffer.array());
-
-        final byte[] pecb = createPECB(privacyRandom, privacyKey);
-        final byte[] deobfuscatedData = new byte[6];
-
-        for (int i = 0; i < 6; i++)
-            deobfuscatedData[i] = (byte) (obfuscatedData[i] ^ pecb[i]);
-
-        return deobfuscatedData;
-    }
-
-    /**
-     * Creates the network nonce
+     * Creates the network nonce in the nonce buffer of the calling thread
      *
      * @param ctlTTL         combined ctl and ttl value
      * @param sequenceNumber sequence number of the message
      * @param src            source address
-     * @return Network nonce
+     * @param ivIndex        iv index
+     * @return Network nonce, valid until the next nonce is created on this thread
      */
-    private byte[] createNetworkNonce(final byte ctlTTL, final byte[] sequenceNumber, final int src, final byte[] ivIndex) {
-        final ByteBuffer networkNonce = ByteBuffer.allocate(13);
-        networkNonce.put((byte) NONCE_TYPE_NETWORK); //Nonce type
-        networkNonce.put(ctlTTL); // CTL and TTL
-        networkNonce.put(sequenceNumber);
-        networkNonce.putShort((short) src);
-        networkNonce.put(new byte[]{PAD_NETWORK_NONCE, PAD_NETWORK_NONCE}); //PAD
-        networkNonce.put(ivIndex);
-        return networkNonce.array();
+    private byte[] createNetworkNonce(final byte ctlTTL, final int sequenceNumber, final int src, final int ivIndex) {
+        final byte[] networkNonce = CryptoContext.get().getNonceBuffer();
+        networkNonce[0] = (byte) NONCE_TYPE_NETWORK; //Nonce type
+        networkNonce[1] = ctlTTL; // CTL and TTL
+        writeNonceFields(networkNonce, sequenceNumber, src, PAD_NETWORK_NONCE, ivIndex);
+        return networkNonce;
     }
 
     /**
-     * Creates the proxy nonce
+     * Creates the proxy nonce in the nonce buffer of the calling thread
      *
      * @param sequenceNumber sequence number of the message
      * @param src            source address
-     * @return Proxy nonce
+     * @param ivIndex        iv index
+     * @return Proxy nonce, valid until the next nonce is created on this thread
      */
-    private byte[] createProxyNonce(final byte[] sequenceNumber, final int src, final byte[] ivIndex) {
-        final ByteBuffer applicationNonceBuffer = ByteBuffer.allocate(13);
-        applicationNonceBuffer.put((byte) NONCE_TYPE_PROXY); //Nonce type
-        applicationNonceBuffer.put((byte) PAD_PROXY_NONCE); //PAD
-        applicationNonceBuffer.put(sequenceNumber);
-        applicationNonceBuffer.putShort((short) src);
-        applicationNonceBuffer.put(new byte[]{PAD_PROXY_NONCE, PAD_PROXY_NONCE});
-        applicationNonceBuffer.put(ivIndex);
-        return applicationNonceBuffer.array();
+    private byte[] createProxyNonce(final int sequenceNumber, final int src, final int ivIndex) {
+        final byte[] proxyNonce = CryptoContext.get().getNonceBuffer();
+        proxyNonce[0] = (byte) NONCE_TYPE_PROXY; //Nonce type
+        proxyNonce[1] = (byte) PAD_PROXY_NONCE; //PAD
+        writeNonceFields(proxyNonce, sequenceNumber, src, PAD_PROXY_NONCE, ivIndex);
+        return proxyNonce;
     }
 
     /**
-     * Creates the privacy random.
-     *
-     * @param encryptedUpperTransportPDU encrypted transport pdu
-     * @return Privacy random
+     * Writes the sequence number, source address, padding and iv index shared by the network and proxy nonces
      */
-    private byte[] createPrivacyRandom(final byte[] encryptedUpperTransportPDU) {
-        final byte[] privacyRandom = new byte[7];
-        System.arraycopy(encryptedUpperTransportPDU, 0, privacyRandom, 0, privacyRandom.length);
-        return privacyRandom;
+    private static void writeNonceFields(final byte[] nonce, final int sequenceNumber, final int src, final int pad, final int ivIndex) {
+        nonce[2] = (byte) (sequenceNumber >> 16);
+        nonce[3] = (byte) (sequenceNumber >> 8);
+        nonce[4] = (byte) sequenceNumber;
+        nonce[5] = (byte) (src >> 8);
+        nonce[6] = (byte) src;
+        nonce[7] = (byte) pad; //PAD
+        nonce[8] = (byte) pad;
+        nonce[9] = (byte) (ivIndex >> 24);
+        nonce[10] = (byte) (ivIndex >> 16);
+        nonce[11] = (byte) (ivIndex >> 8);
+        nonce[12] = (byte) ivIndex;
     }
 
-    private byte[] createPECB(final byte[] privacyRandom, final byte[] privacyKey) {
-        final byte[] ivIndex = mUpperTransportLayerCallbacks.getIvIndex();
-        final ByteBuffer buffer = ByteBuffer.allocate(5 + privacyRandom.length + ivIndex.length);
-        buffer.order(ByteOrder.BIG_ENDIAN);
-        buffer.put(new byte[]{0x00, 0x00, 0x00, 0x00, 0x00});
-        buffer.put(ivIndex);
-        buffer.put(privacyRandom);
-        final byte[] temp = buffer.array();
-        Log.v(TAG, "Privacy Random: " + MeshParserUtils.bytesToHex(temp, false));
-        return SecureUtils.encryptWithAES(temp, privacyKey);
-    }
-
-    private byte[] createPECB(final byte[] ivIndex, final byte[] privacyRandom, final byte[] privacyKey) {
-        final ByteBuffer buffer = ByteBuffer.allocate(5 + privacyRandom.length + ivIndex.length);
-        buffer.order(ByteOrder.BIG_ENDIAN);
-        buffer.put(new byte[]{0x00, 0x00, 0x00, 0x00, 0x00});
-        buffer.put(ivIndex);
-        buffer.put(privacyRandom);
-        final byte[] temp = buffer.array();
-        return SecureUtils.encryptWithAES(temp, privacyKey);
+    /**
+     * Creates the PECB from the privacy random, which is the first 7 bytes of the encrypted network payload
+     *
+     * @param ivIndex          iv index
+     * @param encryptedPayload encrypted network payload
+     * @param privacyKey       privacy key
+     * @return PECB
+     */
+    private byte[] createPECB(final int ivIndex, final byte[] encryptedPayload, final byte[] privacyKey) {
+        final byte[] pecb = new byte[NetworkPduDecoder.PECB_LENGTH];
+        NetworkPduDecoder.writePecbInput(ivIndex, encryptedPayload, 0, pecb);
+        CryptoContext.get().encryptBlock(privacyKey, pecb, 0, pecb, 0);
+        return pecb;
     }
 
     /**
      * Parse received mesh message
      * <p>
+     * The NID of the received pdu is used to look up the candidate network keys, including the old keys during a key refresh procedure.
+     * Only the matching candidates are tried and the index of the network key that authenticated the pdu is set on the returned message.
+     * The pdu is decrypted once in to a single buffer that is passed on to the upper layers, see {@link NetworkPduDecoder}.
      * This method will drop messages with an invalid sequence number as all mesh messages are supposed to have a sequence
      * </p>
      *
@@ -402,124 +361,128 @@ public abstract class NetworkLayer extends LowerTransportLayer {
      */
     final Message parseMeshMessage(final byte[] data) throws ExtendedInvalidCipherTextException {
         final Provisioner provisioner = mNetworkLayerCallbacks.getProvisioner();
+        if (data.length < NetworkPduDecoder.MINIMUM_PDU_LENGTH) {
+            MeshLogger.v(TAG, "Received a pdu that is too short, dropping it");
+            return null;
+        }
+        final int nid = data[NetworkPduDecoder.IVI_NID_OFFSET] & 0x7F;
+        final List<NetworkCredentials> candidates = mNetworkLayerCallbacks.getNetworkCredentials(nid);
+        if (candidates.isEmpty()) {
+            MeshLogger.v(TAG, "Received a pdu with an unknown NID, dropping it");
+            return null;
+        }
 
-        //D-eobfuscate network header
-        final byte[] networkHeader = deobfuscateNetworkHeader(data);
-        final int ctlTtl = networkHeader[0];
-        final int ctl = (ctlTtl >> 7) & 0x01;
-        final int ttl = ctlTtl & 0x7F;
-        Log.v(TAG, "TTL for received message: " + ttl);
-
-        final int micLength = SecureUtils.getNetMicLength(ctl);
-        final byte[] sequenceNumber = ByteBuffer.allocate(3).order(ByteOrder.BIG_ENDIAN).put(networkHeader, 1, 3).array();
-        final int src = MeshParserUtils.unsignedBytesToInt(networkHeader[5], networkHeader[4]);
-        if (mMeshNode == null || mMeshNode.getUnicastAddress() != src) {
-            mMeshNode = mNetworkLayerCallbacks.getProvisionedNode(src);
-            if (mMeshNode == null) {
-                return null;
+        //The IVI bit tells if the pdu was sent with the current iv index or the previous one during an iv update
+        final int ivi = (data[NetworkPduDecoder.IVI_NID_OFFSET] >> 7) & 0x01;
+        final int ivIndex = mUpperTransportLayerCallbacks.getReceivedIvIndex(ivi);
+        mReceivedIvIndex = ivIndex;
+        InvalidCipherTextException authenticationException = null;
+        for (NetworkCredentials credentials : candidates) {
+            //De-obfuscate network header
+            final byte[] networkHeader = mNetworkHeader;
+            NetworkPduDecoder.deobfuscateNetworkHeader(data, credentials.getPrivacyKey(), ivIndex, mPecb, networkHeader, 0);
+            final int ctlTtl = networkHeader[0];
+            final int ctl = (ctlTtl >> 7) & 0x01;
+            final int ttl = ctlTtl & 0x7F;
+            MeshLogger.v(TAG, "TTL for received message: ", ttl);
+
+            final int micLength = SecureUtils.getNetMicLength(ctl);
+            final int sequenceNumber = NetworkPduDecoder.getSequenceNumber(networkHeader, 0);
+            final int src = NetworkPduDecoder.getSrc(networkHeader, 0);
+            final ProvisionedMeshNode node;
+            if (mMeshNode != null && mMeshNode.getUnicastAddress() == src) {
+                node = mMeshNode;
+            } else {
+                node = mNetworkLayerCallbacks.getProvisionedNode(src);
+                if (node == null) {
+                    //The header was either obfuscated with a different key sharing the same NID or it's from an unknown node
+                    continue;
+                }
             }
-        }
 
-        //Check if the sequence number has been incremented since the last message sent and return null if not
-        final int sequenceNo = MeshParserUtils.getSequenceNumber(sequenceNumber);
-        Log.v(TAG, "Sequence number of received access message: " + MeshParserUtils.getSequenceNumber(sequenceNumber));
-        if (sequenceNo > mMeshNode.getReceivedSequenceNumber()) {
-            if (!MeshParserUtils.isValidSequenceNumber(sequenceNo)) {
-                return null;
+            final byte[] nonce;
+            switch (data[0]) {
+                case MeshManagerApi.PDU_TYPE_NETWORK:
+                    nonce = createNetworkNonce((byte) ctlTtl, sequenceNumber, src, ivIndex);
+                    break;
+                case MeshManagerApi.PDU_TYPE_PROXY_CONFIGURATION:
+                    nonce = createProxyNonce(sequenceNumber, src, ivIndex);
+                    break;
+                default:
+                    return null;
             }
-            mMeshNode.setReceivedSequenceNumber(sequenceNo);
-        }
 
-        final byte[] nonce;
+            final byte[] pdu;
+            try {
+                pdu = NetworkPduDecoder.decryptNetworkPdu(data, networkHeader, credentials.getEncryptionKey(), nonce, micLength);
+            } catch (InvalidCipherTextException ex) {
+                authenticationException = ex;
+                continue;
+            }
+            MeshLogger.v(TAG, "Network pdu authenticated with network key index: ", credentials.getKeyIndex());
+            mMeshNode = node;
 
-        final byte[] ivIndex = mUpperTransportLayerCallbacks.getIvIndex();
-        switch (data[0]) {
-            case MeshManagerApi.PDU_TYPE_NETWORK:
-                nonce = createNetworkNonce((byte) ctlTtl, sequenceNumber, src, ivIndex);
-                break;
-            case MeshManagerApi.PDU_TYPE_PROXY_CONFIGURATION:
-                nonce = createProxyNonce(sequenceNumber, src, ivIndex);
-                break;
-            default:
+            //Reject replayed messages before the upper transport pdu is decrypted
+            MeshLogger.v(TAG, "Sequence number of received access message: ", sequenceNumber);
+            if (!MeshParserUtils.isValidSequenceNumber(sequenceNumber)) {
+                return null;
+            }
+            final ReplayProtectionList replayProtectionList = getReplayProtectionList();
+            if (replayProtectionList.isReplay(src, ivIndex, sequenceNumber)) {
+                MeshLogger.vAddress(TAG, "Dropping a replayed message from: ", src);
                 return null;
+            }
 
+            final Message message;
+            if (ctl == 1) {
+                message = parseControlMessage(provisioner.getProvisionerAddress(), data, pdu, src, sequenceNumber);
+            } else {
+                message = parseAccessMessage(data, pdu, src, sequenceNumber);
+            }
+            if (message != null) {
+                //Only messages that made it through the upper layers are recorded in the replay protection list, incomplete segmented
+                //messages and messages the upper transport layer could not decrypt are not
+                replayProtectionList.update(src, ivIndex, sequenceNumber);
+                if (sequenceNumber > mMeshNode.getReceivedSequenceNumber()) {
+                    mMeshNode.setReceivedSequenceNumber(sequenceNumber);
+                }
+                message.setNetKeyIndex(credentials.getKeyIndex());
+            }
+            return message;
         }
 
-        if (ctl == 1) {
-            return parseControlMessage(provisioner.getProvisionerAddress(), data, networkHeader, nonce, src, sequenceNumber, micLength);
-        } else {
-            return parseAccessMessage(data, networkHeader, nonce, src, sequenceNumber, micLength);
+        if (authenticationException != null) {
+            throw new ExtendedInvalidCipherTextException(authenticationException.getMessage(), authenticationException.getCause(), TAG);
         }
+        return null;
     }
 
     /**
      * Parses access message
      *
      * @param data           received from the node
-     * @param networkHeader  de-obfuscated network header
-     * @param networkNonce   network nonce
+     * @param pdu            decoded pdu containing the de-obfuscated network header and the decrypted network payload
      * @param src            source address
      * @param sequenceNumber sequence number of the received message
-     * @param micLength      network mic length of the received message
      * @return access message
      */
     @VisibleForTesting
     private AccessMessage parseAccessMessage(final byte[] data,
-                                             final byte[] networkHeader,
-                                             final byte[] networkNonce,
+                                             final byte[] pdu,
                                              final int src,
-                                             final byte[] sequenceNumber,
-                                             final int micLength) throws ExtendedInvalidCipherTextException {
+                                             final int sequenceNumber) throws ExtendedInvalidCipherTextException {
         try {
+            final int ttl = NetworkPduDecoder.getTtl(pdu);
+            final int dst = NetworkPduDecoder.getDst(pdu);
 
-            final SecureUtils.K2Output k2Output = getK2Output();
-
-            final byte[] encryptionKey = k2Output.getEncryptionKey();
+            MeshLogger.vAddress(TAG, "Dst: 0x", dst);
 
-            final int ttl = networkHeader[0] & 0x7F;
+            if (isSegmentedMessage(NetworkPduDecoder.getLowerTransportHeader(pdu))) {
+                MeshLogger.vAddress(TAG, "Received a segmented access message from: ", src);
 
-            final int networkPayloadLength = data.length - (2 + networkHeader.length);
-            final byte[] transportPdu = new byte[networkPayloadLength];
-            System.arraycopy(data, 8, transportPdu, 0, networkPayloadLength);
-            final byte[] decryptedNetworkPayload;
-            try {
-                decryptedNetworkPayload = SecureUtils.decryptCCM(transportPdu, encryptionKey, networkNonce, micLength);
-            } catch (InvalidCipherTextException ex) {
-                throw new ExtendedInvalidCipherTextException(ex.getMessage(), ex.getCause(), TAG);
-            }
-            final int dst = MeshParserUtils.unsignedBytesToInt(decryptedNetworkPayload[1], decryptedNetworkPayload[0]);
-
-            Log.v(TAG, "Dst: " + MeshAddress.formatAddress(dst, true));
-
-            if (isSegmentedMessage(decryptedNetworkPayload[2])) {
-                Log.v(TAG, "Received a segmented access message from: " + MeshAddress.formatAddress(src, false));
-
-                //Check if the received segmented message is from the same src as the previous segment
-                if (src != mMeshNode.getUnicastAddress()) {
-                    Log.v(TAG, "Segment received is from a different src than the one we are processing, let's drop it");
-                    return null;
-                }
-
-                if (segmentedAccessMessagesMessages == null) {
-                    segmentedAccessMessagesMessages = new SparseArray<>();
-                    segmentedAccessMessagesMessages.put(0, data);
-                } else {
-                    final int k = segmentedAccessMessagesMessages.size();
-                    segmentedAccessMessagesMessages.put(k, data);
-                }
-                //Removing the mDst here
-                final byte[] pdu = ByteBuffer.allocate(2 + networkHeader.length + decryptedNetworkPayload.length)
-                        .order(ByteOrder.BIG_ENDIAN)
-                        .put(data, 0, 2)
-                        .put(networkHeader)
-                        .put(decryptedNetworkPayload)
-                        .array();
-                final AccessMessage message = parseSegmentedAccessLowerTransportPDU(pdu);
+                final AccessMessage message = parseSegmentedAccessLowerTransportPDU(data, pdu);
                 if (message != null) {
-                    final SparseArray<byte[]> segmentedMessages = segmentedAccessMessagesMessages.clone();
-                    segmentedAccessMessagesMessages = null;
-                    message.setIvIndex(mUpperTransportLayerCallbacks.getIvIndex());
-                    message.setNetworkPdu(segmentedMessages);
+                    message.setIvIndex(mReceivedIvIndex);
                     message.setTtl(ttl);
                     message.setSrc(src);
                     message.setDst(dst);
@@ -531,7 +494,7 @@ public abstract class NetworkLayer extends LowerTransportLayer {
 
             } else {
                 final AccessMessage message = new AccessMessage();
-                message.setIvIndex(mUpperTransportLayerCallbacks.getIvIndex());
+                message.setIvIndex(mReceivedIvIndex);
                 final SparseArray<byte[]> networkPduMap = new SparseArray<>();
                 networkPduMap.put(0, data);
                 message.setNetworkPdu(networkPduMap);
@@ -540,13 +503,6 @@ public abstract class NetworkLayer extends LowerTransportLayer {
                 message.setDst(dst);
                 message.setSequenceNumber(sequenceNumber);
 
-                //Removing the mDst here
-                final byte[] pdu = ByteBuffer.allocate(2 + networkHeader.length + decryptedNetworkPayload.length)
-                        .order(ByteOrder.BIG_ENDIAN)
-                        .put(data, 0, 2)
-                        .put(networkHeader)
-                        .put(decryptedNetworkPayload)
-                        .array();
                 parseUnsegmentedAccessLowerTransportPDU(message, pdu);
                 parseUpperTransportPDU(message);
                 parseAccessLayerPDU(message);
@@ -563,54 +519,31 @@ public abstract class NetworkLayer extends LowerTransportLayer {
      *
      * @param provisionerAddress Provisioner address
      * @param data               Data received from the node
-     * @param networkHeader      De-obfuscated network header
-     * @param nonce              Nonce depending on the pdu type
+     * @param decryptedProxyPdu  Decoded pdu containing the de-obfuscated network header and the decrypted network payload
      * @param src                Source address where the pdu originated from
      * @param sequenceNumber     Sequence number of the received message
-     * @param micLength          Network mic length of the received message
      * @return a complete {@link ControlMessage} or null if the message was unable to parsed
      */
     private ControlMessage parseControlMessage(final int provisionerAddress,
                                                final byte[] data,
-                                               final byte[] networkHeader,
-                                               final byte[] nonce,
+                                               final byte[] decryptedProxyPdu,
                                                final int src,
-                                               final byte[] sequenceNumber,
-                                               final int micLength) throws ExtendedInvalidCipherTextException {
+                                               final int sequenceNumber) throws ExtendedInvalidCipherTextException {
         try {
-            final SecureUtils.K2Output k2Output = getK2Output();
-            final byte[] encryptionKey = k2Output.getEncryptionKey();
-            final int ttl = networkHeader[0] & 0x7F;
-            final int networkPayloadLength = data.length - (2 + networkHeader.length);
-            final byte[] transportPdu = new byte[networkPayloadLength];
-            System.arraycopy(data, 8, transportPdu, 0, networkPayloadLength);
-            final byte[] decryptedNetworkPayload;
-            try {
-                decryptedNetworkPayload = SecureUtils.decryptCCM(transportPdu, encryptionKey, nonce, micLength);
-            } catch (InvalidCipherTextException ex) {
-                throw new ExtendedInvalidCipherTextException(ex.getMessage(), ex.getCause(), TAG);
-            }
-            final int dst = MeshParserUtils.unsignedBytesToInt(decryptedNetworkPayload[1], decryptedNetworkPayload[0]);
-
-            //Removing the mDst here
-            final byte[] decryptedProxyPdu = ByteBuffer.allocate(2 + networkHeader.length + decryptedNetworkPayload.length)
-                    .order(ByteOrder.BIG_ENDIAN)
-                    .put(data, 0, 2)
-                    .put(networkHeader)
-                    .put(decryptedNetworkPayload)
-                    .array();
+            final int ttl = NetworkPduDecoder.getTtl(decryptedProxyPdu);
+            final int dst = NetworkPduDecoder.getDst(decryptedProxyPdu);
 
             //We check the pdu type
             final int pduType = data[0];
             switch (pduType) {
                 case MeshManagerApi.PDU_TYPE_NETWORK:
                     //Check if the message is directed to us, if its not ignore the message
-                    if (provisionerAddress == dst) {
-                        Log.v(TAG, "Received a control message that was not directed to us, so we drop it");
+                    if (MeshAddress.isValidUnicastAddress(dst) && provisionerAddress != dst) {
+                        MeshLogger.v(TAG, "Received a control message that was not directed to us, so we drop it");
                         return null;
                     }
 
-                    if (isSegmentedMessage(decryptedNetworkPayload[2])) {
+                    if (isSegmentedMessage(NetworkPduDecoder.getLowerTransportHeader(decryptedProxyPdu))) {
                         return parseSegmentedControlMessage(data, decryptedProxyPdu, ttl, src, dst);
                     } else {
                         return parseUnsegmentedControlMessage(data, decryptedProxyPdu, ttl, src, dst, sequenceNumber);
@@ -642,9 +575,9 @@ public abstract class NetworkLayer extends LowerTransportLayer {
                                                           final int ttl,
                                                           final int src,
                                                           final int dst,
-                                                          final byte[] sequenceNumber) throws ExtendedInvalidCipherTextException {
+                                                          final int sequenceNumber) throws ExtendedInvalidCipherTextException {
         final ControlMessage message = new ControlMessage();
-        message.setIvIndex(mUpperTransportLayerCallbacks.getIvIndex());
+        message.setIvIndex(mReceivedIvIndex);
         final SparseArray<byte[]> proxyPduArray = new SparseArray<>();
         proxyPduArray.put(0, data);
         message.setNetworkPdu(proxyPduArray);
@@ -669,32 +602,13 @@ public abstract class NetworkLayer extends LowerTransportLayer {
      * @return a complete {@link ControlMessage} or null if the message was unable to parsed
      */
     private ControlMessage parseSegmentedControlMessage(final byte[] data, final byte[] decryptedProxyPdu, final int ttl, final int src, final int dst) {
-        if (segmentedControlMessagesMessages == null) {
-            segmentedControlMessagesMessages = new SparseArray<>();
-            segmentedControlMessagesMessages.put(0, data);
-        } else {
-            final int k = segmentedControlMessagesMessages.size();
-            segmentedAccessMessagesMessages.put(k, data);
-        }
-
-        final ControlMessage message = parseSegmentedControlLowerTransportPDU(decryptedProxyPdu);
+        final ControlMessage message = parseSegmentedControlLowerTransportPDU(data, decryptedProxyPdu);
         if (message != null) {
-            final SparseArray<byte[]> segmentedMessages = segmentedControlMessagesMessages.clone();
-            segmentedControlMessagesMessages = null;
-            message.setIvIndex(mUpperTransportLayerCallbacks.getIvIndex());
-            message.setNetworkPdu(segmentedMessages);
+            message.setIvIndex(mReceivedIvIndex);
             message.setTtl(ttl);
             message.setSrc(src);
             message.setDst(dst);
         }
         return message;
     }
-
-    /**
-     * Returns the master credentials {@link SecureUtils.K2Output}
-     */
-    private SecureUtils.K2Output getK2Output() {
-        final NetworkKey networkKey = mNetworkLayerCallbacks.getPrimaryNetworkKey();
-        return SecureUtils.calculateK2(networkKey.getKey(), SecureUtils.K2_MASTER_INPUT);
-    }
 }
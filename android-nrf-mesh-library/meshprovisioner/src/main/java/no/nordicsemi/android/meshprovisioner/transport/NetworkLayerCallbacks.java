@@ -22,7 +22,10 @@
 
 package no.nordicsemi.android.meshprovisioner.transport;
 
+import java.util.List;
+
 import no.nordicsemi.android.meshprovisioner.Provisioner;
+import no.nordicsemi.android.meshprovisioner.utils.ReplayProtectionList;
 
 public interface NetworkLayerCallbacks {
 
@@ -38,4 +41,32 @@ public interface NetworkLayerCallbacks {
     Provisioner getProvisioner(final int unicastAddress);
 
     NetworkKey getPrimaryNetworkKey();
+
+    /**
+     * Returns the cached credentials derived from the primary network key
+     * <p>
+     * The credentials are derived once per network key and are invalidated when the key or its key refresh phase changes.
+     * </p>
+     */
+    NetworkCredentials getPrimaryNetworkCredentials();
+
+    /**
+     * Returns the credentials of all network keys, including the old keys during a key refresh procedure, matching a given NID
+     *
+     * @param nid 7-bit network identifier from the received network pdu
+     * @return list of candidate credentials, which is empty if none of the network keys match
+     */
+    List<NetworkCredentials> getNetworkCredentials(final int nid);
+
+    /**
+     * Returns the replay protection list used to reject replayed messages before the upper transport pdu is decrypted
+     */
+    ReplayProtectionList getReplayProtectionList();
+
+    /**
+     * Called when a new block of sequence numbers has been reserved by the provisioner, which must be persisted before it is used
+     *
+     * @param provisioner provisioner that reserved the sequence numbers
+     */
+    void onSequenceNumbersReserved(final Provisioner provisioner);
 }
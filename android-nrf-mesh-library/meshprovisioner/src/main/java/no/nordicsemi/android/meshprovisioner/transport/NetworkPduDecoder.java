@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner.transport;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.spongycastle.crypto.InvalidCipherTextException;
+
+import no.nordicsemi.android.meshprovisioner.utils.CryptoContext;
+
+/**
+ * Decodes received network pdus in place.
+ * <p>
+ * A received pdu is de-obfuscated and decrypted once in to a single buffer that keeps the layout of the pdu received from the bearer,
+ * i.e. pdu type, IVI and NID, network header, destination address and the lower transport pdu. The lower transport, upper transport and
+ * access layers read their fields from offsets in to this buffer and the upper transport pdu of an unsegmented access message is
+ * decrypted in place, so that no intermediate copies are made between the network header and the access parameters.
+ * </p>
+ */
+final class NetworkPduDecoder {
+
+    static final int PDU_TYPE_OFFSET = 0;
+    static final int IVI_NID_OFFSET = 1;
+    static final int NETWORK_HEADER_OFFSET = 2;
+    static final int NETWORK_HEADER_LENGTH = 6;
+    static final int DST_OFFSET = NETWORK_HEADER_OFFSET + NETWORK_HEADER_LENGTH;
+    static final int LOWER_TRANSPORT_PDU_OFFSET = DST_OFFSET + 2;
+    static final int UNSEGMENTED_UPPER_TRANSPORT_PDU_OFFSET = LOWER_TRANSPORT_PDU_OFFSET + 1;
+    private static final int PRIVACY_RANDOM_LENGTH = 7;
+    private static final int PECB_IV_INDEX_OFFSET = 5;
+    private static final int PECB_PRIVACY_RANDOM_OFFSET = 9;
+    static final int MINIMUM_PDU_LENGTH = DST_OFFSET + PRIVACY_RANDOM_LENGTH;
+    static final int PECB_LENGTH = 16;
+
+    private NetworkPduDecoder() {
+    }
+
+    /**
+     * Writes the PECB input, i.e. 5 zero octets, the iv index and the privacy random
+     *
+     * @param ivIndex             current iv index
+     * @param data                buffer containing the privacy random
+     * @param privacyRandomOffset offset of the privacy random, which is the first 7 bytes of the encrypted network payload
+     * @param pecb                16-byte buffer the input is written to
+     */
+    static void writePecbInput(final int ivIndex, @NonNull final byte[] data, final int privacyRandomOffset, @NonNull final byte[] pecb) {
+        for (int i = 0; i < PECB_IV_INDEX_OFFSET; i++) {
+            pecb[i] = 0x00;
+        }
+        pecb[PECB_IV_INDEX_OFFSET] = (byte) (ivIndex >> 24);
+        pecb[PECB_IV_INDEX_OFFSET + 1] = (byte) (ivIndex >> 16);
+        pecb[PECB_IV_INDEX_OFFSET + 2] = (byte) (ivIndex >> 8);
+        pecb[PECB_IV_INDEX_OFFSET + 3] = (byte) ivIndex;
+        System.arraycopy(data, privacyRandomOffset, pecb, PECB_PRIVACY_RANDOM_OFFSET, PRIVACY_RANDOM_LENGTH);
+    }
+
+    /**
+     * De-obfuscates the network header of a received pdu
+     *
+     * @param data         pdu received from the node
+     * @param privacyKey   privacy key of the network key candidate
+     * @param ivIndex      current iv index
+     * @param pecb         16-byte scratch buffer the PECB is calculated in
+     * @param header       buffer the de-obfuscated header is written to
+     * @param headerOffset offset of the header in the output buffer
+     */
+    static void deobfuscateNetworkHeader(@NonNull final byte[] data,
+                                         @NonNull final byte[] privacyKey,
+                                         final int ivIndex,
+                                         @NonNull final byte[] pecb,
+                                         @NonNull final byte[] header,
+                                         final int headerOffset) {
+        writePecbInput(ivIndex, data, DST_OFFSET, pecb);
+        CryptoContext.get().encryptBlock(privacyKey, pecb, 0, pecb, 0);
+        for (int i = 0; i < NETWORK_HEADER_LENGTH; i++) {
+            header[headerOffset + i] = (byte) (data[NETWORK_HEADER_OFFSET + i] ^ pecb[i]);
+        }
+    }
+
+    /**
+     * Returns the sequence number of a de-obfuscated network header
+     *
+     * @param header       de-obfuscated network header
+     * @param headerOffset offset of the header
+     */
+    static int getSequenceNumber(@NonNull final byte[] header, final int headerOffset) {
+        return ((header[headerOffset + 1] & 0xFF) << 16) | ((header[headerOffset + 2] & 0xFF) << 8) | (header[headerOffset + 3] & 0xFF);
+    }
+
+    /**
+     * Returns the source address of a de-obfuscated network header
+     *
+     * @param header       de-obfuscated network header
+     * @param headerOffset offset of the header
+     */
+    static int getSrc(@NonNull final byte[] header, final int headerOffset) {
+        return ((header[headerOffset + 4] & 0xFF) << 8) | (header[headerOffset + 5] & 0xFF);
+    }
+
+    /**
+     * Decrypts and authenticates the network payload of a received pdu.
+     * <p>
+     * The returned buffer is the only pdu buffer allocated while decoding an unsegmented message and contains the pdu type, IVI and NID,
+     * the de-obfuscated network header and the decrypted network payload without the network mic. The layers still allocate the message
+     * object and the nonces of each received pdu.
+     * </p>
+     *
+     * @param data          pdu received from the node
+     * @param networkHeader de-obfuscated network header
+     * @param encryptionKey encryption key of the network key candidate
+     * @param nonce         network or proxy nonce depending on the pdu type
+     * @param micLength     network mic length of the received message
+     * @return decoded pdu
+     * @throws InvalidCipherTextException if the pdu could not be authenticated with the given key
+     */
+    static byte[] decryptNetworkPdu(@NonNull final byte[] data,
+                                    @NonNull final byte[] networkHeader,
+                                    @NonNull final byte[] encryptionKey,
+                                    @NonNull final byte[] nonce,
+                                    final int micLength) throws InvalidCipherTextException {
+        final int networkPayloadLength = data.length - DST_OFFSET;
+        if (networkPayloadLength < micLength)
+            throw new InvalidCipherTextException("Network pdu too short");
+
+        final byte[] pdu = new byte[data.length - micLength];
+        pdu[PDU_TYPE_OFFSET] = data[PDU_TYPE_OFFSET];
+        pdu[IVI_NID_OFFSET] = data[IVI_NID_OFFSET];
+        System.arraycopy(networkHeader, 0, pdu, NETWORK_HEADER_OFFSET, NETWORK_HEADER_LENGTH);
+        CryptoContext.get().decryptCCM(encryptionKey, nonce, micLength, null, data, DST_OFFSET, networkPayloadLength, pdu, DST_OFFSET);
+        return pdu;
+    }
+
+    /**
+     * Returns the ttl of a decoded pdu
+     */
+    static int getTtl(@NonNull final byte[] pdu) {
+        return pdu[NETWORK_HEADER_OFFSET] & 0x7F;
+    }
+
+    /**
+     * Returns the destination address of a decoded pdu
+     */
+    static int getDst(@NonNull final byte[] pdu) {
+        return ((pdu[DST_OFFSET] & 0xFF) << 8) | (pdu[DST_OFFSET + 1] & 0xFF);
+    }
+
+    /**
+     * Returns the lower transport header of a decoded pdu
+     */
+    static byte getLowerTransportHeader(@NonNull final byte[] pdu) {
+        return pdu[LOWER_TRANSPORT_PDU_OFFSET];
+    }
+
+    /**
+     * Decrypts an upper transport pdu in place
+     *
+     * @param key       device key or application key used to encrypt the pdu
+     * @param nonce     device or application nonce
+     * @param micLength transport mic length
+     * @param pdu       buffer containing the upper transport pdu
+     * @param offset    offset of the upper transport pdu
+     * @param length    length of the upper transport pdu including the mic
+     * @return length of the decrypted access pdu, which starts at the same offset
+     * @throws InvalidCipherTextException if the pdu could not be authenticated with the given key
+     */
+    static int decryptUpperTransportPdu(@NonNull final byte[] key,
+                                        @NonNull final byte[] nonce,
+                                        final int micLength,
+                                        @NonNull final byte[] pdu,
+                                        final int offset,
+                                        final int length) throws InvalidCipherTextException {
+        return decryptUpperTransportPdu(key, nonce, micLength, null, pdu, offset, length);
+    }
+
+    /**
+     * Decrypts an upper transport pdu sent to a virtual address in place
+     *
+     * @param key       application key used to encrypt the pdu
+     * @param nonce     application nonce
+     * @param micLength transport mic length
+     * @param labelUuid Label UUID of the virtual address, authenticated as additional data, or null if the destination is not virtual
+     * @param pdu       buffer containing the upper transport pdu
+     * @param offset    offset of the upper transport pdu
+     * @param length    length of the upper transport pdu including the mic
+     * @return length of the decrypted access pdu, which starts at the same offset
+     * @throws InvalidCipherTextException if the pdu could not be authenticated with the given key and label
+     */
+    static int decryptUpperTransportPdu(@NonNull final byte[] key,
+                                        @NonNull final byte[] nonce,
+                                        final int micLength,
+                                        @Nullable final byte[] labelUuid,
+                                        @NonNull final byte[] pdu,
+                                        final int offset,
+                                        final int length) throws InvalidCipherTextException {
+        return CryptoContext.get().decryptCCM(key, nonce, micLength, labelUuid, pdu, offset, length, pdu, offset);
+    }
+
+    /**
+     * Returns the length of the opcode at the start of an access pdu.
+     * If the two most significant bits are 0b0x the length is 1, 0b10 the length is 2 and 0b11 the length is 3.
+     *
+     * @param pdu    buffer containing the access pdu
+     * @param offset offset of the access pdu
+     */
+    static int getOpCodeLength(@NonNull final byte[] pdu, final int offset) {
+        final int msb = (pdu[offset] & 0xF0) >> 6;
+        return msb == 0 ? 1 : msb;
+    }
+}
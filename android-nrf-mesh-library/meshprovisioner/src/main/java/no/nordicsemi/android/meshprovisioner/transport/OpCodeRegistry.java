@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner.transport;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Arrays;
+
+import no.nordicsemi.android.meshprovisioner.opcodes.ApplicationMessageOpCodes;
+import no.nordicsemi.android.meshprovisioner.opcodes.ConfigMessageOpCodes;
+
+/**
+ * Maps the opcodes of received access messages to the {@link MeshMessageDecoder} that decodes them.
+ * <p>
+ * Opcodes are kept in an open addressing table, so that a received message is dispatched to its decoder, or found to be unknown,
+ * with a single probe sequence. Vendor opcodes are keyed on the 3-octet opcode as received, i.e. including the company identifier,
+ * so that messages with the same opcode from different companies are decoded separately. The status messages handled by the library
+ * are registered when the registry is created and can not be replaced.
+ * </p>
+ */
+final class OpCodeRegistry {
+
+    private static final int EMPTY = -1;
+    private static final int INITIAL_CAPACITY = 32;
+
+    private int[] mOpCodes;
+    private MeshMessageDecoder[] mDecoders;
+    private boolean[] mLibraryDefined;
+    private int mSize;
+
+    OpCodeRegistry() {
+        allocate(INITIAL_CAPACITY);
+        put(ConfigMessageOpCodes.CONFIG_COMPOSITION_DATA_STATUS, ConfigCompositionDataStatus::new, true);
+        put(ConfigMessageOpCodes.CONFIG_APPKEY_STATUS, ConfigAppKeyStatus::new, true);
+        put(ConfigMessageOpCodes.CONFIG_MODEL_APP_STATUS, ConfigModelAppStatus::new, true);
+        put(ConfigMessageOpCodes.CONFIG_MODEL_PUBLICATION_STATUS, ConfigModelPublicationStatus::new, true);
+        put(ConfigMessageOpCodes.CONFIG_MODEL_SUBSCRIPTION_STATUS, ConfigModelSubscriptionStatus::new, true);
+        put(ConfigMessageOpCodes.CONFIG_NODE_RESET_STATUS, ConfigNodeResetStatus::new, true);
+        put(ConfigMessageOpCodes.CONFIG_NETWORK_TRANSMIT_STATUS, ConfigNetworkTransmitStatus::new, true);
+        put(ConfigMessageOpCodes.CONFIG_RELAY_STATUS, ConfigRelayStatus::new, true);
+        put(ConfigMessageOpCodes.CONFIG_GATT_PROXY_STATUS, ConfigProxyStatus::new, true);
+        put(ConfigMessageOpCodes.CONFIG_HEARTBEAT_PUBLICATION_STATUS, ConfigHeartbeatPublicationStatus::new, true);
+        put(ConfigMessageOpCodes.CONFIG_HEARTBEAT_SUBSCRIPTION_STATUS, ConfigHeartbeatSubscriptionStatus::new, true);
+        put(ApplicationMessageOpCodes.GENERIC_ON_OFF_STATUS, GenericOnOffStatus::new, true);
+        put(ApplicationMessageOpCodes.GENERIC_LEVEL_STATUS, GenericLevelStatus::new, true);
+        put(ApplicationMessageOpCodes.LIGHT_LIGHTNESS_STATUS, LightLightnessStatus::new, true);
+        put(ApplicationMessageOpCodes.LIGHT_CTL_STATUS, LightCtlStatus::new, true);
+        put(ApplicationMessageOpCodes.LIGHT_HSL_STATUS, LightHslStatus::new, true);
+        put(ApplicationMessageOpCodes.SCENE_STATUS, SceneStatus::new, true);
+        put(ApplicationMessageOpCodes.SCENE_REGISTER_STATUS, SceneRegisterStatus::new, true);
+    }
+
+    /**
+     * Returns the 3-octet opcode of a vendor model message as received from a node
+     *
+     * @param companyIdentifier 16-bit company identifier
+     * @param opCode            6-bit vendor opcode
+     */
+    static int getVendorOpCode(final int companyIdentifier, final int opCode) {
+        return ((0xC0 | (opCode & 0x3F)) << 16) | ((companyIdentifier & 0xFF) << 8) | ((companyIdentifier >> 8) & 0xFF);
+    }
+
+    /**
+     * Registers a decoder for the opcode, replacing any decoder previously registered by the application
+     *
+     * @param opCode  opcode of the message
+     * @param decoder decoder of the message
+     * @throws IllegalArgumentException if the opcode is invalid or is decoded by the library
+     */
+    synchronized void register(final int opCode, @NonNull final MeshMessageDecoder decoder) {
+        if (opCode < 0 || opCode > 0xFFFFFF)
+            throw new IllegalArgumentException("Invalid opcode, opcode must be a 1, 2 or 3-octet value");
+        if (isLibraryDefined(opCode))
+            throw new IllegalArgumentException("Opcode is decoded by the library and can not be replaced");
+        put(opCode, decoder, false);
+    }
+
+    /**
+     * Removes the decoder registered by the application for the opcode
+     *
+     * @param opCode opcode of the message
+     */
+    synchronized void unregister(final int opCode) {
+        final int index = indexOf(opCode);
+        if (mOpCodes[index] == EMPTY || mLibraryDefined[index])
+            return;
+
+        //Backward shift deletion keeps the probe sequences of the remaining opcodes intact
+        final int mask = mOpCodes.length - 1;
+        int hole = index;
+        int next = (hole + 1) & mask;
+        while (mOpCodes[next] != EMPTY) {
+            final int ideal = hash(mOpCodes[next]) & mask;
+            if (((next - ideal) & mask) >= ((next - hole) & mask)) {
+                mOpCodes[hole] = mOpCodes[next];
+                mDecoders[hole] = mDecoders[next];
+                mLibraryDefined[hole] = mLibraryDefined[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        mOpCodes[hole] = EMPTY;
+        mDecoders[hole] = null;
+        mLibraryDefined[hole] = false;
+        mSize--;
+    }
+
+    /**
+     * Returns the decoder registered for the opcode or null if the opcode is unknown
+     *
+     * @param opCode opcode of the received message
+     */
+    @Nullable
+    synchronized MeshMessageDecoder get(final int opCode) {
+        return mDecoders[indexOf(opCode)];
+    }
+
+    /**
+     * Returns true if the opcode is decoded by the library, in which case the state of the network is updated with the status received
+     *
+     * @param opCode opcode of the received message
+     */
+    synchronized boolean isLibraryDefined(final int opCode) {
+        return mLibraryDefined[indexOf(opCode)];
+    }
+
+    private void put(final int opCode, final MeshMessageDecoder decoder, final boolean libraryDefined) {
+        if ((mSize + 1) * 2 > mOpCodes.length) {
+            resize();
+        }
+        final int index = indexOf(opCode);
+        if (mOpCodes[index] == EMPTY) {
+            mOpCodes[index] = opCode;
+            mSize++;
+        }
+        mDecoders[index] = decoder;
+        mLibraryDefined[index] = libraryDefined;
+    }
+
+    /**
+     * Returns the slot of the opcode or the empty slot it would be inserted at
+     */
+    private int indexOf(final int opCode) {
+        final int mask = mOpCodes.length - 1;
+        int index = hash(opCode) & mask;
+        while (mOpCodes[index] != EMPTY && mOpCodes[index] != opCode) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private void resize() {
+        final int[] opCodes = mOpCodes;
+        final MeshMessageDecoder[] decoders = mDecoders;
+        final boolean[] libraryDefined = mLibraryDefined;
+        allocate(opCodes.length * 2);
+        for (int i = 0; i < opCodes.length; i++) {
+            if (opCodes[i] != EMPTY) {
+                final int index = indexOf(opCodes[i]);
+                mOpCodes[index] = opCodes[i];
+                mDecoders[index] = decoders[i];
+                mLibraryDefined[index] = libraryDefined[i];
+            }
+        }
+    }
+
+    private void allocate(final int capacity) {
+        mOpCodes = new int[capacity];
+        Arrays.fill(mOpCodes, EMPTY);
+        mDecoders = new MeshMessageDecoder[capacity];
+        mLibraryDefined = new boolean[capacity];
+    }
+
+    private static int hash(final int opCode) {
+        final int h = opCode * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
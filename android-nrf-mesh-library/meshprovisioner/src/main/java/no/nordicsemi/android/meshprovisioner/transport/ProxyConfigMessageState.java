@@ -25,6 +25,8 @@ package no.nordicsemi.android.meshprovisioner.transport;
 import android.content.Context;
 import android.support.annotation.NonNull;
 
+import no.nordicsemi.android.meshprovisioner.TransmitQueueMetrics;
+
 /**
  * This generic state class handles the proxy configuration messages received or sent.
  * <p>
@@ -53,4 +55,9 @@ abstract class ProxyConfigMessageState extends MeshMessageState {
 
     public abstract MeshMessageState.MessageState getState();
 
+    @Override
+    int getTransmitPriority() {
+        return TransmitQueueMetrics.PRIORITY_PROXY_CONFIGURATION;
+    }
+
 }
@@ -0,0 +1,338 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner.transport;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Table of segmented messages that are being reassembled.
+ * <p>
+ * A session is identified by the source address and the SeqAuth of the segmented message, and holds its own block acknowledgement
+ * bitmap, a payload buffer that is allocated once for all segments and the incomplete timer of the message.
+ * This allows segmented messages from different nodes, e.g. replies to a message sent to a group address, to be received concurrently.
+ * Since a node may only send one segmented message at a time, a newer SeqAuth from the same source replaces the previous session.
+ * The number of concurrent sessions is bounded and the least recently used session is evicted when the table is full.
+ * </p>
+ */
+final class ReassemblyTable {
+
+    static final int DEFAULT_MAX_SESSIONS = 8;
+    private static final int MAX_SEGMENTS = 32;
+
+    private Session[] mSessions;
+    private int mSize;
+    private long mClock;
+
+    ReassemblyTable() {
+        this(DEFAULT_MAX_SESSIONS);
+    }
+
+    ReassemblyTable(final int maxSessions) {
+        if (maxSessions < 1)
+            throw new IllegalArgumentException("At least one reassembly session is required");
+        mSessions = new Session[maxSessions];
+    }
+
+    /**
+     * Returns the maximum number of concurrent sessions
+     */
+    int getMaxSessions() {
+        return mSessions.length;
+    }
+
+    /**
+     * Sets the maximum number of concurrent sessions.
+     * <p>
+     * If the table holds more sessions than the new maximum, the least recently used sessions are removed and returned,
+     * so that the caller may cancel their timers.
+     * </p>
+     *
+     * @param maxSessions maximum number of concurrent sessions
+     * @return the sessions that were removed from the table
+     */
+    @NonNull
+    Session[] setMaxSessions(final int maxSessions) {
+        if (maxSessions < 1)
+            throw new IllegalArgumentException("At least one reassembly session is required");
+        final int evictedCount = Math.max(0, mSize - maxSessions);
+        final Session[] evicted = new Session[evictedCount];
+        for (int i = 0; i < evictedCount; i++) {
+            evicted[i] = evictLeastRecentlyUsed();
+        }
+        final Session[] sessions = new Session[maxSessions];
+        System.arraycopy(mSessions, 0, sessions, 0, mSize);
+        mSessions = sessions;
+        return evicted;
+    }
+
+    /**
+     * Returns the number of sessions in the table
+     */
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns true if a new session can not be added without evicting an existing one
+     */
+    boolean isFull() {
+        return mSize == mSessions.length;
+    }
+
+    /**
+     * Returns the session for a given source address and marks it as recently used
+     *
+     * @param src source address of the segmented message
+     * @return session or null if there is no session for the given source address
+     */
+    @Nullable
+    Session get(final int src) {
+        final int index = indexOf(src);
+        if (index < 0)
+            return null;
+        final Session session = mSessions[index];
+        session.mLastUsed = ++mClock;
+        return session;
+    }
+
+    /**
+     * Adds a new session to the table. The caller must evict a session first if the table is full.
+     *
+     * @param session session to be added
+     */
+    void put(@NonNull final Session session) {
+        final int index = indexOf(session.src);
+        session.mLastUsed = ++mClock;
+        if (index >= 0) {
+            mSessions[index] = session;
+        } else {
+            if (isFull())
+                throw new IllegalStateException("Reassembly table is full");
+            mSessions[mSize++] = session;
+        }
+    }
+
+    /**
+     * Removes the session for a given source address
+     *
+     * @param src source address of the segmented message
+     * @return the removed session or null if there was no session for the given source address
+     */
+    @Nullable
+    Session remove(final int src) {
+        final int index = indexOf(src);
+        if (index < 0)
+            return null;
+        return removeAt(index);
+    }
+
+    /**
+     * Removes the given session if it is still in the table
+     *
+     * @param session session to be removed
+     * @return true if the session was removed
+     */
+    boolean remove(@NonNull final Session session) {
+        final int index = indexOf(session.src);
+        if (index < 0 || mSessions[index] != session)
+            return false;
+        removeAt(index);
+        return true;
+    }
+
+    /**
+     * Removes the least recently used session
+     *
+     * @return the evicted session or null if the table is empty
+     */
+    @Nullable
+    Session evictLeastRecentlyUsed() {
+        if (mSize == 0)
+            return null;
+        int lru = 0;
+        for (int i = 1; i < mSize; i++) {
+            if (mSessions[i].mLastUsed < mSessions[lru].mLastUsed) {
+                lru = i;
+            }
+        }
+        return removeAt(lru);
+    }
+
+    /**
+     * Removes all sessions from the table
+     *
+     * @return the removed sessions
+     */
+    @NonNull
+    Session[] clear() {
+        final Session[] sessions = new Session[mSize];
+        System.arraycopy(mSessions, 0, sessions, 0, mSize);
+        for (int i = 0; i < mSize; i++) {
+            mSessions[i] = null;
+        }
+        mSize = 0;
+        return sessions;
+    }
+
+    private int indexOf(final int src) {
+        for (int i = 0; i < mSize; i++) {
+            if (mSessions[i].src == src)
+                return i;
+        }
+        return -1;
+    }
+
+    private Session removeAt(final int index) {
+        final Session session = mSessions[index];
+        mSize--;
+        mSessions[index] = mSessions[mSize];
+        mSessions[mSize] = null;
+        return session;
+    }
+
+    /**
+     * State of a single segmented message that is being reassembled
+     */
+    static final class Session {
+
+        final int src;
+        final int dst;
+        final long seqAuth;
+        final int seqZero;
+        final int segN;
+        final int sequenceNumber;
+        final boolean control;
+        final int ttl;
+        private final int mSegmentLength;
+        private final int mCompleteBlockAck;
+        private final byte[] mPayload;
+        private final byte[][] mNetworkPdus;
+        private int mBlockAck;
+        private int mLastSegmentLength;
+        private long mLastUsed;
+
+        Runnable incompleteTimer;
+
+        /**
+         * Constructs a reassembly session
+         *
+         * @param src            source address of the segmented message
+         * @param dst            destination address of the segmented message
+         * @param seqAuth        SeqAuth of the segmented message
+         * @param seqZero        SeqZero of the segmented message
+         * @param segN           zero based index of the last segment
+         * @param sequenceNumber sequence number of the upper transport pdu
+         * @param control        true if the segments carry a transport control pdu
+         * @param ttl            ttl of the first received segment
+         * @param segmentLength  maximum payload length of a segment
+         */
+        Session(final int src, final int dst, final long seqAuth, final int seqZero, final int segN,
+                final int sequenceNumber, final boolean control, final int ttl, final int segmentLength) {
+            if (segN < 0 || segN >= MAX_SEGMENTS)
+                throw new IllegalArgumentException("Invalid SegN: " + segN);
+            this.src = src;
+            this.dst = dst;
+            this.seqAuth = seqAuth;
+            this.seqZero = seqZero;
+            this.segN = segN;
+            this.sequenceNumber = sequenceNumber;
+            this.control = control;
+            this.ttl = ttl;
+            mSegmentLength = segmentLength;
+            mCompleteBlockAck = segN == MAX_SEGMENTS - 1 ? 0xFFFFFFFF : (1 << (segN + 1)) - 1;
+            mPayload = new byte[(segN + 1) * segmentLength];
+            mNetworkPdus = new byte[segN + 1][];
+        }
+
+        /**
+         * Stores a received segment in the payload buffer.
+         * <p>
+         * All segments except the last one must carry the maximum segment payload.
+         * Segments that were already received or that do not belong to this message are ignored.
+         * </p>
+         *
+         * @param segO       segment index
+         * @param segN       zero based index of the last segment as received in the segment
+         * @param networkPdu network pdu the segment was received in
+         * @param data       buffer containing the segment payload
+         * @param offset     offset of the segment payload
+         * @param length     length of the segment payload
+         * @return true if the segment was added
+         */
+        boolean putSegment(final int segO, final int segN, final byte[] networkPdu,
+                           final byte[] data, final int offset, final int length) {
+            if (segN != this.segN || segO > segN || length <= 0 || length > mSegmentLength)
+                return false;
+            if (segO < segN && length != mSegmentLength)
+                return false;
+            final int bit = 1 << segO;
+            if ((mBlockAck & bit) != 0)
+                return false;
+            System.arraycopy(data, offset, mPayload, segO * mSegmentLength, length);
+            if (segO == segN) {
+                mLastSegmentLength = length;
+            }
+            mNetworkPdus[segO] = networkPdu;
+            mBlockAck |= bit;
+            return true;
+        }
+
+        /**
+         * Returns the block acknowledgement bitmap of the received segments
+         */
+        int getBlockAck() {
+            return mBlockAck;
+        }
+
+        /**
+         * Returns true if all segments have been received
+         */
+        boolean isComplete() {
+            return mBlockAck == mCompleteBlockAck;
+        }
+
+        /**
+         * Returns the buffer containing the reassembled payload, which starts at offset 0
+         */
+        byte[] getPayload() {
+            return mPayload;
+        }
+
+        /**
+         * Returns the length of the reassembled payload, only valid once all segments have been received
+         */
+        int getPayloadLength() {
+            return segN * mSegmentLength + mLastSegmentLength;
+        }
+
+        /**
+         * Returns the network pdu a segment was received in
+         *
+         * @param segO segment index
+         */
+        byte[] getNetworkPdu(final int segO) {
+            return mNetworkPdus[segO];
+        }
+    }
+}
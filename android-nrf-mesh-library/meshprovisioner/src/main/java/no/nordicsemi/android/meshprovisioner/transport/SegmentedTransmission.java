@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner.transport;
+
+import android.support.annotation.NonNull;
+
+/**
+ * State of an outgoing segmented message that is waiting to be acknowledged.
+ * <p>
+ * The lower transport layer keeps one transmission per SeqZero and runs the segment transmission timer, which is 200 ms + 50 ms * TTL.
+ * When the timer expires or a block acknowledgement with missing segments is received, only the segments that have not been acknowledged
+ * are sent again. The number of retransmissions without progress is bounded, after which the transmission is considered as failed.
+ * </p>
+ */
+final class SegmentedTransmission {
+
+    static final int DEFAULT_RETRANSMISSION_LIMIT = 4;
+    private static final int SEGMENT_TRANSMISSION_TIMER_BASE = 200;
+    private static final int SEGMENT_TRANSMISSION_TIMER_TTL_FACTOR = 50;
+
+    final Message message;
+    final int dst;
+    final int seqZero;
+    final int segN;
+    private final int mRetransmissionLimit;
+    private int mUnacknowledgedSegments;
+    private int mRetransmissionsLeft;
+
+    Runnable segmentTransmissionTimer;
+
+    /**
+     * Constructs a segmented transmission
+     *
+     * @param message             segmented message that was sent
+     * @param dst                 destination address of the message
+     * @param seqZero             SeqZero of the message
+     * @param segN                zero based index of the last segment
+     * @param retransmissionLimit number of retransmissions without progress before the transmission fails
+     */
+    SegmentedTransmission(@NonNull final Message message, final int dst, final int seqZero, final int segN, final int retransmissionLimit) {
+        this.message = message;
+        this.dst = dst;
+        this.seqZero = seqZero;
+        this.segN = segN;
+        mRetransmissionLimit = retransmissionLimit;
+        mRetransmissionsLeft = retransmissionLimit;
+        mUnacknowledgedSegments = segN == 31 ? 0xFFFFFFFF : (1 << (segN + 1)) - 1;
+    }
+
+    /**
+     * Returns the segment transmission timer interval in milliseconds
+     *
+     * @param ttl ttl of the segmented message
+     */
+    static long getSegmentTransmissionInterval(final int ttl) {
+        return SEGMENT_TRANSMISSION_TIMER_BASE + (SEGMENT_TRANSMISSION_TIMER_TTL_FACTOR * ttl);
+    }
+
+    /**
+     * Marks the segments of a received block acknowledgement as acknowledged.
+     * <p>
+     * Acknowledging new segments restores the retransmission limit since the peer is making progress.
+     * </p>
+     *
+     * @param blockAck block acknowledgement received from the peer
+     * @return true if any segments were acknowledged for the first time
+     */
+    boolean acknowledge(final int blockAck) {
+        final int unacknowledged = mUnacknowledgedSegments & ~blockAck;
+        if (unacknowledged == mUnacknowledgedSegments)
+            return false;
+        mUnacknowledgedSegments = unacknowledged;
+        mRetransmissionsLeft = mRetransmissionLimit;
+        return true;
+    }
+
+    /**
+     * Returns true if all segments have been acknowledged
+     */
+    boolean isAcknowledged() {
+        return mUnacknowledgedSegments == 0;
+    }
+
+    /**
+     * Returns a bitmap of the segments that have not been acknowledged yet
+     */
+    int getUnacknowledgedSegments() {
+        return mUnacknowledgedSegments;
+    }
+
+    /**
+     * Consumes a retransmission
+     *
+     * @return true if the segments may be retransmitted or false if the retransmission limit has been reached
+     */
+    boolean consumeRetransmission() {
+        if (mRetransmissionsLeft == 0)
+            return false;
+        mRetransmissionsLeft--;
+        return true;
+    }
+}
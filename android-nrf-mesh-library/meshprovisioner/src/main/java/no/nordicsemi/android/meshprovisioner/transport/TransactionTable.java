@@ -0,0 +1,331 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner.transport;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import no.nordicsemi.android.meshprovisioner.opcodes.ApplicationMessageOpCodes;
+import no.nordicsemi.android.meshprovisioner.opcodes.ConfigMessageOpCodes;
+import no.nordicsemi.android.meshprovisioner.utils.MeshAddress;
+import no.nordicsemi.android.meshprovisioner.utils.MeshLogger;
+
+/**
+ * Keeps track of the acknowledged messages sent to unicast addresses that are waiting for a response.
+ * <p>
+ * Transactions are keyed by the destination address and the opcode of the expected response, so that a status received from a node
+ * is correlated to the request it answers even if several requests are outstanding. Up to {@link #setMaxInFlightTransactions(int)}
+ * transactions are in flight at a time. Further requests, and requests that would expect the same response from the same node as an
+ * outstanding one, are queued and sent in order as transactions complete or time out.
+ * </p>
+ */
+final class TransactionTable {
+
+    private static final String TAG = TransactionTable.class.getSimpleName();
+    static final int NO_RESPONSE = -1;
+    private static final int VENDOR_OPCODE_MASK = 0xC0FFFF;
+    private static final int DEFAULT_MAX_IN_FLIGHT_TRANSACTIONS = 4;
+    private static final long DEFAULT_TRANSACTION_TIMEOUT = 30 * 1000;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Map<Long, MeshTransaction> mTransactions = new HashMap<>();
+    private final ArrayDeque<MeshTransaction> mPendingTransactions = new ArrayDeque<>();
+    private final TransactionCallbacks mCallbacks;
+    private int mMaxInFlightTransactions = DEFAULT_MAX_IN_FLIGHT_TRANSACTIONS;
+    private long mTransactionTimeout = DEFAULT_TRANSACTION_TIMEOUT;
+
+    interface TransactionCallbacks {
+
+        /**
+         * Sends the mesh message of a transaction, or a message that does not expect a response
+         *
+         * @param src         source address
+         * @param dst         destination address
+         * @param meshMessage mesh message to be sent
+         */
+        void sendMeshMessage(final int src, final int dst, @NonNull final MeshMessage meshMessage);
+
+        /**
+         * Called when no response was received for a transaction within the transaction timeout
+         *
+         * @param dst         destination address
+         * @param meshMessage mesh message that was sent
+         */
+        void onTransactionTimeout(final int dst, @NonNull final MeshMessage meshMessage);
+    }
+
+    TransactionTable(@NonNull final TransactionCallbacks callbacks) {
+        mCallbacks = callbacks;
+    }
+
+    /**
+     * Sets the maximum number of transactions in flight
+     *
+     * @param maxInFlightTransactions maximum number of outstanding acknowledged messages, must be at least 1
+     */
+    void setMaxInFlightTransactions(final int maxInFlightTransactions) {
+        if (maxInFlightTransactions < 1)
+            throw new IllegalArgumentException("At least one transaction must be allowed in flight");
+        mMaxInFlightTransactions = maxInFlightTransactions;
+        sendPendingTransactions();
+    }
+
+    /**
+     * Sets the time to wait for the response of a transaction
+     *
+     * @param timeout timeout in milliseconds
+     */
+    void setTransactionTimeout(final long timeout) {
+        if (timeout <= 0)
+            throw new IllegalArgumentException("Transaction timeout must be a positive value");
+        mTransactionTimeout = timeout;
+    }
+
+    /**
+     * Returns the number of transactions waiting for a response
+     */
+    int getInFlightTransactionCount() {
+        return mTransactions.size();
+    }
+
+    /**
+     * Returns the number of transactions queued to be sent
+     */
+    int getPendingTransactionCount() {
+        return mPendingTransactions.size();
+    }
+
+    /**
+     * Sends a mesh message, or queues it if it expects a response and the transaction window is full
+     *
+     * @param src         source address
+     * @param dst         destination address
+     * @param meshMessage mesh message to be sent
+     * @param callback    callback notified with the result of the transaction
+     * @return transaction handle or null if the message is not tracked as a transaction
+     */
+    @Nullable
+    MeshTransaction send(final int src, final int dst, @NonNull final MeshMessage meshMessage, @Nullable final MeshTransactionCallback callback) {
+        final int responseOpCode = getResponseOpCode(meshMessage);
+        //Responses to messages sent to groups and virtual addresses come from several nodes and can not be correlated to a single transaction
+        if (responseOpCode == NO_RESPONSE || !MeshAddress.isValidUnicastAddress(dst)) {
+            if (callback != null)
+                throw new IllegalArgumentException("Only acknowledged messages sent to a unicast address can be tracked as a transaction");
+            mCallbacks.sendMeshMessage(src, dst, meshMessage);
+            return null;
+        }
+
+        final MeshTransaction transaction = new MeshTransaction(this, src, dst, getKey(dst, responseOpCode), meshMessage, callback);
+        mPendingTransactions.add(transaction);
+        sendPendingTransactions();
+        if (!mPendingTransactions.isEmpty() && MeshLogger.isVerbose()) {
+            MeshLogger.v(TAG, mPendingTransactions.size() + " transactions queued, " + mTransactions.size() + " transactions in flight");
+        }
+        return transaction;
+    }
+
+    /**
+     * Completes the transaction a received message responds to.
+     * <p>
+     * The transaction is removed from the transactions in flight, the caller notifies its result once the response has been decoded and
+     * then calls {@link #sendPendingTransactions()}, so that the response is delivered before the next queued message is sent.
+     * </p>
+     *
+     * @param src    source address of the received message
+     * @param opCode opcode of the received message
+     * @return transaction the received message responds to or null if no transaction is waiting for it
+     */
+    @Nullable
+    MeshTransaction complete(final int src, final int opCode) {
+        long key = getKey(src, opCode);
+        MeshTransaction transaction = mTransactions.get(key);
+        if (transaction == null && (opCode & 0xC00000) == 0xC00000) {
+            key = getKey(src, opCode & VENDOR_OPCODE_MASK);
+            transaction = mTransactions.get(key);
+        }
+
+        if (transaction == null)
+            return null;
+
+        mTransactions.remove(key);
+        mHandler.removeCallbacks(transaction.timeoutRunnable);
+        return transaction;
+    }
+
+    /**
+     * Cancels a queued transaction or a transaction in flight
+     *
+     * @param transaction transaction to be cancelled
+     */
+    void cancel(@NonNull final MeshTransaction transaction) {
+        if (transaction.isDone())
+            return;
+
+        if (transaction.isInFlight()) {
+            mTransactions.remove(transaction.key);
+            mHandler.removeCallbacks(transaction.timeoutRunnable);
+        } else {
+            mPendingTransactions.remove(transaction);
+        }
+        transaction.onFailed(MeshTransaction.FAILURE_CANCELLED);
+        sendPendingTransactions();
+    }
+
+    /**
+     * Cancels all transactions in flight and the queued transactions
+     */
+    void clear() {
+        final List<MeshTransaction> transactions = new ArrayList<>(mPendingTransactions);
+        for (MeshTransaction transaction : mTransactions.values()) {
+            mHandler.removeCallbacks(transaction.timeoutRunnable);
+            transactions.add(transaction);
+        }
+        mTransactions.clear();
+        mPendingTransactions.clear();
+        for (MeshTransaction transaction : transactions) {
+            transaction.onFailed(MeshTransaction.FAILURE_CANCELLED);
+        }
+    }
+
+    /**
+     * Returns the opcode of the response to a mesh message
+     *
+     * @param meshMessage mesh message
+     * @return opcode of the response, with the opcode bits cleared for vendor messages, or {@link #NO_RESPONSE} for unacknowledged messages
+     */
+    static int getResponseOpCode(@NonNull final MeshMessage meshMessage) {
+        if (meshMessage instanceof VendorModelMessageAcked) {
+            return OpCodeRegistry.getVendorOpCode(((VendorModelMessageAcked) meshMessage).getCompanyIdentifier(), 0) & VENDOR_OPCODE_MASK;
+        } else if (meshMessage instanceof VendorModelMessageUnacked || meshMessage instanceof ProxyConfigMessage) {
+            return NO_RESPONSE;
+        }
+
+        switch (meshMessage.getOpCode()) {
+            case ConfigMessageOpCodes.CONFIG_APPKEY_ADD:
+                return ConfigMessageOpCodes.CONFIG_APPKEY_STATUS;
+            case ConfigMessageOpCodes.CONFIG_COMPOSITION_DATA_GET:
+                return ConfigMessageOpCodes.CONFIG_COMPOSITION_DATA_STATUS;
+            case ConfigMessageOpCodes.CONFIG_GATT_PROXY_GET:
+            case ConfigMessageOpCodes.CONFIG_GATT_PROXY_SET:
+                return ConfigMessageOpCodes.CONFIG_GATT_PROXY_STATUS;
+            case ConfigMessageOpCodes.CONFIG_MODEL_APP_BIND:
+            case ConfigMessageOpCodes.CONFIG_MODEL_APP_UNBIND:
+                return ConfigMessageOpCodes.CONFIG_MODEL_APP_STATUS;
+            case ConfigMessageOpCodes.CONFIG_MODEL_PUBLICATION_GET:
+            case ConfigMessageOpCodes.CONFIG_MODEL_PUBLICATION_SET:
+                return ConfigMessageOpCodes.CONFIG_MODEL_PUBLICATION_STATUS;
+            case ConfigMessageOpCodes.CONFIG_MODEL_SUBSCRIPTION_ADD:
+            case ConfigMessageOpCodes.CONFIG_MODEL_SUBSCRIPTION_DELETE:
+            case ConfigMessageOpCodes.CONFIG_MODEL_SUBSCRIPTION_VIRTUAL_ADDRESS_ADD:
+            case ConfigMessageOpCodes.CONFIG_MODEL_SUBSCRIPTION_VIRTUAL_ADDRESS_DELETE:
+                return ConfigMessageOpCodes.CONFIG_MODEL_SUBSCRIPTION_STATUS;
+            case ConfigMessageOpCodes.CONFIG_NETWORK_TRANSMIT_GET:
+            case ConfigMessageOpCodes.CONFIG_NETWORK_TRANSMIT_SET:
+                return ConfigMessageOpCodes.CONFIG_NETWORK_TRANSMIT_STATUS;
+            case ConfigMessageOpCodes.CONFIG_NODE_RESET:
+                return ConfigMessageOpCodes.CONFIG_NODE_RESET_STATUS;
+            case ConfigMessageOpCodes.CONFIG_RELAY_GET:
+            case ConfigMessageOpCodes.CONFIG_RELAY_SET:
+                return ConfigMessageOpCodes.CONFIG_RELAY_STATUS;
+            case ConfigMessageOpCodes.CONFIG_HEARTBEAT_PUBLICATION_GET:
+            case ConfigMessageOpCodes.CONFIG_HEARTBEAT_PUBLICATION_SET:
+                return ConfigMessageOpCodes.CONFIG_HEARTBEAT_PUBLICATION_STATUS;
+            case ConfigMessageOpCodes.CONFIG_HEARTBEAT_SUBSCRIPTION_GET:
+            case ConfigMessageOpCodes.CONFIG_HEARTBEAT_SUBSCRIPTION_SET:
+                return ConfigMessageOpCodes.CONFIG_HEARTBEAT_SUBSCRIPTION_STATUS;
+            case ApplicationMessageOpCodes.GENERIC_ON_OFF_GET:
+            case ApplicationMessageOpCodes.GENERIC_ON_OFF_SET:
+                return ApplicationMessageOpCodes.GENERIC_ON_OFF_STATUS;
+            case ApplicationMessageOpCodes.GENERIC_LEVEL_GET:
+            case ApplicationMessageOpCodes.GENERIC_LEVEL_SET:
+                return ApplicationMessageOpCodes.GENERIC_LEVEL_STATUS;
+            case ApplicationMessageOpCodes.LIGHT_LIGHTNESS_GET:
+            case ApplicationMessageOpCodes.LIGHT_LIGHTNESS_SET:
+                return ApplicationMessageOpCodes.LIGHT_LIGHTNESS_STATUS;
+            case ApplicationMessageOpCodes.LIGHT_CTL_GET:
+            case ApplicationMessageOpCodes.LIGHT_CTL_SET:
+                return ApplicationMessageOpCodes.LIGHT_CTL_STATUS;
+            case ApplicationMessageOpCodes.LIGHT_HSL_GET:
+            case ApplicationMessageOpCodes.LIGHT_HSL_SET:
+                return ApplicationMessageOpCodes.LIGHT_HSL_STATUS;
+            case ApplicationMessageOpCodes.SCENE_GET:
+            case ApplicationMessageOpCodes.SCENE_RECALL:
+                return ApplicationMessageOpCodes.SCENE_STATUS;
+            case ApplicationMessageOpCodes.SCENE_REGISTER_GET:
+            case ApplicationMessageOpCodes.SCENE_STORE:
+            case ApplicationMessageOpCodes.SCENE_DELETE:
+                return ApplicationMessageOpCodes.SCENE_REGISTER_STATUS;
+            default:
+                return NO_RESPONSE;
+        }
+    }
+
+    private static long getKey(final int address, final int opCode) {
+        return ((long) address << 32) | (opCode & 0xFFFFFFFFL);
+    }
+
+    private boolean canStart(final MeshTransaction transaction) {
+        return mTransactions.size() < mMaxInFlightTransactions && mTransactions.get(transaction.key) == null;
+    }
+
+    private void start(final MeshTransaction transaction) {
+        mTransactions.put(transaction.key, transaction);
+        transaction.onSent();
+        mHandler.postDelayed(transaction.timeoutRunnable, mTransactionTimeout);
+        mCallbacks.sendMeshMessage(transaction.src, transaction.dst, transaction.meshMessage);
+    }
+
+    /**
+     * Starts the queued transactions that fit in to the transaction window, skipping those waiting for an outstanding transaction to the same node
+     */
+    void sendPendingTransactions() {
+        final Iterator<MeshTransaction> iterator = mPendingTransactions.iterator();
+        while (iterator.hasNext() && mTransactions.size() < mMaxInFlightTransactions) {
+            final MeshTransaction transaction = iterator.next();
+            if (canStart(transaction)) {
+                iterator.remove();
+                start(transaction);
+            }
+        }
+    }
+
+    void onTransactionTimeout(final MeshTransaction transaction) {
+        if (mTransactions.get(transaction.key) != transaction)
+            return;
+
+        MeshLogger.vAddress(TAG, "Transaction timed out, dst: ", transaction.dst);
+        mTransactions.remove(transaction.key);
+        transaction.onFailed(MeshTransaction.FAILURE_TIMEOUT);
+        mCallbacks.onTransactionTimeout(transaction.dst, transaction.meshMessage);
+        sendPendingTransactions();
+    }
+}
@@ -24,15 +24,22 @@ package no.nordicsemi.android.meshprovisioner.transport;
 
 import android.support.annotation.NonNull;
 import android.support.annotation.VisibleForTesting;
-import android.util.Log;
 
 import org.spongycastle.crypto.InvalidCipherTextException;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import no.nordicsemi.android.meshprovisioner.MeshManagerApi;
+import no.nordicsemi.android.meshprovisioner.control.HeartbeatMessage;
+import no.nordicsemi.android.meshprovisioner.opcodes.TransportLayerOpCodes;
+import no.nordicsemi.android.meshprovisioner.utils.CryptoContext;
 import no.nordicsemi.android.meshprovisioner.utils.ExtendedInvalidCipherTextException;
+import no.nordicsemi.android.meshprovisioner.utils.MeshAddress;
+import no.nordicsemi.android.meshprovisioner.utils.MeshLogger;
 import no.nordicsemi.android.meshprovisioner.utils.MeshParserUtils;
 import no.nordicsemi.android.meshprovisioner.utils.SecureUtils;
 
@@ -57,6 +64,7 @@ abstract class UpperTransportLayer extends AccessLayer {
     private static final int NONCE_TYPE_DEVICE = 0x02;
     private static final int PAD_APPLICATION_DEVICE_NONCE = 0b0000000;
     private static final String TAG = UpperTransportLayer.class.getSimpleName();
+    private static final List<byte[]> NO_LABEL_UUID = Collections.singletonList(null);
     private static final int SZMIC = 1; //Transmic becomes 8 bytes
     private static final int TRANSPORT_SAR_SEQZERO_MASK = 8191;
     private static final int DEFAULT_UNSEGMENTED_MIC_LENGTH = 4; //octets
@@ -75,7 +83,7 @@ abstract class UpperTransportLayer extends AccessLayer {
             super.createMeshMessage(message);
             final AccessMessage accessMessage = (AccessMessage) message;
             final byte[] encryptedTransportPDU = encryptUpperTransportPDU(accessMessage);
-            Log.v(TAG, "Encrypted upper transport pdu: " + MeshParserUtils.bytesToHex(encryptedTransportPDU, false));
+            MeshLogger.v(TAG, "Encrypted upper transport pdu: ", encryptedTransportPDU);
             accessMessage.setUpperTransportPdu(encryptedTransportPDU);
         } else {
             createUpperTransportPDU(message);
@@ -91,7 +99,7 @@ abstract class UpperTransportLayer extends AccessLayer {
         super.createVendorMeshMessage(message);
         final AccessMessage accessMessage = (AccessMessage) message;
         final byte[] encryptedTransportPDU = encryptUpperTransportPDU(accessMessage);
-        Log.v(TAG, "Encrypted upper transport pdu: " + MeshParserUtils.bytesToHex(encryptedTransportPDU, false));
+        MeshLogger.v(TAG, "Encrypted upper transport pdu: ", encryptedTransportPDU);
         accessMessage.setUpperTransportPdu(encryptedTransportPDU);
     }
 
@@ -106,7 +114,7 @@ abstract class UpperTransportLayer extends AccessLayer {
             //Access message
             final AccessMessage accessMessage = (AccessMessage) message;
             final byte[] encryptedTransportPDU = encryptUpperTransportPDU(accessMessage);
-            Log.v(TAG, "Encrypted upper transport pdu: " + MeshParserUtils.bytesToHex(encryptedTransportPDU, false));
+            MeshLogger.v(TAG, "Encrypted upper transport pdu: ", encryptedTransportPDU);
             accessMessage.setUpperTransportPdu(encryptedTransportPDU);
         } else {
             final ControlMessage controlMessage = (ControlMessage) message;
@@ -124,7 +132,7 @@ abstract class UpperTransportLayer extends AccessLayer {
             }
             final byte[] accessPdu = accessMessageBuffer.array();
 
-            Log.v(TAG, "Created Transport Control PDU " + MeshParserUtils.bytesToHex(accessPdu, false));
+            MeshLogger.v(TAG, "Created Transport Control PDU ", accessPdu);
             controlMessage.setTransportControlPdu(accessPdu);
         }
     }
@@ -154,6 +162,34 @@ abstract class UpperTransportLayer extends AccessLayer {
      */
     abstract void reassembleLowerTransportControlPDU(final ControlMessage controlMessage);
 
+    /**
+     * Parses an upper transport control pdu.
+     * <p>
+     * Upper transport control messages are not encrypted at the upper transport layer, so the parameters received by the
+     * lower transport layer are the control message parameters.
+     * </p>
+     *
+     * @param controlMessage control message containing the reassembled transport control pdu
+     */
+    private void parseUpperTransportControlPDU(@NonNull final ControlMessage controlMessage) {
+        final byte[] transportControlPdu = controlMessage.getTransportControlPdu();
+        if (transportControlPdu == null)
+            return;
+
+        switch (controlMessage.getOpCode()) {
+            case TransportLayerOpCodes.HEARTBEAT_OPCODE:
+                try {
+                    controlMessage.setTransportControlMessage(new HeartbeatMessage(transportControlPdu));
+                } catch (IllegalArgumentException ex) {
+                    MeshLogger.e(TAG, ex.getMessage());
+                }
+                break;
+            default:
+                MeshLogger.v(TAG, "Unsupported upper transport control message: " + controlMessage.getOpCode());
+                break;
+        }
+    }
+
     /**
      * Parse upper transport pdu
      *
@@ -167,11 +203,9 @@ abstract class UpperTransportLayer extends AccessLayer {
                     if (message.getCtl() == 0) { //Access message
                         final AccessMessage accessMessage = (AccessMessage) message;
                         reassembleLowerTransportAccessPDU(accessMessage);
-                        final byte[] decryptedUpperTransportControlPdu = decryptUpperTransportPDU(accessMessage);
-                        accessMessage.setAccessPdu(decryptedUpperTransportControlPdu);
+                        decryptUpperTransportPDU(accessMessage);
                     } else {
-                        //TODO
-                        //this where control messages such as heartbeat and friendship messages are to be implemented
+                        parseUpperTransportControlPDU((ControlMessage) message);
                     }
                     break;
                 case MeshManagerApi.PDU_TYPE_PROXY_CONFIGURATION:
@@ -203,19 +237,19 @@ abstract class UpperTransportLayer extends AccessLayer {
         final int akf = message.getAkf();
         final int aszmic = message.getAszmic(); // upper transport layer will alaways have the aszmic as 0 because the mic is always 32bit
 
-        final byte[] sequenceNumber = message.getSequenceNumber();
+        final int sequenceNumber = message.getSequenceNumberValue();
         final int src = message.getSrc();
         final int dst = message.getDst();
-        final byte[] ivIndex = message.getIvIndex();
+        final int ivIndex = message.getIvIndexValue();
         final byte[] key = message.getKey();
 
         byte[] nonce;
         if (akf == APPLICATION_KEY_IDENTIFIER) {
             nonce = createDeviceNonce(aszmic, sequenceNumber, src, dst, ivIndex);
-            Log.v(TAG, "Device nonce: " + MeshParserUtils.bytesToHex(nonce, false));
+            MeshLogger.v(TAG, "Device nonce: ", nonce);
         } else {
             nonce = createApplicationNonce(aszmic, sequenceNumber, src, dst, ivIndex);
-            Log.v(TAG, "Application nonce: " + MeshParserUtils.bytesToHex(nonce, false));
+            MeshLogger.v(TAG, "Application nonce: ", nonce);
         }
 
         int transMicLength;
@@ -227,89 +261,156 @@ abstract class UpperTransportLayer extends AccessLayer {
             transMicLength = SecureUtils.getTransMicLength(message.getAszmic());
         }
 
-        return SecureUtils.encryptCCM(accessPDU, key, nonce, transMicLength);
+        final byte[] labelUuid = akf == APPLICATION_KEY_IDENTIFIER ? null : getLabelUuid(message);
+        final byte[] upperTransportPdu = new byte[accessPDU.length + transMicLength];
+        CryptoContext.get().encryptCCM(key, nonce, transMicLength, labelUuid, accessPDU, 0, accessPDU.length, upperTransportPdu, 0);
+        return upperTransportPdu;
     }
 
     /**
-     * Decrypts upper transport pdu
+     * Returns the Label UUID a message to a virtual address is authenticated with.
+     * <p>
+     * If the message does not carry a Label UUID it is looked up from the virtual address, which must then identify a single label in the network.
+     * </p>
+     *
+     * @param message access message
+     * @return 16-byte Label UUID or null if the destination is not a virtual address
+     */
+    private byte[] getLabelUuid(final AccessMessage message) {
+        if (!MeshAddress.isVirtualAddress(message.getDst()))
+            return null;
+
+        if (message.getLabelUuid() == null) {
+            final List<byte[]> labelUuids = mUpperTransportLayerCallbacks.getLabelUuids(message.getDst());
+            if (labelUuids.size() != 1)
+                throw new IllegalArgumentException("Virtual address does not identify a single label uuid in the network");
+            message.setLabelUuid(labelUuids.get(0));
+        }
+        return message.getLabelUuid();
+    }
+
+    /**
+     * Decrypts upper transport pdu in place and sets the decrypted access pdu on the message
      *
      * @param accessMessage access message object containing the upper transport pdu
-     * @return decrypted upper transport pdu
      */
-    private byte[] decryptUpperTransportPDU(final AccessMessage accessMessage) throws InvalidCipherTextException {
-        byte[] decryptedUpperTransportPDU;
-        final byte[] key;
+    private void decryptUpperTransportPDU(final AccessMessage accessMessage) throws InvalidCipherTextException {
+        final int transMicLength = accessMessage.getAszmic() == SZMIC ? MAXIMUM_TRANSMIC_LENGTH : MINIMUM_TRANSMIC_LENGTH;
+        final byte[] pdu = accessMessage.getUpperTransportPduBuffer();
+        final int offset = accessMessage.getUpperTransportPduOffset();
+        final int upperTransportPduLength = accessMessage.getUpperTransportPduLength();
         //Check if the key used for encryption is an application key or a device key
-        final byte[] nonce;
         if (APPLICATION_KEY_IDENTIFIER == accessMessage.getAkf()) {
-            key = mMeshNode.getDeviceKey();
             //If its a device key that was used to encrypt the message we need to create a device nonce to decrypt it
-            nonce = createDeviceNonce(accessMessage.getAszmic(), accessMessage.getSequenceNumber(), accessMessage.getSrc(), accessMessage.getDst(), accessMessage.getIvIndex());
-        } else {
-            key = mUpperTransportLayerCallbacks.getApplicationKey(accessMessage.getAid());
-            if (key == null)
-                throw new IllegalArgumentException("Unable to find the app key to decrypt the message");
-
-            final int aid = SecureUtils.calculateK4(key);
-            if (aid != accessMessage.getAid()) {
-                throw new IllegalArgumentException("Unable to decrypt the message, invalid application key identifier");
-            }
-            //If its an application key that was used to encrypt the message we need to create a application nonce to decrypt it
-            nonce = createApplicationNonce(accessMessage.getAszmic(), accessMessage.getSequenceNumber(), accessMessage.getSrc(), accessMessage.getDst(), accessMessage.getIvIndex());
+            final byte[] nonce = createDeviceNonce(accessMessage.getAszmic(), accessMessage.getSequenceNumberValue(), accessMessage.getSrc(), accessMessage.getDst(), accessMessage.getIvIndexValue());
+            final int length = NetworkPduDecoder.decryptUpperTransportPdu(mMeshNode.getDeviceKey(), nonce, transMicLength, pdu, offset, upperTransportPduLength);
+            accessMessage.setAccessPdu(pdu, offset, length);
+            return;
         }
 
-        if (accessMessage.getAszmic() == SZMIC) {
-            decryptedUpperTransportPDU = SecureUtils.decryptCCM(accessMessage.getUpperTransportPdu(), key, nonce, MAXIMUM_TRANSMIC_LENGTH);
+        final List<byte[]> keys = mUpperTransportLayerCallbacks.getApplicationKeys(accessMessage.getAid());
+        if (keys.isEmpty())
+            throw new IllegalArgumentException("Unable to find the app key to decrypt the message");
+
+        //Messages sent to a virtual address are authenticated with the Label UUID, which is matched against the labels sharing its hash
+        final List<byte[]> labelUuids;
+        if (MeshAddress.isVirtualAddress(accessMessage.getDst())) {
+            labelUuids = mUpperTransportLayerCallbacks.getLabelUuids(accessMessage.getDst());
+            if (labelUuids.isEmpty())
+                throw new IllegalArgumentException("Unable to find the label uuid of the virtual address to decrypt the message");
         } else {
-            decryptedUpperTransportPDU = SecureUtils.decryptCCM(accessMessage.getUpperTransportPdu(), key, nonce, MINIMUM_TRANSMIC_LENGTH);
+            labelUuids = NO_LABEL_UUID;
         }
 
-        final byte[] tempBytes = new byte[decryptedUpperTransportPDU.length];
-        ByteBuffer decryptedBuffer = ByteBuffer.wrap(tempBytes);
-        decryptedBuffer.order(ByteOrder.LITTLE_ENDIAN);
-        decryptedBuffer.put(decryptedUpperTransportPDU);
-        decryptedUpperTransportPDU = decryptedBuffer.array();
-        return decryptedUpperTransportPDU;
+        //If its an application key that was used to encrypt the message we need to create a application nonce to decrypt it
+        final byte[] nonce = createApplicationNonce(accessMessage.getAszmic(), accessMessage.getSequenceNumberValue(), accessMessage.getSrc(), accessMessage.getDst(), accessMessage.getIvIndexValue());
+        decryptApplicationPdu(accessMessage, keys, labelUuids, nonce, transMicLength);
+    }
+
+    /**
+     * Decrypts an upper transport pdu encrypted with an application key in place, trying each key and Label UUID candidate until one
+     * authenticates the pdu. The access pdu and the matching Label UUID are set on the message.
+     *
+     * @param accessMessage  access message containing the upper transport pdu
+     * @param keys           application keys sharing the AID of the message
+     * @param labelUuids     Label UUIDs sharing the virtual address of the message, or a single null label if the destination is not virtual
+     * @param nonce          application nonce
+     * @param transMicLength transport mic length
+     * @throws InvalidCipherTextException if none of the candidates authenticates the pdu
+     */
+    static void decryptApplicationPdu(@NonNull final AccessMessage accessMessage,
+                                      @NonNull final List<byte[]> keys,
+                                      @NonNull final List<byte[]> labelUuids,
+                                      @NonNull final byte[] nonce,
+                                      final int transMicLength) throws InvalidCipherTextException {
+        final byte[] pdu = accessMessage.getUpperTransportPduBuffer();
+        final int offset = accessMessage.getUpperTransportPduOffset();
+        final int upperTransportPduLength = accessMessage.getUpperTransportPduLength();
+        //The pdu is decrypted in place, so the encrypted pdu is kept to try the next key sharing the same AID or the next label
+        final byte[] encryptedPdu = keys.size() * labelUuids.size() > 1 ? Arrays.copyOfRange(pdu, offset, offset + upperTransportPduLength) : null;
+        InvalidCipherTextException authenticationException = null;
+        for (byte[] labelUuid : labelUuids) {
+            for (byte[] key : keys) {
+                if (authenticationException != null) {
+                    System.arraycopy(encryptedPdu, 0, pdu, offset, upperTransportPduLength);
+                }
+                try {
+                    final int length = NetworkPduDecoder.decryptUpperTransportPdu(key, nonce, transMicLength, labelUuid, pdu, offset, upperTransportPduLength);
+                    accessMessage.setAccessPdu(pdu, offset, length);
+                    accessMessage.setLabelUuid(labelUuid);
+                    return;
+                } catch (InvalidCipherTextException ex) {
+                    authenticationException = ex;
+                }
+            }
+        }
+        throw authenticationException;
     }
 
     /**
-     * Creates the application nonce
+     * Creates the application nonce in the nonce buffer of the calling thread
      *
      * @param aszmic         aszmic (szmic if a segmented access message)
      * @param sequenceNumber sequence number of the message
      * @param src            source address
      * @param dst            destination address
-     * @return Application nonce
+     * @param ivIndex        iv index
+     * @return Application nonce, valid until the next nonce is created on this thread
      */
-    private byte[] createApplicationNonce(final int aszmic, final byte[] sequenceNumber, final int src, final int dst, final byte[] ivIndex) {
-        final ByteBuffer applicationNonceBuffer = ByteBuffer.allocate(13);
-        applicationNonceBuffer.put((byte) NONCE_TYPE_APPLICATION); //Nonce type
-        applicationNonceBuffer.put((byte) ((aszmic << 7) | PAD_APPLICATION_DEVICE_NONCE)); //ASZMIC (SZMIC if a segmented access message) and PAD
-        applicationNonceBuffer.put(sequenceNumber);
-        applicationNonceBuffer.putShort((short) src);
-        applicationNonceBuffer.putShort((short) dst);
-        applicationNonceBuffer.put(ivIndex);
-        return applicationNonceBuffer.array();
+    private byte[] createApplicationNonce(final int aszmic, final int sequenceNumber, final int src, final int dst, final int ivIndex) {
+        return createNonce(NONCE_TYPE_APPLICATION, aszmic, sequenceNumber, src, dst, ivIndex);
     }
 
     /**
-     * Creates the device nonce
+     * Creates the device nonce in the nonce buffer of the calling thread
      *
      * @param aszmic         aszmic (szmic if a segmented access message)
      * @param sequenceNumber sequence number of the message
      * @param src            source address
      * @param dst            destination address
-     * @return Device  nonce
+     * @param ivIndex        iv index
+     * @return Device nonce, valid until the next nonce is created on this thread
      */
-    private byte[] createDeviceNonce(final int aszmic, final byte[] sequenceNumber, final int src, final int dst, final byte[] ivIndex) {
-        final ByteBuffer deviceNonceBuffer = ByteBuffer.allocate(13);
-        deviceNonceBuffer.put((byte) NONCE_TYPE_DEVICE); //Nonce type
-        deviceNonceBuffer.put((byte) ((aszmic << 7) | PAD_APPLICATION_DEVICE_NONCE)); //ASZMIC (SZMIC if a segmented access message) and PAD
-        deviceNonceBuffer.put(sequenceNumber);
-        deviceNonceBuffer.putShort((short) src);
-        deviceNonceBuffer.putShort((short) dst);
-        deviceNonceBuffer.put(ivIndex);
-        return deviceNonceBuffer.array();
+    private byte[] createDeviceNonce(final int aszmic, final int sequenceNumber, final int src, final int dst, final int ivIndex) {
+        return createNonce(NONCE_TYPE_DEVICE, aszmic, sequenceNumber, src, dst, ivIndex);
+    }
+
+    private byte[] createNonce(final int nonceType, final int aszmic, final int sequenceNumber, final int src, final int dst, final int ivIndex) {
+        final byte[] nonce = CryptoContext.get().getNonceBuffer();
+        nonce[0] = (byte) nonceType; //Nonce type
+        nonce[1] = (byte) ((aszmic << 7) | PAD_APPLICATION_DEVICE_NONCE); //ASZMIC (SZMIC if a segmented access message) and PAD
+        nonce[2] = (byte) (sequenceNumber >> 16);
+        nonce[3] = (byte) (sequenceNumber >> 8);
+        nonce[4] = (byte) sequenceNumber;
+        nonce[5] = (byte) (src >> 8);
+        nonce[6] = (byte) src;
+        nonce[7] = (byte) (dst >> 8);
+        nonce[8] = (byte) dst;
+        nonce[9] = (byte) (ivIndex >> 24);
+        nonce[10] = (byte) (ivIndex >> 16);
+        nonce[11] = (byte) (ivIndex >> 8);
+        nonce[12] = (byte) ivIndex;
+        return nonce;
     }
 
     /**
@@ -22,6 +22,8 @@
 
 package no.nordicsemi.android.meshprovisioner.transport;
 
+import java.util.List;
+
 /**
  * Upper transport layer call backs
  */
@@ -30,12 +32,31 @@ public interface UpperTransportLayerCallbacks {
     /**
      * Returns the IV Index of the mesh network
      */
-    byte[] getIvIndex();
+    int getIvIndex();
+
+    /**
+     * Returns the IV Index a received pdu was sent with.
+     * <p>
+     * During and shortly after an iv update nodes may send with the current or the previous IV Index, which is told apart by the IVI bit.
+     * </p>
+     *
+     * @param ivi least significant bit of the IV Index the pdu was sent with
+     */
+    int getReceivedIvIndex(final int ivi);
 
     /**
-     * Returns the application key with the specific application key identifier
+     * Returns the application keys with the specific application key identifier
      *
      * @param aid application key identifier
+     * @return list of keys sharing the identifier, which is empty if there are none
+     */
+    List<byte[]> getApplicationKeys(final int aid);
+
+    /**
+     * Returns the Label UUIDs whose hash matches a virtual address
+     *
+     * @param address virtual address
+     * @return list of 16-byte Label UUIDs, which is empty if there are none
      */
-    byte[] getApplicationKey(final int aid);
+    List<byte[]> getLabelUuids(final int address);
 }
@@ -0,0 +1,365 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner.utils;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import org.spongycastle.crypto.InvalidCipherTextException;
+import org.spongycastle.crypto.engines.AESEngine;
+import org.spongycastle.crypto.macs.CMac;
+import org.spongycastle.crypto.params.KeyParameter;
+
+import java.util.Arrays;
+
+/**
+ * Thread confined AES-CCM, AES-ECB and AES-CMAC engines.
+ * <p>
+ * Every thread gets its own context, obtained via {@link #get()}, so the engines may be used without synchronisation.
+ * A context keeps the most recently used keys with their key schedules already expanded, so that the network, transport and
+ * obfuscation keys used for every pdu are expanded only once. All operations read from and write into caller supplied buffers
+ * at the given offsets and do not allocate once a key is cached.
+ * </p>
+ * <p>
+ * AES-CCM is implemented on top of the cached AES engine as specified in RFC 3610 for the 13-byte nonces used by the mesh profile,
+ * as the CCM mode shipped with spongycastle re-initialises the key schedule for every packet.
+ * </p>
+ */
+@SuppressWarnings("WeakerAccess")
+public final class CryptoContext {
+
+    static final int KEY_CACHE_SIZE = 8;
+    private static final int BLOCK_SIZE = 16;
+    private static final int NONCE_LENGTH = 13;
+    private static final int CCM_LENGTH_FIELD_SIZE = BLOCK_SIZE - 1 - NONCE_LENGTH;
+    private static final int MAX_ASSOCIATED_DATA_LENGTH = 0xFEFF;
+
+    private static final ThreadLocal<CryptoContext> CONTEXT = new ThreadLocal<CryptoContext>() {
+        @Override
+        protected CryptoContext initialValue() {
+            return new CryptoContext();
+        }
+    };
+
+    private final KeySchedule[] mKeySchedules = new KeySchedule[KEY_CACHE_SIZE];
+    private final byte[] mMac = new byte[BLOCK_SIZE];
+    private final byte[] mCounter = new byte[BLOCK_SIZE];
+    private final byte[] mKeyStream = new byte[BLOCK_SIZE];
+    private final byte[] mNonce = new byte[NONCE_LENGTH];
+    private long mUseCount;
+
+    private CryptoContext() {
+    }
+
+    /**
+     * Returns the crypto context of the calling thread
+     */
+    public static CryptoContext get() {
+        return CONTEXT.get();
+    }
+
+    /**
+     * Returns a 13-byte scratch buffer of the calling thread for building nonces.
+     * <p>
+     * The content is only valid until the next nonce is built on the same thread, so the nonce must be consumed right after it is built.
+     * The CCM operations copy the nonce before processing, so the buffer may be passed to them directly.
+     * </p>
+     */
+    public byte[] getNonceBuffer() {
+        return mNonce;
+    }
+
+    /**
+     * Encrypts and authenticates data using AES-CCM
+     * <p>
+     * The input and output buffers may be the same buffer as long as the output offset is not greater than the input offset.
+     * </p>
+     *
+     * @param key            128-bit key
+     * @param nonce          13-byte nonce
+     * @param micSize        size of the message integrity check in bytes
+     * @param associatedData additional data that is authenticated but not encrypted, may be null
+     * @param in             buffer containing the plain text
+     * @param inOff          offset of the plain text
+     * @param inLen          length of the plain text
+     * @param out            buffer the cipher text followed by the mic is written to
+     * @param outOff         offset in the output buffer
+     * @return number of bytes written to the output buffer
+     */
+    public int encryptCCM(@NonNull final byte[] key,
+                          @NonNull final byte[] nonce,
+                          final int micSize,
+                          @Nullable final byte[] associatedData,
+                          @NonNull final byte[] in,
+                          final int inOff,
+                          final int inLen,
+                          @NonNull final byte[] out,
+                          final int outOff) {
+        final AESEngine aes = getKeySchedule(key).aes;
+        final byte[] mac = mMac;
+        final byte[] keyStream = mKeyStream;
+        startCCM(aes, nonce, micSize, associatedData, inLen);
+
+        int counter = 1;
+        for (int offset = 0; offset < inLen; offset += BLOCK_SIZE) {
+            final int length = Math.min(BLOCK_SIZE, inLen - offset);
+            nextKeyStreamBlock(aes, counter++);
+            for (int i = 0; i < length; i++) {
+                final byte b = in[inOff + offset + i];
+                mac[i] ^= b;
+                out[outOff + offset + i] = (byte) (b ^ keyStream[i]);
+            }
+            aes.processBlock(mac, 0, mac, 0);
+        }
+
+        nextKeyStreamBlock(aes, 0);
+        for (int i = 0; i < micSize; i++) {
+            out[outOff + inLen + i] = (byte) (mac[i] ^ keyStream[i]);
+        }
+        return inLen + micSize;
+    }
+
+    /**
+     * Decrypts and authenticates data using AES-CCM
+     * <p>
+     * The input and output buffers may be the same buffer as long as the output offset is not greater than the input offset.
+     * </p>
+     *
+     * @param key            128-bit key
+     * @param nonce          13-byte nonce
+     * @param micSize        size of the message integrity check in bytes
+     * @param associatedData additional data that is authenticated but not encrypted, may be null
+     * @param in             buffer containing the cipher text followed by the mic
+     * @param inOff          offset of the cipher text
+     * @param inLen          length of the cipher text including the mic
+     * @param out            buffer the plain text is written to
+     * @param outOff         offset in the output buffer
+     * @return number of bytes written to the output buffer
+     * @throws InvalidCipherTextException if the data is too short or the mic check fails
+     */
+    public int decryptCCM(@NonNull final byte[] key,
+                          @NonNull final byte[] nonce,
+                          final int micSize,
+                          @Nullable final byte[] associatedData,
+                          @NonNull final byte[] in,
+                          final int inOff,
+                          final int inLen,
+                          @NonNull final byte[] out,
+                          final int outOff) throws InvalidCipherTextException {
+        final int length = inLen - micSize;
+        if (length < 0) {
+            throw new InvalidCipherTextException("data too short");
+        }
+        final AESEngine aes = getKeySchedule(key).aes;
+        final byte[] mac = mMac;
+        final byte[] keyStream = mKeyStream;
+        startCCM(aes, nonce, micSize, associatedData, length);
+
+        int counter = 1;
+        for (int offset = 0; offset < length; offset += BLOCK_SIZE) {
+            final int blockLength = Math.min(BLOCK_SIZE, length - offset);
+            nextKeyStreamBlock(aes, counter++);
+            for (int i = 0; i < blockLength; i++) {
+                final byte b = (byte) (in[inOff + offset + i] ^ keyStream[i]);
+                out[outOff + offset + i] = b;
+                mac[i] ^= b;
+            }
+            aes.processBlock(mac, 0, mac, 0);
+        }
+
+        nextKeyStreamBlock(aes, 0);
+        int difference = 0;
+        for (int i = 0; i < micSize; i++) {
+            difference |= mac[i] ^ keyStream[i] ^ in[inOff + length + i];
+        }
+        if (difference != 0) {
+            throw new InvalidCipherTextException("mac check in CCM failed");
+        }
+        return length;
+    }
+
+    /**
+     * Encrypts a single 16-byte block using AES-ECB
+     *
+     * @param key    128-bit key
+     * @param in     buffer containing the plain text block
+     * @param inOff  offset of the block
+     * @param out    buffer the encrypted block is written to
+     * @param outOff offset in the output buffer
+     */
+    public void encryptBlock(@NonNull final byte[] key,
+                             @NonNull final byte[] in,
+                             final int inOff,
+                             @NonNull final byte[] out,
+                             final int outOff) {
+        getKeySchedule(key).aes.processBlock(in, inOff, out, outOff);
+    }
+
+    /**
+     * Calculates the AES-CMAC of the given data
+     *
+     * @param key    128-bit key
+     * @param in     buffer containing the data
+     * @param inOff  offset of the data
+     * @param inLen  length of the data
+     * @param out    buffer the 16-byte mac is written to
+     * @param outOff offset in the output buffer
+     */
+    public void calculateCMAC(@NonNull final byte[] key,
+                              @NonNull final byte[] in,
+                              final int inOff,
+                              final int inLen,
+                              @NonNull final byte[] out,
+                              final int outOff) {
+        final CMac cmac = getKeySchedule(key).getCMac();
+        cmac.update(in, inOff, inLen);
+        cmac.doFinal(out, outOff);
+    }
+
+    /**
+     * Initialises the CBC-MAC with the first block and the associated data, and prepares the counter block
+     */
+    private void startCCM(final AESEngine aes,
+                          final byte[] nonce,
+                          final int micSize,
+                          final byte[] associatedData,
+                          final int length) {
+        if (nonce.length != NONCE_LENGTH) {
+            throw new IllegalArgumentException("Nonce must be " + NONCE_LENGTH + " bytes long");
+        }
+        if (micSize < 4 || micSize > BLOCK_SIZE || (micSize & 1) != 0) {
+            throw new IllegalArgumentException("Invalid mic size: " + micSize);
+        }
+        final int associatedDataLength = associatedData == null ? 0 : associatedData.length;
+        if (associatedDataLength > MAX_ASSOCIATED_DATA_LENGTH) {
+            throw new IllegalArgumentException("Associated data too long");
+        }
+
+        final byte[] mac = mMac;
+        mac[0] = (byte) ((associatedDataLength > 0 ? 0x40 : 0x00) | (((micSize - 2) / 2) << 3) | (CCM_LENGTH_FIELD_SIZE - 1));
+        System.arraycopy(nonce, 0, mac, 1, NONCE_LENGTH);
+        mac[14] = (byte) (length >> 8);
+        mac[15] = (byte) length;
+        aes.processBlock(mac, 0, mac, 0);
+
+        if (associatedDataLength > 0) {
+            mac[0] ^= (byte) (associatedDataLength >> 8);
+            mac[1] ^= (byte) associatedDataLength;
+            int position = 2;
+            for (int i = 0; i < associatedDataLength; i++) {
+                mac[position++] ^= associatedData[i];
+                if (position == BLOCK_SIZE) {
+                    aes.processBlock(mac, 0, mac, 0);
+                    position = 0;
+                }
+            }
+            if (position > 0) {
+                aes.processBlock(mac, 0, mac, 0);
+            }
+        }
+
+        final byte[] counter = mCounter;
+        counter[0] = (byte) (CCM_LENGTH_FIELD_SIZE - 1);
+        System.arraycopy(nonce, 0, counter, 1, NONCE_LENGTH);
+    }
+
+    /**
+     * Encrypts the counter block for the given counter value into the key stream buffer
+     */
+    private void nextKeyStreamBlock(final AESEngine aes, final int counterValue) {
+        final byte[] counter = mCounter;
+        counter[14] = (byte) (counterValue >> 8);
+        counter[15] = (byte) counterValue;
+        aes.processBlock(counter, 0, mKeyStream, 0);
+    }
+
+    /**
+     * Returns the cached key schedule for a key, replacing the least recently used one if the key is not cached
+     */
+    private KeySchedule getKeySchedule(final byte[] key) {
+        final long useCount = ++mUseCount;
+        int leastRecentlyUsed = 0;
+        for (int i = 0; i < KEY_CACHE_SIZE; i++) {
+            final KeySchedule keySchedule = mKeySchedules[i];
+            if (keySchedule == null) {
+                leastRecentlyUsed = i;
+                break;
+            }
+            if (Arrays.equals(keySchedule.key, key)) {
+                keySchedule.lastUsed = useCount;
+                return keySchedule;
+            }
+            if (keySchedule.lastUsed < mKeySchedules[leastRecentlyUsed].lastUsed) {
+                leastRecentlyUsed = i;
+            }
+        }
+        final KeySchedule keySchedule = new KeySchedule(key);
+        keySchedule.lastUsed = useCount;
+        mKeySchedules[leastRecentlyUsed] = keySchedule;
+        return keySchedule;
+    }
+
+    /**
+     * Returns true if the key schedule of the given key is cached, without marking it as used
+     *
+     * @param key 128-bit key
+     */
+    @VisibleForTesting
+    boolean isKeyScheduleCached(@NonNull final byte[] key) {
+        for (KeySchedule keySchedule : mKeySchedules) {
+            if (keySchedule != null && Arrays.equals(keySchedule.key, key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * AES engines initialised with a single key
+     */
+    private static final class KeySchedule {
+        private final byte[] key;
+        private final KeyParameter keyParameter;
+        private final AESEngine aes = new AESEngine();
+        private CMac cmac;
+        private long lastUsed;
+
+        private KeySchedule(final byte[] key) {
+            if (key.length != BLOCK_SIZE) {
+                throw new IllegalArgumentException("Key must be " + BLOCK_SIZE + " bytes long");
+            }
+            this.key = key.clone();
+            keyParameter = new KeyParameter(this.key);
+            aes.init(true, keyParameter);
+        }
+
+        private CMac getCMac() {
+            if (cmac == null) {
+                cmac = new CMac(new AESEngine());
+                cmac.init(keyParameter);
+            }
+            return cmac;
+        }
+    }
+}
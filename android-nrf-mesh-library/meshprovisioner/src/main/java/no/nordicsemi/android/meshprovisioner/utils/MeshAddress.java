@@ -3,6 +3,7 @@ package no.nordicsemi.android.meshprovisioner.utils;
 import android.support.annotation.NonNull;
 
 import java.util.Locale;
+import java.util.UUID;
 
 /**
  * Abstract class for bluetooth mesh addresses
@@ -23,7 +24,7 @@ public final class MeshAddress {
     public static final int UNASSIGNED_ADDRESS = 0x0000;
     private static final int START_UNICAST_ADDRESS = 0x0001;
     private static final int END_UNICAST_ADDRESS = 0x7FFF;
-    private static final byte B1_VIRTUAL_ADDRESS = (byte) 0xBF;
+    private static final int START_VIRTUAL_ADDRESS = 0x8000;
     private static final int END_VIRTUAL_ADDRESS = 0xBFFF;
 
     public static boolean isAddressInRange(@NonNull final byte[] address) {
@@ -91,31 +92,58 @@ public final class MeshAddress {
     /**
      * Validates a virtual address
      *
-     * @param address Address in bytes
+     * @param address 16-bit address in big endian byte order, i.e. as sent over the air
      * @return true if the address is a valid virtual address or false otherwise
      */
-    public boolean isValidVirtualAddress(@NonNull final byte[] address) {
-        if (isAddressInRange(address)) {
+    public static boolean isVirtualAddress(@NonNull final byte[] address) {
+        if (address.length != 2) {
             return false;
         }
-        return isValidVirtualAddress(MeshParserUtils.unsignedBytesToInt(address[0], address[1]));
+        return isVirtualAddress(MeshParserUtils.unsignedBytesToInt(address[1], address[0]));
     }
 
     /**
-     * Validates a unicast address
+     * Validates a virtual address
      *
      * @param address 16-bit address
      * @return true if the address is a valid virtual address or false otherwise
      */
+    public static boolean isVirtualAddress(final int address) {
+        return address >= START_VIRTUAL_ADDRESS && address <= END_VIRTUAL_ADDRESS;
+    }
+
+    /**
+     * Validates a virtual address
+     *
+     * @param address 16-bit address in big endian byte order
+     * @return true if the address is a valid virtual address or false otherwise
+     * @deprecated use {@link #isVirtualAddress(byte[])} instead
+     */
+    @Deprecated
+    public boolean isValidVirtualAddress(@NonNull final byte[] address) {
+        return isVirtualAddress(address);
+    }
+
+    /**
+     * Validates a virtual address
+     *
+     * @param address 16-bit address
+     * @return true if the address is a valid virtual address or false otherwise
+     * @deprecated use {@link #isVirtualAddress(int)} instead
+     */
+    @Deprecated
     public boolean isValidVirtualAddress(final int address) {
-        if(isAddressInRange(address)) {
-            final byte [] tempAddress = new byte[]{(byte) ((address >> 8) & 0xFF), (byte) (address & 0xFF)};
-            final int b1 = tempAddress[0];
-            if(b1 == B1_VIRTUAL_ADDRESS) {
-                return address <= END_VIRTUAL_ADDRESS;
-            }
-        }
-        return false;
+        return isVirtualAddress(address);
+    }
+
+    /**
+     * Generates the virtual address of a Label UUID
+     *
+     * @param labelUuid Label UUID
+     * @return 16-bit virtual address
+     */
+    public static int generateVirtualAddress(@NonNull final UUID labelUuid) {
+        return SecureUtils.calculateVirtualAddress(MeshParserUtils.uuidToBytes(labelUuid));
     }
 
 
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner.utils;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+/**
+ * Logging facade used by the mesh stack.
+ * <p>
+ * Messages below the configured level are dropped before they are formatted, so the hex dumps of pdus and the formatting of
+ * addresses are only done when the level is enabled. The default level is {@link Log#INFO}, which keeps the per pdu verbose logs
+ * of the transport layers off. Key material is logged using {@link #vKey(String, String, byte[])} and is replaced with a placeholder
+ * while key redaction is enabled, which is the default.
+ * </p>
+ * <p>
+ * Log messages are written to {@link Log} unless a different {@link LogSink} is set using {@link #setLogSink(LogSink)}.
+ * </p>
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public final class MeshLogger {
+
+    private static final String REDACTED = "<redacted>";
+
+    private static final LogSink DEFAULT_SINK = new LogSink() {
+        @Override
+        public void log(final int priority, @NonNull final String tag, @NonNull final String message) {
+            Log.println(priority, tag, message);
+        }
+    };
+
+    private static volatile LogSink sLogSink = DEFAULT_SINK;
+    private static volatile int sLogLevel = Log.INFO;
+    private static volatile boolean sKeyRedactionEnabled = true;
+
+    /**
+     * Receives the log messages of the mesh stack
+     */
+    public interface LogSink {
+
+        /**
+         * Logs a message
+         *
+         * @param priority one of the {@link Log} priorities, i.e. {@link Log#VERBOSE} to {@link Log#ERROR}
+         * @param tag      tag of the class logging the message
+         * @param message  formatted message
+         */
+        void log(final int priority, @NonNull final String tag, @NonNull final String message);
+    }
+
+    private MeshLogger() {
+    }
+
+    /**
+     * Sets the sink log messages are written to
+     *
+     * @param logSink log sink or null to log to {@link Log}
+     */
+    public static void setLogSink(@Nullable final LogSink logSink) {
+        sLogSink = logSink == null ? DEFAULT_SINK : logSink;
+    }
+
+    /**
+     * Sets the minimum priority of the messages that are logged
+     *
+     * @param logLevel one of the {@link Log} priorities, {@link Log#ASSERT} turns logging off
+     */
+    public static void setLogLevel(final int logLevel) {
+        sLogLevel = logLevel;
+    }
+
+    /**
+     * Returns the minimum priority of the messages that are logged
+     */
+    public static int getLogLevel() {
+        return sLogLevel;
+    }
+
+    /**
+     * Enables or disables the redaction of key material in log messages. Keys should never be logged in production builds.
+     *
+     * @param enabled true to replace keys with a placeholder
+     */
+    public static void setKeyRedactionEnabled(final boolean enabled) {
+        sKeyRedactionEnabled = enabled;
+    }
+
+    /**
+     * Returns true if key material is replaced with a placeholder in log messages
+     */
+    public static boolean isKeyRedactionEnabled() {
+        return sKeyRedactionEnabled;
+    }
+
+    /**
+     * Returns true if messages with the given priority are logged.
+     * Use this to guard log statements that need more formatting than the overloads in this class provide.
+     *
+     * @param priority one of the {@link Log} priorities
+     */
+    public static boolean isLoggable(final int priority) {
+        return priority >= sLogLevel;
+    }
+
+    /**
+     * Returns true if verbose messages are logged
+     */
+    public static boolean isVerbose() {
+        return Log.VERBOSE >= sLogLevel;
+    }
+
+    public static void v(@NonNull final String tag, @NonNull final String message) {
+        if (isVerbose()) {
+            sLogSink.log(Log.VERBOSE, tag, message);
+        }
+    }
+
+    /**
+     * Logs a verbose message followed by a value, the message is only built if verbose logging is enabled
+     */
+    public static void v(@NonNull final String tag, @NonNull final String message, final long value) {
+        if (isVerbose()) {
+            sLogSink.log(Log.VERBOSE, tag, message + value);
+        }
+    }
+
+    /**
+     * Logs a verbose message followed by a value formatted as hex, the message is only built if verbose logging is enabled
+     */
+    public static void vHex(@NonNull final String tag, @NonNull final String message, final int value) {
+        if (isVerbose()) {
+            sLogSink.log(Log.VERBOSE, tag, message + Integer.toHexString(value));
+        }
+    }
+
+    /**
+     * Logs a verbose message followed by the hex dump of the data, the data is only formatted if verbose logging is enabled
+     */
+    public static void v(@NonNull final String tag, @NonNull final String message, @Nullable final byte[] data) {
+        if (isVerbose()) {
+            sLogSink.log(Log.VERBOSE, tag, message + MeshParserUtils.bytesToHex(data, false));
+        }
+    }
+
+    /**
+     * Logs a verbose message followed by the hex dump of a region of the data, the data is only formatted if verbose logging is enabled
+     */
+    public static void v(@NonNull final String tag, @NonNull final String message, @Nullable final byte[] data, final int offset, final int length) {
+        if (isVerbose()) {
+            sLogSink.log(Log.VERBOSE, tag, message + MeshParserUtils.bytesToHex(data, offset, length, false));
+        }
+    }
+
+    /**
+     * Logs a verbose message followed by a formatted 16-bit address, the address is only formatted if verbose logging is enabled
+     */
+    public static void vAddress(@NonNull final String tag, @NonNull final String message, final int address) {
+        if (isVerbose()) {
+            sLogSink.log(Log.VERBOSE, tag, message + MeshAddress.formatAddress(address, false));
+        }
+    }
+
+    /**
+     * Logs a verbose message followed by key material, the key is replaced with a placeholder if key redaction is enabled
+     */
+    public static void vKey(@NonNull final String tag, @NonNull final String message, @Nullable final byte[] key) {
+        if (isVerbose()) {
+            sLogSink.log(Log.VERBOSE, tag, message + (sKeyRedactionEnabled ? REDACTED : MeshParserUtils.bytesToHex(key, false)));
+        }
+    }
+
+    public static void d(@NonNull final String tag, @NonNull final String message) {
+        if (isLoggable(Log.DEBUG)) {
+            sLogSink.log(Log.DEBUG, tag, message);
+        }
+    }
+
+    public static void i(@NonNull final String tag, @NonNull final String message) {
+        if (isLoggable(Log.INFO)) {
+            sLogSink.log(Log.INFO, tag, message);
+        }
+    }
+
+    public static void w(@NonNull final String tag, @NonNull final String message) {
+        if (isLoggable(Log.WARN)) {
+            sLogSink.log(Log.WARN, tag, message);
+        }
+    }
+
+    public static void e(@NonNull final String tag, @NonNull final String message) {
+        if (isLoggable(Log.ERROR)) {
+            sLogSink.log(Log.ERROR, tag, message);
+        }
+    }
+}
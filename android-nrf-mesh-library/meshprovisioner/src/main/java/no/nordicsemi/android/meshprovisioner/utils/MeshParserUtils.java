@@ -31,6 +31,7 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.Calendar;
 import java.util.Random;
+import java.util.UUID;
 
 import no.nordicsemi.android.meshprovisioner.R;
 
@@ -92,6 +93,19 @@ public class MeshParserUtils {
         return "0x" + new String(hexChars);
     }
 
+    /**
+     * Converts a UUID to its 16-byte big endian representation
+     *
+     * @param uuid UUID
+     * @return 16-byte array
+     */
+    public static byte[] uuidToBytes(@NonNull final UUID uuid) {
+        return ByteBuffer.allocate(16).order(ByteOrder.BIG_ENDIAN)
+                .putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits())
+                .array();
+    }
+
     public static byte[] toByteArray(String hexString) {
         int len = hexString.length();
         byte[] bytes = new byte[len / 2];
@@ -419,6 +433,10 @@ public class MeshParserUtils {
         return ((sequenceNumber[1] & 0x1F) << 8) | (sequenceNumber[2] & 0xFF); // 13 least significant bits
     }
 
+    public static int calculateSeqZero(final int sequenceNumber) {
+        return sequenceNumber & 0x1FFF; // 13 least significant bits
+    }
+
     public static byte[] getSrcAddress(final byte[] pdu) {
         return ByteBuffer.allocate(2).put(pdu, 6, 2).array(); // get src address from pdu
     }
@@ -453,15 +471,28 @@ public class MeshParserUtils {
      * @return array of opcodes
      */
     public static int getOpCode(final byte[] accessPayload, final int opcodeCount) {
+        return getOpCode(accessPayload, 0, opcodeCount);
+    }
+
+    /**
+     * Returns the opcode of an access pdu starting at the given offset
+     *
+     * @param accessPayload buffer containing the access pdu
+     * @param offset        offset of the access pdu
+     * @param opcodeCount   length of the opcode
+     * @return opcode
+     */
+    public static int getOpCode(final byte[] accessPayload, final int offset, final int opcodeCount) {
         switch (opcodeCount) {
             case 1:
-                return accessPayload[0];
+                return accessPayload[offset];
             case 2:
-                return MeshParserUtils.unsignedBytesToInt(accessPayload[1], accessPayload[0]);
+                return MeshParserUtils.unsignedBytesToInt(accessPayload[offset + 1], accessPayload[offset]);
             case 3:
-                return ((byte) (MeshParserUtils.unsignedByteToInt(accessPayload[1]))
-                        | (byte) ((MeshParserUtils.unsignedByteToInt(accessPayload[0]) << 8)
-                        | (byte) ((MeshParserUtils.unsignedByteToInt(accessPayload[2]) << 16))));
+                //Vendor opcodes are returned as received, i.e. the opcode octet followed by the company identifier
+                return (MeshParserUtils.unsignedByteToInt(accessPayload[offset]) << 16)
+                        | (MeshParserUtils.unsignedByteToInt(accessPayload[offset + 1]) << 8)
+                        | MeshParserUtils.unsignedByteToInt(accessPayload[offset + 2]);
         }
         return -1;
     }
@@ -10,6 +10,7 @@ import com.google.gson.reflect.TypeToken;
 import java.lang.reflect.Type;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 
 import no.nordicsemi.android.meshprovisioner.AllocatedGroupRange;
 import no.nordicsemi.android.meshprovisioner.AllocatedSceneRange;
@@ -117,4 +118,30 @@ public class MeshTypeConverters {
         }.getType();
         return new Gson().fromJson(addressesJson, addresses);
     }
+
+    @TypeConverter
+    public byte[] replayProtectionListToBlob(final ReplayProtectionList replayProtectionList) {
+        if (replayProtectionList == null)
+            return null;
+        return replayProtectionList.toByteArray();
+    }
+
+    @TypeConverter
+    public ReplayProtectionList fromBlobToReplayProtectionList(final byte[] blob) {
+        return ReplayProtectionList.fromByteArray(blob);
+    }
+
+    @TypeConverter
+    public String uuidToString(final UUID uuid) {
+        if (uuid == null)
+            return null;
+        return uuid.toString();
+    }
+
+    @TypeConverter
+    public UUID fromStringToUuid(final String uuid) {
+        if (uuid == null)
+            return null;
+        return UUID.fromString(uuid);
+    }
 }
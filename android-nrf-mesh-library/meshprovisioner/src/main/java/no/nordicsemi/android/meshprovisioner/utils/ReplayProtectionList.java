@@ -0,0 +1,318 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner.utils;
+
+import android.support.annotation.Nullable;
+import android.support.annotation.RestrictTo;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Replay protection list of the provisioner.
+ * <p>
+ * For every element address messages are received from, the list stores the iv index and the sequence number of the last message that was
+ * accepted as well as the SeqAuth of the last segmented message. A message is a replay if its iv index is lower than the stored iv index, or if
+ * the iv index is the same and its sequence number is not greater than the stored sequence number. Replayed messages must be rejected before
+ * the upper transport pdu is decrypted.
+ * </p>
+ * <p>
+ * Entries are kept in an open addressing table of primitive arrays keyed by the element address, so lookups take constant time and do not
+ * allocate. The table grows as the number of elements in the network grows. The list is persisted as a compact byte array.
+ * </p>
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY)
+public final class ReplayProtectionList {
+
+    private static final int DEFAULT_CAPACITY = 64;
+    private static final int EMPTY = 0; //Unassigned address, never the source of a message
+    private static final long NO_SEQ_AUTH = -1;
+    private static final byte FORMAT_VERSION = 1;
+    private static final int HEADER_LENGTH = 1 + 4; //Format version and the number of entries
+    private static final int ENTRY_LENGTH = 2 + 4 + 3 + 8; //Address, iv index, sequence number and SeqAuth
+
+    private int[] mAddresses;
+    private int[] mIvIndexes;
+    private int[] mSequenceNumbers;
+    private long[] mSeqAuths;
+    private int mSize;
+    private boolean mModified;
+
+    public ReplayProtectionList() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructs a replay protection list
+     *
+     * @param expectedEntries number of element addresses the list is expected to hold
+     */
+    public ReplayProtectionList(final int expectedEntries) {
+        allocate(tableSizeFor(expectedEntries));
+    }
+
+    /**
+     * Returns the number of element addresses in the list
+     */
+    public synchronized int size() {
+        return mSize;
+    }
+
+    /**
+     * Checks if a received message is a replay of a message that was already accepted
+     *
+     * @param src            element address the message was received from
+     * @param ivIndex        iv index the message was received with
+     * @param sequenceNumber sequence number of the message
+     * @return true if the message must be rejected
+     */
+    public synchronized boolean isReplay(final int src, final int ivIndex, final int sequenceNumber) {
+        final int index = indexOf(src);
+        if (index < 0)
+            return false;
+        final int storedIvIndex = mIvIndexes[index];
+        if (ivIndex != storedIvIndex) {
+            //Iv index never decrements, so compare as unsigned
+            return (ivIndex & 0xFFFFFFFFL) < (storedIvIndex & 0xFFFFFFFFL);
+        }
+        return sequenceNumber <= mSequenceNumbers[index];
+    }
+
+    /**
+     * Records the iv index and sequence number of a message that was accepted
+     *
+     * @param src            element address the message was received from
+     * @param ivIndex        iv index the message was received with
+     * @param sequenceNumber sequence number of the message
+     */
+    public synchronized void update(final int src, final int ivIndex, final int sequenceNumber) {
+        final int index = insert(src);
+        mIvIndexes[index] = ivIndex;
+        mSequenceNumbers[index] = sequenceNumber;
+        mModified = true;
+    }
+
+    /**
+     * Returns the SeqAuth of the last segmented message received from an element address
+     *
+     * @param src element address
+     * @return SeqAuth or -1 if no segmented message has been received from the address
+     */
+    public synchronized long getSeqAuth(final int src) {
+        final int index = indexOf(src);
+        return index < 0 ? NO_SEQ_AUTH : mSeqAuths[index];
+    }
+
+    /**
+     * Records the SeqAuth of a segmented message received from an element address
+     *
+     * @param src     element address
+     * @param seqAuth SeqAuth of the segmented message, see {@link #calculateSeqAuth(int, int)}
+     */
+    public synchronized void setSeqAuth(final int src, final long seqAuth) {
+        final int index = insert(src);
+        mSeqAuths[index] = seqAuth;
+        mModified = true;
+    }
+
+    /**
+     * Removes an element address from the list, i.e. when a node is reset and its addresses may be assigned again
+     *
+     * @param src element address
+     */
+    public synchronized void remove(final int src) {
+        int index = indexOf(src);
+        if (index < 0)
+            return;
+        final int mask = mAddresses.length - 1;
+        //Shift back the entries that follow in the same probe sequence so that lookups never stop at the removed slot
+        int next = (index + 1) & mask;
+        while (mAddresses[next] != EMPTY) {
+            final int home = hash(mAddresses[next]) & mask;
+            if (((next - home) & mask) >= ((next - index) & mask)) {
+                moveEntry(next, index);
+                index = next;
+            }
+            next = (next + 1) & mask;
+        }
+        mAddresses[index] = EMPTY;
+        mSize--;
+        mModified = true;
+    }
+
+    /**
+     * Returns true if the list was modified since it was last serialized
+     */
+    public synchronized boolean isModified() {
+        return mModified;
+    }
+
+    /**
+     * Calculates the SeqAuth of a segmented message, which is the iv index followed by the sequence number of the first segment
+     *
+     * @param ivIndex        iv index the message was received with
+     * @param sequenceNumber 24-bit sequence number derived from the SeqZero of the message
+     */
+    public static long calculateSeqAuth(final int ivIndex, final int sequenceNumber) {
+        return ((ivIndex & 0xFFFFFFFFL) << 24) | (sequenceNumber & 0xFFFFFF);
+    }
+
+    /**
+     * Serializes the list
+     *
+     * @return a byte array containing the entries of the list
+     */
+    public synchronized byte[] toByteArray() {
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + (mSize * ENTRY_LENGTH)).order(ByteOrder.BIG_ENDIAN);
+        buffer.put(FORMAT_VERSION);
+        buffer.putInt(mSize);
+        for (int i = 0; i < mAddresses.length; i++) {
+            if (mAddresses[i] != EMPTY) {
+                buffer.putShort((short) mAddresses[i]);
+                buffer.putInt(mIvIndexes[i]);
+                final int sequenceNumber = mSequenceNumbers[i];
+                buffer.put((byte) (sequenceNumber >> 16));
+                buffer.put((byte) (sequenceNumber >> 8));
+                buffer.put((byte) sequenceNumber);
+                buffer.putLong(mSeqAuths[i]);
+            }
+        }
+        mModified = false;
+        return buffer.array();
+    }
+
+    /**
+     * Restores a list that was serialized with {@link #toByteArray()}
+     *
+     * @param data serialized list
+     * @return the restored list or an empty list if the data is null or invalid
+     */
+    public static ReplayProtectionList fromByteArray(@Nullable final byte[] data) {
+        if (data == null || data.length < HEADER_LENGTH || data[0] != FORMAT_VERSION)
+            return new ReplayProtectionList();
+        final ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.BIG_ENDIAN);
+        buffer.get();
+        final int size = buffer.getInt();
+        if (size < 0 || data.length != HEADER_LENGTH + (size * ENTRY_LENGTH))
+            return new ReplayProtectionList();
+
+        final ReplayProtectionList list = new ReplayProtectionList(Math.max(size, DEFAULT_CAPACITY));
+        for (int i = 0; i < size; i++) {
+            final int src = buffer.getShort() & 0xFFFF;
+            final int ivIndex = buffer.getInt();
+            final int sequenceNumber = ((buffer.get() & 0xFF) << 16) | ((buffer.get() & 0xFF) << 8) | (buffer.get() & 0xFF);
+            final long seqAuth = buffer.getLong();
+            final int index = list.insert(src);
+            list.mIvIndexes[index] = ivIndex;
+            list.mSequenceNumbers[index] = sequenceNumber;
+            list.mSeqAuths[index] = seqAuth;
+        }
+        return list;
+    }
+
+    private int indexOf(final int src) {
+        final int mask = mAddresses.length - 1;
+        int index = hash(src) & mask;
+        while (mAddresses[index] != EMPTY) {
+            if (mAddresses[index] == src)
+                return index;
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index of an address, inserting a new entry if the address is not in the list
+     */
+    private int insert(final int src) {
+        if (src == EMPTY)
+            throw new IllegalArgumentException("Unassigned address can not be added to the replay protection list");
+        int mask = mAddresses.length - 1;
+        int index = hash(src) & mask;
+        while (mAddresses[index] != EMPTY) {
+            if (mAddresses[index] == src)
+                return index;
+            index = (index + 1) & mask;
+        }
+        //Keep the load factor at or below 0.5 so that probe sequences stay short
+        if ((mSize + 1) * 2 > mAddresses.length) {
+            resize(mAddresses.length * 2);
+            mask = mAddresses.length - 1;
+            index = hash(src) & mask;
+            while (mAddresses[index] != EMPTY) {
+                index = (index + 1) & mask;
+            }
+        }
+        mAddresses[index] = src;
+        mIvIndexes[index] = 0;
+        mSequenceNumbers[index] = -1;
+        mSeqAuths[index] = NO_SEQ_AUTH;
+        mSize++;
+        return index;
+    }
+
+    private void resize(final int capacity) {
+        final int[] addresses = mAddresses;
+        final int[] ivIndexes = mIvIndexes;
+        final int[] sequenceNumbers = mSequenceNumbers;
+        final long[] seqAuths = mSeqAuths;
+        allocate(capacity);
+        final int mask = capacity - 1;
+        for (int i = 0; i < addresses.length; i++) {
+            if (addresses[i] != EMPTY) {
+                int index = hash(addresses[i]) & mask;
+                while (mAddresses[index] != EMPTY) {
+                    index = (index + 1) & mask;
+                }
+                mAddresses[index] = addresses[i];
+                mIvIndexes[index] = ivIndexes[i];
+                mSequenceNumbers[index] = sequenceNumbers[i];
+                mSeqAuths[index] = seqAuths[i];
+            }
+        }
+    }
+
+    private void allocate(final int capacity) {
+        mAddresses = new int[capacity];
+        mIvIndexes = new int[capacity];
+        mSequenceNumbers = new int[capacity];
+        mSeqAuths = new long[capacity];
+    }
+
+    private void moveEntry(final int from, final int to) {
+        mAddresses[to] = mAddresses[from];
+        mIvIndexes[to] = mIvIndexes[from];
+        mSequenceNumbers[to] = mSequenceNumbers[from];
+        mSeqAuths[to] = mSeqAuths[from];
+    }
+
+    private static int hash(final int src) {
+        final int h = src * 0x9E3779B1;
+        return h ^ (h >>> 16);
+    }
+
+    private static int tableSizeFor(final int expectedEntries) {
+        int capacity = Integer.highestOneBit(Math.max(expectedEntries, 1) * 2 - 1) << 1;
+        return Math.max(capacity, 4);
+    }
+}
@@ -25,7 +25,6 @@ package no.nordicsemi.android.meshprovisioner.utils;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.support.annotation.NonNull;
-import android.util.Log;
 
 import com.google.gson.annotations.Expose;
 
@@ -33,10 +32,7 @@ import org.spongycastle.crypto.BlockCipher;
 import org.spongycastle.crypto.CipherParameters;
 import org.spongycastle.crypto.InvalidCipherTextException;
 import org.spongycastle.crypto.engines.AESEngine;
-import org.spongycastle.crypto.engines.AESLightEngine;
 import org.spongycastle.crypto.macs.CMac;
-import org.spongycastle.crypto.modes.CCMBlockCipher;
-import org.spongycastle.crypto.params.AEADParameters;
 import org.spongycastle.crypto.params.KeyParameter;
 
 import java.nio.ByteBuffer;
@@ -110,6 +106,10 @@ public class SecureUtils {
      * Salt input for beacon key
      */
     private static final byte[] NKBK = "nkbk".getBytes(Charset.forName("US-ASCII"));
+    /**
+     * Salt input for virtual addresses
+     */
+    private static final byte[] VTAD = "vtad".getBytes(Charset.forName("US-ASCII"));
     /**
      * Salt input for identity key
      */
@@ -141,6 +141,17 @@ public class SecureUtils {
         return calculateCMAC(data, SALT_KEY);
     }
 
+    /**
+     * Calculates the AES-CMAC of the given data.
+     * <p>
+     * This is meant for key derivation where every intermediate key is used only once, hence the key schedule is not cached.
+     * Use {@link #calculateCMAC(byte[], byte[], int, int, byte[], int)} for keys that are used repeatedly.
+     * </p>
+     *
+     * @param data data
+     * @param key  128-bit key
+     * @return 16-byte mac
+     */
     public static byte[] calculateCMAC(final byte[] data, final byte[] key) {
         final byte[] cmac = new byte[16];
 
@@ -154,33 +165,73 @@ public class SecureUtils {
         return cmac;
     }
 
+    /**
+     * Calculates the AES-CMAC of the given data into a caller supplied buffer using the cached key schedule of the calling thread
+     *
+     * @param key    128-bit key
+     * @param data   buffer containing the data
+     * @param offset offset of the data
+     * @param length length of the data
+     * @param out    buffer the 16-byte mac is written to
+     * @param outOff offset in the output buffer
+     */
+    public static void calculateCMAC(final byte[] key, final byte[] data, final int offset, final int length, final byte[] out, final int outOff) {
+        CryptoContext.get().calculateCMAC(key, data, offset, length, out, outOff);
+    }
+
     public static byte[] encryptCCM(final byte[] data, final byte[] key, final byte[] nonce, final int micSize) {
         final byte[] ccm = new byte[data.length + micSize];
-
-        final CCMBlockCipher ccmBlockCipher = new CCMBlockCipher(new AESEngine());
-        final AEADParameters aeadParameters = new AEADParameters(new KeyParameter(key), micSize * 8, nonce);
-        ccmBlockCipher.init(true, aeadParameters);
-        ccmBlockCipher.processBytes(data, 0, data.length, ccm, data.length);
-        try {
-            ccmBlockCipher.doFinal(ccm, 0);
-            return ccm;
-        } catch (InvalidCipherTextException e) {
-            Log.e(TAG, "Error wile encrypting: " + e.getMessage());
-            return null;
-        }
+        encryptCCM(key, nonce, micSize, data, 0, data.length, ccm, 0);
+        return ccm;
     }
 
     public static byte[] decryptCCM(final byte[] data, final byte[] key, final byte[] nonce, final int micSize) throws InvalidCipherTextException {
+        if (data.length < micSize)
+            throw new InvalidCipherTextException("data too short");
         final byte[] ccm = new byte[data.length - micSize];
-
-        final CCMBlockCipher ccmBlockCipher = new CCMBlockCipher(new AESEngine());
-        final AEADParameters aeadParameters = new AEADParameters(new KeyParameter(key), micSize * 8, nonce);
-        ccmBlockCipher.init(false, aeadParameters);
-        ccmBlockCipher.processBytes(data, 0, data.length, ccm, 0);
-        ccmBlockCipher.doFinal(ccm, 0);
+        decryptCCM(key, nonce, micSize, data, 0, data.length, ccm, 0);
         return ccm;
     }
 
+    /**
+     * Encrypts data using AES-CCM into a caller supplied buffer
+     *
+     * @param key     128-bit key
+     * @param nonce   13-byte nonce
+     * @param micSize size of the message integrity check in bytes
+     * @param data    buffer containing the plain text
+     * @param offset  offset of the plain text
+     * @param length  length of the plain text
+     * @param out     buffer the cipher text followed by the mic is written to
+     * @param outOff  offset in the output buffer
+     * @return number of bytes written
+     */
+    public static int encryptCCM(final byte[] key, final byte[] nonce, final int micSize,
+                                 final byte[] data, final int offset, final int length,
+                                 final byte[] out, final int outOff) {
+        return CryptoContext.get().encryptCCM(key, nonce, micSize, null, data, offset, length, out, outOff);
+    }
+
+    /**
+     * Decrypts data using AES-CCM into a caller supplied buffer
+     *
+     * @param key     128-bit key
+     * @param nonce   13-byte nonce
+     * @param micSize size of the message integrity check in bytes
+     * @param data    buffer containing the cipher text followed by the mic
+     * @param offset  offset of the cipher text
+     * @param length  length of the cipher text including the mic
+     * @param out     buffer the plain text is written to
+     * @param outOff  offset in the output buffer
+     * @return number of bytes written
+     * @throws InvalidCipherTextException if the mic check fails
+     */
+    public static int decryptCCM(final byte[] key, final byte[] nonce, final int micSize,
+                                 final byte[] data, final int offset, final int length,
+                                 final byte[] out, final int outOff) throws InvalidCipherTextException {
+        return CryptoContext.get().decryptCCM(key, nonce, micSize, null, data, offset, length, out, outOff);
+    }
+
     public static byte[] calculateK1(final byte[] ecdh, final byte[] confirmationSalt, final byte[] text) {
         return calculateCMAC(text, calculateCMAC(ecdh, confirmationSalt));
     }
@@ -267,6 +318,21 @@ public class SecureUtils {
         return (byte) ((result[15]) & 0x3F);
     }
 
+    /**
+     * Calculates the virtual address of a Label UUID.
+     * <p>
+     * The 14 least significant bits of the virtual address are the hash of the Label UUID, AES-CMAC(s1("vtad"), Label UUID) mod 2^14.
+     * </p>
+     *
+     * @param labelUuid 16-byte Label UUID
+     * @return 16-bit virtual address
+     */
+    public static int calculateVirtualAddress(@NonNull final byte[] labelUuid) {
+        final byte[] salt = calculateSalt(VTAD);
+        final byte[] hash = calculateCMAC(labelUuid, salt);
+        return 0x8000 | ((((hash[14] & 0xFF) << 8) | (hash[15] & 0xFF)) & 0x3FFF);
+    }
+
     /**
      * Calculates the identity key
      *
@@ -370,14 +436,23 @@ public class SecureUtils {
 
     public static byte[] encryptWithAES(final byte[] data, final byte[] key) {
         final byte[] encrypted = new byte[data.length];
-        final CipherParameters cipherParameters = new KeyParameter(key);
-        final AESLightEngine engine = new AESLightEngine();
-        engine.init(true, cipherParameters);
-        engine.processBlock(data, 0, encrypted, 0);
-
+        encryptWithAES(key, data, 0, encrypted, 0);
         return encrypted;
     }
 
+    /**
+     * Encrypts a single 16-byte block using AES-ECB into a caller supplied buffer
+     *
+     * @param key    128-bit key
+     * @param data   buffer containing the block
+     * @param offset offset of the block
+     * @param out    buffer the encrypted block is written to
+     * @param outOff offset in the output buffer
+     */
+    public static void encryptWithAES(final byte[] key, final byte[] data, final int offset, final byte[] out, final int outOff) {
+        CryptoContext.get().encryptBlock(key, data, offset, out, outOff);
+    }
+
     public static int getNetMicLength(final int ctl) {
         if (ctl == 0) {
             return 4; //length;
@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import no.nordicsemi.android.meshprovisioner.transport.AccessMessage;
+import no.nordicsemi.android.meshprovisioner.transport.ApplicationKey;
+import no.nordicsemi.android.meshprovisioner.transport.ConfigAppKeyAdd;
+import no.nordicsemi.android.meshprovisioner.transport.ConfigAppKeyStatus;
+import no.nordicsemi.android.meshprovisioner.transport.ConfigCompositionDataGet;
+import no.nordicsemi.android.meshprovisioner.transport.ConfigRelayGet;
+import no.nordicsemi.android.meshprovisioner.transport.ConfigStatusMessage;
+import no.nordicsemi.android.meshprovisioner.transport.MeshMessage;
+import no.nordicsemi.android.meshprovisioner.transport.MeshTransaction;
+import no.nordicsemi.android.meshprovisioner.transport.MeshTransactionCallback;
+import no.nordicsemi.android.meshprovisioner.transport.NetworkKey;
+import no.nordicsemi.android.meshprovisioner.transport.ProvisionedMeshNode;
+import no.nordicsemi.android.meshprovisioner.utils.MeshParserUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the order, retries and failures of the steps of a configuration plan.
+ */
+public class ConfigurationPlanExecutionTests {
+
+    private static final int NODE_1 = 0x0010;
+    private static final int NODE_2 = 0x0020;
+    private static final int STATUS_INVALID_NET_KEY_INDEX = 0x04;
+
+    private final List<SentStep> mSent = new ArrayList<>();
+    private final List<String> mEvents = new ArrayList<>();
+    private final MeshNetwork mMeshNetwork = new MeshNetwork("mesh");
+    private final ConfigurationPlan mPlan = new ConfigurationPlan();
+    private final NetworkKey mNetworkKey = new NetworkKey(0, MeshParserUtils.toByteArray("7dd7364cd842ad18c17c2b820c84c3d6"));
+    private final ConfigurationPlanCallbacks mCallbacks = new ConfigurationPlanCallbacks() {
+        @Override
+        public void onNodeConfigurationProgress(final int unicastAddress, final int completedSteps, final int totalSteps) {
+            mEvents.add("progress " + unicastAddress + " " + completedSteps + "/" + totalSteps);
+        }
+
+        @Override
+        public void onNodeConfigured(final int unicastAddress) {
+            mEvents.add("configured " + unicastAddress);
+        }
+
+        @Override
+        public void onNodeConfigurationFailed(final int unicastAddress, @NonNull final MeshMessage meshMessage, @Nullable final MeshMessage response) {
+            mEvents.add("failed " + unicastAddress + (response == null ? "" : " rejected"));
+        }
+
+        @Override
+        public void onConfigurationPlanCompleted(final int configuredNodes, final int failedNodes, final int cancelledNodes) {
+            mEvents.add("completed " + configuredNodes + " " + failedNodes + " " + cancelledNodes);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        mMeshNetwork.setNodes(new ArrayList<>(Arrays.asList(createNode(NODE_1), createNode(NODE_2))));
+        mPlan.addAppKey(mNetworkKey, new ApplicationKey(0, MeshParserUtils.toByteArray("63964771734fbd76e3b40519d1d94a48")));
+        mPlan.addAppKey(mNetworkKey, new ApplicationKey(1, MeshParserUtils.toByteArray("3216d1509884b533248541792b877f98")));
+    }
+
+    @Test
+    public void steps_sentOneAtATimePerNodeInPlanOrder() {
+        final ConfigurationPlanExecution execution = execute(NODE_1, NODE_2);
+        // The nodes are configured concurrently, each starting with the composition data
+        assertEquals(2, mSent.size());
+        assertTrue(mSent.get(0).message instanceof ConfigCompositionDataGet);
+        assertTrue(mSent.get(1).message instanceof ConfigCompositionDataGet);
+
+        respond(0, new ConfigRelayGet());
+        assertEquals(3, mSent.size());
+        assertEquals(NODE_1, mSent.get(2).dst);
+        assertSame(mPlan.getAppKeys().get(0).appKey, ((ConfigAppKeyAdd) mSent.get(2).message).getAppKey());
+
+        respond(2, new ConfigRelayGet());
+        assertSame(mPlan.getAppKeys().get(1).appKey, ((ConfigAppKeyAdd) mSent.get(3).message).getAppKey());
+        respond(3, new ConfigRelayGet());
+        assertEquals("progress 16 3/3", mEvents.get(mEvents.size() - 2));
+        assertEquals("configured 16", mEvents.get(mEvents.size() - 1));
+        assertFalse(execution.isDone());
+
+        respond(1, new ConfigRelayGet());
+        respond(4, new ConfigRelayGet());
+        respond(5, new ConfigRelayGet());
+        assertTrue(execution.isDone());
+        assertEquals(2, execution.getConfiguredNodeCount());
+        assertEquals("completed 2 0 0", mEvents.get(mEvents.size() - 1));
+    }
+
+    @Test
+    public void timedOutStep_retriedUntilRetryLimit() {
+        mPlan.setMaxRetries(2);
+        final ConfigurationPlanExecution execution = execute(NODE_1);
+
+        fail(0, MeshTransaction.FAILURE_TIMEOUT);
+        fail(1, MeshTransaction.FAILURE_TIMEOUT);
+        assertEquals(3, mSent.size());
+        assertSame(mSent.get(0).message, mSent.get(2).message);
+
+        // A retried step that succeeds continues with the next step
+        respond(2, new ConfigRelayGet());
+        assertTrue(mSent.get(3).message instanceof ConfigAppKeyAdd);
+
+        fail(3, MeshTransaction.FAILURE_TIMEOUT);
+        fail(4, MeshTransaction.FAILURE_TIMEOUT);
+        fail(5, MeshTransaction.FAILURE_TIMEOUT);
+        assertEquals(6, mSent.size());
+        assertEquals("failed 16", mEvents.get(mEvents.size() - 2));
+        assertEquals("completed 0 1 0", mEvents.get(mEvents.size() - 1));
+        assertEquals(1, execution.getFailedNodeCount());
+    }
+
+    @Test
+    public void rejectedStep_failsOnlyThatNode() {
+        final ConfigurationPlanExecution execution = execute(NODE_1, NODE_2);
+        respond(0, new ConfigRelayGet());
+        respond(2, createAppKeyStatus(STATUS_INVALID_NET_KEY_INDEX));
+        assertEquals("failed 16 rejected", mEvents.get(mEvents.size() - 1));
+        assertEquals(3, mSent.size());
+
+        respond(1, new ConfigRelayGet());
+        // An application key that is already stored on the node is accepted
+        respond(3, createAppKeyStatus(ConfigStatusMessage.StatusCodeNames.KEY_INDEX_ALREADY_STORED.getStatusCode()));
+        respond(4, new ConfigRelayGet());
+        assertTrue(execution.isDone());
+        assertEquals("completed 1 1 0", mEvents.get(mEvents.size() - 1));
+    }
+
+    @Test
+    public void cancel_reportsCancelledNodes() {
+        final ConfigurationPlanExecution execution = execute(NODE_1, NODE_2);
+        respond(0, new ConfigRelayGet());
+        respond(2, new ConfigRelayGet());
+        respond(3, new ConfigRelayGet());
+
+        execution.cancel();
+        assertTrue(execution.isDone());
+        assertEquals("completed 1 0 1", mEvents.get(mEvents.size() - 1));
+
+        // Responses received after cancelling are ignored and the result is reported only once
+        final int events = mEvents.size();
+        respond(1, new ConfigRelayGet());
+        execution.cancel();
+        assertEquals(events, mEvents.size());
+        assertEquals(4, mSent.size());
+    }
+
+    @Test
+    public void emptyPlanExecution_completesImmediately() {
+        final ConfigurationPlanExecution execution = execute();
+        assertTrue(execution.isDone());
+        assertEquals(Collections.singletonList("completed 0 0 0"), mEvents);
+    }
+
+    private ConfigurationPlanExecution execute(final int... addresses) {
+        final List<ProvisionedMeshNode> nodes = new ArrayList<>();
+        for (int address : addresses) {
+            nodes.add(mMeshNetwork.getProvisionedNode(address));
+        }
+        final ConfigurationPlanExecution execution = new ConfigurationPlanExecution((dst, meshMessage, callback) -> {
+            mSent.add(new SentStep(dst, meshMessage, callback));
+            return null;
+        }, mMeshNetwork, mPlan, nodes, mCallbacks);
+        execution.start();
+        return execution;
+    }
+
+    private void respond(final int step, final MeshMessage response) {
+        final SentStep sentStep = mSent.get(step);
+        sentStep.callback.onTransactionCompleted(sentStep.dst, response);
+    }
+
+    private void fail(final int step, final int reason) {
+        final SentStep sentStep = mSent.get(step);
+        sentStep.callback.onTransactionFailed(sentStep.dst, reason);
+    }
+
+    private static ProvisionedMeshNode createNode(final int unicastAddress) {
+        final ProvisionedMeshNode node = new ProvisionedMeshNode();
+        node.setUnicastAddress(unicastAddress);
+        return node;
+    }
+
+    private static ConfigAppKeyStatus createAppKeyStatus(final int statusCode) {
+        final AccessMessage message = new AccessMessage();
+        message.setParameters(new byte[]{(byte) statusCode, 0x00, 0x00, 0x00});
+        return new ConfigAppKeyStatus(message);
+    }
+
+    private static final class SentStep {
+        final int dst;
+        final MeshMessage message;
+        final MeshTransactionCallback callback;
+
+        SentStep(final int dst, final MeshMessage message, final MeshTransactionCallback callback) {
+            this.dst = dst;
+            this.message = message;
+            this.callback = callback;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for choosing the destinations of a group fan-out.
+ */
+public class GroupFanOutPlannerTests {
+
+    private static Set<Integer> targets(final Integer... addresses) {
+        return new HashSet<>(Arrays.asList(addresses));
+    }
+
+    @Test
+    public void group_coveringOnlyTargets_replacesUnicasts() {
+        final Map<Integer, List<Integer>> subscriptions = new HashMap<>();
+        subscriptions.put(0x0002, Collections.singletonList(0xC000));
+        subscriptions.put(0x0004, Collections.singletonList(0xC000));
+        subscriptions.put(0x0006, Collections.singletonList(0xC000));
+
+        assertEquals(Collections.singletonList(0xC000), GroupFanOutPlanner.planDestinations(targets(0x0002, 0x0004, 0x0006), subscriptions));
+    }
+
+    @Test
+    public void group_withSubscriberOutsideTargets_isNotUsed() {
+        final Map<Integer, List<Integer>> subscriptions = new HashMap<>();
+        subscriptions.put(0x0002, Collections.singletonList(0xC000));
+        subscriptions.put(0x0004, Collections.singletonList(0xC000));
+        subscriptions.put(0x0008, Collections.singletonList(0xC000));
+
+        assertEquals(Arrays.asList(0x0002, 0x0004), GroupFanOutPlanner.planDestinations(targets(0x0002, 0x0004), subscriptions));
+    }
+
+    @Test
+    public void largestGroups_arePickedFirst_andRemainingTargetsAreUnicast() {
+        final Map<Integer, List<Integer>> subscriptions = new HashMap<>();
+        subscriptions.put(0x0002, Arrays.asList(0xC000, 0xC001));
+        subscriptions.put(0x0004, Arrays.asList(0xC000, 0xC001));
+        subscriptions.put(0x0006, Collections.singletonList(0xC001));
+        subscriptions.put(0x0008, Collections.singletonList(0xC002));
+        subscriptions.put(0x000A, Collections.singletonList(0xC003));
+        subscriptions.put(0x000C, Collections.singletonList(0xC003));
+
+        assertEquals(Arrays.asList(0xC001, 0xC003, 0x0008),
+                GroupFanOutPlanner.planDestinations(targets(0x0002, 0x0004, 0x0006, 0x0008, 0x000A, 0x000C), subscriptions));
+    }
+
+    @Test
+    public void virtual_subscriptions_areIgnored() {
+        final Map<Integer, List<Integer>> subscriptions = new HashMap<>();
+        subscriptions.put(0x0002, Collections.singletonList(0xB529));
+        subscriptions.put(0x0004, Collections.singletonList(0xB529));
+
+        assertEquals(Arrays.asList(0x0002, 0x0004), GroupFanOutPlanner.planDestinations(targets(0x0002, 0x0004), subscriptions));
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner;
+
+import android.content.ComponentCallbacks2;
+import android.os.Handler;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import no.nordicsemi.android.meshprovisioner.data.MeshNetworkDao;
+import no.nordicsemi.android.meshprovisioner.data.ProvisionedMeshNodeDao;
+import no.nordicsemi.android.meshprovisioner.data.ProvisionerDao;
+import no.nordicsemi.android.meshprovisioner.transport.ProvisionedMeshNode;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Tests for the write-behind persistence of the mesh network.
+ */
+public class MeshNetworkWriterTests {
+
+    @Rule
+    public MockitoRule rule = MockitoJUnit.rule();
+
+    @Mock
+    MeshNetworkDb meshNetworkDb;
+
+    @Mock
+    MeshNetworkDao meshNetworkDao;
+
+    @Mock
+    ProvisionerDao provisionerDao;
+
+    @Mock
+    ProvisionedMeshNodeDao provisionedNodeDao;
+
+    @Mock
+    Handler handler;
+
+    private MeshNetworkWriter mWriter;
+
+    @Before
+    public void setUp() {
+        mWriter = new MeshNetworkWriter(meshNetworkDb, meshNetworkDao, provisionerDao, provisionedNodeDao, handler);
+    }
+
+    @Test
+    public void updates_areWritten_whenTheFlushIntervalElapses() {
+        mWriter.setFlushInterval(500);
+        final ProvisionedMeshNode first = createNode(0x0002);
+        final ProvisionedMeshNode second = createNode(0x0003);
+        mWriter.markNodeDirty(first);
+        mWriter.markNodeDirty(second);
+
+        //A single flush is scheduled for all updates within the interval
+        final ArgumentCaptor<Runnable> flush = ArgumentCaptor.forClass(Runnable.class);
+        verify(handler, times(1)).postDelayed(flush.capture(), eq(500L));
+        verifyNotWritten();
+
+        flush.getValue().run();
+        assertEquals(Arrays.asList(first, second), captureWrittenNodes());
+    }
+
+    @Test
+    public void updates_areWritten_whenTheBatchSizeIsReached() {
+        mWriter.setBatchSize(3);
+        final ProvisionedMeshNode first = createNode(0x0002);
+        final ProvisionedMeshNode second = createNode(0x0003);
+        final ProvisionedMeshNode third = createNode(0x0004);
+        mWriter.markNodeDirty(first);
+        mWriter.markNodeDirty(second);
+        verifyNotWritten();
+
+        mWriter.markNodeDirty(third);
+        assertEquals(Arrays.asList(first, second, third), captureWrittenNodes());
+    }
+
+    @Test
+    public void updates_ofTheSameNode_areWrittenOnce() {
+        final ProvisionedMeshNode node = createNode(0x0002);
+        mWriter.markNodeDirty(node);
+        mWriter.markNodeDirty(node);
+        mWriter.markNodeDirty(node);
+        mWriter.flush();
+
+        assertEquals(Collections.singletonList(node), captureWrittenNodes());
+    }
+
+    @Test
+    public void discardedNode_isNotWritten() {
+        final ProvisionedMeshNode deleted = createNode(0x0002);
+        final ProvisionedMeshNode node = createNode(0x0003);
+        mWriter.markNodeDirty(deleted);
+        mWriter.markNodeDirty(node);
+        mWriter.discardNode(deleted.getUnicastAddress());
+        mWriter.flush();
+
+        assertEquals(Collections.singletonList(node), captureWrittenNodes());
+    }
+
+    @Test
+    public void flush_withOnlyDiscardedNodes_writesNothing() {
+        final ProvisionedMeshNode deleted = createNode(0x0002);
+        mWriter.markNodeDirty(deleted);
+        mWriter.discardNode(deleted.getUnicastAddress());
+        mWriter.flush();
+
+        verifyNotWritten();
+    }
+
+    @Test
+    public void updates_areWritten_whenTheApplicationIsHidden() {
+        final ProvisionedMeshNode node = createNode(0x0002);
+        mWriter.markNodeDirty(node);
+        mWriter.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        verifyNotWritten();
+
+        mWriter.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        assertEquals(Collections.singletonList(node), captureWrittenNodes());
+    }
+
+    private ProvisionedMeshNode createNode(final int unicastAddress) {
+        final ProvisionedMeshNode node = new ProvisionedMeshNode();
+        node.setUnicastAddress(unicastAddress);
+        return node;
+    }
+
+    private void verifyNotWritten() {
+        verify(meshNetworkDb, never()).updateNetwork(any(), any(), any(), anyList(), any(), any());
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<ProvisionedMeshNode> captureWrittenNodes() {
+        final ArgumentCaptor<List> nodes = ArgumentCaptor.forClass(List.class);
+        verify(meshNetworkDb, times(1)).updateNetwork(eq(meshNetworkDao), eq(provisionerDao), eq(provisionedNodeDao), nodes.capture(), any(), any());
+        return nodes.getValue();
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner;
+
+import android.os.Handler;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Tests for the retransmissions of an unacknowledged message sent to a set of elements.
+ */
+public class MeshRetransmissionTests {
+
+    @Rule
+    public MockitoRule rule = MockitoJUnit.rule();
+
+    @Mock
+    Handler handler;
+
+    private final List<MeshRetransmission> mPending = new ArrayList<>();
+    private int mSent;
+
+    @Test
+    public void retransmissions_areSentOncePerInterval() {
+        final MeshRetransmission retransmission = start(2);
+        assertEquals(1, mSent);
+
+        final ArgumentCaptor<Runnable> retransmit = ArgumentCaptor.forClass(Runnable.class);
+        verify(handler, times(1)).postDelayed(retransmit.capture(), eq(100L));
+        retransmit.getValue().run();
+        assertEquals(2, mSent);
+        assertEquals(1, retransmission.getRemainingRetransmissions());
+
+        verify(handler, times(2)).postDelayed(retransmit.capture(), eq(100L));
+        retransmit.getValue().run();
+        assertEquals(3, mSent);
+        assertTrue(mPending.isEmpty());
+    }
+
+    @Test
+    public void cancelledRetransmissions_areNotSent() {
+        final MeshRetransmission retransmission = start(3);
+        final ArgumentCaptor<Runnable> retransmit = ArgumentCaptor.forClass(Runnable.class);
+        verify(handler).postDelayed(retransmit.capture(), eq(100L));
+
+        retransmission.cancel();
+        verify(handler).removeCallbacks(retransmit.getValue());
+        retransmit.getValue().run();
+        assertEquals(1, mSent);
+        assertEquals(0, retransmission.getRemainingRetransmissions());
+        assertTrue(mPending.isEmpty());
+    }
+
+    private MeshRetransmission start(final int retransmissions) {
+        final MeshRetransmission retransmission = new MeshRetransmission(handler, Collections.singletonList(0x0002), () -> mSent++,
+                retransmissions, 100, mPending);
+        mPending.add(retransmission);
+        retransmission.start();
+        return retransmission;
+    }
+}
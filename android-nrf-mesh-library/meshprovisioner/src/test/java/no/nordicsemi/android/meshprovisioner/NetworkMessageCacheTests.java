@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for dropping network pdus that were received recently.
+ */
+public class NetworkMessageCacheTests {
+
+    /**
+     * Returns a network pdu with a unique obfuscated header and NetMIC
+     */
+    private static byte[] pdu(final int id) {
+        final byte[] pdu = new byte[20];
+        pdu[0] = MeshManagerApi.PDU_TYPE_NETWORK;
+        pdu[1] = 0x68;
+        pdu[2] = (byte) (id >> 8);
+        pdu[3] = (byte) id;
+        pdu[pdu.length - 1] = (byte) (id * 31);
+        return pdu;
+    }
+
+    @Test
+    public void repeatedPdu_isDuplicate() {
+        final NetworkMessageCache cache = new NetworkMessageCache(8);
+        assertFalse(cache.isDuplicate(pdu(1)));
+        assertFalse(cache.isDuplicate(pdu(2)));
+        assertTrue(cache.isDuplicate(pdu(1)));
+        assertTrue(cache.isDuplicate(pdu(2)));
+    }
+
+    @Test
+    public void differentNetMic_isNotDuplicate() {
+        final NetworkMessageCache cache = new NetworkMessageCache(8);
+        final byte[] pdu = pdu(1);
+        assertFalse(cache.isDuplicate(pdu));
+        final byte[] other = pdu.clone();
+        other[other.length - 2] ^= 0x01;
+        assertFalse(cache.isDuplicate(other));
+    }
+
+    @Test
+    public void fullCache_evictsOldestPduNotReceivedAgain() {
+        final NetworkMessageCache cache = new NetworkMessageCache(4);
+        for (int id = 0; id < 4; id++) {
+            assertFalse(cache.isDuplicate(pdu(id)));
+        }
+        //The first pdu is received again, so it gets a second chance and the second pdu is evicted instead
+        assertTrue(cache.isDuplicate(pdu(0)));
+        assertFalse(cache.isDuplicate(pdu(4)));
+        assertTrue(cache.isDuplicate(pdu(0)));
+        assertTrue(cache.isDuplicate(pdu(2)));
+        assertTrue(cache.isDuplicate(pdu(3)));
+        assertTrue(cache.isDuplicate(pdu(4)));
+        assertFalse(cache.isDuplicate(pdu(1)));
+    }
+
+    @Test
+    public void manyPdus_keepOnlyTheCapacity() {
+        final NetworkMessageCache cache = new NetworkMessageCache(64);
+        for (int id = 0; id < 1000; id++) {
+            assertFalse(cache.isDuplicate(pdu(id)));
+        }
+        for (int id = 1000 - 64; id < 1000; id++) {
+            assertTrue(cache.isDuplicate(pdu(id)));
+        }
+        cache.clear();
+        assertFalse(cache.isDuplicate(pdu(999)));
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for reassembling proxy pdus segmented at the gatt layer.
+ */
+public class ProxySarDecoderTests {
+
+    private static byte[] pdu(final int pduType, final int length) {
+        final byte[] pdu = new byte[length];
+        pdu[0] = (byte) pduType;
+        for (int i = 1; i < length; i++) {
+            pdu[i] = (byte) i;
+        }
+        return pdu;
+    }
+
+    /**
+     * Segments a pdu and splits the segmented pdu in to chunks of the mtu size, as written to the gatt layer
+     */
+    private static List<byte[]> segment(final int mtu, final byte[] pdu) {
+        final byte[] segmented = ProxySarDecoder.applySegmentation(mtu, pdu);
+        final List<byte[]> segments = new ArrayList<>();
+        for (int offset = 0; offset < segmented.length; offset += mtu) {
+            segments.add(Arrays.copyOfRange(segmented, offset, Math.min(offset + mtu, segmented.length)));
+        }
+        return segments;
+    }
+
+    private static byte[] decodeAll(final ProxySarDecoder decoder, final List<byte[]> segments) {
+        for (int i = 0; i < segments.size() - 1; i++) {
+            assertNull(decoder.decode(segments.get(i)));
+        }
+        return decoder.decode(segments.get(segments.size() - 1));
+    }
+
+    @Test
+    public void completePdu_isReturnedAsReceived() {
+        final ProxySarDecoder decoder = new ProxySarDecoder();
+        final byte[] pdu = pdu(MeshManagerApi.PDU_TYPE_NETWORK, 20);
+        assertSame(pdu, decoder.decode(pdu));
+        assertFalse(decoder.isReassembling());
+    }
+
+    @Test
+    public void lastSegment_fillingTheMtu_completesThePdu() {
+        final int mtu = 20;
+        //Two full segments, so that the last segment is exactly mtu sized
+        final byte[] pdu = pdu(MeshManagerApi.PDU_TYPE_PROXY_CONFIGURATION, 1 + 2 * (mtu - 1));
+        final List<byte[]> segments = segment(mtu, pdu);
+        assertEquals(mtu, segments.get(segments.size() - 1).length);
+
+        final ProxySarDecoder decoder = new ProxySarDecoder();
+        assertArrayEquals(pdu, decodeAll(decoder, segments));
+        assertFalse(decoder.isReassembling());
+    }
+
+    @Test
+    public void edgeMtus_roundTrip() {
+        final ProxySarDecoder decoder = new ProxySarDecoder();
+        for (int mtu = 2; mtu <= 23; mtu++) {
+            for (int length = mtu + 1; length <= 3 * mtu + 1; length++) {
+                final byte[] pdu = pdu(MeshManagerApi.PDU_TYPE_NETWORK, length);
+                assertArrayEquals("mtu " + mtu + ", length " + length, pdu, decodeAll(decoder, segment(mtu, pdu)));
+            }
+        }
+        assertFalse(decoder.isReassembling());
+    }
+
+    @Test
+    public void applySegmentation_setsSarOfEachSegment() {
+        final int mtu = 20;
+        final List<byte[]> segments = segment(mtu, pdu(MeshManagerApi.PDU_TYPE_NETWORK, 1 + 3 * (mtu - 1)));
+        assertEquals(3, segments.size());
+        assertEquals(ProxySarDecoder.SAR_FIRST, ProxySarDecoder.getSar(segments.get(0)));
+        assertEquals(ProxySarDecoder.SAR_CONTINUATION, ProxySarDecoder.getSar(segments.get(1)));
+        assertEquals(ProxySarDecoder.SAR_LAST, ProxySarDecoder.getSar(segments.get(2)));
+        for (byte[] segment : segments) {
+            assertEquals(mtu, segment.length);
+            assertEquals(MeshManagerApi.PDU_TYPE_NETWORK, ProxySarDecoder.getPduType(segment));
+        }
+    }
+
+    @Test
+    public void interleavedPduTypes_areReassembledIndependently() {
+        final int mtu = 8;
+        final byte[] network = pdu(MeshManagerApi.PDU_TYPE_NETWORK, 25);
+        final byte[] provisioning = pdu(MeshManagerApi.PDU_TYPE_PROVISIONING, 18);
+        final List<byte[]> networkSegments = segment(mtu, network);
+        final List<byte[]> provisioningSegments = segment(mtu, provisioning);
+
+        final ProxySarDecoder decoder = new ProxySarDecoder();
+        assertNull(decoder.decode(networkSegments.get(0)));
+        assertNull(decoder.decode(provisioningSegments.get(0)));
+        final byte[] beacon = pdu(MeshManagerApi.PDU_TYPE_MESH_BEACON, 5);
+        assertSame(beacon, decoder.decode(beacon));
+        assertNull(decoder.decode(networkSegments.get(1)));
+        assertNull(decoder.decode(provisioningSegments.get(1)));
+        assertArrayEquals(provisioning, decoder.decode(provisioningSegments.get(2)));
+        assertTrue(decoder.isReassembling());
+        assertNull(decoder.decode(networkSegments.get(2)));
+        assertArrayEquals(network, decoder.decode(networkSegments.get(3)));
+        assertFalse(decoder.isReassembling());
+    }
+
+    @Test
+    public void segmentsWithoutFirstSegment_areDropped() {
+        final List<byte[]> segments = segment(8, pdu(MeshManagerApi.PDU_TYPE_NETWORK, 25));
+        final ProxySarDecoder decoder = new ProxySarDecoder();
+        assertNull(decoder.decode(segments.get(1)));
+        assertNull(decoder.decode(segments.get(3)));
+        assertFalse(decoder.isReassembling());
+    }
+
+    @Test
+    public void firstSegment_restartsIncompletePdu() {
+        final byte[] stale = pdu(MeshManagerApi.PDU_TYPE_NETWORK, 25);
+        final byte[] pdu = pdu(MeshManagerApi.PDU_TYPE_NETWORK, 40);
+        pdu[1] = 0x7F;
+        final ProxySarDecoder decoder = new ProxySarDecoder();
+        assertNull(decoder.decode(segment(8, stale).get(0)));
+        assertArrayEquals(pdu, decodeAll(decoder, segment(8, pdu)));
+        assertFalse(decoder.isReassembling());
+    }
+
+    @Test
+    public void reset_discardsIncompletePdus() {
+        final List<byte[]> segments = segment(8, pdu(MeshManagerApi.PDU_TYPE_NETWORK, 25));
+        final ProxySarDecoder decoder = new ProxySarDecoder();
+        assertNull(decoder.decode(segments.get(0)));
+        assertTrue(decoder.isReassembling());
+        decoder.reset();
+        assertFalse(decoder.isReassembling());
+        assertNull(decoder.decode(segments.get(3)));
+    }
+}
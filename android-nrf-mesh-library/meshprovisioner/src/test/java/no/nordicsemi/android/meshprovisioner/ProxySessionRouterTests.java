@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import no.nordicsemi.android.meshprovisioner.utils.MeshAddress;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for choosing the proxy connection a pdu is sent through.
+ */
+public class ProxySessionRouterTests {
+
+    private static final class TestRoute implements ProxySessionRouter.Route {
+        private final int proxyAddress;
+        private final int queueSize;
+
+        TestRoute(final int proxyAddress, final int queueSize) {
+            this.proxyAddress = proxyAddress;
+            this.queueSize = queueSize;
+        }
+
+        @Override
+        public int getProxyAddress() {
+            return proxyAddress;
+        }
+
+        @Override
+        public int getQueueSize() {
+            return queueSize;
+        }
+    }
+
+    @Test
+    public void destinationConnectedAsProxy_isSentDirectly() {
+        final TestRoute first = new TestRoute(0x0001, 0);
+        final TestRoute destination = new TestRoute(0x0005, 10);
+        assertSame(destination, ProxySessionRouter.select(Arrays.asList(first, destination), 0x0005));
+    }
+
+    @Test
+    public void otherDestinations_useShortestQueue() {
+        final TestRoute first = new TestRoute(0x0001, 4);
+        final TestRoute second = new TestRoute(0x0002, 1);
+        final TestRoute third = new TestRoute(0x0003, 1);
+        final List<TestRoute> routes = Arrays.asList(first, second, third);
+        assertSame(second, ProxySessionRouter.select(routes, 0x0010));
+        assertSame(second, ProxySessionRouter.select(routes, MeshAddress.UNASSIGNED_ADDRESS));
+    }
+
+    @Test
+    public void noRoutes_returnsNull() {
+        assertNull(ProxySessionRouter.select(Collections.<TestRoute>emptyList(), 0x0001));
+    }
+}
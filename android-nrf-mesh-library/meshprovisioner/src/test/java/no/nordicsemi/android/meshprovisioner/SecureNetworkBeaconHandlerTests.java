@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import no.nordicsemi.android.meshprovisioner.transport.NetworkKey;
+import no.nordicsemi.android.meshprovisioner.utils.MeshParserUtils;
+import no.nordicsemi.android.meshprovisioner.utils.SecureUtils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for authenticating secure network beacons and the iv update and key refresh procedures driven by them.
+ */
+public class SecureNetworkBeaconHandlerTests {
+
+    private static final byte[] NETWORK_KEY = MeshParserUtils.toByteArray("7DD7364CD842AD18C17C2B820C84C3D6");
+    private static final byte[] NEW_NETWORK_KEY = MeshParserUtils.toByteArray("F7A2A44F8E8A8029064F173DDC1E2B00");
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+    private static final long START = 1000 * HOUR;
+
+    private MeshNetwork mNetwork;
+    private Provisioner mProvisioner;
+    private SecureNetworkBeaconHandler mHandler;
+    private int mIvIndexUpdates;
+
+    @Before
+    public void setUp() {
+        mNetwork = new MeshNetwork("B6D9A7F5-B1A8-4A1F-9E5E-2F5D0B0C8E11");
+        mNetwork.netKeys.add(new NetworkKey(0, NETWORK_KEY));
+        mNetwork.ivIndex = 5;
+        mNetwork.ivUpdateTimestamp = START - 100 * HOUR;
+        mProvisioner = new Provisioner();
+        mProvisioner.setLastSelected(true);
+        mProvisioner.setSequenceNumber(0x1000);
+        mNetwork.provisioners.add(mProvisioner);
+        mHandler = new SecureNetworkBeaconHandler(() -> mIvIndexUpdates++);
+    }
+
+    private static byte[] beacon(final byte[] networkKey, final int flags, final int ivIndex) {
+        return SecureUtils.calculateSecureNetworkBeacon(networkKey, SecureNetworkBeaconHandler.SECURE_NETWORK_BEACON,
+                new byte[]{(byte) flags}, SecureUtils.calculateK3(networkKey), ByteBuffer.allocate(4).putInt(ivIndex).array());
+    }
+
+    private boolean handle(final byte[] beacon, final long now) {
+        return mHandler.handleBeacon(mNetwork, beacon, 0, beacon.length, now);
+    }
+
+    @Test
+    public void beacon_isAuthenticatedWithTheBeaconKey() {
+        final byte[] beacon = beacon(NETWORK_KEY, 0, 5);
+        assertEquals(SecureNetworkBeaconHandler.BEACON_LENGTH, beacon.length);
+        assertTrue(handle(beacon, START));
+
+        final byte[] forged = beacon(NETWORK_KEY, 0, 6);
+        forged[forged.length - 1] ^= 0x01;
+        assertFalse(handle(forged, START));
+        assertFalse(handle(beacon(NEW_NETWORK_KEY, 0, 5), START));
+        assertEquals(5, mNetwork.getIvIndex());
+        assertEquals(0, mIvIndexUpdates);
+    }
+
+    @Test
+    public void unchangedBeacon_isRecognised() {
+        final byte[] beacon = beacon(NETWORK_KEY, 0, 5);
+        assertTrue(handle(beacon, START));
+        assertTrue(handle(beacon.clone(), START));
+
+        //Same network id, iv index and flags can not come with a different authentication value
+        final byte[] forged = beacon.clone();
+        forged[forged.length - 1] ^= 0x01;
+        assertFalse(handle(forged, START));
+        assertTrue(handle(beacon, START));
+    }
+
+    @Test
+    public void ivUpdate_followsBeaconsAndWaits96Hours() {
+        assertTrue(handle(beacon(NETWORK_KEY, SecureNetworkBeaconHandler.IV_UPDATE_FLAG, 6), START));
+        assertEquals(6, mNetwork.getIvIndex());
+        assertEquals(MeshNetwork.IV_UPDATE_ACTIVE, mNetwork.getIvUpdateState());
+        assertEquals(5, SecureNetworkBeaconHandler.getTransmitIvIndex(mNetwork.getIvIndex(), mNetwork.getIvUpdateState()));
+        //Messages are still sent with the previous iv index, so sequence numbers continue
+        assertEquals(0x1000, mProvisioner.getCurrentSequenceNumber());
+
+        final byte[] normal = beacon(NETWORK_KEY, 0, 6);
+        assertTrue(handle(normal, START + HOUR));
+        assertEquals(MeshNetwork.IV_UPDATE_ACTIVE, mNetwork.getIvUpdateState());
+
+        assertTrue(handle(normal, START + 96 * HOUR));
+        assertEquals(6, mNetwork.getIvIndex());
+        assertEquals(MeshNetwork.NORMAL_OPERATION, mNetwork.getIvUpdateState());
+        assertEquals(0, mProvisioner.getCurrentSequenceNumber());
+        assertEquals(2, mIvIndexUpdates);
+
+        //An old beacon does not move the iv index back
+        assertTrue(handle(beacon(NETWORK_KEY, SecureNetworkBeaconHandler.IV_UPDATE_FLAG, 6), START + 97 * HOUR));
+        assertEquals(MeshNetwork.NORMAL_OPERATION, mNetwork.getIvUpdateState());
+        assertEquals(2, mIvIndexUpdates);
+    }
+
+    @Test
+    public void ivUpdate_isNotStartedWithin96HoursOfTheLastOne() {
+        mNetwork.ivUpdateTimestamp = START - HOUR;
+        assertTrue(handle(beacon(NETWORK_KEY, SecureNetworkBeaconHandler.IV_UPDATE_FLAG, 6), START));
+        assertEquals(MeshNetwork.NORMAL_OPERATION, mNetwork.getIvUpdateState());
+        assertTrue(handle(beacon(NETWORK_KEY, SecureNetworkBeaconHandler.IV_UPDATE_FLAG, 6), START + 95 * HOUR));
+        assertEquals(MeshNetwork.IV_UPDATE_ACTIVE, mNetwork.getIvUpdateState());
+    }
+
+    @Test
+    public void ivRecovery_isLimitedTo42AndOncePer192Hours() {
+        assertTrue(handle(beacon(NETWORK_KEY, 0, 5 + 43), START));
+        assertEquals(5, mNetwork.getIvIndex());
+
+        assertTrue(handle(beacon(NETWORK_KEY, 0, 10), START));
+        assertEquals(10, mNetwork.getIvIndex());
+        assertEquals(MeshNetwork.NORMAL_OPERATION, mNetwork.getIvUpdateState());
+        assertEquals(0, mProvisioner.getCurrentSequenceNumber());
+
+        assertTrue(handle(beacon(NETWORK_KEY, 0, 12), START + 100 * HOUR));
+        assertEquals(10, mNetwork.getIvIndex());
+        assertTrue(handle(beacon(NETWORK_KEY, 0, 12), START + 192 * HOUR));
+        assertEquals(12, mNetwork.getIvIndex());
+    }
+
+    @Test
+    public void ivUpdate_completesOnlyWithTheNetwork() {
+        assertTrue(handle(beacon(NETWORK_KEY, SecureNetworkBeaconHandler.IV_UPDATE_FLAG, 6), START));
+        assertEquals(MeshNetwork.IV_UPDATE_ACTIVE, mNetwork.getIvUpdateState());
+
+        final byte[] active = beacon(NETWORK_KEY, SecureNetworkBeaconHandler.IV_UPDATE_FLAG, 6);
+        assertTrue(handle(active, START + 200 * HOUR));
+        assertEquals(MeshNetwork.IV_UPDATE_ACTIVE, mNetwork.getIvUpdateState());
+        assertEquals(0x1000, mProvisioner.getCurrentSequenceNumber());
+
+        assertTrue(handle(beacon(NETWORK_KEY, 0, 6), START + 201 * HOUR));
+        assertEquals(MeshNetwork.NORMAL_OPERATION, mNetwork.getIvUpdateState());
+        assertEquals(0, mProvisioner.getCurrentSequenceNumber());
+    }
+
+    @Test
+    public void ivUpdate_startedLocallyKeepsSendingWithTheIvIndexOfTheNetwork() {
+        //State left behind by an iv update started locally, which the network never followed
+        mNetwork.ivIndex = 6;
+        mNetwork.ivUpdateState = MeshNetwork.IV_UPDATE_ACTIVE;
+        mNetwork.ivUpdateTimestamp = START;
+
+        final byte[] old = beacon(NETWORK_KEY, 0, 5);
+        for (long hours = 0; hours <= 500; hours += 50) {
+            assertTrue(handle(old, START + hours * HOUR));
+        }
+        assertEquals(6, mNetwork.getIvIndex());
+        assertEquals(MeshNetwork.IV_UPDATE_ACTIVE, mNetwork.getIvUpdateState());
+        assertEquals(5, SecureNetworkBeaconHandler.getTransmitIvIndex(mNetwork.getIvIndex(), mNetwork.getIvUpdateState()));
+        assertEquals(0x1000, mProvisioner.getCurrentSequenceNumber());
+    }
+
+    @Test
+    public void keyRefresh_followsBeaconsOfTheNewKey() {
+        final NetworkKey networkKey = mNetwork.netKeys.get(0);
+        networkKey.setKey(NEW_NETWORK_KEY);
+        networkKey.setOldKey(NETWORK_KEY);
+        networkKey.setPhase(NetworkKey.PHASE_1);
+        assertArrayEquals(networkKey.getOldCredentials().getNetworkId(), networkKey.getTransmitCredentials().getNetworkId());
+
+        //Beacons of the old key do not move the procedure on
+        assertTrue(handle(beacon(NETWORK_KEY, SecureNetworkBeaconHandler.KEY_REFRESH_FLAG, 5), START));
+        assertEquals(NetworkKey.PHASE_1, networkKey.getPhase());
+
+        assertTrue(handle(beacon(NEW_NETWORK_KEY, SecureNetworkBeaconHandler.KEY_REFRESH_FLAG, 5), START));
+        assertEquals(NetworkKey.PHASE_2, networkKey.getPhase());
+        assertArrayEquals(networkKey.getCredentials().getNetworkId(), networkKey.getTransmitCredentials().getNetworkId());
+
+        assertTrue(handle(beacon(NEW_NETWORK_KEY, 0, 5), START));
+        assertEquals(NetworkKey.PHASE_0, networkKey.getPhase());
+        assertNull(networkKey.getOldKey());
+        assertFalse(handle(beacon(NETWORK_KEY, 0, 5), START));
+    }
+
+    @Test
+    public void receivedIvIndex_isSelectedByIvi() {
+        assertEquals(6, SecureNetworkBeaconHandler.getReceivedIvIndex(6, 0));
+        assertEquals(5, SecureNetworkBeaconHandler.getReceivedIvIndex(6, 1));
+        assertEquals(7, SecureNetworkBeaconHandler.getReceivedIvIndex(7, 1));
+        assertEquals(6, SecureNetworkBeaconHandler.getReceivedIvIndex(7, 0));
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the sequence number block reservation of a provisioner.
+ */
+public class SequenceNumberReservationTests {
+
+    @Test
+    public void block_isReserved_onlyWhenCloseToItsEnd() {
+        final Provisioner provisioner = new Provisioner();
+        assertEquals(1, provisioner.incrementSequenceNumber());
+        assertTrue(provisioner.reserveSequenceNumbers());
+        assertEquals(1 + Provisioner.SEQUENCE_NUMBER_BLOCK_SIZE, provisioner.getSequenceNumber());
+
+        int reservations = 0;
+        for (int i = 0; i < Provisioner.SEQUENCE_NUMBER_BLOCK_SIZE; i++) {
+            assertTrue(provisioner.incrementSequenceNumber() < provisioner.getSequenceNumber());
+            if (provisioner.reserveSequenceNumbers()) {
+                reservations++;
+            }
+        }
+        assertEquals(1, reservations);
+    }
+
+    @Test
+    public void restart_continuesAfterReservedBlock() {
+        final Provisioner provisioner = new Provisioner();
+        int lastUsed = 0;
+        for (int i = 0; i < 100; i++) {
+            lastUsed = provisioner.incrementSequenceNumber();
+            provisioner.reserveSequenceNumbers();
+        }
+
+        //Only the end of the reserved block is persisted
+        final Provisioner restored = new Provisioner();
+        restored.setSequenceNumber(provisioner.getSequenceNumber());
+        assertTrue(restored.incrementSequenceNumber() > lastUsed);
+        //Allocation resumes at the end of the previous block, so a new block is reserved straight away
+        assertTrue(restored.reserveSequenceNumbers());
+    }
+
+    @Test
+    public void segment_sequenceNumbers_followTheHighestUsed() {
+        final Provisioner provisioner = new Provisioner();
+        provisioner.setSequenceNumber(10);
+        assertEquals(21, provisioner.incrementSequenceNumber(20));
+        assertEquals(22, provisioner.incrementSequenceNumber(5));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void exhausted_sequenceNumbers_areNotReused() {
+        final Provisioner provisioner = new Provisioner();
+        provisioner.setSequenceNumber(Provisioner.MAX_SEQUENCE_NUMBER);
+        provisioner.incrementSequenceNumber();
+    }
+
+    @Test
+    public void reservedBlock_isNotUsed_untilPersisted() throws InterruptedException {
+        final Provisioner provisioner = new Provisioner();
+        provisioner.setSequenceNumber(100);
+        assertTrue(provisioner.reserveSequenceNumbers());
+        final int sequenceNumber = provisioner.incrementSequenceNumber();
+        assertFalse(provisioner.awaitSequenceNumberPersisted(sequenceNumber, 0));
+
+        provisioner.onSequenceNumbersPersisted(provisioner.getSequenceNumber());
+        assertTrue(provisioner.awaitSequenceNumberPersisted(sequenceNumber, 0));
+    }
+
+    @Test
+    public void awaitSequenceNumberPersisted_returnsOnceTheWriteCompletes() throws InterruptedException {
+        final Provisioner provisioner = new Provisioner();
+        provisioner.setSequenceNumber(100);
+        assertTrue(provisioner.reserveSequenceNumbers());
+        final int reserved = provisioner.getSequenceNumber();
+        final Thread writer = new Thread(() -> provisioner.onSequenceNumbersPersisted(reserved));
+        writer.start();
+        assertTrue(provisioner.awaitSequenceNumberPersisted(provisioner.incrementSequenceNumber(), 5000));
+        writer.join();
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static no.nordicsemi.android.meshprovisioner.TransmitQueueMetrics.PRIORITY_APPLICATION;
+import static no.nordicsemi.android.meshprovisioner.TransmitQueueMetrics.PRIORITY_CONFIGURATION;
+import static no.nordicsemi.android.meshprovisioner.TransmitQueueMetrics.PRIORITY_PROXY_CONFIGURATION;
+import static no.nordicsemi.android.meshprovisioner.TransmitQueueMetrics.PRIORITY_SEGMENT_ACKNOWLEDGEMENT;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for the priority order, bounded queue and write credits of the transmit scheduler.
+ */
+public class TransmitSchedulerTests {
+
+    private final List<Byte> mWritten = new ArrayList<>();
+    private TransmitScheduler mScheduler;
+
+    @Before
+    public void setUp() {
+        mScheduler = new TransmitScheduler(pdu -> mWritten.add(pdu[0]));
+    }
+
+    @Test
+    public void enqueue_writesImmediatelyWhileCreditsAreAvailable() {
+        mScheduler.enqueue(pdu(1), PRIORITY_APPLICATION);
+        assertEquals(1, mWritten.size());
+        assertEquals(0, mScheduler.size());
+
+        mScheduler.enqueue(pdu(2), PRIORITY_APPLICATION);
+        assertEquals(1, mWritten.size());
+        assertEquals(1, mScheduler.size());
+    }
+
+    @Test
+    public void writeCompleted_returnsCreditAndWritesNextPdu() {
+        mScheduler.enqueue(pdu(1), PRIORITY_APPLICATION);
+        mScheduler.enqueue(pdu(2), PRIORITY_APPLICATION);
+        mScheduler.enqueue(pdu(3), PRIORITY_APPLICATION);
+
+        mScheduler.onWriteCompleted();
+        assertEquals(2, mWritten.size());
+        assertEquals(2, (byte) mWritten.get(1));
+
+        mScheduler.onWriteCompleted();
+        assertEquals(3, mWritten.size());
+        assertEquals(0, mScheduler.size());
+
+        // A write callback without a pending write does not add a credit
+        mScheduler.onWriteCompleted();
+        mScheduler.onWriteCompleted();
+        mScheduler.enqueue(pdu(4), PRIORITY_APPLICATION);
+        mScheduler.enqueue(pdu(5), PRIORITY_APPLICATION);
+        assertEquals(4, mWritten.size());
+        assertEquals(1, mScheduler.size());
+    }
+
+    @Test
+    public void queuedPdus_writtenHighestPriorityFirst() {
+        // Uses the only credit
+        mScheduler.enqueue(pdu(0), PRIORITY_APPLICATION);
+
+        mScheduler.enqueue(pdu(1), PRIORITY_APPLICATION);
+        mScheduler.enqueue(pdu(2), PRIORITY_CONFIGURATION);
+        mScheduler.enqueue(pdu(3), PRIORITY_SEGMENT_ACKNOWLEDGEMENT);
+        mScheduler.enqueue(pdu(4), PRIORITY_PROXY_CONFIGURATION);
+        mScheduler.enqueue(pdu(5), PRIORITY_SEGMENT_ACKNOWLEDGEMENT);
+
+        for (int i = 0; i < 5; i++) {
+            mScheduler.onWriteCompleted();
+        }
+        assertEquals(6, mWritten.size());
+        assertEquals(3, (byte) mWritten.get(1));
+        assertEquals(5, (byte) mWritten.get(2));
+        assertEquals(4, (byte) mWritten.get(3));
+        assertEquals(2, (byte) mWritten.get(4));
+        assertEquals(1, (byte) mWritten.get(5));
+    }
+
+    @Test
+    public void credits_limitPdusWrittenWithoutCallback() {
+        mScheduler.setCredits(3);
+        for (int i = 0; i < 5; i++) {
+            mScheduler.enqueue(pdu(i), PRIORITY_APPLICATION);
+        }
+        assertEquals(3, mWritten.size());
+        assertEquals(2, mScheduler.size());
+
+        mScheduler.onWriteCompleted();
+        assertEquals(4, mWritten.size());
+    }
+
+    @Test
+    public void reducedCredits_waitForTheWritesInFlight() {
+        mScheduler.setCredits(3);
+        for (int i = 0; i < 6; i++) {
+            mScheduler.enqueue(pdu(i), PRIORITY_APPLICATION);
+        }
+        mScheduler.onWriteCompleted();
+        assertEquals(4, mWritten.size());
+
+        // Three writes are still in flight, so the next pdu waits until only one is left
+        mScheduler.setCredits(2);
+        mScheduler.onWriteCompleted();
+        assertEquals(4, mWritten.size());
+        mScheduler.onWriteCompleted();
+        assertEquals(5, mWritten.size());
+        mScheduler.onWriteCompleted();
+        assertEquals(6, mWritten.size());
+        assertEquals(0, mScheduler.size());
+    }
+
+    @Test
+    public void fullQueue_dropsOldestPduOfLowestPriority() {
+        mScheduler.enqueue(pdu(0), PRIORITY_APPLICATION);
+        mScheduler.setCapacity(2);
+
+        mScheduler.enqueue(pdu(1), PRIORITY_APPLICATION);
+        mScheduler.enqueue(pdu(2), PRIORITY_APPLICATION);
+        mScheduler.enqueue(pdu(3), PRIORITY_SEGMENT_ACKNOWLEDGEMENT);
+        assertEquals(2, mScheduler.size());
+        assertEquals(1, mScheduler.getMetrics().getDroppedCount(PRIORITY_APPLICATION));
+
+        mScheduler.onWriteCompleted();
+        mScheduler.onWriteCompleted();
+        assertEquals(3, (byte) mWritten.get(1));
+        assertEquals(2, (byte) mWritten.get(2));
+    }
+
+    @Test
+    public void fullQueue_dropsNewPduIfAllQueuedPdusHaveHigherPriority() {
+        mScheduler.enqueue(pdu(0), PRIORITY_APPLICATION);
+        mScheduler.setCapacity(1);
+
+        mScheduler.enqueue(pdu(1), PRIORITY_SEGMENT_ACKNOWLEDGEMENT);
+        mScheduler.enqueue(pdu(2), PRIORITY_APPLICATION);
+        assertEquals(1, mScheduler.size());
+        assertEquals(1, mScheduler.getMetrics().getDroppedCount(PRIORITY_APPLICATION));
+
+        mScheduler.onWriteCompleted();
+        assertEquals(1, (byte) mWritten.get(1));
+    }
+
+    @Test
+    public void writeCallbackFromWithinWrite_pdusWrittenInOrder() {
+        final List<Byte> written = new ArrayList<>();
+        final TransmitScheduler[] scheduler = new TransmitScheduler[1];
+        scheduler[0] = new TransmitScheduler(pdu -> {
+            written.add(pdu[0]);
+            scheduler[0].onWriteCompleted();
+        });
+        scheduler[0].setCredits(2);
+        scheduler[0].clear();
+
+        scheduler[0].enqueue(pdu(0), PRIORITY_APPLICATION);
+        scheduler[0].enqueue(pdu(1), PRIORITY_APPLICATION);
+        assertEquals(2, written.size());
+        assertEquals(0, (byte) written.get(0));
+        assertEquals(1, (byte) written.get(1));
+        assertEquals(0, scheduler[0].size());
+    }
+
+    @Test
+    public void clear_dropsQueuedPdusAndRestoresCredits() {
+        mScheduler.enqueue(pdu(0), PRIORITY_APPLICATION);
+        mScheduler.enqueue(pdu(1), PRIORITY_APPLICATION);
+        mScheduler.clear();
+        assertEquals(0, mScheduler.size());
+
+        mScheduler.enqueue(pdu(2), PRIORITY_APPLICATION);
+        assertEquals(2, (byte) mWritten.get(1));
+    }
+
+    private static byte[] pdu(final int value) {
+        return new byte[]{(byte) value};
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner.transport;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for timing and coalescing of block acknowledgements.
+ */
+public class BlockAcknowledgementSchedulerTests {
+
+    private static final int SRC = 0x0001;
+    private static final int DST = 0x0002;
+    private static final int TTL = 5;
+    private static final int SEQ_ZERO = 0x0123;
+    private static final int SEGMENT_LENGTH = 12;
+
+    private final ManualTimer mTimer = new ManualTimer();
+    private final List<int[]> mAcknowledgements = new ArrayList<>();
+    private BlockAcknowledgementScheduler mScheduler;
+    private ReassemblyTable.Session mSession;
+
+    @Before
+    public void setUp() {
+        mScheduler = new BlockAcknowledgementScheduler(mTimer,
+                (src, dst, ttl, seqZero, blockAck) -> mAcknowledgements.add(new int[]{src, dst, ttl, seqZero, blockAck}));
+        mSession = new ReassemblyTable.Session(SRC, DST, SEQ_ZERO, SEQ_ZERO, 3, SEQ_ZERO, false, TTL, SEGMENT_LENGTH);
+    }
+
+    @Test
+    public void acknowledgementTimerInterval_dependsOnTtl() {
+        assertEquals(150, BlockAcknowledgementScheduler.getAcknowledgementTimerInterval(0));
+        assertEquals(400, BlockAcknowledgementScheduler.getAcknowledgementTimerInterval(5));
+    }
+
+    @Test
+    public void segmentReceived_acknowledgedWhenTimerExpires() {
+        receive(0);
+
+        mTimer.advance(BlockAcknowledgementScheduler.getAcknowledgementTimerInterval(TTL) - 1);
+        assertTrue(mAcknowledgements.isEmpty());
+
+        mTimer.advance(1);
+        assertEquals(1, mAcknowledgements.size());
+        final int[] acknowledgement = mAcknowledgements.get(0);
+        assertEquals(SRC, acknowledgement[0]);
+        assertEquals(DST, acknowledgement[1]);
+        assertEquals(TTL, acknowledgement[2]);
+        assertEquals(SEQ_ZERO, acknowledgement[3]);
+        assertEquals(0x01, acknowledgement[4]);
+    }
+
+    @Test
+    public void segmentsReceivedWhileTimerRuns_coalescedIntoOneAcknowledgement() {
+        receive(0);
+        mTimer.advance(100);
+        receive(1);
+        mTimer.advance(100);
+        receive(2);
+
+        mTimer.advance(BlockAcknowledgementScheduler.getAcknowledgementTimerInterval(TTL));
+        assertEquals(1, mAcknowledgements.size());
+        assertEquals(0x07, mAcknowledgements.get(0)[4]);
+    }
+
+    @Test
+    public void noNewSegments_acknowledgementSuppressed() {
+        receive(0);
+        mTimer.advance(BlockAcknowledgementScheduler.getAcknowledgementTimerInterval(TTL));
+        assertEquals(1, mAcknowledgements.size());
+
+        // A duplicate segment does not change the block acknowledgement
+        mScheduler.onSegmentReceived(mSession);
+        mTimer.advance(BlockAcknowledgementScheduler.getAcknowledgementTimerInterval(TTL));
+        assertEquals(1, mAcknowledgements.size());
+    }
+
+    @Test
+    public void messageCompleted_acknowledgedImmediately() {
+        receive(0);
+        receive(1);
+        receive(2);
+        assertTrue(putSegment(3));
+        mScheduler.onMessageCompleted(mSession);
+
+        mTimer.advance(0);
+        assertEquals(1, mAcknowledgements.size());
+        assertEquals(0x0F, mAcknowledgements.get(0)[4]);
+
+        // The acknowledgement timer of the incomplete message was cancelled
+        mTimer.advance(BlockAcknowledgementScheduler.getAcknowledgementTimerInterval(TTL));
+        assertEquals(1, mAcknowledgements.size());
+    }
+
+    @Test
+    public void completedMessageSegmentReceived_acknowledgementResent() {
+        for (int segO = 0; segO < 4; segO++) {
+            assertTrue(putSegment(segO));
+        }
+        mScheduler.onMessageCompleted(mSession);
+        mTimer.advance(0);
+
+        mScheduler.onCompletedMessageSegmentReceived(mSession);
+        mScheduler.onCompletedMessageSegmentReceived(mSession);
+        mTimer.advance(BlockAcknowledgementScheduler.getAcknowledgementTimerInterval(TTL));
+        assertEquals(2, mAcknowledgements.size());
+        assertEquals(0x0F, mAcknowledgements.get(1)[4]);
+    }
+
+    @Test
+    public void clear_cancelsPendingAcknowledgements() {
+        receive(0);
+        mScheduler.clear();
+
+        mTimer.advance(BlockAcknowledgementScheduler.getAcknowledgementTimerInterval(TTL));
+        assertTrue(mAcknowledgements.isEmpty());
+        assertTrue(mTimer.mTasks.isEmpty());
+    }
+
+    @Test
+    public void remove_cancelsPendingAcknowledgement() {
+        receive(0);
+        mScheduler.remove(mSession);
+
+        mTimer.advance(BlockAcknowledgementScheduler.getAcknowledgementTimerInterval(TTL));
+        assertTrue(mAcknowledgements.isEmpty());
+    }
+
+    private void receive(final int segO) {
+        assertTrue(putSegment(segO));
+        mScheduler.onSegmentReceived(mSession);
+    }
+
+    private boolean putSegment(final int segO) {
+        return mSession.putSegment(segO, mSession.segN, null, new byte[SEGMENT_LENGTH], 0, SEGMENT_LENGTH);
+    }
+
+    /**
+     * Runs the delayed tasks when the clock is advanced manually
+     */
+    private static final class ManualTimer implements BlockAcknowledgementScheduler.Timer {
+        private final List<Task> mTasks = new ArrayList<>();
+        private long mTime;
+
+        @Override
+        public void postDelayed(@NonNull final Runnable task, final long delay) {
+            mTasks.add(new Task(task, mTime + delay));
+        }
+
+        @Override
+        public void removeCallbacks(@NonNull final Runnable task) {
+            final Iterator<Task> iterator = mTasks.iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().runnable == task) {
+                    iterator.remove();
+                }
+            }
+        }
+
+        void advance(final long time) {
+            mTime += time;
+            Task due;
+            while ((due = nextDue()) != null) {
+                mTasks.remove(due);
+                due.runnable.run();
+            }
+        }
+
+        private Task nextDue() {
+            Task next = null;
+            for (Task task : mTasks) {
+                if (task.time <= mTime && (next == null || task.time < next.time)) {
+                    next = task;
+                }
+            }
+            return next;
+        }
+    }
+
+    private static final class Task {
+        final Runnable runnable;
+        final long time;
+
+        Task(final Runnable runnable, final long time) {
+            this.runnable = runnable;
+            this.time = time;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner.transport;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import no.nordicsemi.android.meshprovisioner.control.HeartbeatMessage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for tracking the liveness of nodes from the heartbeats received.
+ */
+public class HeartbeatTableTests {
+
+    @Test
+    public void update_tracksHopsAndFeaturesPerAddress() {
+        final HeartbeatTable table = new HeartbeatTable();
+        table.update(0x0010, 3, HeartbeatMessage.FEATURE_RELAY, 1000);
+        table.update(0x0010, 1, HeartbeatMessage.FEATURE_RELAY | HeartbeatMessage.FEATURE_PROXY, 2000);
+        table.update(0x0010, 5, HeartbeatMessage.FEATURE_PROXY, 3000);
+
+        assertEquals(1, table.size());
+        assertEquals(3000, table.getLastSeen(0x0010));
+        assertEquals(1, table.getMinHops(0x0010));
+        assertEquals(5, table.getMaxHops(0x0010));
+        assertEquals(HeartbeatMessage.FEATURE_PROXY, table.getFeatures(0x0010));
+        assertEquals(HeartbeatTable.NEVER, table.getLastSeen(0x0011));
+    }
+
+    @Test
+    public void getStaleAddresses_returnsAddressesInOrder() {
+        final HeartbeatTable table = new HeartbeatTable();
+        //Insert out of order and beyond the initial capacity so that the table grows
+        for (int address = 40; address > 0; address--) {
+            table.update(address, 1, 0, address % 2 == 0 ? 10_000 : 1_000);
+        }
+
+        assertEquals(40, table.size());
+        final Integer[] expected = new Integer[20];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = i * 2 + 1;
+        }
+        assertEquals(Arrays.asList(expected), table.getStaleAddresses(5_000, 12_000));
+        assertTrue(table.isAlive(2, 5_000, 12_000));
+        assertFalse(table.isAlive(1, 5_000, 12_000));
+    }
+
+    @Test
+    public void remove_keepsRemainingEntries() {
+        final HeartbeatTable table = new HeartbeatTable();
+        table.update(0x0001, 1, 0, 100);
+        table.update(0x0002, 2, 0, 200);
+        table.update(0x0003, 3, 0, 300);
+
+        table.remove(0x0002);
+        assertEquals(2, table.size());
+        assertFalse(table.contains(0x0002));
+        assertEquals(100, table.getLastSeen(0x0001));
+        assertEquals(300, table.getLastSeen(0x0003));
+        assertEquals(3, table.getMaxHops(0x0003));
+    }
+
+    @Test
+    public void heartbeatMessage_parsesPayload() {
+        final HeartbeatMessage heartbeat = new HeartbeatMessage(new byte[]{(byte) 0x85, 0x00, 0x03});
+        assertEquals(5, heartbeat.getInitTtl());
+        assertEquals(HeartbeatMessage.FEATURE_RELAY | HeartbeatMessage.FEATURE_PROXY, heartbeat.getFeatures());
+        assertEquals(3, heartbeat.getHops(3));
+    }
+}
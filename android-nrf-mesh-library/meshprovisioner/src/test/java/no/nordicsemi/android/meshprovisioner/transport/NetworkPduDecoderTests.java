@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner.transport;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.spongycastle.crypto.InvalidCipherTextException;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import no.nordicsemi.android.meshprovisioner.opcodes.ConfigMessageOpCodes;
+import no.nordicsemi.android.meshprovisioner.utils.MeshParserUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for decoding received network pdus in place, using message #16 of the mesh profile sample data.
+ */
+public class NetworkPduDecoderTests {
+
+    private static final byte[] NETWORK_PDU = MeshParserUtils.toByteArray("0068e80e5da5af0e6b9be7f5a642f2f98680e61c3a8b47f228");
+    private static final byte[] NET_KEY = MeshParserUtils.toByteArray("7dd7364cd842ad18c17c2b820c84c3d6");
+    private static final byte[] DEVICE_KEY = MeshParserUtils.toByteArray("9d6dd0e96eb25dc19a40ed9914f8f03f");
+    private static final int IV_INDEX = 0x12345678;
+    private static final byte[] NETWORK_NONCE = MeshParserUtils.toByteArray("000b0000061201000012345678");
+    private static final byte[] DEVICE_NONCE = MeshParserUtils.toByteArray("02000000061201000312345678");
+    private static final int NET_MIC_LENGTH = 4;
+    private static final int TRANS_MIC_LENGTH = 4;
+    private static final int WARM_UP_ITERATIONS = 20000;
+    private static final int ITERATIONS = 10000;
+
+    private final NetworkCredentials mCredentials = NetworkCredentials.derive(0, NET_KEY);
+    private final byte[] mPecb = new byte[NetworkPduDecoder.PECB_LENGTH];
+    private final byte[] mNetworkHeader = new byte[NetworkPduDecoder.NETWORK_HEADER_LENGTH];
+
+    @Test
+    public void decode_unsegmented_access_pdu_isCorrect() throws InvalidCipherTextException {
+        final byte[] pdu = decodeNetworkPdu();
+        assertEquals(0x0b, NetworkPduDecoder.getTtl(pdu));
+        assertEquals(0x0003, NetworkPduDecoder.getDst(pdu));
+        assertEquals(0x00, NetworkPduDecoder.getLowerTransportHeader(pdu));
+
+        final int offset = NetworkPduDecoder.UNSEGMENTED_UPPER_TRANSPORT_PDU_OFFSET;
+        final int length = NetworkPduDecoder.decryptUpperTransportPdu(DEVICE_KEY, DEVICE_NONCE, TRANS_MIC_LENGTH, pdu, offset, pdu.length - offset);
+        assertEquals("800300563412", MeshParserUtils.bytesToHex(pdu, offset, length, false).toLowerCase());
+
+        final int opCodeLength = NetworkPduDecoder.getOpCodeLength(pdu, offset);
+        assertEquals(2, opCodeLength);
+        assertEquals(ConfigMessageOpCodes.CONFIG_APPKEY_STATUS, MeshParserUtils.getOpCode(pdu, offset, opCodeLength));
+    }
+
+    /**
+     * The decoder helpers allocate only the decoded network pdu and the copy of the access parameters for an unsegmented status message,
+     * everything else is read or decrypted in place. This covers the decoding steps only, not the message objects, nonces and replay
+     * protection checks of the full receive path in {@link MeshTransport}.
+     */
+    @Test
+    public void decoderHelpers_unsegmented_access_pdu_allocations() throws InvalidCipherTextException {
+        final java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threadMXBean;
+        Assume.assumeTrue(bean.isThreadAllocatedMemorySupported());
+        bean.setThreadAllocatedMemoryEnabled(true);
+
+        int checksum = 0;
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+            checksum += decodeStatusParameters().length;
+        }
+
+        final long threadId = Thread.currentThread().getId();
+        final long start = bean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < ITERATIONS; i++) {
+            checksum += decodeStatusParameters().length;
+        }
+        final long allocatedPerMessage = (bean.getThreadAllocatedBytes(threadId) - start) / ITERATIONS;
+        assertEquals((WARM_UP_ITERATIONS + ITERATIONS) * 4, checksum);
+
+        //Two arrays, the decoded pdu and the parameters, with a conservative array header size
+        final int decodedPduLength = NETWORK_PDU.length - NET_MIC_LENGTH;
+        final int expected = getArraySize(decodedPduLength) + getArraySize(4);
+        assertTrue("Expected the decoder helpers to make at most 2 allocations (" + expected + " bytes) per message but "
+                        + allocatedPerMessage + " bytes were allocated",
+                allocatedPerMessage <= expected);
+    }
+
+    private byte[] decodeNetworkPdu() throws InvalidCipherTextException {
+        NetworkPduDecoder.deobfuscateNetworkHeader(NETWORK_PDU, mCredentials.getPrivacyKey(), IV_INDEX, mPecb, mNetworkHeader, 0);
+        return NetworkPduDecoder.decryptNetworkPdu(NETWORK_PDU, mNetworkHeader, mCredentials.getEncryptionKey(), NETWORK_NONCE, NET_MIC_LENGTH);
+    }
+
+    private byte[] decodeStatusParameters() throws InvalidCipherTextException {
+        final byte[] pdu = decodeNetworkPdu();
+        final int offset = NetworkPduDecoder.UNSEGMENTED_UPPER_TRANSPORT_PDU_OFFSET;
+        final int length = NetworkPduDecoder.decryptUpperTransportPdu(DEVICE_KEY, DEVICE_NONCE, TRANS_MIC_LENGTH, pdu, offset, pdu.length - offset);
+        final int opCodeLength = NetworkPduDecoder.getOpCodeLength(pdu, offset);
+        return Arrays.copyOfRange(pdu, offset + opCodeLength, offset + length);
+    }
+
+    private static int getArraySize(final int length) {
+        return 24 + ((length + 7) & ~7);
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner.transport;
+
+import org.junit.Test;
+
+import no.nordicsemi.android.meshprovisioner.opcodes.ConfigMessageOpCodes;
+import no.nordicsemi.android.meshprovisioner.utils.MeshParserUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the opcode registry used to decode received access messages.
+ */
+public class OpCodeRegistryTests {
+
+    private static final MeshMessageDecoder DECODER = message -> null;
+
+    @Test
+    public void library_opcodes_areRegistered() {
+        final OpCodeRegistry registry = new OpCodeRegistry();
+        assertNotNull(registry.get(ConfigMessageOpCodes.CONFIG_APPKEY_STATUS));
+        assertTrue(registry.isLibraryDefined(ConfigMessageOpCodes.CONFIG_COMPOSITION_DATA_STATUS));
+        assertNull(registry.get(ConfigMessageOpCodes.CONFIG_APPKEY_ADD));
+        assertFalse(registry.isLibraryDefined(0x8201));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void library_opcodes_canNotBeReplaced() {
+        new OpCodeRegistry().register(ConfigMessageOpCodes.CONFIG_APPKEY_STATUS, DECODER);
+    }
+
+    @Test
+    public void vendor_opcode_matches_receivedOpcode() {
+        final int companyIdentifier = 0x0059;
+        final byte[] accessPdu = MeshParserUtils.createVendorOpCode(0x01, companyIdentifier);
+        assertEquals(OpCodeRegistry.getVendorOpCode(companyIdentifier, 0x01), MeshParserUtils.getOpCode(accessPdu, 0, 3));
+        assertEquals(0xC15900, OpCodeRegistry.getVendorOpCode(companyIdentifier, 0x01));
+    }
+
+    @Test
+    public void registered_decoders_survive_growth_andRemoval() {
+        final OpCodeRegistry registry = new OpCodeRegistry();
+        for (int opCode = 0; opCode < 64; opCode++) {
+            registry.register(OpCodeRegistry.getVendorOpCode(0x0059, opCode), DECODER);
+        }
+        for (int opCode = 0; opCode < 64; opCode += 2) {
+            registry.unregister(OpCodeRegistry.getVendorOpCode(0x0059, opCode));
+        }
+        for (int opCode = 0; opCode < 64; opCode++) {
+            final MeshMessageDecoder decoder = registry.get(OpCodeRegistry.getVendorOpCode(0x0059, opCode));
+            if (opCode % 2 == 0) {
+                assertNull(decoder);
+            } else {
+                assertSame(DECODER, decoder);
+            }
+        }
+        assertTrue(registry.isLibraryDefined(ConfigMessageOpCodes.CONFIG_RELAY_STATUS));
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner.transport;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for reassembling segmented messages from multiple sources concurrently.
+ */
+public class ReassemblyTableTests {
+
+    private static final int SEGMENT_LENGTH = 12;
+    private static final int DST = 0x0001;
+
+    @Test
+    public void reassemble_interleaved_segments_from_different_sources() {
+        final ReassemblyTable table = new ReassemblyTable();
+        final byte[] first = createPayload(30, 0x10);
+        final byte[] second = createPayload(20, 0x40);
+        final ReassemblyTable.Session firstSession = createSession(0x0002, 2);
+        final ReassemblyTable.Session secondSession = createSession(0x0003, 1);
+        table.put(firstSession);
+        table.put(secondSession);
+
+        //Segments are received out of order and interleaved
+        assertTrue(putSegment(table.get(0x0002), first, 2));
+        assertTrue(putSegment(table.get(0x0003), second, 1));
+        assertTrue(putSegment(table.get(0x0002), first, 0));
+        assertFalse(firstSession.isComplete());
+        assertTrue(putSegment(table.get(0x0003), second, 0));
+        assertTrue(secondSession.isComplete());
+        assertTrue(putSegment(table.get(0x0002), first, 1));
+        assertTrue(firstSession.isComplete());
+
+        assertEquals(0x07, firstSession.getBlockAck());
+        assertEquals(0x03, secondSession.getBlockAck());
+        assertArrayEquals(first, Arrays.copyOf(firstSession.getPayload(), firstSession.getPayloadLength()));
+        assertArrayEquals(second, Arrays.copyOf(secondSession.getPayload(), secondSession.getPayloadLength()));
+    }
+
+    @Test
+    public void put_duplicate_or_invalid_segments_isIgnored() {
+        final ReassemblyTable.Session session = createSession(0x0002, 1);
+        final byte[] payload = createPayload(16, 0);
+        assertTrue(putSegment(session, payload, 0));
+        assertFalse(putSegment(session, payload, 0));
+        //A segment with a different SegN does not belong to this message
+        assertFalse(session.putSegment(1, 2, null, payload, SEGMENT_LENGTH, 4));
+        //Only the last segment may be shorter than the maximum segment length
+        assertFalse(session.putSegment(0, 1, null, payload, 0, 4));
+        assertEquals(0x01, session.getBlockAck());
+    }
+
+    @Test
+    public void evict_least_recently_used_session() {
+        final ReassemblyTable table = new ReassemblyTable(2);
+        final ReassemblyTable.Session first = createSession(0x0002, 1);
+        final ReassemblyTable.Session second = createSession(0x0003, 1);
+        table.put(first);
+        table.put(second);
+        assertTrue(table.isFull());
+
+        //Accessing the first session makes the second one the least recently used
+        assertSame(first, table.get(0x0002));
+        assertSame(second, table.evictLeastRecentlyUsed());
+        assertNull(table.get(0x0003));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    public void reduce_max_sessions_returns_evicted_sessions() {
+        final ReassemblyTable table = new ReassemblyTable(3);
+        table.put(createSession(0x0002, 1));
+        table.put(createSession(0x0003, 1));
+        table.put(createSession(0x0004, 1));
+        table.get(0x0002);
+
+        final ReassemblyTable.Session[] evicted = table.setMaxSessions(1);
+        assertEquals(2, evicted.length);
+        assertEquals(1, table.getMaxSessions());
+        assertEquals(1, table.size());
+        assertTrue(table.get(0x0002) != null);
+    }
+
+    private static ReassemblyTable.Session createSession(final int src, final int segN) {
+        return new ReassemblyTable.Session(src, DST, src << 16, 0, segN, 0, false, 5, SEGMENT_LENGTH);
+    }
+
+    private static boolean putSegment(final ReassemblyTable.Session session, final byte[] payload, final int segO) {
+        final int offset = segO * SEGMENT_LENGTH;
+        final int length = Math.min(SEGMENT_LENGTH, payload.length - offset);
+        return session.putSegment(segO, session.segN, null, payload, offset, length);
+    }
+
+    private static byte[] createPayload(final int length, final int seed) {
+        final byte[] payload = new byte[length];
+        for (int i = 0; i < length; i++) {
+            payload[i] = (byte) (seed + i);
+        }
+        return payload;
+    }
+}
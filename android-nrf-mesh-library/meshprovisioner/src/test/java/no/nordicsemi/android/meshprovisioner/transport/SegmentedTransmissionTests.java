@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner.transport;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for tracking the acknowledgements of outgoing segmented messages.
+ */
+public class SegmentedTransmissionTests {
+
+    @Test
+    public void segment_transmission_interval_isCorrect() {
+        assertEquals(200, SegmentedTransmission.getSegmentTransmissionInterval(0));
+        assertEquals(450, SegmentedTransmission.getSegmentTransmissionInterval(5));
+    }
+
+    @Test
+    public void acknowledge_clears_only_acknowledged_segments() {
+        final SegmentedTransmission transmission = new SegmentedTransmission(new AccessMessage(), 0x0002, 0, 3, 2);
+        assertEquals(0x0F, transmission.getUnacknowledgedSegments());
+
+        assertTrue(transmission.acknowledge(0x05));
+        assertEquals(0x0A, transmission.getUnacknowledgedSegments());
+        //An acknowledgement without new segments is not progress
+        assertFalse(transmission.acknowledge(0x05));
+        assertTrue(transmission.acknowledge(0x0F));
+        assertTrue(transmission.isAcknowledged());
+    }
+
+    @Test
+    public void retransmissions_are_bounded_without_progress() {
+        final SegmentedTransmission transmission = new SegmentedTransmission(new AccessMessage(), 0x0002, 0, 1, 2);
+        assertTrue(transmission.consumeRetransmission());
+        assertTrue(transmission.consumeRetransmission());
+        assertFalse(transmission.consumeRetransmission());
+
+        //Progress restores the retransmission limit
+        assertTrue(transmission.acknowledge(0x01));
+        assertTrue(transmission.consumeRetransmission());
+    }
+}
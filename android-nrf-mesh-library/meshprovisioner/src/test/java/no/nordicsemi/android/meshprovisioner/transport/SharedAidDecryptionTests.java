@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner.transport;
+
+import org.junit.Test;
+import org.spongycastle.crypto.InvalidCipherTextException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import no.nordicsemi.android.meshprovisioner.utils.CryptoContext;
+import no.nordicsemi.android.meshprovisioner.utils.MeshParserUtils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for decrypting messages against the application keys sharing the AID of the message.
+ */
+public class SharedAidDecryptionTests {
+
+    private static final byte[] NONCE = MeshParserUtils.toByteArray("010007080d1234973612345677");
+    private static final byte[] ACCESS_PDU = MeshParserUtils.toByteArray("d50a0048656c6c6f");
+    private static final int TRANS_MIC_LENGTH = 4;
+    private static final int OFFSET = 3;
+
+    @Test
+    public void decrypt_triesNextKeySharingTheAid() throws InvalidCipherTextException {
+        final List<byte[]> keys = findApplicationKeysWithSameAid(3);
+        //Encrypted with the last candidate, so the pdu must be restored after each of the first two fail the mic
+        final AccessMessage message = createMessage(keys.get(2));
+        final byte[] buffer = message.getUpperTransportPduBuffer();
+        final byte[] prefix = Arrays.copyOf(buffer, OFFSET);
+
+        UpperTransportLayer.decryptApplicationPdu(message, keys, Arrays.asList((byte[]) null), NONCE, TRANS_MIC_LENGTH);
+        assertArrayEquals(ACCESS_PDU, message.getAccessPdu());
+        assertArrayEquals(prefix, Arrays.copyOf(buffer, OFFSET));
+        assertNull(message.getLabelUuid());
+    }
+
+    @Test
+    public void decrypt_restoresEncryptedPduBetweenCandidates() {
+        final List<byte[]> keys = findApplicationKeysWithSameAid(2);
+        final AccessMessage message = createMessage(keys.get(0));
+        final byte[] encrypted = Arrays.copyOfRange(message.getUpperTransportPduBuffer(), OFFSET, OFFSET + message.getUpperTransportPduLength());
+
+        //Neither candidate is the key the pdu was encrypted with, the second attempt must see the same encrypted pdu as the first
+        final List<byte[]> candidates = Arrays.asList(keys.get(1), keys.get(1));
+        try {
+            UpperTransportLayer.decryptApplicationPdu(message, candidates, Arrays.asList((byte[]) null), NONCE, TRANS_MIC_LENGTH);
+            fail("The pdu must not be authenticated with a different application key");
+        } catch (InvalidCipherTextException expected) {
+            // Expected
+        }
+
+        //A failed attempt followed by the right key decrypts, which requires the encrypted pdu to have been restored
+        final AccessMessage retry = new AccessMessage();
+        retry.setUpperTransportPdu(encrypted, 0, encrypted.length);
+        try {
+            UpperTransportLayer.decryptApplicationPdu(retry, Arrays.asList(keys.get(1), keys.get(0)), Arrays.asList((byte[]) null), NONCE,
+                    TRANS_MIC_LENGTH);
+        } catch (InvalidCipherTextException ex) {
+            fail("The pdu must be authenticated with the key it was encrypted with");
+        }
+        assertArrayEquals(ACCESS_PDU, retry.getAccessPdu());
+    }
+
+    private static AccessMessage createMessage(final byte[] key) {
+        final byte[] buffer = new byte[OFFSET + ACCESS_PDU.length + TRANS_MIC_LENGTH];
+        Arrays.fill(buffer, 0, OFFSET, (byte) 0x5A);
+        final int length = CryptoContext.get().encryptCCM(key, NONCE, TRANS_MIC_LENGTH, null,
+                ACCESS_PDU, 0, ACCESS_PDU.length, buffer, OFFSET);
+        final AccessMessage message = new AccessMessage();
+        message.setUpperTransportPdu(buffer, OFFSET, length);
+        return message;
+    }
+
+    /**
+     * Returns different application keys with the same AID, the 6-bit AID makes a collision likely within a few keys
+     */
+    private static List<byte[]> findApplicationKeysWithSameAid(final int count) {
+        final List<List<byte[]>> keysByAid = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            keysByAid.add(new ArrayList<>());
+        }
+        for (int i = 0; i < 0x10000; i++) {
+            final byte[] key = MeshParserUtils.toByteArray(String.format("63964771734fbd76e3b40519d1d9%04x", i));
+            final int aid = new ApplicationKey(0, key).getAid();
+            final List<byte[]> keys = keysByAid.get(aid);
+            keys.add(key);
+            if (keys.size() == count) {
+                assertEquals(aid, new ApplicationKey(1, keys.get(0)).getAid());
+                assertNotEquals(MeshParserUtils.bytesToHex(keys.get(0), false), MeshParserUtils.bytesToHex(keys.get(1), false));
+                return keys;
+            }
+        }
+        throw new AssertionError("No application keys sharing an AID found");
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner.transport;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import no.nordicsemi.android.meshprovisioner.opcodes.ConfigMessageOpCodes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for correlating responses to the transactions in flight and for the transaction window.
+ */
+public class TransactionTableTests {
+
+    private static final int SRC = 0x0001;
+    private static final int NODE_1 = 0x0010;
+    private static final int NODE_2 = 0x0020;
+    private static final int COMPANY_IDENTIFIER = 0x0059;
+
+    private final List<MeshMessage> mSent = new ArrayList<>();
+    private final List<MeshMessage> mTimedOut = new ArrayList<>();
+    private TransactionTable mTable;
+
+    @Before
+    public void setUp() {
+        mTable = new TransactionTable(new TransactionTable.TransactionCallbacks() {
+            @Override
+            public void sendMeshMessage(final int src, final int dst, @NonNull final MeshMessage meshMessage) {
+                mSent.add(meshMessage);
+            }
+
+            @Override
+            public void onTransactionTimeout(final int dst, @NonNull final MeshMessage meshMessage) {
+                mTimedOut.add(meshMessage);
+            }
+        });
+    }
+
+    @Test
+    public void complete_matchesSourceAndResponseOpCode() {
+        final MeshTransaction compositionDataGet = mTable.send(SRC, NODE_1, new ConfigCompositionDataGet(), null);
+        final MeshTransaction relayGet = mTable.send(SRC, NODE_1, new ConfigRelayGet(), null);
+        assertEquals(2, mTable.getInFlightTransactionCount());
+
+        assertNull(mTable.complete(NODE_2, ConfigMessageOpCodes.CONFIG_RELAY_STATUS));
+        assertNull(mTable.complete(NODE_1, ConfigMessageOpCodes.CONFIG_GATT_PROXY_STATUS));
+        assertSame(relayGet, mTable.complete(NODE_1, ConfigMessageOpCodes.CONFIG_RELAY_STATUS));
+        assertSame(compositionDataGet, mTable.complete(NODE_1, ConfigMessageOpCodes.CONFIG_COMPOSITION_DATA_STATUS));
+        assertEquals(0, mTable.getInFlightTransactionCount());
+
+        // A late duplicate of the response does not complete anything
+        assertNull(mTable.complete(NODE_1, ConfigMessageOpCodes.CONFIG_RELAY_STATUS));
+    }
+
+    @Test
+    public void complete_vendorResponseMatchedWithOpCodeBitsMasked() {
+        final VendorModelMessageAcked request = new VendorModelMessageAcked(new byte[16], 0x0001, COMPANY_IDENTIFIER, 0x01, new byte[0]);
+        final MeshTransaction transaction = mTable.send(SRC, NODE_1, request, null);
+
+        final int otherCompanyStatus = OpCodeRegistry.getVendorOpCode(COMPANY_IDENTIFIER + 1, 0x02);
+        assertNull(mTable.complete(NODE_1, otherCompanyStatus));
+
+        final int status = OpCodeRegistry.getVendorOpCode(COMPANY_IDENTIFIER, 0x02);
+        assertSame(transaction, mTable.complete(NODE_1, status));
+    }
+
+    @Test
+    public void send_sameResponseFromSameNodeQueuedUntilCompleted() {
+        mTable.send(SRC, NODE_1, new ConfigRelayGet(), null);
+        mTable.send(SRC, NODE_1, new ConfigRelayGet(), null);
+        mTable.send(SRC, NODE_2, new ConfigRelayGet(), null);
+        assertEquals(2, mSent.size());
+        assertEquals(2, mTable.getInFlightTransactionCount());
+        assertEquals(1, mTable.getPendingTransactionCount());
+
+        mTable.complete(NODE_1, ConfigMessageOpCodes.CONFIG_RELAY_STATUS);
+        // The queued message is released only after the response has been delivered
+        assertEquals(2, mSent.size());
+        mTable.sendPendingTransactions();
+        assertEquals(3, mSent.size());
+        assertEquals(0, mTable.getPendingTransactionCount());
+    }
+
+    @Test
+    public void send_admittedUpToTransactionWindow() {
+        mTable.setMaxInFlightTransactions(2);
+        final MeshTransaction first = mTable.send(SRC, NODE_1, new ConfigRelayGet(), null);
+        final MeshTransaction second = mTable.send(SRC, NODE_1, new ConfigCompositionDataGet(), null);
+        final MeshTransaction third = mTable.send(SRC, NODE_2, new ConfigRelayGet(), null);
+        assertEquals(2, mSent.size());
+        assertTrue(first.isInFlight());
+        assertTrue(second.isInFlight());
+        assertTrue(!third.isInFlight());
+
+        mTable.setMaxInFlightTransactions(3);
+        assertEquals(3, mSent.size());
+        assertTrue(third.isInFlight());
+    }
+
+    @Test
+    public void send_messageToGroupNotTracked() {
+        assertNull(mTable.send(SRC, 0xC000, new ConfigRelayGet(), null));
+        assertNull(mTable.send(SRC, 0xC000, new ConfigRelayGet(), null));
+        assertEquals(0, mTable.getInFlightTransactionCount());
+        assertEquals(2, mSent.size());
+    }
+
+    @Test
+    public void timeout_failsTransactionAndSendsNext() {
+        final MeshTransaction first = mTable.send(SRC, NODE_1, new ConfigRelayGet(), null);
+        final MeshTransaction second = mTable.send(SRC, NODE_1, new ConfigRelayGet(), null);
+        assertEquals(1, mSent.size());
+
+        mTable.onTransactionTimeout(first);
+        assertTrue(first.isDone());
+        assertEquals(1, mTimedOut.size());
+        assertSame(first.getMeshMessage(), mTimedOut.get(0));
+        assertTrue(second.isInFlight());
+        assertEquals(2, mSent.size());
+
+        // A timeout of a transaction that is no longer in flight is ignored
+        mTable.onTransactionTimeout(first);
+        assertEquals(1, mTimedOut.size());
+        assertTrue(second.isInFlight());
+    }
+
+    @Test
+    public void cancel_releasesTransactionWindow() {
+        mTable.setMaxInFlightTransactions(1);
+        final MeshTransaction first = mTable.send(SRC, NODE_1, new ConfigRelayGet(), null);
+        final MeshTransaction second = mTable.send(SRC, NODE_2, new ConfigRelayGet(), null);
+
+        first.cancel();
+        assertTrue(first.isDone());
+        assertTrue(second.isInFlight());
+        assertNull(mTable.complete(NODE_1, ConfigMessageOpCodes.CONFIG_RELAY_STATUS));
+    }
+}
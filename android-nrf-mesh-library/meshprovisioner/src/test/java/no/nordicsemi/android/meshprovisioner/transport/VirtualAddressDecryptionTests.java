@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner.transport;
+
+import org.junit.Test;
+import org.spongycastle.crypto.InvalidCipherTextException;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import no.nordicsemi.android.meshprovisioner.utils.CryptoContext;
+import no.nordicsemi.android.meshprovisioner.utils.MeshAddress;
+import no.nordicsemi.android.meshprovisioner.utils.MeshParserUtils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for decrypting messages sent to a virtual address against the Label UUIDs sharing the address.
+ */
+public class VirtualAddressDecryptionTests {
+
+    private static final byte[] APP_KEY = MeshParserUtils.toByteArray("63964771734fbd76e3b40519d1d94a48");
+    private static final byte[] OTHER_APP_KEY = MeshParserUtils.toByteArray("3216d1509884b533248541792b877f98");
+    private static final byte[] NONCE = MeshParserUtils.toByteArray("010007080d1234973612345677");
+    private static final byte[] ACCESS_PDU = MeshParserUtils.toByteArray("d50a0048656c6c6f");
+    private static final int TRANS_MIC_LENGTH = 4;
+    private static final int OFFSET = 3;
+
+    @Test
+    public void decrypt_matchesLabelUuidSharingVirtualAddress() throws InvalidCipherTextException {
+        final byte[][] labels = findLabelUuidsWithSameVirtualAddress();
+        final AccessMessage message = createMessage(labels[1]);
+
+        final List<byte[]> candidates = Arrays.asList(labels[0], labels[1]);
+        UpperTransportLayer.decryptApplicationPdu(message, Arrays.asList(OTHER_APP_KEY, APP_KEY), candidates, NONCE, TRANS_MIC_LENGTH);
+        assertArrayEquals(ACCESS_PDU, message.getAccessPdu());
+        assertSame(labels[1], message.getLabelUuid());
+    }
+
+    @Test
+    public void decrypt_failsIfNoCandidateMatches() {
+        final byte[][] labels = findLabelUuidsWithSameVirtualAddress();
+        final AccessMessage message = createMessage(labels[1]);
+        try {
+            UpperTransportLayer.decryptApplicationPdu(message, Collections.singletonList(APP_KEY),
+                    Collections.singletonList(labels[0]), NONCE, TRANS_MIC_LENGTH);
+            fail("The pdu must not be authenticated with a different Label UUID");
+        } catch (InvalidCipherTextException expected) {
+            // Expected
+        }
+    }
+
+    private static AccessMessage createMessage(final byte[] labelUuid) {
+        final byte[] buffer = new byte[OFFSET + ACCESS_PDU.length + TRANS_MIC_LENGTH];
+        final int length = CryptoContext.get().encryptCCM(APP_KEY, NONCE, TRANS_MIC_LENGTH, labelUuid,
+                ACCESS_PDU, 0, ACCESS_PDU.length, buffer, OFFSET);
+        final AccessMessage message = new AccessMessage();
+        message.setUpperTransportPdu(buffer, OFFSET, length);
+        return message;
+    }
+
+    /**
+     * Returns two different Label UUIDs whose virtual addresses collide, the 14-bit hash makes a collision likely within a few hundred labels
+     */
+    private static byte[][] findLabelUuidsWithSameVirtualAddress() {
+        final int[] addresses = new int[0x4000];
+        for (int i = 1; i < 0x10000; i++) {
+            final UUID label = new UUID(0x0073e7e4d8b9440fL, i);
+            final int address = MeshAddress.generateVirtualAddress(label);
+            final int hash = address & 0x3FFF;
+            if (addresses[hash] != 0) {
+                final UUID other = new UUID(0x0073e7e4d8b9440fL, addresses[hash]);
+                assertEquals(address, MeshAddress.generateVirtualAddress(other));
+                assertNotEquals(label, other);
+                return new byte[][]{MeshParserUtils.uuidToBytes(other), MeshParserUtils.uuidToBytes(label)};
+            }
+            addresses[hash] = i;
+        }
+        throw new AssertionError("No colliding Label UUIDs found");
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner.utils;
+
+import org.junit.Test;
+import org.spongycastle.crypto.InvalidCipherTextException;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the AES-CCM, AES-CMAC and AES-ECB engines of the crypto context, using the sample data of the Mesh Profile specification,
+ * RFC 4493 and FIPS-197.
+ */
+public class CryptoContextTests {
+
+    // Mesh Profile 8.3.1, message #1: network layer, EncryptionKey derived from the network key
+    private static final byte[] NETWORK_ENCRYPTION_KEY = MeshParserUtils.toByteArray("0953fa93e7caac9638f58820220a398e");
+    private static final byte[] NETWORK_NONCE = MeshParserUtils.toByteArray("00800000011201000012345678");
+    private static final byte[] NETWORK_PLAIN_TEXT = MeshParserUtils.toByteArray("fffd034b50057e400000010000");
+    private static final byte[] NETWORK_CIPHER_TEXT = MeshParserUtils.toByteArray("b5e5bfdacbaf6cb7fb6bff871f035444ce83a670df");
+    private static final int NET_MIC_LENGTH = 8;
+
+    // Mesh Profile 8.3.6, message #6: upper transport access pdu encrypted with the device key
+    private static final byte[] DEVICE_KEY = MeshParserUtils.toByteArray("9d6dd0e96eb25dc19a40ed9914f8f03f");
+    private static final byte[] DEVICE_NONCE = MeshParserUtils.toByteArray("02003129ab0003120112345678");
+    private static final byte[] ACCESS_PAYLOAD = MeshParserUtils.toByteArray("0056341263964771734fbd76e3b40519d1d94a48");
+    private static final byte[] UPPER_TRANSPORT_PDU = MeshParserUtils.toByteArray("ee9dddfd2169326d23f3afdfcfdc18c52fdef772e0e17308");
+    private static final int TRANS_MIC_LENGTH = 4;
+
+    // Mesh Profile 8.3.22, message #22: access message sent to a virtual address, the Label UUID is the associated data
+    private static final byte[] APPLICATION_KEY = MeshParserUtils.toByteArray("63964771734fbd76e3b40519d1d94a48");
+    private static final byte[] APPLICATION_NONCE = MeshParserUtils.toByteArray("010007080b1234b52912345677");
+    private static final byte[] LABEL_UUID = MeshParserUtils.toByteArray("0073e7e4d8b9440faf8415df4c56c0e1");
+    private static final byte[] VIRTUAL_ACCESS_PAYLOAD = MeshParserUtils.toByteArray("d50a0048656c6c6f");
+    private static final byte[] VIRTUAL_UPPER_TRANSPORT_PDU = MeshParserUtils.toByteArray("3871b904d431526316ca48a0");
+
+    // RFC 4493, examples 1 and 2
+    private static final byte[] CMAC_KEY = MeshParserUtils.toByteArray("2b7e151628aed2a6abf7158809cf4f3c");
+    private static final byte[] CMAC_MESSAGE = MeshParserUtils.toByteArray("6bc1bee22e409f96e93d7e117393172a");
+    private static final byte[] CMAC_EMPTY_MESSAGE_MAC = MeshParserUtils.toByteArray("bb1d6929e95937287fa37d129b756746");
+    private static final byte[] CMAC_MESSAGE_MAC = MeshParserUtils.toByteArray("070a16b46b4d4144f79bdd9dd04a287c");
+
+    // FIPS-197, appendix C.1
+    private static final byte[] ECB_KEY = MeshParserUtils.toByteArray("000102030405060708090a0b0c0d0e0f");
+    private static final byte[] ECB_PLAIN_TEXT = MeshParserUtils.toByteArray("00112233445566778899aabbccddeeff");
+    private static final byte[] ECB_CIPHER_TEXT = MeshParserUtils.toByteArray("69c4e0d86a7b0430d8cdb78070b4c55a");
+
+    @Test
+    public void ccm_networkPdu_matchesSampleData() throws InvalidCipherTextException {
+        assertArrayEquals(NETWORK_CIPHER_TEXT, SecureUtils.encryptCCM(NETWORK_PLAIN_TEXT, NETWORK_ENCRYPTION_KEY, NETWORK_NONCE, NET_MIC_LENGTH));
+        assertArrayEquals(NETWORK_PLAIN_TEXT, SecureUtils.decryptCCM(NETWORK_CIPHER_TEXT, NETWORK_ENCRYPTION_KEY, NETWORK_NONCE, NET_MIC_LENGTH));
+    }
+
+    @Test
+    public void ccm_upperTransportPdu_matchesSampleData() throws InvalidCipherTextException {
+        assertArrayEquals(UPPER_TRANSPORT_PDU, SecureUtils.encryptCCM(ACCESS_PAYLOAD, DEVICE_KEY, DEVICE_NONCE, TRANS_MIC_LENGTH));
+        assertArrayEquals(ACCESS_PAYLOAD, SecureUtils.decryptCCM(UPPER_TRANSPORT_PDU, DEVICE_KEY, DEVICE_NONCE, TRANS_MIC_LENGTH));
+    }
+
+    @Test
+    public void ccm_withAssociatedData_matchesSampleData() throws InvalidCipherTextException {
+        final CryptoContext context = CryptoContext.get();
+        final byte[] cipherText = new byte[VIRTUAL_UPPER_TRANSPORT_PDU.length];
+        assertEquals(cipherText.length, context.encryptCCM(APPLICATION_KEY, APPLICATION_NONCE, TRANS_MIC_LENGTH, LABEL_UUID,
+                VIRTUAL_ACCESS_PAYLOAD, 0, VIRTUAL_ACCESS_PAYLOAD.length, cipherText, 0));
+        assertArrayEquals(VIRTUAL_UPPER_TRANSPORT_PDU, cipherText);
+
+        final byte[] plainText = new byte[VIRTUAL_ACCESS_PAYLOAD.length];
+        assertEquals(plainText.length, context.decryptCCM(APPLICATION_KEY, APPLICATION_NONCE, TRANS_MIC_LENGTH, LABEL_UUID,
+                cipherText, 0, cipherText.length, plainText, 0));
+        assertArrayEquals(VIRTUAL_ACCESS_PAYLOAD, plainText);
+    }
+
+    @Test
+    public void ccm_withWrongAssociatedData_failsMicCheck() {
+        final byte[] labelUuid = LABEL_UUID.clone();
+        labelUuid[15] ^= 0x01;
+        try {
+            CryptoContext.get().decryptCCM(APPLICATION_KEY, APPLICATION_NONCE, TRANS_MIC_LENGTH, labelUuid,
+                    VIRTUAL_UPPER_TRANSPORT_PDU, 0, VIRTUAL_UPPER_TRANSPORT_PDU.length, new byte[VIRTUAL_ACCESS_PAYLOAD.length], 0);
+            fail("Decrypting with the wrong Label UUID must fail");
+        } catch (InvalidCipherTextException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void ccm_tamperedCipherText_failsMicCheck() {
+        for (int i = 0; i < NETWORK_CIPHER_TEXT.length; i++) {
+            final byte[] cipherText = NETWORK_CIPHER_TEXT.clone();
+            cipherText[i] ^= 0x80;
+            try {
+                SecureUtils.decryptCCM(cipherText, NETWORK_ENCRYPTION_KEY, NETWORK_NONCE, NET_MIC_LENGTH);
+                fail("Tampered byte " + i + " was not detected");
+            } catch (InvalidCipherTextException expected) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void ccm_wrongKey_failsMicCheck() {
+        try {
+            SecureUtils.decryptCCM(UPPER_TRANSPORT_PDU, APPLICATION_KEY, DEVICE_NONCE, TRANS_MIC_LENGTH);
+            fail("Decrypting with the wrong key must fail");
+        } catch (InvalidCipherTextException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void ccm_dataShorterThanMic_isRejected() {
+        try {
+            SecureUtils.decryptCCM(new byte[NET_MIC_LENGTH - 1], NETWORK_ENCRYPTION_KEY, NETWORK_NONCE, NET_MIC_LENGTH);
+            fail("Data shorter than the mic must be rejected");
+        } catch (InvalidCipherTextException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void ccm_offsetOverloads_onlyTouchTheGivenRegion() throws InvalidCipherTextException {
+        final int offset = 9;
+        final byte[] pdu = new byte[offset + NETWORK_CIPHER_TEXT.length + 3];
+        Arrays.fill(pdu, (byte) 0xA5);
+        System.arraycopy(NETWORK_PLAIN_TEXT, 0, pdu, offset, NETWORK_PLAIN_TEXT.length);
+
+        // Encrypted in place, as the network layer does
+        assertEquals(NETWORK_CIPHER_TEXT.length, SecureUtils.encryptCCM(NETWORK_ENCRYPTION_KEY, NETWORK_NONCE, NET_MIC_LENGTH,
+                pdu, offset, NETWORK_PLAIN_TEXT.length, pdu, offset));
+        assertArrayEquals(NETWORK_CIPHER_TEXT, Arrays.copyOfRange(pdu, offset, offset + NETWORK_CIPHER_TEXT.length));
+        assertUnchanged(pdu, 0, offset);
+        assertUnchanged(pdu, offset + NETWORK_CIPHER_TEXT.length, pdu.length);
+
+        final byte[] out = new byte[2 + NETWORK_PLAIN_TEXT.length];
+        assertEquals(NETWORK_PLAIN_TEXT.length, SecureUtils.decryptCCM(NETWORK_ENCRYPTION_KEY, NETWORK_NONCE, NET_MIC_LENGTH,
+                pdu, offset, NETWORK_CIPHER_TEXT.length, out, 2));
+        assertArrayEquals(NETWORK_PLAIN_TEXT, Arrays.copyOfRange(out, 2, out.length));
+
+        // Decrypted in place into an earlier offset of the same buffer
+        assertEquals(NETWORK_PLAIN_TEXT.length, SecureUtils.decryptCCM(NETWORK_ENCRYPTION_KEY, NETWORK_NONCE, NET_MIC_LENGTH,
+                pdu, offset, NETWORK_CIPHER_TEXT.length, pdu, offset - 1));
+        assertArrayEquals(NETWORK_PLAIN_TEXT, Arrays.copyOfRange(pdu, offset - 1, offset - 1 + NETWORK_PLAIN_TEXT.length));
+    }
+
+    @Test
+    public void cmac_matchesRfc4493() {
+        assertArrayEquals(CMAC_EMPTY_MESSAGE_MAC, SecureUtils.calculateCMAC(new byte[0], CMAC_KEY));
+        assertArrayEquals(CMAC_MESSAGE_MAC, SecureUtils.calculateCMAC(CMAC_MESSAGE, CMAC_KEY));
+
+        final byte[] data = new byte[4 + CMAC_MESSAGE.length];
+        System.arraycopy(CMAC_MESSAGE, 0, data, 4, CMAC_MESSAGE.length);
+        final byte[] out = new byte[3 + 16];
+        // The engine is reused for the same key, so a second mac must not depend on the first one
+        SecureUtils.calculateCMAC(CMAC_KEY, data, 4, CMAC_MESSAGE.length, out, 3);
+        SecureUtils.calculateCMAC(CMAC_KEY, data, 4, CMAC_MESSAGE.length, out, 3);
+        assertArrayEquals(CMAC_MESSAGE_MAC, Arrays.copyOfRange(out, 3, out.length));
+        SecureUtils.calculateCMAC(CMAC_KEY, data, 0, 0, out, 3);
+        assertArrayEquals(CMAC_EMPTY_MESSAGE_MAC, Arrays.copyOfRange(out, 3, out.length));
+    }
+
+    @Test
+    public void ecb_matchesFips197() {
+        assertArrayEquals(ECB_CIPHER_TEXT, SecureUtils.encryptWithAES(ECB_PLAIN_TEXT, ECB_KEY));
+
+        final byte[] data = new byte[5 + ECB_PLAIN_TEXT.length];
+        System.arraycopy(ECB_PLAIN_TEXT, 0, data, 5, ECB_PLAIN_TEXT.length);
+        final byte[] out = new byte[1 + 16];
+        SecureUtils.encryptWithAES(ECB_KEY, data, 5, out, 1);
+        assertArrayEquals(ECB_CIPHER_TEXT, Arrays.copyOfRange(out, 1, out.length));
+    }
+
+    @Test
+    public void keyCache_evictsLeastRecentlyUsedKey() throws InvalidCipherTextException {
+        final CryptoContext context = CryptoContext.get();
+        final byte[] block = new byte[16];
+        final byte[][] keys = new byte[CryptoContext.KEY_CACHE_SIZE + 1][];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = NETWORK_ENCRYPTION_KEY.clone();
+            keys[i][0] = (byte) (0x80 + i);
+        }
+        for (int i = 0; i < CryptoContext.KEY_CACHE_SIZE; i++) {
+            context.encryptBlock(keys[i], block, 0, block, 0);
+        }
+        // Using the first key again makes the second key the least recently used one
+        context.encryptBlock(keys[0], block, 0, block, 0);
+        context.encryptBlock(keys[CryptoContext.KEY_CACHE_SIZE], block, 0, block, 0);
+
+        assertTrue(context.isKeyScheduleCached(keys[0]));
+        assertFalse(context.isKeyScheduleCached(keys[1]));
+        for (int i = 2; i < keys.length; i++) {
+            assertTrue(context.isKeyScheduleCached(keys[i]));
+        }
+
+        // An evicted key is expanded again and still produces the right result
+        assertFalse(context.isKeyScheduleCached(NETWORK_ENCRYPTION_KEY));
+        assertArrayEquals(NETWORK_PLAIN_TEXT, SecureUtils.decryptCCM(NETWORK_CIPHER_TEXT, NETWORK_ENCRYPTION_KEY, NETWORK_NONCE, NET_MIC_LENGTH));
+        assertTrue(context.isKeyScheduleCached(NETWORK_ENCRYPTION_KEY));
+        assertFalse(context.isKeyScheduleCached(keys[2]));
+    }
+
+    @Test
+    public void keyCache_copiesTheKey() {
+        final CryptoContext context = CryptoContext.get();
+        final byte[] key = ECB_KEY.clone();
+        final byte[] out = new byte[16];
+        context.encryptBlock(key, ECB_PLAIN_TEXT, 0, out, 0);
+        // Changing the caller's key array must neither change nor reuse the cached key schedule
+        key[0] ^= 0x01;
+        context.encryptBlock(ECB_KEY, ECB_PLAIN_TEXT, 0, out, 0);
+        assertArrayEquals(ECB_CIPHER_TEXT, out);
+        context.encryptBlock(key, ECB_PLAIN_TEXT, 0, out, 0);
+        assertFalse(Arrays.equals(ECB_CIPHER_TEXT, out));
+    }
+
+    private static void assertUnchanged(final byte[] data, final int from, final int to) {
+        for (int i = from; i < to; i++) {
+            assertEquals("Byte " + i + " was overwritten", (byte) 0xA5, data[i]);
+        }
+    }
+}
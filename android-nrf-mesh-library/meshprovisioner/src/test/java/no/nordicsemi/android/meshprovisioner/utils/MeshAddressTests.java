@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner.utils;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+import no.nordicsemi.android.meshprovisioner.Group;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for virtual address generation.
+ */
+public class MeshAddressTests {
+
+    private static final UUID LABEL_UUID = UUID.fromString("0073e7e4-d8b9-440f-af84-15df4c56c0e1");
+
+    @Test
+    public void virtual_address_matches_sampleData() {
+        assertEquals(0xB529, MeshAddress.generateVirtualAddress(LABEL_UUID));
+        assertEquals(0xB529, SecureUtils.calculateVirtualAddress(MeshParserUtils.uuidToBytes(LABEL_UUID)));
+    }
+
+    @Test
+    public void virtual_address_range_isValidated() {
+        assertTrue(MeshAddress.isVirtualAddress(0x8000));
+        assertTrue(MeshAddress.isVirtualAddress(0xBFFF));
+        assertFalse(MeshAddress.isVirtualAddress(0x7FFF));
+        assertFalse(MeshAddress.isVirtualAddress(0xC000));
+        //Big endian byte order
+        assertTrue(MeshAddress.isVirtualAddress(new byte[]{(byte) 0xB5, 0x29}));
+        assertFalse(MeshAddress.isVirtualAddress(new byte[]{(byte) 0x29, (byte) 0xB5}));
+        assertFalse(MeshAddress.isVirtualAddress(new byte[]{(byte) 0xC0, 0x00}));
+    }
+
+    @Test
+    public void group_clearingAddressLabelClearsVirtualAddress() {
+        final Group group = new Group(LABEL_UUID, "mesh");
+        assertEquals(0xB529, group.getGroupAddress());
+
+        group.setAddressLabel(null);
+        assertEquals(null, group.getAddressLabel());
+        assertEquals(MeshAddress.UNASSIGNED_ADDRESS, group.getGroupAddress());
+
+        final Group groupWithGroupAddress = new Group(0xC001, "mesh");
+        groupWithGroupAddress.setAddressLabel(null);
+        assertEquals(0xC001, groupWithGroupAddress.getGroupAddress());
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.meshprovisioner.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the replay protection list.
+ */
+public class ReplayProtectionListTests {
+
+    @Test
+    public void replayed_sequence_numbers_areRejected() {
+        final ReplayProtectionList replayProtectionList = new ReplayProtectionList();
+        assertFalse(replayProtectionList.isReplay(0x0002, 0, 10));
+        replayProtectionList.update(0x0002, 0, 10);
+        assertTrue(replayProtectionList.isReplay(0x0002, 0, 10));
+        assertTrue(replayProtectionList.isReplay(0x0002, 0, 9));
+        assertFalse(replayProtectionList.isReplay(0x0002, 0, 11));
+        assertFalse(replayProtectionList.isReplay(0x0003, 0, 1));
+    }
+
+    @Test
+    public void iv_index_isCompared_beforeSequenceNumber() {
+        final ReplayProtectionList replayProtectionList = new ReplayProtectionList();
+        replayProtectionList.update(0x0002, 1, 100);
+        assertTrue(replayProtectionList.isReplay(0x0002, 0, 200));
+        assertFalse(replayProtectionList.isReplay(0x0002, 2, 0));
+    }
+
+    @Test
+    public void table_grows_andRemoves_entries() {
+        final ReplayProtectionList replayProtectionList = new ReplayProtectionList();
+        for (int src = 1; src <= 500; src++) {
+            replayProtectionList.update(src, 0, src);
+        }
+        assertEquals(500, replayProtectionList.size());
+        for (int src = 1; src <= 500; src += 2) {
+            replayProtectionList.remove(src);
+        }
+        assertEquals(250, replayProtectionList.size());
+        for (int src = 1; src <= 500; src++) {
+            assertEquals(src % 2 == 0, replayProtectionList.isReplay(src, 0, src));
+        }
+    }
+
+    @Test
+    public void seqAuth_isCalculated_fromIvIndexAndSequenceNumber() {
+        assertEquals(0x12345678ABCDEFL, ReplayProtectionList.calculateSeqAuth(0x12345678, 0xABCDEF));
+        assertEquals(0xFFFFFFFF000001L, ReplayProtectionList.calculateSeqAuth(0xFFFFFFFF, 1));
+    }
+
+    @Test
+    public void serialized_list_isRestored() {
+        final ReplayProtectionList replayProtectionList = new ReplayProtectionList();
+        replayProtectionList.update(0x0002, 3, 0x123456);
+        replayProtectionList.setSeqAuth(0x0002, ReplayProtectionList.calculateSeqAuth(3, 0x123450));
+        replayProtectionList.update(0x7FFF, 0, 1);
+
+        final ReplayProtectionList restored = ReplayProtectionList.fromByteArray(replayProtectionList.toByteArray());
+        assertEquals(2, restored.size());
+        assertTrue(restored.isReplay(0x0002, 3, 0x123456));
+        assertFalse(restored.isReplay(0x0002, 3, 0x123457));
+        assertTrue(restored.isReplay(0x7FFF, 0, 1));
+        assertEquals(ReplayProtectionList.calculateSeqAuth(3, 0x123450), restored.getSeqAuth(0x0002));
+        assertEquals(0, ReplayProtectionList.fromByteArray(new byte[]{0x7F}).size());
+    }
+}